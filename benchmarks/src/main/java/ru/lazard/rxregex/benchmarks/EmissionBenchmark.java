@@ -0,0 +1,79 @@
+package ru.lazard.rxregex.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import ru.lazard.rxregex.PatternCache;
+import ru.lazard.rxregex.Regex;
+import ru.lazard.rxregex.ReplacementTemplate;
+import ru.lazard.rxregex.RxRegex;
+
+/**
+ * Cost of one emitted part: raw {@link Regex.Listener} and {@link Regex.PartListener} callbacks
+ * compared with events of {@link RxRegex} Observable and Flowable. Scores are per part.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmissionBenchmark {
+
+    private static final int MATCHES = 2000;
+    /**
+     * Each match is preceded by not empty gap.
+     */
+    private static final int PARTS = MATCHES * 2;
+
+    private String mText;
+    private Pattern mPattern;
+    private ReplacementTemplate mTemplate;
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < MATCHES; i++) builder.append("xxxxxxxb");
+        mText = builder.toString();
+        mPattern = Pattern.compile("b");
+        mTemplate = PatternCache.getDefault().getTemplate(mPattern, "B");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PARTS)
+    public void listener(Blackhole blackhole) {
+        Regex.replace(mText, mPattern, "B", (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) ->
+                blackhole.consume(appendDst));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PARTS)
+    public void partListener(Blackhole blackhole) {
+        Regex.replaceParts(mText, mPattern, mTemplate, part -> blackhole.consume(part.getToDst()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PARTS)
+    public void observable(Blackhole blackhole) {
+        RxRegex.replace(mText, mPattern, mTemplate).subscribe(blackhole::consume);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PARTS)
+    public void flowable(Blackhole blackhole) {
+        RxRegex.replaceFlowable(mText, mPattern, mTemplate).subscribe(blackhole::consume);
+    }
+}
@@ -0,0 +1,75 @@
+package ru.lazard.rxregex.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import ru.lazard.rxregex.Regex;
+
+/**
+ * Whole text replace by {@link Regex} compared with {@link java.util.regex.Matcher#replaceAll(String)}
+ * and {@link String#replaceAll(String, String)}, from very dense to very sparse matches.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReplaceBenchmark {
+
+    private static final String REGEX = "b(\\d+)";
+    private static final String REPLACEMENT = "<$1>";
+
+    @Param({"1024", "1048576"})
+    public int length;
+
+    /**
+     * Average distance between matches, 0 for one match in whole text.
+     */
+    @Param({"4", "64", "4096", "0"})
+    public int matchDistance;
+
+    private String mText;
+    private Pattern mPattern;
+
+    @Setup
+    public void setup() {
+        mText = Texts.generate(length, matchDistance);
+        mPattern = Pattern.compile(REGEX);
+    }
+
+    @Benchmark
+    public String regexReplace() {
+        return Regex.replace(mText, mPattern, REPLACEMENT);
+    }
+
+    @Benchmark
+    public StringBuilder regexReplaceSink() throws IOException {
+        StringBuilder builder = new StringBuilder(mText.length());
+        Regex.replace(mText, mPattern, REPLACEMENT, builder);
+        return builder;
+    }
+
+    @Benchmark
+    public String matcherReplaceAll() {
+        return mPattern.matcher(mText).replaceAll(REPLACEMENT);
+    }
+
+    @Benchmark
+    public String stringReplaceAll() {
+        return mText.replaceAll(REGEX, REPLACEMENT);
+    }
+}
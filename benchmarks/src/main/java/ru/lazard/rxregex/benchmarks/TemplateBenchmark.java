@@ -0,0 +1,73 @@
+package ru.lazard.rxregex.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ru.lazard.rxregex.ReplacementTemplate;
+
+/**
+ * Evaluation of replacement with many group references by {@link ReplacementTemplate}
+ * compared with {@link Matcher#appendReplacement(StringBuffer, String)}, which parses replacement on each call.
+ * Each benchmark finds the match again, {@link #find()} is the baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TemplateBenchmark {
+
+    private static final String TEXT = "abcdefghij";
+    private static final String REPLACEMENT = "$10$9$8$7$6$5$4$3$2$1-$1$2$3$4$5$6$7$8$9$10";
+
+    private Matcher mMatcher;
+    private ReplacementTemplate mTemplate;
+    private final StringBuilder mBuilder = new StringBuilder();
+
+    @Setup
+    public void setup() {
+        Pattern pattern = Pattern.compile("(a)(b)(c)(d)(e)(f)(g)(h)(i)(j)");
+        mMatcher = pattern.matcher(TEXT);
+        mTemplate = ReplacementTemplate.compile(REPLACEMENT, pattern);
+    }
+
+    @Benchmark
+    public boolean find() {
+        return mMatcher.reset().find();
+    }
+
+    @Benchmark
+    public int templateAppendTo() {
+        mMatcher.reset().find();
+        mBuilder.setLength(0);
+        mTemplate.appendTo(mBuilder, TEXT, mMatcher);
+        return mBuilder.length();
+    }
+
+    @Benchmark
+    public String templateEvaluate() {
+        mMatcher.reset().find();
+        return mTemplate.evaluate(TEXT, mMatcher);
+    }
+
+    @Benchmark
+    public StringBuffer matcherAppendReplacement() {
+        mMatcher.reset().find();
+        StringBuffer buffer = new StringBuffer();
+        mMatcher.appendReplacement(buffer, REPLACEMENT);
+        return buffer;
+    }
+}
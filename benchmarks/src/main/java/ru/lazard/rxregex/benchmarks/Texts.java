@@ -0,0 +1,36 @@
+package ru.lazard.rxregex.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Generated inputs for benchmarks, the same for each run.
+ */
+final class Texts {
+
+    private static final String FILLER = "acdefghijklmnopqrstuvwxyz    ";
+
+    private Texts() {
+    }
+
+    /**
+     * Text of letters and spaces with matches of <code>b(\d+)</code> at random positions.
+     *
+     * @param length        Length of text
+     * @param matchDistance Average count of chars between starts of matches, 0 for one match in the middle
+     */
+    static String generate(int length, int matchDistance) {
+        Random random = new Random(length * 31L + matchDistance);
+        StringBuilder builder = new StringBuilder(length + 8);
+        int nextMatch = matchDistance > 0 ? random.nextInt(matchDistance) : length / 2;
+        while (builder.length() < length) {
+            if (builder.length() >= nextMatch) {
+                builder.append('b').append(random.nextInt(1000));
+                nextMatch = matchDistance > 0 ? builder.length() + 1 + random.nextInt(2 * matchDistance) : Integer.MAX_VALUE;
+            } else {
+                builder.append(FILLER.charAt(random.nextInt(FILLER.length())));
+            }
+        }
+        builder.setLength(length);
+        return builder.toString();
+    }
+}
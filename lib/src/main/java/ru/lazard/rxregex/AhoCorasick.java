@@ -0,0 +1,205 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Aho-Corasick automaton for search of many literals in one pass over text.
+ * <p>
+ * Search finds leftmost match, if some literals start at the same position then literal with lowest key wins.
+ * Time of search doesn't depend on count of literals.
+ * <p>
+ * Automaton isn't changed after construction, so it may be shared by concurrent searches, each with own {@link Match}.
+ */
+final class AhoCorasick {
+
+    private static final int ROOT = 0;
+
+    private char[][] mKeys = new char[16][];
+    private int[][] mChildren = new int[16][];
+    private int[] mChildCount = new int[16];
+    private int[] mFail = new int[16];
+    private int[] mDictLink = new int[16];
+    private int[] mOutKey = new int[16];
+    private int[] mDepth = new int[16];
+    private int mSize;
+    private int mMaxLength;
+
+    /**
+     * @param literals Literals to search, index of literal is its key. Null and empty literals are skipped.
+     */
+    AhoCorasick(@NonNull String[] literals) {
+        newNode(0);
+        for (int key = 0; key < literals.length; key++) {
+            String literal = literals[key];
+            if (literal == null || literal.isEmpty()) continue;
+            insert(literal, key);
+        }
+        buildLinks();
+    }
+
+    /**
+     * Find leftmost match starting not before <code>from</code>.
+     *
+     * @param match Receives found match, not changed if nothing found
+     * @return True if match found
+     */
+    boolean find(@NonNull CharSequence text, int from, @NonNull Match match) {
+        int length = text.length();
+        int bestStart = -1;
+        int bestKey = Integer.MAX_VALUE;
+        int bestDepth = 0;
+        int state = ROOT;
+        for (int i = from; i < length; i++) {
+            // matches ending here and later start after best match
+            if (bestStart >= 0 && i - mMaxLength + 1 > bestStart) break;
+            char c = text.charAt(i);
+            int next;
+            while ((next = child(state, c)) < 0 && state != ROOT) state = mFail[state];
+            state = next < 0 ? ROOT : next;
+            for (int node = mOutKey[state] >= 0 ? state : mDictLink[state]; node != ROOT; node = mDictLink[node]) {
+                int start = i + 1 - mDepth[node];
+                if (bestStart < 0 || start < bestStart || (start == bestStart && mOutKey[node] < bestKey)) {
+                    bestStart = start;
+                    bestKey = mOutKey[node];
+                    bestDepth = mDepth[node];
+                }
+            }
+        }
+        if (bestStart < 0) return false;
+        match.mStart = bestStart;
+        match.mEnd = bestStart + bestDepth;
+        match.mKey = bestKey;
+        return true;
+    }
+
+    private void insert(String literal, int key) {
+        int node = ROOT;
+        for (int i = 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            int next = child(node, c);
+            if (next < 0) {
+                next = newNode(i + 1);
+                addChild(node, c, next);
+            }
+            node = next;
+        }
+        // the same literal in some rules: lowest key wins
+        if (mOutKey[node] < 0) mOutKey[node] = key;
+        if (literal.length() > mMaxLength) mMaxLength = literal.length();
+    }
+
+    private void buildLinks() {
+        int[] queue = new int[mSize];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = ROOT;
+        while (head < tail) {
+            int node = queue[head++];
+            for (int i = 0; i < mChildCount[node]; i++) {
+                char c = mKeys[node][i];
+                int child = mChildren[node][i];
+                int fail = ROOT;
+                if (node != ROOT) {
+                    int state = mFail[node];
+                    int next;
+                    while ((next = child(state, c)) < 0 && state != ROOT) state = mFail[state];
+                    fail = next < 0 ? ROOT : next;
+                }
+                mFail[child] = fail;
+                mDictLink[child] = mOutKey[fail] >= 0 ? fail : mDictLink[fail];
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    private int child(int node, char c) {
+        char[] keys = mKeys[node];
+        int low = 0;
+        int high = mChildCount[node] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char key = keys[middle];
+            if (key < c) low = middle + 1;
+            else if (key > c) high = middle - 1;
+            else return mChildren[node][middle];
+        }
+        return -1;
+    }
+
+    private void addChild(int node, char c, int child) {
+        int count = mChildCount[node];
+        char[] keys = mKeys[node];
+        int[] children = mChildren[node];
+        if (keys == null) {
+            keys = mKeys[node] = new char[2];
+            children = mChildren[node] = new int[2];
+        } else if (count == keys.length) {
+            char[] newKeys = new char[count * 2];
+            int[] newChildren = new int[count * 2];
+            System.arraycopy(keys, 0, newKeys, 0, count);
+            System.arraycopy(children, 0, newChildren, 0, count);
+            keys = mKeys[node] = newKeys;
+            children = mChildren[node] = newChildren;
+        }
+        int index = count;
+        while (index > 0 && keys[index - 1] > c) {
+            keys[index] = keys[index - 1];
+            children[index] = children[index - 1];
+            index--;
+        }
+        keys[index] = c;
+        children[index] = child;
+        mChildCount[node] = count + 1;
+    }
+
+    private int newNode(int depth) {
+        if (mSize == mDepth.length) {
+            int capacity = mSize * 2;
+            char[][] keys = new char[capacity][];
+            int[][] children = new int[capacity][];
+            System.arraycopy(mKeys, 0, keys, 0, mSize);
+            System.arraycopy(mChildren, 0, children, 0, mSize);
+            mKeys = keys;
+            mChildren = children;
+            mChildCount = grow(mChildCount, capacity);
+            mFail = grow(mFail, capacity);
+            mDictLink = grow(mDictLink, capacity);
+            mOutKey = grow(mOutKey, capacity);
+            mDepth = grow(mDepth, capacity);
+        }
+        int node = mSize++;
+        mOutKey[node] = -1;
+        mDepth[node] = depth;
+        return node;
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /**
+     * Last found match, owned by one search.
+     */
+    static final class Match {
+        private int mStart;
+        private int mEnd;
+        private int mKey;
+
+        int start() {
+            return mStart;
+        }
+
+        int end() {
+            return mEnd;
+        }
+
+        /**
+         * @return Key of matched literal
+         */
+        int key() {
+            return mKey;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+
+/**
+ * Class for work with regular expressions over UTF-8 bytes, without decoding of input to String.
+ * <p>
+ * Bytes are matched through {@link Utf8Text} view, so heap usage doesn't depend on input size (pure ASCII input needs
+ * no index at all). Parts are reported with char offsets ({@link RegexPart}) and byte offsets from buffer position.
+ * <pre>{@code
+ * // Find in huge log file, file is memory-mapped
+ * ByteRegex.find(logFile, Pattern.compile("ERROR: [^\\n]*"), (part, fromByte, toByte) -> {
+ *     if (part.isMatched()) log(fromByte + ": " + part.getSrc());
+ * });
+ *
+ * // Replace to channel, not matched bytes are copied without decoding
+ * ByteRegex.replace(buffer, pattern, template, channel, cancellationSignal);
+ * }</pre>
+ */
+public class ByteRegex {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ByteRegex() {
+    }
+
+    public static void find(@NonNull ByteBuffer buffer, @NonNull Pattern pattern, @NonNull Listener listener) {
+        find(buffer, pattern, listener, new Regex.CancellationSignalFake());
+    }
+
+    public static void find(@NonNull ByteBuffer buffer, @NonNull Pattern pattern, @NonNull Listener listener, @NonNull Regex.CancellationSignal cancellationSignal) {
+        replace(buffer, pattern, PatternCache.getDefault().getTemplate(pattern, "$0"), listener, cancellationSignal);
+    }
+
+    /**
+     * Find in memory-mapped file.
+     */
+    public static void find(@NonNull File file, @NonNull Pattern pattern, @NonNull Listener listener) throws IOException {
+        find(map(file), pattern, listener);
+    }
+
+    public static void replace(@NonNull ByteBuffer buffer, @NonNull Pattern pattern, @NonNull String replaceText, @NonNull Listener listener) {
+        replace(buffer, pattern, PatternCache.getDefault().getTemplate(pattern, replaceText), listener, new Regex.CancellationSignalFake());
+    }
+
+    /**
+     * Replace in bytes from position to limit of buffer, buffer itself isn't changed.
+     */
+    public static void replace(@NonNull ByteBuffer buffer, @NonNull Pattern pattern, @NonNull ReplacementTemplate template, @NonNull Listener listener, @NonNull Regex.CancellationSignal cancellationSignal) {
+        if (cancellationSignal.isCanceled()) return;
+
+        Utf8Text text = new Utf8Text(buffer);
+        RegexStepper stepper = new RegexStepper(text, pattern, template, cancellationSignal);
+        RegexPart part;
+        boolean completed = false;
+        try {
+            while ((part = stepper.nextPart()) != null) {
+                listener.onPart(part, text.byteOffset(part.getFromSrc()), text.byteOffset(part.getToSrc()));
+                if (cancellationSignal.isCanceled()) return;
+            }
+            completed = true;
+        } catch (GuardedCharSequence.Canceled e) {
+            // canceled inside of search
+        } finally {
+            stepper.report(completed);
+        }
+    }
+
+    /**
+     * Write replaced text to channel as UTF-8. Not matched bytes (and matched bytes for find) are copied as is,
+     * only replacements are encoded. Channel isn't closed.
+     */
+    public static void replace(@NonNull ByteBuffer buffer, @NonNull Pattern pattern, @NonNull ReplacementTemplate template, @NonNull WritableByteChannel channel, @NonNull Regex.CancellationSignal cancellationSignal) throws IOException {
+        if (cancellationSignal.isCanceled()) return;
+
+        Utf8Text text = new Utf8Text(buffer);
+        RegexStepper stepper = new RegexStepper(text, pattern, template, cancellationSignal);
+        ByteBuffer source = buffer.duplicate();
+        int start = buffer.position();
+        ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+        RegexPart part;
+        boolean completed = false;
+        try {
+            while ((part = stepper.nextPart()) != null) {
+                if (!part.isMatched() || template.isWholeMatch()) {
+                    source.limit(start + text.byteOffset(part.getToSrc())).position(start + text.byteOffset(part.getFromSrc()));
+                    write(channel, out, source);
+                } else {
+                    write(channel, out, UTF_8.encode(CharBuffer.wrap(part.getDst())));
+                }
+                if (cancellationSignal.isCanceled()) return;
+            }
+            out.flip();
+            while (out.hasRemaining()) channel.write(out);
+            completed = true;
+        } catch (GuardedCharSequence.Canceled e) {
+            // canceled inside of search
+        } finally {
+            stepper.report(completed);
+        }
+    }
+
+    /**
+     * Map whole file to memory for reading. File is closed, mapping stays valid.
+     *
+     * @throws IOException If file is longer than {@link Integer#MAX_VALUE} bytes
+     */
+    @NonNull
+    public static MappedByteBuffer map(@NonNull File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("File is too long for mapping: " + size + " bytes");
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Copy bytes to channel through buffer, long ranges are written directly.
+     */
+    private static void write(WritableByteChannel channel, ByteBuffer out, ByteBuffer bytes) throws IOException {
+        if (bytes.remaining() > out.remaining()) {
+            out.flip();
+            while (out.hasRemaining()) channel.write(out);
+            out.clear();
+            if (bytes.remaining() > out.remaining()) {
+                while (bytes.hasRemaining()) channel.write(bytes);
+                return;
+            }
+        }
+        out.put(bytes);
+    }
+
+    public interface Listener {
+        /**
+         * @param part     Part with char offsets, valid only inside of call
+         * @param fromByte Start of part in bytes, from position of buffer
+         * @param toByte   End of part in bytes, from position of buffer
+         */
+        void onPart(@NonNull RegexPart part, int fromByte, int toByte);
+    }
+}
@@ -0,0 +1,207 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sequential search of matches, the same as loop of {@link Matcher#find()}, but faster for simple patterns.
+ * <p>
+ * Pure literals are searched without {@link Matcher}. Other patterns are searched by {@link RegexEngines#getDefault() default engine}
+ * if it supports them, otherwise by {@link Matcher}: patterns with required literal prefix jump between occurrences
+ * of prefix and try to match only there.
+ */
+abstract class Finder implements RegexEngine.Search {
+
+    /**
+     * Literals of this length and longer are searched by Boyer-Moore-Horspool,
+     * shorter ones by {@link String#indexOf(String, int)} which is intrinsic on most VMs.
+     */
+    static final int BMH_MIN_LENGTH = 8;
+
+    @NonNull
+    static Finder create(@NonNull Pattern pattern, @NonNull String text) {
+        return create(pattern, text, text);
+    }
+
+    /**
+     * @param input Text for {@link Matcher}, the same chars as <code>text</code>
+     *              (for example {@link GuardedCharSequence} which stops long matching).
+     *              Literal search can't run away, so it reads <code>text</code> directly.
+     */
+    @NonNull
+    static Finder create(@NonNull Pattern pattern, @NonNull String text, @NonNull CharSequence input) {
+        String literal = PatternAnalysis.literal(pattern);
+        if (literal != null) return new LiteralFinder(text, literal);
+        RegexEngine engine = RegexEngines.getDefault();
+        if (engine != RegexEngines.JAVA) {
+            RegexEngine.Search search = engine.search(pattern, input);
+            if (search instanceof Finder) return (Finder) search;
+            if (search != null) return new SearchFinder(search);
+        }
+        return createJava(pattern, text, input);
+    }
+
+    /**
+     * Search in text which isn't String (for example {@link Utf8Text}), without literal and prefix fast paths,
+     * so text is never copied to String.
+     */
+    @NonNull
+    static Finder createForSequence(@NonNull Pattern pattern, @NonNull CharSequence input) {
+        RegexEngine engine = RegexEngines.getDefault();
+        if (engine != RegexEngines.JAVA) {
+            RegexEngine.Search search = engine.search(pattern, input);
+            if (search instanceof Finder) return (Finder) search;
+            if (search != null) return new SearchFinder(search);
+        }
+        return new MatcherFinder(pattern.matcher(input));
+    }
+
+    /**
+     * Search by {@link Matcher}, see {@link RegexEngines#JAVA}.
+     */
+    @NonNull
+    static Finder createJava(@NonNull Pattern pattern, @NonNull String text, @NonNull CharSequence input) {
+        String prefix = PatternAnalysis.requiredPrefix(pattern);
+        if (prefix != null) return new PrefixFinder(pattern, text, input, prefix);
+        return new MatcherFinder(pattern.matcher(input));
+    }
+
+    private static class SearchFinder extends Finder {
+        private final RegexEngine.Search mSearch;
+
+        SearchFinder(RegexEngine.Search search) {
+            this.mSearch = search;
+        }
+
+        @Override
+        public boolean find() {
+            return mSearch.find();
+        }
+
+        @Override
+        public MatchResult result() {
+            return mSearch.result();
+        }
+    }
+
+    private static class MatcherFinder extends Finder {
+        private final Matcher mMatcher;
+
+        MatcherFinder(Matcher matcher) {
+            this.mMatcher = matcher;
+        }
+
+        @Override
+        public boolean find() {
+            return mMatcher.find();
+        }
+
+        @Override
+        public MatchResult result() {
+            return mMatcher;
+        }
+    }
+
+    private static class LiteralFinder extends Finder {
+        private final String mText;
+        private final String mLiteral;
+        private final SpanMatchResult mResult;
+        private final int[] mShift;
+        private int mFrom;
+
+        LiteralFinder(String text, String literal) {
+            this.mText = text;
+            this.mLiteral = literal;
+            this.mResult = new SpanMatchResult(text);
+            this.mShift = literal.length() >= BMH_MIN_LENGTH ? shiftTable(literal) : null;
+        }
+
+        /**
+         * Shift of window by its last char. Chars are bucketed by low byte, collisions only make shift smaller.
+         */
+        private static int[] shiftTable(String literal) {
+            int last = literal.length() - 1;
+            int[] shift = new int[256];
+            for (int i = 0; i < shift.length; i++) shift[i] = literal.length();
+            for (int i = 0; i < last; i++) shift[literal.charAt(i) & 0xFF] = last - i;
+            return shift;
+        }
+
+        @Override
+        public boolean find() {
+            int start = mShift == null ? mText.indexOf(mLiteral, mFrom) : indexOf(mFrom);
+            if (start < 0) {
+                mFrom = mText.length();
+                return false;
+            }
+            mFrom = start + mLiteral.length();
+            mResult.set(start, mFrom);
+            return true;
+        }
+
+        private int indexOf(int from) {
+            String text = mText;
+            String literal = mLiteral;
+            int last = literal.length() - 1;
+            char lastChar = literal.charAt(last);
+            int length = text.length();
+            for (int i = from + last; i < length; ) {
+                char c = text.charAt(i);
+                if (c == lastChar && text.regionMatches(i - last, literal, 0, last)) return i - last;
+                i += mShift[c & 0xFF];
+            }
+            return -1;
+        }
+
+        @Override
+        public MatchResult result() {
+            return mResult;
+        }
+    }
+
+    /**
+     * Each match starts with prefix, so matcher tries only positions of prefix. Region bounds are transparent and
+     * not anchoring, so lookbehind, word boundaries and anchors see the whole text as with plain find().
+     */
+    private static class PrefixFinder extends Finder {
+        private final String mText;
+        private final String mPrefix;
+        private final Matcher mMatcher;
+        private int mFrom;
+
+        PrefixFinder(Pattern pattern, String text, CharSequence input, String prefix) {
+            this.mText = text;
+            this.mPrefix = prefix;
+            this.mMatcher = pattern.matcher(input);
+            this.mMatcher.useTransparentBounds(true);
+            this.mMatcher.useAnchoringBounds(false);
+        }
+
+        @Override
+        public boolean find() {
+            int length = mText.length();
+            while (true) {
+                int candidate = mText.indexOf(mPrefix, mFrom);
+                if (candidate < 0) {
+                    mFrom = length;
+                    return false;
+                }
+                mMatcher.region(candidate, length);
+                if (mMatcher.lookingAt()) {
+                    // match contains prefix, so it's never empty
+                    mFrom = mMatcher.end();
+                    return true;
+                }
+                mFrom = candidate + 1;
+            }
+        }
+
+        @Override
+        public MatchResult result() {
+            return mMatcher;
+        }
+    }
+}
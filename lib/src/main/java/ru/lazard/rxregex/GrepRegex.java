@@ -0,0 +1,419 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Line-oriented search, like grep: input is split to lines, each line is matched separately and selected lines are
+ * passed to listener with line number, offset of line in input and offsets of matches in line.
+ * <p>
+ * Input is read in caller thread by batches of lines, batches are matched by tasks at executor and lines are passed to
+ * listener in input order. Only batches in flight are kept in memory, so input may be a stream of any length.
+ * Lines end with <code>\n</code> or <code>\r\n</code>, terminators aren't part of line.
+ * <pre>{@code
+ * GrepRegex grep = new GrepRegex(Pattern.compile("ERROR")).setContext(2, 2).setMaxCount(100);
+ * grep.run(new FileReader(logFile), executor, line -> log(line.getNumber() + ": " + line.getText()), cancellationSignal);
+ * }</pre>
+ * Context lines are passed with {@link Line#isSelected()} false, gap of line numbers separates groups of context.
+ * Settings may be changed between runs, not during run.
+ */
+public class GrepRegex {
+
+    public static final int DEFAULT_BATCH_LINES = 1024;
+    /**
+     * Batch is closed earlier if its lines are longer than this count of chars in total.
+     */
+    public static final int MAX_BATCH_CHARS = 256 * 1024;
+
+    private static final int[] NO_MATCHES = new int[0];
+
+    private final Pattern mPattern;
+    private boolean mInvertMatch;
+    private long mMaxCount = Long.MAX_VALUE;
+    private int mBeforeContext;
+    private int mAfterContext;
+    private int mBatchLines = DEFAULT_BATCH_LINES;
+
+    public GrepRegex(@NonNull Pattern pattern) {
+        this.mPattern = pattern;
+    }
+
+    /**
+     * @param invertMatch Select lines without matches, like <code>grep -v</code>
+     */
+    public GrepRegex setInvertMatch(boolean invertMatch) {
+        this.mInvertMatch = invertMatch;
+        return this;
+    }
+
+    /**
+     * @param maxCount Stop after this count of selected lines and their trailing context, like <code>grep -m</code>
+     */
+    public GrepRegex setMaxCount(long maxCount) {
+        if (maxCount < 0) throw new IllegalArgumentException("maxCount < 0");
+        this.mMaxCount = maxCount;
+        return this;
+    }
+
+    /**
+     * @param before Count of lines passed before each selected line, like <code>grep -B</code>
+     * @param after  Count of lines passed after each selected line, like <code>grep -A</code>
+     */
+    public GrepRegex setContext(int before, int after) {
+        if (before < 0 || after < 0) throw new IllegalArgumentException("before < 0 || after < 0");
+        this.mBeforeContext = before;
+        this.mAfterContext = after;
+        return this;
+    }
+
+    /**
+     * @param batchLines Maximum count of lines matched by one task
+     */
+    public GrepRegex setBatchLines(int batchLines) {
+        if (batchLines <= 0) throw new IllegalArgumentException("batchLines <= 0");
+        this.mBatchLines = batchLines;
+        return this;
+    }
+
+    /**
+     * Search lines of text in caller thread.
+     */
+    public void run(@NonNull String text, @NonNull Listener listener) {
+        try {
+            run(new StringReader(text), Runnable::run, listener, new Regex.CancellationSignalFake());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Search lines of input, batches of lines are matched at executor. Reader isn't closed.
+     */
+    public void run(@NonNull Reader reader, @NonNull Executor executor, @NonNull Listener listener, @NonNull Regex.CancellationSignal cancellationSignal) throws IOException {
+        if (cancellationSignal.isCanceled() || mMaxCount == 0) return;
+        LineReader lineReader = new LineReader(reader);
+        Selector selector = new Selector(listener, cancellationSignal);
+        int maxInFlight = Math.max(2, 2 * Runtime.getRuntime().availableProcessors());
+        ArrayDeque<FutureTask<Batch>> inFlight = new ArrayDeque<>();
+        boolean endOfInput = false;
+        try {
+            while (true) {
+                while (!endOfInput && inFlight.size() < maxInFlight) {
+                    Batch batch = lineReader.readBatch(mBatchLines);
+                    if (batch == null) {
+                        endOfInput = true;
+                        break;
+                    }
+                    FutureTask<Batch> task = new FutureTask<>(new BatchTask(batch));
+                    executor.execute(task);
+                    inFlight.add(task);
+                }
+                FutureTask<Batch> task = inFlight.poll();
+                if (task == null) return;
+                Batch batch = get(task);
+                if (cancellationSignal.isCanceled()) return;
+                if (!selector.select(batch)) return;
+            }
+        } finally {
+            for (FutureTask<Batch> task : inFlight) task.cancel(false);
+        }
+    }
+
+    private static Batch get(FutureTask<Batch> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Chooses selected and context lines in input order, in caller thread.
+     */
+    private class Selector {
+        private final Listener mListener;
+        private final Regex.CancellationSignal mCancellationSignal;
+        private final ArrayDeque<Line> mBefore = new ArrayDeque<>();
+        private long mSelectedCount;
+        private int mAfterLeft;
+
+        Selector(Listener listener, Regex.CancellationSignal cancellationSignal) {
+            this.mListener = listener;
+            this.mCancellationSignal = cancellationSignal;
+        }
+
+        /**
+         * @return False if search is finished or canceled
+         */
+        boolean select(Batch batch) {
+            for (int i = 0; i < batch.count; i++) {
+                boolean selected = (batch.matches[i] != null) != mInvertMatch;
+                if (mSelectedCount >= mMaxCount) {
+                    // trailing context of last selected line
+                    if (!emit(batch.line(i, false))) return false;
+                    if (--mAfterLeft <= 0) return false;
+                } else if (selected) {
+                    while (!mBefore.isEmpty()) {
+                        if (!emit(mBefore.poll())) return false;
+                    }
+                    if (!emit(batch.line(i, true))) return false;
+                    mSelectedCount++;
+                    mAfterLeft = mAfterContext;
+                    if (mSelectedCount >= mMaxCount && mAfterLeft == 0) return false;
+                } else if (mAfterLeft > 0) {
+                    mAfterLeft--;
+                    if (!emit(batch.line(i, false))) return false;
+                } else if (mBeforeContext > 0) {
+                    if (mBefore.size() == mBeforeContext) mBefore.poll();
+                    mBefore.add(batch.line(i, false));
+                }
+            }
+            return true;
+        }
+
+        private boolean emit(Line line) {
+            mListener.onLine(line);
+            return !mCancellationSignal.isCanceled();
+        }
+    }
+
+    /**
+     * Consecutive lines of input and their matches, filled by {@link BatchTask}.
+     */
+    private static class Batch {
+        final long firstNumber;
+        final String[] lines;
+        final long[] offsets;
+        /**
+         * Start and end of each match in line, null if line has no matches.
+         */
+        final int[][] matches;
+        int count;
+
+        Batch(long firstNumber, int capacity) {
+            this.firstNumber = firstNumber;
+            this.lines = new String[capacity];
+            this.offsets = new long[capacity];
+            this.matches = new int[capacity][];
+        }
+
+        Line line(int index, boolean selected) {
+            int[] lineMatches = matches[index];
+            return new Line(firstNumber + index, offsets[index], lines[index], selected, lineMatches == null ? NO_MATCHES : lineMatches);
+        }
+    }
+
+    private class BatchTask implements Callable<Batch> {
+        private final Batch mBatch;
+
+        BatchTask(Batch batch) {
+            this.mBatch = batch;
+        }
+
+        @Override
+        public Batch call() {
+            Batch batch = mBatch;
+            String literal = PatternAnalysis.literal(mPattern);
+            // line without required prefix can't match, most lines of logs are skipped by indexOf
+            String prefix = literal != null ? literal : PatternAnalysis.requiredPrefix(mPattern);
+            Matcher matcher = literal != null ? null : mPattern.matcher("");
+            int[] found = new int[16];
+            for (int i = 0; i < batch.count; i++) {
+                String line = batch.lines[i];
+                if (prefix != null && line.indexOf(prefix) < 0) continue;
+                int count = 0;
+                if (matcher == null) {
+                    for (int start = line.indexOf(literal); start >= 0; start = line.indexOf(literal, start + literal.length())) {
+                        if (count + 2 > found.length) found = Arrays.copyOf(found, found.length * 2);
+                        found[count++] = start;
+                        found[count++] = start + literal.length();
+                    }
+                } else {
+                    matcher.reset(line);
+                    while (matcher.find()) {
+                        if (count + 2 > found.length) found = Arrays.copyOf(found, found.length * 2);
+                        found[count++] = matcher.start();
+                        found[count++] = matcher.end();
+                    }
+                }
+                if (count > 0) batch.matches[i] = Arrays.copyOf(found, count);
+            }
+            return batch;
+        }
+    }
+
+    /**
+     * Splits input to lines, keeps offset and number of next line.
+     */
+    private static class LineReader {
+        private final Reader mReader;
+        private final char[] mBuffer = new char[8192];
+        private final StringBuilder mLine = new StringBuilder();
+        private int mPosition;
+        private int mLimit;
+        private boolean mEndOfInput;
+        private long mOffset;
+        private long mNumber;
+
+        LineReader(Reader reader) {
+            this.mReader = reader;
+        }
+
+        /**
+         * @return Next lines, null if input has no more lines
+         */
+        Batch readBatch(int maxLines) throws IOException {
+            Batch batch = new Batch(mNumber + 1, maxLines);
+            int chars = 0;
+            while (batch.count < maxLines && chars < MAX_BATCH_CHARS) {
+                long offset = mOffset;
+                String line = readLine();
+                if (line == null) break;
+                batch.lines[batch.count] = line;
+                batch.offsets[batch.count] = offset;
+                batch.count++;
+                chars += line.length();
+            }
+            return batch.count == 0 ? null : batch;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = mLine;
+            line.setLength(0);
+            boolean any = false;
+            while (true) {
+                if (mPosition == mLimit) {
+                    if (mEndOfInput || !fill()) {
+                        if (!any) return null;
+                        // last line without terminator
+                        mNumber++;
+                        return line.toString();
+                    }
+                }
+                any = true;
+                int start = mPosition;
+                int end = start;
+                while (end < mLimit && mBuffer[end] != '\n') end++;
+                line.append(mBuffer, start, end - start);
+                mOffset += end - start;
+                mPosition = end;
+                if (end < mLimit) {
+                    mPosition++;
+                    mOffset++;
+                    mNumber++;
+                    int length = line.length();
+                    if (length > 0 && line.charAt(length - 1) == '\r') line.setLength(length - 1);
+                    return line.toString();
+                }
+            }
+        }
+
+        private boolean fill() throws IOException {
+            int read = mReader.read(mBuffer, 0, mBuffer.length);
+            if (read <= 0) {
+                mEndOfInput = true;
+                return false;
+            }
+            mPosition = 0;
+            mLimit = read;
+            return true;
+        }
+    }
+
+    public interface Listener {
+        void onLine(@NonNull Line line);
+    }
+
+    /**
+     * Selected or context line.
+     */
+    public static final class Line {
+        private final long mNumber;
+        private final long mOffset;
+        private final String mText;
+        private final boolean mSelected;
+        private final int[] mMatches;
+
+        Line(long number, long offset, @NonNull String text, boolean selected, @NonNull int[] matches) {
+            this.mNumber = number;
+            this.mOffset = offset;
+            this.mText = text;
+            this.mSelected = selected;
+            this.mMatches = matches;
+        }
+
+        /**
+         * @return Number of line in input, from 1
+         */
+        public long getNumber() {
+            return mNumber;
+        }
+
+        /**
+         * @return Offset of first char of line in input
+         */
+        public long getOffset() {
+            return mOffset;
+        }
+
+        /**
+         * @return Text of line without terminator
+         */
+        @NonNull
+        public String getText() {
+            return mText;
+        }
+
+        /**
+         * @return True for line selected by pattern (or not matched, for invert match), false for context line
+         */
+        public boolean isSelected() {
+            return mSelected;
+        }
+
+        /**
+         * @return Count of matches in line
+         */
+        public int getMatchCount() {
+            return mMatches.length / 2;
+        }
+
+        /**
+         * @return Start of match in line, add {@link #getOffset()} for offset in input
+         */
+        public int getMatchStart(int index) {
+            if (index < 0 || index >= getMatchCount()) throw new IndexOutOfBoundsException("No match " + index);
+            return mMatches[index * 2];
+        }
+
+        /**
+         * @return End of match in line, exclusive
+         */
+        public int getMatchEnd(int index) {
+            if (index < 0 || index >= getMatchCount()) throw new IndexOutOfBoundsException("No match " + index);
+            return mMatches[index * 2 + 1];
+        }
+
+        @Override
+        public String toString() {
+            return mNumber + (mSelected ? ":" : "-") + mText;
+        }
+    }
+}
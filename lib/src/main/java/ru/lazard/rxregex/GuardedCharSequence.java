@@ -0,0 +1,102 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Text for {@link java.util.regex.Matcher} which checks cancellation signal and {@link RegexBudget} while matcher reads it,
+ * and reports read position to {@link RegexProgress}.
+ * Matcher doesn't check thread interruption, but it reads each char through {@link #charAt(int)},
+ * so this is the only place where one long {@link java.util.regex.Matcher#find()} can be stopped.
+ * <p>
+ * Checks are done every {@link #CHECK_INTERVAL} reads, between them the cost is one decrement.
+ * Cancellation unwinds matcher by {@link Canceled}, which callers catch and finish quietly as on cancellation between matches.
+ */
+final class GuardedCharSequence implements CharSequence {
+
+    static final int CHECK_INTERVAL = 1024;
+
+    private final CharSequence mText;
+    private final Regex.CancellationSignal mCancellationSignal;
+    private final long mStartNanos;
+    private final long mTimeoutNanos;
+    private final long mMaxSteps;
+    private final RegexProgress mProgress;
+    private long mSteps;
+    private int mCountdown = CHECK_INTERVAL;
+
+    GuardedCharSequence(@NonNull CharSequence text, @NonNull Regex.CancellationSignal cancellationSignal, @NonNull RegexBudget budget, @Nullable RegexProgress progress) {
+        this.mText = text;
+        this.mProgress = progress;
+        this.mCancellationSignal = cancellationSignal;
+        this.mTimeoutNanos = budget.getTimeoutNanos();
+        this.mMaxSteps = budget.getMaxSteps();
+        this.mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * @return Text for matcher: the text itself if nothing can stop matching, guarded text otherwise
+     */
+    @NonNull
+    static CharSequence of(@NonNull CharSequence text, @NonNull Regex.CancellationSignal cancellationSignal, @NonNull RegexBudget budget, @Nullable RegexProgress progress) {
+        if (cancellationSignal instanceof Regex.CancellationSignalFake && budget.isUnlimited() && progress == null) return text;
+        return new GuardedCharSequence(text, cancellationSignal, budget, progress);
+    }
+
+    @Override
+    public int length() {
+        return mText.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (--mCountdown == 0) check(index);
+        return mText.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return mText.subSequence(start, end);
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        return mText.toString();
+    }
+
+    /**
+     * @return Count of chars read by matcher, precise to {@link #CHECK_INTERVAL}
+     */
+    long getSteps() {
+        return mSteps + CHECK_INTERVAL - mCountdown;
+    }
+
+    private void check(int index) {
+        mCountdown = CHECK_INTERVAL;
+        mSteps += CHECK_INTERVAL;
+        if (mProgress != null) mProgress.advance(index);
+        if (mCancellationSignal.isCanceled()) throw new Canceled();
+        if (mMaxSteps > 0 && mSteps > mMaxSteps) {
+            throw new RegexTimeoutException("Regex exceeded " + mMaxSteps + " steps", mSteps, System.nanoTime() - mStartNanos);
+        }
+        if (mTimeoutNanos > 0) {
+            long elapsed = System.nanoTime() - mStartNanos;
+            if (elapsed > mTimeoutNanos) {
+                throw new RegexTimeoutException("Regex exceeded " + mTimeoutNanos / 1000000 + " ms", mSteps, elapsed);
+            }
+        }
+    }
+
+    /**
+     * Unwinds matcher after cancellation, never leaves the library.
+     */
+    static final class Canceled extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package ru.lazard.rxregex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Deterministic automaton over {@link LinearProgram}, built lazily while text is read: state is ordered list of
+ * NFA instructions, transition is computed on first use and cached. Chars are grouped to classes which no instruction
+ * distinguishes, so each state has one transition per class.
+ * <p>
+ * Leftmost-first automaton keeps priority of {@link java.util.regex.Matcher}: threads after match are dropped.
+ * Longest automaton (for reverse program) keeps all threads. If cache grows over {@link #MAX_CACHE_INTS},
+ * it's cleared and built again, so memory is bounded and time stays linear.
+ * <p>
+ * Not thread-safe.
+ */
+final class LazyDfa {
+
+    static final int DEAD = 0;
+
+    private static final int MAX_CACHE_INTS = 1 << 18;
+    private static final int MATCH_HERE = 1;
+    private static final int MATCH_AT_END = 2;
+
+    private final LinearProgram mProgram;
+    private final boolean mLongest;
+    private final int[] mClassStarts;
+    private final byte[] mAsciiClasses = new byte[128];
+    private final int mClassCount;
+
+    private final HashMap<StateKey, Integer> mStates = new HashMap<>();
+    private int[][] mStatePcs = new int[16][];
+    private int[] mStateFlags = new int[16];
+    private int mStateCount;
+    /**
+     * Transition of state by char class: ((next state << 1) | match before char) + 1, 0 if not computed.
+     */
+    private int[] mTransitions;
+
+    private final int[] mStack;
+    private final int[] mNextVisited;
+    private final int[] mHereVisited;
+    private int mNextGeneration;
+    private int mHereGeneration;
+    private int mResetCount;
+    private int[] mList;
+    private int mListSize;
+    private boolean mListCut;
+    private boolean mMatchBefore;
+
+    LazyDfa(LinearProgram program, boolean longest) {
+        this.mProgram = program;
+        this.mLongest = longest;
+        int[] starts = new int[8];
+        int count = 0;
+        for (int pc = 0; pc < program.size; pc++) {
+            int[] set = program.sets[pc];
+            if (set == null) continue;
+            if (count + set.length + 4 > starts.length) starts = Arrays.copyOf(starts, (count + set.length + 4) * 2);
+            for (int i = 0; i < set.length; i += 2) {
+                starts[count++] = set[i];
+                starts[count++] = set[i + 1] + 1;
+            }
+        }
+        starts[count++] = 0;
+        starts[count++] = 0xD800;
+        starts[count++] = 0xDC00;
+        starts[count++] = 0xE000;
+        Arrays.sort(starts, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (starts[i] > 0xFFFF || (unique > 0 && starts[unique - 1] == starts[i])) continue;
+            starts[unique++] = starts[i];
+        }
+        this.mClassStarts = Arrays.copyOf(starts, unique);
+        this.mClassCount = unique;
+        for (int c = 0; c < 128; c++) mAsciiClasses[c] = (byte) search(c);
+        this.mStack = new int[program.size * 2 + 2];
+        this.mNextVisited = new int[program.size];
+        this.mHereVisited = new int[program.size];
+        this.mList = new int[program.size];
+        reset();
+    }
+
+    private void reset() {
+        mStates.clear();
+        mStateCount = 0;
+        mResetCount++;
+        mTransitions = new int[16 * mClassCount];
+        addState(new int[0]);
+    }
+
+    /**
+     * @return State of closure of instruction
+     */
+    int state(int pc) {
+        beginList();
+        addClosure(pc);
+        return addState(Arrays.copyOf(mList, mListSize));
+    }
+
+    /**
+     * @return Match ends at position of this state (before next char)
+     */
+    boolean isMatch(int state) {
+        return (mStateFlags[state] & MATCH_HERE) != 0;
+    }
+
+    /**
+     * @return Match ends at end of text, if this state is reached there
+     */
+    boolean isMatchAtEnd(int state) {
+        return (mStateFlags[state] & (MATCH_HERE | MATCH_AT_END)) != 0;
+    }
+
+    /**
+     * @return (next state << 1) | 1 if match ends before this char, see {@link #DEAD}.
+     * States returned earlier stay valid only until this call (cache may be cleared).
+     */
+    int next(int state, char c) {
+        int charClass = c < 128 ? mAsciiClasses[c] : search(c);
+        int index = state * mClassCount + charClass;
+        int transition = mTransitions[index];
+        if (transition != 0) return transition - 1;
+
+        int[] pcs = mStatePcs[state];
+        beginList();
+        int here = ++mHereGeneration;
+        mMatchBefore = false;
+        int representative = mClassStarts[charClass];
+        for (int pc : pcs) {
+            if (mHereVisited[pc] == here) continue;
+            mHereVisited[pc] = here;
+            if (!step(pc, representative, here)) break;
+        }
+        int resetCount = mResetCount;
+        int next = addState(Arrays.copyOf(mList, mListSize));
+        transition = (next << 1) | (mMatchBefore ? 1 : 0);
+        // cache was cleared while adding state, old state doesn't exist anymore
+        if (resetCount != mResetCount) return transition;
+        mTransitions[index] = transition + 1;
+        return transition;
+    }
+
+    /**
+     * Move thread at instruction over char.
+     *
+     * @return False if threads with lower priority are dropped
+     */
+    private boolean step(int pc, int c, int here) {
+        LinearProgram program = mProgram;
+        switch (program.ops[pc]) {
+            case LinearProgram.CHAR:
+                if (LinearProgram.contains(program.sets[pc], c)) addClosure(program.outs[pc]);
+                return true;
+            case LinearProgram.MATCH:
+                return mLongest;
+            case LinearProgram.ASSERT_NOT_LOW_AHEAD:
+            case LinearProgram.ASSERT_NOT_HIGH_NEXT:
+                boolean passed = program.ops[pc] == LinearProgram.ASSERT_NOT_LOW_AHEAD ? !LinearProgram.isLow(c) : !LinearProgram.isHigh(c);
+                if (!passed) return true;
+                // threads after assertion are at the same position, before this char
+                int[] expanded = closure(program.outs[pc], here);
+                for (int expandedPc : expanded) {
+                    if (program.ops[expandedPc] == LinearProgram.MATCH) {
+                        if (mLongest) continue;
+                        mMatchBefore = true;
+                        return false;
+                    }
+                    if (!step(expandedPc, c, here)) return false;
+                }
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @return Instructions reading chars reachable from pc at current position, not visited there yet
+     */
+    private int[] closure(int pc, int here) {
+        int[] result = new int[4];
+        int count = 0;
+        int top = 0;
+        mStack[top++] = pc;
+        LinearProgram program = mProgram;
+        while (top > 0) {
+            pc = mStack[--top];
+            if (mHereVisited[pc] == here) continue;
+            mHereVisited[pc] = here;
+            int op = program.ops[pc];
+            if (op == LinearProgram.SPLIT) {
+                mStack[top++] = program.outs2[pc];
+                mStack[top++] = program.outs[pc];
+            } else if (op == LinearProgram.JMP || op == LinearProgram.SAVE) {
+                mStack[top++] = program.outs[pc];
+            } else {
+                if (count == result.length) result = Arrays.copyOf(result, count * 2);
+                result[count++] = pc;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private void beginList() {
+        mListSize = 0;
+        mListCut = false;
+        mNextGeneration++;
+    }
+
+    /**
+     * Append closure of pc to list of next state, in priority order.
+     */
+    private void addClosure(int pc) {
+        if (mListCut) return;
+        int generation = mNextGeneration;
+        int top = 0;
+        mStack[top++] = pc;
+        LinearProgram program = mProgram;
+        while (top > 0) {
+            pc = mStack[--top];
+            if (mNextVisited[pc] == generation) continue;
+            mNextVisited[pc] = generation;
+            int op = program.ops[pc];
+            if (op == LinearProgram.SPLIT) {
+                mStack[top++] = program.outs2[pc];
+                mStack[top++] = program.outs[pc];
+            } else if (op == LinearProgram.JMP || op == LinearProgram.SAVE) {
+                mStack[top++] = program.outs[pc];
+            } else {
+                mList[mListSize++] = pc;
+                if (op == LinearProgram.MATCH && !mLongest) {
+                    mListCut = true;
+                    return;
+                }
+            }
+        }
+    }
+
+    private int addState(int[] pcs) {
+        StateKey key = new StateKey(pcs);
+        Integer existing = mStates.get(key);
+        if (existing != null) return existing;
+        if ((long) (mStateCount + 1) * mClassCount > MAX_CACHE_INTS && mStateCount > 1) {
+            reset();
+            return addState(pcs);
+        }
+        int state = mStateCount++;
+        if (state == mStatePcs.length) {
+            mStatePcs = Arrays.copyOf(mStatePcs, state * 2);
+            mStateFlags = Arrays.copyOf(mStateFlags, state * 2);
+        }
+        if ((state + 1) * mClassCount > mTransitions.length) {
+            mTransitions = Arrays.copyOf(mTransitions, Math.max(mTransitions.length * 2, (state + 1) * mClassCount));
+        }
+        mStatePcs[state] = pcs;
+        mStateFlags[state] = flags(pcs);
+        mStates.put(key, state);
+        return state;
+    }
+
+    private int flags(int[] pcs) {
+        LinearProgram program = mProgram;
+        int flags = 0;
+        int here = ++mHereGeneration;
+        for (int pc : pcs) {
+            int op = program.ops[pc];
+            if (op == LinearProgram.MATCH) {
+                flags |= MATCH_HERE;
+            } else if (op == LinearProgram.ASSERT_NOT_LOW_AHEAD || op == LinearProgram.ASSERT_NOT_HIGH_NEXT) {
+                for (int expandedPc : closure(program.outs[pc], here)) {
+                    if (program.ops[expandedPc] != LinearProgram.MATCH) continue;
+                    // low surrogate ahead can't be known here, but end of text is not low surrogate
+                    flags |= op == LinearProgram.ASSERT_NOT_HIGH_NEXT ? MATCH_HERE : MATCH_AT_END;
+                }
+            }
+        }
+        return flags;
+    }
+
+    private int search(int c) {
+        int index = Arrays.binarySearch(mClassStarts, c);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private static final class StateKey {
+        final int[] pcs;
+        final int hash;
+
+        StateKey(int[] pcs) {
+            this.pcs = pcs;
+            this.hash = Arrays.hashCode(pcs);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StateKey && Arrays.equals(pcs, ((StateKey) o).pcs);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,815 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Regular expression of the subset supported by {@link LinearRegexEngine}, compiled to Thompson NFA instructions.
+ * <p>
+ * Supported: literal chars and escapes, <code>.</code>, classes <code>[a-z\d]</code> and <code>[^...]</code>,
+ * <code>\d\D\w\W\s\S</code>, groups (capturing, named and <code>(?:...)</code>), alternation and greedy or lazy
+ * quantifiers over subexpressions which can't match empty text. Flags {@link Pattern#DOTALL} and {@link Pattern#MULTILINE}.
+ * Not supported: anchors, word boundaries, lookaround, back references, possessive quantifiers, other flags.
+ * <p>
+ * {@link java.util.regex.Matcher} reads classes by code points, so surrogate pair is one char for them.
+ * Instructions read UTF-16 chars, pairs are compiled as two chars, and lone high surrogate checks that it's not followed
+ * by low one. Program compiled in reverse reads text from end, it's used for search of match start.
+ */
+final class LinearProgram {
+
+    static final int CHAR = 0;
+    static final int SPLIT = 1;
+    static final int JMP = 2;
+    static final int SAVE = 3;
+    static final int MATCH = 4;
+    /**
+     * Passes if next char of text isn't low surrogate (or there is no next char).
+     */
+    static final int ASSERT_NOT_LOW_AHEAD = 5;
+    /**
+     * Reverse program: next char read (the one before in text) isn't high surrogate, match may end here anyway.
+     */
+    static final int ASSERT_NOT_HIGH_NEXT = 6;
+
+    static final int MAX_SIZE = 10000;
+    static final int MAX_REPEAT = 1000;
+
+    private static final int MIN_HIGH = 0xD800;
+    private static final int MAX_HIGH = 0xDBFF;
+    private static final int MIN_LOW = 0xDC00;
+    private static final int MAX_LOW = 0xDFFF;
+    private static final int[] ALL_CHARS = {0, 0xFFFF};
+    private static final int[] HIGH = {MIN_HIGH, MAX_HIGH};
+    private static final int[] LOW = {MIN_LOW, MAX_LOW};
+    private static final int[] SURROGATES = {MIN_HIGH, MAX_LOW};
+
+    final int[] ops;
+    final int[] outs;
+    final int[] outs2;
+    /**
+     * Sorted inclusive ranges of chars for {@link #CHAR}, slot for {@link #SAVE}.
+     */
+    final int[][] sets;
+    final int[] slots;
+    final int start;
+    /**
+     * Start with lowest priority loop over any char before it, -1 for reverse program.
+     */
+    final int unanchoredStart;
+    final int groupCount;
+    final int size;
+
+    private LinearProgram(Builder builder, int start, int unanchoredStart, int groupCount) {
+        this.size = builder.size;
+        this.ops = Arrays.copyOf(builder.ops, size);
+        this.outs = Arrays.copyOf(builder.outs, size);
+        this.outs2 = Arrays.copyOf(builder.outs2, size);
+        this.sets = Arrays.copyOf(builder.sets, size);
+        this.slots = Arrays.copyOf(builder.slots, size);
+        this.start = start;
+        this.unanchoredStart = unanchoredStart;
+        this.groupCount = groupCount;
+    }
+
+    /**
+     * @return Forward and reverse programs, or null if pattern isn't supported
+     */
+    @Nullable
+    static LinearProgram[] compile(@NonNull Pattern pattern) {
+        if ((pattern.flags() & ~(Pattern.DOTALL | Pattern.MULTILINE)) != 0) return null;
+        Parser parser = new Parser(pattern.pattern(), (pattern.flags() & Pattern.DOTALL) != 0);
+        Node node;
+        try {
+            node = parser.parse();
+        } catch (Unsupported e) {
+            return null;
+        }
+        LinearProgram forward = compile(node, parser.groupCount, false);
+        LinearProgram reverse = forward == null ? null : compile(node, parser.groupCount, true);
+        return reverse == null ? null : new LinearProgram[]{forward, reverse};
+    }
+
+    @Nullable
+    private static LinearProgram compile(Node node, int groupCount, boolean reverse) {
+        Builder builder = new Builder(reverse);
+        try {
+            int match = builder.add(MATCH, -1, -1, null, 0);
+            if (reverse) return new LinearProgram(builder, builder.emit(node, match), -1, groupCount);
+            int body = builder.save(0, builder.emit(node, builder.save(1, match)));
+            int loop = builder.add(SPLIT, body, -1, null, 0);
+            int any = builder.add(CHAR, loop, -1, ALL_CHARS, 0);
+            builder.outs2[loop] = any;
+            return new LinearProgram(builder, body, loop, groupCount);
+        } catch (Unsupported e) {
+            return null;
+        }
+    }
+
+    static boolean contains(int[] set, int c) {
+        int low = 0;
+        int high = set.length / 2 - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (c < set[middle * 2]) high = middle - 1;
+            else if (c > set[middle * 2 + 1]) low = middle + 1;
+            else return true;
+        }
+        return false;
+    }
+
+    static boolean isHigh(int c) {
+        return c >= MIN_HIGH && c <= MAX_HIGH;
+    }
+
+    static boolean isLow(int c) {
+        return c >= MIN_LOW && c <= MAX_LOW;
+    }
+
+    /**
+     * Find groups of match already found by automaton: the same priority rules as {@link java.util.regex.Matcher},
+     * simulated for all threads at once (Pike VM), so time is linear in match length.
+     *
+     * @param groups Receives start and end of each group, -1 for not matched group
+     * @return False if program doesn't match text from start to end (never for bounds found by automaton)
+     */
+    boolean groups(@NonNull CharSequence text, int start, int end, @NonNull int[] groups) {
+        Threads current = new Threads(this);
+        Threads next = new Threads(this);
+        int[] initial = new int[groupCount * 2 + 2];
+        Arrays.fill(initial, -1);
+        current.add(this.start, initial, text, start);
+        for (int position = start; position <= end && current.count > 0; position++) {
+            next.clear();
+            char c = position < end ? text.charAt(position) : 0;
+            for (int i = 0; i < current.count; i++) {
+                int pc = current.pcs[i];
+                int op = ops[pc];
+                if (op == MATCH) {
+                    if (position == end) {
+                        System.arraycopy(current.groups[i], 0, groups, 0, groups.length);
+                        return true;
+                    }
+                    // threads after this one have lower priority
+                    break;
+                }
+                if (op == CHAR && position < end && contains(sets[pc], c)) next.add(outs[pc], current.groups[i], text, position + 1);
+            }
+            Threads swap = current;
+            current = next;
+            next = swap;
+        }
+        return false;
+    }
+
+    /**
+     * Ordered list of threads at one position with their groups.
+     */
+    private static final class Threads {
+        final LinearProgram program;
+        final int[] pcs;
+        final int[][] groups;
+        int count;
+        /**
+         * Instructions already visited at this position, by thread with higher priority.
+         */
+        private final int[] mVisited;
+        private int mGeneration = 1;
+        private int[] mStack = new int[16];
+        private int[][] mStackGroups = new int[16][];
+
+        Threads(LinearProgram program) {
+            this.program = program;
+            this.pcs = new int[program.size];
+            this.groups = new int[program.size][];
+            this.mVisited = new int[program.size];
+        }
+
+        void clear() {
+            mGeneration++;
+            count = 0;
+        }
+
+        /**
+         * Add closure of pc in priority order. Instructions which don't read chars are followed here.
+         */
+        void add(int pc, int[] threadGroups, CharSequence text, int position) {
+            LinearProgram program = this.program;
+            int top = push(0, pc, threadGroups);
+            while (top > 0) {
+                top--;
+                pc = mStack[top];
+                int[] current = mStackGroups[top];
+                if (mVisited[pc] == mGeneration) continue;
+                mVisited[pc] = mGeneration;
+                switch (program.ops[pc]) {
+                    case JMP:
+                        top = push(top, program.outs[pc], current);
+                        break;
+                    case SPLIT:
+                        top = push(top, program.outs2[pc], current);
+                        top = push(top, program.outs[pc], current);
+                        break;
+                    case SAVE:
+                        int[] copy = current.clone();
+                        copy[program.slots[pc]] = position;
+                        top = push(top, program.outs[pc], copy);
+                        break;
+                    case ASSERT_NOT_LOW_AHEAD:
+                        if (position >= text.length() || !isLow(text.charAt(position))) top = push(top, program.outs[pc], current);
+                        break;
+                    default:
+                        pcs[count] = pc;
+                        groups[count] = current;
+                        count++;
+                }
+            }
+        }
+
+        private int push(int top, int pc, int[] threadGroups) {
+            if (top == mStack.length) {
+                mStack = Arrays.copyOf(mStack, top * 2);
+                mStackGroups = Arrays.copyOf(mStackGroups, top * 2);
+            }
+            mStack[top] = pc;
+            mStackGroups[top] = threadGroups;
+            return top + 1;
+        }
+    }
+
+    private static final class Builder {
+        final boolean reverse;
+        int[] ops = new int[64];
+        int[] outs = new int[64];
+        int[] outs2 = new int[64];
+        int[][] sets = new int[64][];
+        int[] slots = new int[64];
+        int size;
+
+        Builder(boolean reverse) {
+            this.reverse = reverse;
+        }
+
+        int add(int op, int out, int out2, int[] set, int slot) {
+            if (size == MAX_SIZE) throw new Unsupported();
+            if (size == ops.length) {
+                int capacity = size * 2;
+                ops = Arrays.copyOf(ops, capacity);
+                outs = Arrays.copyOf(outs, capacity);
+                outs2 = Arrays.copyOf(outs2, capacity);
+                sets = Arrays.copyOf(sets, capacity);
+                slots = Arrays.copyOf(slots, capacity);
+            }
+            ops[size] = op;
+            outs[size] = out;
+            outs2[size] = out2;
+            sets[size] = set;
+            slots[size] = slot;
+            return size++;
+        }
+
+        int save(int slot, int next) {
+            return add(SAVE, next, -1, null, slot);
+        }
+
+        int split(int preferred, int other) {
+            return add(SPLIT, preferred, other, null, 0);
+        }
+
+        int chars(int[] set, int next) {
+            return add(CHAR, next, -1, set, 0);
+        }
+
+        /**
+         * Compile node followed by <code>next</code>.
+         *
+         * @return Entry of compiled node
+         */
+        int emit(Node node, int next) {
+            switch (node.kind) {
+                case Node.SET:
+                    return emitSet(node.set, node.supplementary, next);
+                case Node.CONCAT:
+                    if (reverse) {
+                        for (Node child : node.children) next = emit(child, next);
+                    } else {
+                        for (int i = node.children.length - 1; i >= 0; i--) next = emit(node.children[i], next);
+                    }
+                    return next;
+                case Node.ALTERNATION:
+                    int entry = emit(node.children[node.children.length - 1], next);
+                    for (int i = node.children.length - 2; i >= 0; i--) entry = split(emit(node.children[i], next), entry);
+                    return entry;
+                case Node.GROUP:
+                    if (reverse) return emit(node.children[0], next);
+                    return save(node.group * 2, emit(node.children[0], save(node.group * 2 + 1, next)));
+                case Node.REPEAT:
+                    return emitRepeat(node, next);
+                default:
+                    return next;
+            }
+        }
+
+        private int emitRepeat(Node node, int next) {
+            Node body = node.children[0];
+            int tail;
+            if (node.max < 0) {
+                int loop = add(SPLIT, -1, -1, null, 0);
+                int entry = emit(body, loop);
+                outs[loop] = node.greedy ? entry : next;
+                outs2[loop] = node.greedy ? next : entry;
+                tail = loop;
+            } else {
+                // x{1,3} is x(x(x)?)?
+                tail = next;
+                for (int i = node.min; i < node.max; i++) {
+                    int entry = emit(body, tail);
+                    tail = node.greedy ? split(entry, next) : split(next, entry);
+                }
+            }
+            for (int i = 0; i < node.min; i++) tail = emit(body, tail);
+            return tail;
+        }
+
+        /**
+         * Code point set as alternatives of char sequences: single chars, surrogate pairs and lone surrogates.
+         */
+        private int emitSet(int[] set, boolean supplementary, int next) {
+            ArrayList<Integer> entries = new ArrayList<>(3);
+            int[] single = subtract(set, SURROGATES);
+            if (!reverse) {
+                single = union(single, intersect(set, LOW));
+                if (single.length > 0) entries.add(chars(single, next));
+                if (supplementary) entries.add(chars(HIGH, chars(LOW, next)));
+                int[] high = intersect(set, HIGH);
+                if (high.length > 0) entries.add(chars(high, add(ASSERT_NOT_LOW_AHEAD, next, -1, null, 0)));
+            } else {
+                single = union(single, intersect(set, HIGH));
+                if (single.length > 0) entries.add(chars(single, next));
+                if (supplementary) entries.add(chars(LOW, chars(HIGH, next)));
+                int[] low = intersect(set, LOW);
+                if (low.length > 0) entries.add(chars(low, add(ASSERT_NOT_HIGH_NEXT, next, -1, null, 0)));
+            }
+            // empty set never matches
+            if (entries.isEmpty()) return chars(new int[0], next);
+            int entry = entries.get(entries.size() - 1);
+            for (int i = entries.size() - 2; i >= 0; i--) entry = split(entries.get(i), entry);
+            return entry;
+        }
+    }
+
+    private static final class Node {
+        static final int EMPTY = 0;
+        static final int SET = 1;
+        static final int CONCAT = 2;
+        static final int ALTERNATION = 3;
+        static final int GROUP = 4;
+        static final int REPEAT = 5;
+
+        final int kind;
+        int[] set;
+        boolean supplementary;
+        Node[] children;
+        int group;
+        int min;
+        int max;
+        boolean greedy;
+        boolean groupLoop;
+
+        Node(int kind) {
+            this.kind = kind;
+        }
+
+        static Node set(int[] set, boolean supplementary) {
+            Node node = new Node(SET);
+            node.set = set;
+            node.supplementary = supplementary;
+            return node;
+        }
+
+        static Node of(int kind, ArrayList<Node> children) {
+            if (children.isEmpty()) return new Node(EMPTY);
+            if (children.size() == 1) return children.get(0);
+            Node node = new Node(kind);
+            node.children = children.toArray(new Node[children.size()]);
+            return node;
+        }
+
+        boolean isNullable() {
+            switch (kind) {
+                case SET:
+                    return false;
+                case CONCAT:
+                    for (Node child : children) if (!child.isNullable()) return false;
+                    return true;
+                case ALTERNATION:
+                    for (Node child : children) if (child.isNullable()) return true;
+                    return false;
+                case GROUP:
+                    return children[0].isNullable();
+                case REPEAT:
+                    return min == 0 || children[0].isNullable();
+                default:
+                    return true;
+            }
+        }
+
+        /**
+         * @return Node has single way to match (no alternatives or variable repeats), as Matcher decides it
+         */
+        boolean isFixed() {
+            switch (kind) {
+                case ALTERNATION:
+                    return false;
+                case REPEAT:
+                    return min == max && children[0].isFixed();
+                case CONCAT:
+                case GROUP:
+                    for (Node child : children) if (!child.isFixed()) return false;
+                    return true;
+                default:
+                    return true;
+            }
+        }
+
+        /**
+         * @return Node is or contains capturing group
+         */
+        boolean hasGroup() {
+            if (kind == GROUP) return true;
+            if (children != null) for (Node child : children) if (child.hasGroup()) return true;
+            return false;
+        }
+
+        /**
+         * @return Node contains greedy loop of capturing group with fixed body
+         */
+        boolean hasGroupLoop() {
+            if (groupLoop) return true;
+            if (children != null) for (Node child : children) if (child.hasGroupLoop()) return true;
+            return false;
+        }
+    }
+
+    /**
+     * Parser of regular expressions already validated by {@link Pattern#compile(String, int)}.
+     */
+    private static final class Parser {
+        private static final int[] DIGITS = {'0', '9'};
+        private static final int[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+        private static final int[] SPACES = {'\t', '\r', ' ', ' '};
+        private static final int[] LINE_TERMINATORS = {'\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029};
+
+        private final String mRegex;
+        private final boolean mDotAll;
+        private int mPosition;
+        private int groupCount;
+        private int[] mEscapeSet;
+        private boolean mEscapeSupplementary;
+
+        Parser(String regex, boolean dotAll) {
+            this.mRegex = regex;
+            this.mDotAll = dotAll;
+        }
+
+        Node parse() {
+            Node node = parseAlternation();
+            if (mPosition < mRegex.length()) throw new Unsupported();
+            return node;
+        }
+
+        private boolean peek(char c) {
+            return mPosition < mRegex.length() && mRegex.charAt(mPosition) == c;
+        }
+
+        private char next() {
+            if (mPosition >= mRegex.length()) throw new Unsupported();
+            return mRegex.charAt(mPosition++);
+        }
+
+        private Node parseAlternation() {
+            ArrayList<Node> alternatives = new ArrayList<>();
+            alternatives.add(parseConcatenation());
+            while (peek('|')) {
+                mPosition++;
+                alternatives.add(parseConcatenation());
+            }
+            return alternatives.size() == 1 ? alternatives.get(0) : Node.of(Node.ALTERNATION, alternatives);
+        }
+
+        private Node parseConcatenation() {
+            ArrayList<Node> items = new ArrayList<>();
+            while (mPosition < mRegex.length() && !peek('|') && !peek(')')) {
+                items.add(parseQuantifier(parseAtom()));
+            }
+            return Node.of(Node.CONCAT, items);
+        }
+
+        private Node parseAtom() {
+            char c = next();
+            switch (c) {
+                case '(':
+                    return parseGroup();
+                case '[':
+                    return parseClass();
+                case '.':
+                    return mDotAll ? Node.set(ALL_CHARS, true) : Node.set(subtract(ALL_CHARS, LINE_TERMINATORS), true);
+                case '\\':
+                    int escaped = parseEscape();
+                    return escaped < 0 ? Node.set(mEscapeSet, mEscapeSupplementary) : Node.set(new int[]{escaped, escaped}, false);
+                case '^':
+                case '$':
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw new Unsupported();
+                default:
+                    return Node.set(new int[]{checkChar(c), c}, false);
+            }
+        }
+
+        private Node parseGroup() {
+            boolean capturing = true;
+            if (peek('?')) {
+                mPosition++;
+                if (peek(':')) {
+                    mPosition++;
+                    capturing = false;
+                } else if (peek('<') && mPosition + 1 < mRegex.length() && Character.isLetter(mRegex.charAt(mPosition + 1))) {
+                    int end = mRegex.indexOf('>', mPosition);
+                    if (end < 0) throw new Unsupported();
+                    mPosition = end + 1;
+                } else {
+                    throw new Unsupported();
+                }
+            }
+            int group = capturing ? ++groupCount : 0;
+            Node body = parseAlternation();
+            if (next() != ')') throw new Unsupported();
+            if (!capturing && body.kind == Node.GROUP) {
+                // for Matcher (?:(a)) is a group of its own, with group 1 nested in it
+                Node node = new Node(Node.CONCAT);
+                node.children = new Node[]{body};
+                return node;
+            }
+            if (!capturing) return body;
+            Node node = new Node(Node.GROUP);
+            node.children = new Node[]{body};
+            node.group = group;
+            return node;
+        }
+
+        private Node parseQuantifier(Node atom) {
+            if (mPosition >= mRegex.length()) return atom;
+            int min;
+            int max;
+            char c = mRegex.charAt(mPosition);
+            if (c == '*') {
+                min = 0;
+                max = -1;
+            } else if (c == '+') {
+                min = 1;
+                max = -1;
+            } else if (c == '?') {
+                min = 0;
+                max = 1;
+            } else if (c == '{') {
+                mPosition++;
+                min = parseNumber();
+                max = min;
+                if (peek(',')) {
+                    mPosition++;
+                    max = peek('}') ? -1 : parseNumber();
+                }
+                if (!peek('}')) throw new Unsupported();
+            } else {
+                return atom;
+            }
+            mPosition++;
+            boolean greedy = true;
+            if (peek('?')) {
+                mPosition++;
+                greedy = false;
+            } else if (peek('+')) {
+                throw new Unsupported();
+            }
+            if (peek('*') || peek('+') || peek('?') || peek('{')) throw new Unsupported();
+            // Matcher stops loops on empty iteration, automaton would try other alternatives instead
+            if ((max < 0 || max > 1) && atom.isNullable()) throw new Unsupported();
+            // Matcher sets group of greedy loop like (ab)+ after the rest of match, overwriting its later iterations
+            if ((max < 0 || max > 1) && atom.hasGroupLoop()) throw new Unsupported();
+            // Matcher doesn't restore groups inside of repeated fixed group, they keep values of iterations it backed off
+            if (c != '?' && atom.isFixed() && (atom.kind == Node.GROUP ? atom.children[0] : atom).hasGroup()) throw new Unsupported();
+            Node node = new Node(Node.REPEAT);
+            node.children = new Node[]{atom};
+            node.min = min;
+            node.max = max;
+            node.greedy = greedy;
+            node.groupLoop = greedy && (max < 0 || max > 1) && atom.kind == Node.GROUP && atom.isFixed();
+            return node;
+        }
+
+        private int parseNumber() {
+            int start = mPosition;
+            int value = 0;
+            while (mPosition < mRegex.length() && mRegex.charAt(mPosition) >= '0' && mRegex.charAt(mPosition) <= '9') {
+                value = value * 10 + mRegex.charAt(mPosition++) - '0';
+                if (value > MAX_REPEAT) throw new Unsupported();
+            }
+            if (mPosition == start) throw new Unsupported();
+            return value;
+        }
+
+        private Node parseClass() {
+            boolean negated = peek('^');
+            if (negated) mPosition++;
+            if (peek(']')) throw new Unsupported();
+            int[] set = new int[0];
+            boolean supplementary = false;
+            while (true) {
+                char c = next();
+                if (c == ']') break;
+                if (c == '[' || (c == '&' && peek('&'))) throw new Unsupported();
+                int low;
+                if (c == '\\') {
+                    low = parseEscape();
+                    if (low < 0) {
+                        set = union(set, mEscapeSet);
+                        supplementary |= mEscapeSupplementary;
+                        continue;
+                    }
+                } else {
+                    low = checkChar(c);
+                }
+                int high = low;
+                if (peek('-') && mPosition + 1 < mRegex.length() && mRegex.charAt(mPosition + 1) != ']') {
+                    mPosition++;
+                    c = next();
+                    if (c == '[') throw new Unsupported();
+                    high = c == '\\' ? parseEscape() : checkChar(c);
+                    if (high < low) throw new Unsupported();
+                }
+                set = union(set, new int[]{low, high});
+            }
+            if (negated) return Node.set(subtract(ALL_CHARS, set), !supplementary);
+            return Node.set(set, supplementary);
+        }
+
+        /**
+         * Parse escape after '\'.
+         *
+         * @return Escaped char, or -1 for predefined class stored to {@link #mEscapeSet}
+         */
+        private int parseEscape() {
+            char c = next();
+            switch (c) {
+                case 'd':
+                case 'D':
+                    return escapeSet(DIGITS, c == 'D');
+                case 'w':
+                case 'W':
+                    return escapeSet(WORD, c == 'W');
+                case 's':
+                case 'S':
+                    return escapeSet(SPACES, c == 'S');
+                case 't':
+                    return '\t';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 'f':
+                    return '\f';
+                case 'a':
+                    return '\u0007';
+                case 'e':
+                    return '\u001B';
+                case 'c':
+                    return next() ^ 64;
+                case '0':
+                    int octal = 0;
+                    for (int digits = 0; digits < 3 && mPosition < mRegex.length(); digits++) {
+                        char digit = mRegex.charAt(mPosition);
+                        if (digit < '0' || digit > '7' || (digits == 2 && octal > 037)) break;
+                        octal = octal * 8 + digit - '0';
+                        mPosition++;
+                    }
+                    return octal;
+                case 'x':
+                    if (peek('{')) {
+                        int end = mRegex.indexOf('}', mPosition);
+                        if (end < 0 || end - mPosition > 5) throw new Unsupported();
+                        int value = parseHex(mPosition + 1, end);
+                        mPosition = end + 1;
+                        return checkChar(value);
+                    }
+                    mPosition += 2;
+                    return checkChar(parseHex(mPosition - 2, mPosition));
+                case 'u':
+                    mPosition += 4;
+                    return checkChar(parseHex(mPosition - 4, mPosition));
+                default:
+                    if (c < 128 && Character.isLetterOrDigit(c)) throw new Unsupported();
+                    return checkChar(c);
+            }
+        }
+
+        private int escapeSet(int[] set, boolean negated) {
+            mEscapeSet = negated ? subtract(ALL_CHARS, set) : set;
+            mEscapeSupplementary = negated;
+            return -1;
+        }
+
+        private int parseHex(int start, int end) {
+            if (start >= end || end > mRegex.length()) throw new Unsupported();
+            int value = 0;
+            for (int i = start; i < end; i++) {
+                int digit = Character.digit(mRegex.charAt(i), 16);
+                if (digit < 0) throw new Unsupported();
+                value = value * 16 + digit;
+            }
+            return value;
+        }
+
+        private static int checkChar(int c) {
+            // surrogates in pattern switch Matcher to reading by code points
+            if (c > 0xFFFF || (c >= MIN_HIGH && c <= MAX_LOW)) throw new Unsupported();
+            return c;
+        }
+    }
+
+    private static final class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    static int[] union(int[] a, int[] b) {
+        int[] all = new int[a.length + b.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            int low;
+            int high;
+            if (j >= b.length || (i < a.length && a[i] <= b[j])) {
+                low = a[i];
+                high = a[i + 1];
+                i += 2;
+            } else {
+                low = b[j];
+                high = b[j + 1];
+                j += 2;
+            }
+            if (count > 0 && low <= all[count - 1] + 1) {
+                all[count - 1] = Math.max(all[count - 1], high);
+            } else {
+                all[count++] = low;
+                all[count++] = high;
+            }
+        }
+        return Arrays.copyOf(all, count);
+    }
+
+    static int[] intersect(int[] a, int[] b) {
+        int[] all = new int[a.length + b.length];
+        int count = 0;
+        for (int i = 0; i < a.length; i += 2) {
+            for (int j = 0; j < b.length; j += 2) {
+                int low = Math.max(a[i], b[j]);
+                int high = Math.min(a[i + 1], b[j + 1]);
+                if (low <= high) {
+                    all[count++] = low;
+                    all[count++] = high;
+                }
+            }
+        }
+        return union(new int[0], Arrays.copyOf(all, count));
+    }
+
+    static int[] subtract(int[] a, int[] b) {
+        // complement of b within 0..FFFF
+        int[] complement = new int[b.length + 2];
+        int count = 0;
+        int from = 0;
+        for (int j = 0; j < b.length; j += 2) {
+            if (b[j] > from) {
+                complement[count++] = from;
+                complement[count++] = b[j] - 1;
+            }
+            from = b[j + 1] + 1;
+        }
+        if (from <= 0xFFFF) {
+            complement[count++] = from;
+            complement[count++] = 0xFFFF;
+        }
+        return intersect(a, Arrays.copyOf(complement, count));
+    }
+}
@@ -0,0 +1,246 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+
+/**
+ * Engine which never backtracks: time of search is linear to text length for any supported pattern,
+ * so user supplied patterns like <code>(a+)+b</code> can't hang matching.
+ * <p>
+ * Match end is found by lazily built automaton (DFA) over Thompson NFA, match start by automaton of reversed pattern
+ * running back from the end. Groups are computed only when requested, by simulation of NFA over the match.
+ * Matches, including groups, are the same as of {@link java.util.regex.Matcher}.
+ * <p>
+ * Supported subset: literals and escapes, <code>.</code>, classes without intersections, <code>\d\w\s</code> and negations,
+ * groups (capturing, named and non-capturing), alternation, greedy and lazy quantifiers (repeated subexpression must not
+ * match empty text), flags {@link Pattern#DOTALL} and {@link Pattern#MULTILINE}. Other patterns (anchors, lookaround,
+ * back references, other flags, loops like <code>(\s)+</code> inside other loops, whose groups Matcher reports
+ * differently) are refused, see {@link #isSupported(Pattern)}.
+ * <p>
+ * Compiled patterns and their automata are cached, search is thread-safe.
+ */
+public final class LinearRegexEngine implements RegexEngine {
+
+    public static final int DEFAULT_MAX_CACHED_PATTERNS = 64;
+
+    private static final Compiled UNSUPPORTED = new Compiled(null, null);
+
+    private final LinkedHashMap<Pattern, Compiled> mCompiled = new LinkedHashMap<>(16, 0.75f, true);
+    private final int mMaxCachedPatterns;
+
+    public LinearRegexEngine() {
+        this(DEFAULT_MAX_CACHED_PATTERNS);
+    }
+
+    /**
+     * @param maxCachedPatterns Maximum count of compiled patterns kept in cache
+     */
+    public LinearRegexEngine(int maxCachedPatterns) {
+        if (maxCachedPatterns <= 0) throw new IllegalArgumentException("maxCachedPatterns <= 0");
+        this.mMaxCachedPatterns = maxCachedPatterns;
+    }
+
+    /**
+     * @return True if pattern is in subset supported by engine
+     */
+    public boolean isSupported(@NonNull Pattern pattern) {
+        return compiled(pattern) != UNSUPPORTED;
+    }
+
+    @Nullable
+    @Override
+    public Search search(@NonNull Pattern pattern, @NonNull CharSequence text) {
+        Compiled compiled = compiled(pattern);
+        return compiled == UNSUPPORTED ? null : new LinearSearch(compiled, text);
+    }
+
+    private Compiled compiled(Pattern pattern) {
+        synchronized (mCompiled) {
+            Compiled compiled = mCompiled.get(pattern);
+            if (compiled != null) return compiled;
+        }
+        // compile outside of lock, concurrent compilation of the same pattern is harmless.
+        LinearProgram[] programs = LinearProgram.compile(pattern);
+        Compiled compiled = programs == null ? UNSUPPORTED : new Compiled(programs[0], programs[1]);
+        synchronized (mCompiled) {
+            mCompiled.put(pattern, compiled);
+            Iterator<Map.Entry<Pattern, Compiled>> iterator = mCompiled.entrySet().iterator();
+            while (mCompiled.size() > mMaxCachedPatterns) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        return compiled;
+    }
+
+    private static final class Compiled {
+        final LinearProgram forward;
+        final LinearProgram reverse;
+        /**
+         * Automata not used by any search now. Automata are not thread-safe, so concurrent searches build their own.
+         */
+        final AtomicReference<Automata> free = new AtomicReference<>();
+
+        Compiled(LinearProgram forward, LinearProgram reverse) {
+            this.forward = forward;
+            this.reverse = reverse;
+        }
+
+        Automata acquire() {
+            Automata automata = free.getAndSet(null);
+            return automata != null ? automata : new Automata(new LazyDfa(forward, false), new LazyDfa(reverse, true));
+        }
+
+        void release(Automata automata) {
+            free.set(automata);
+        }
+    }
+
+    private static final class Automata {
+        final LazyDfa forward;
+        final LazyDfa reverse;
+
+        Automata(LazyDfa forward, LazyDfa reverse) {
+            this.forward = forward;
+            this.reverse = reverse;
+        }
+    }
+
+    private static final class LinearSearch implements Search, MatchResult {
+        private final Compiled mCompiled;
+        private final CharSequence mText;
+        private final int mLength;
+        private Automata mAutomata;
+        private int mFrom;
+        private int mStart = -1;
+        private int mEnd = -1;
+        private int[] mGroups;
+
+        LinearSearch(Compiled compiled, CharSequence text) {
+            this.mCompiled = compiled;
+            this.mText = text;
+            this.mLength = text.length();
+        }
+
+        @Override
+        public boolean find() {
+            mGroups = null;
+            if (mFrom > mLength) return false;
+            if (mAutomata == null) mAutomata = mCompiled.acquire();
+            int end = findEnd(mAutomata.forward, mFrom);
+            if (end < 0) {
+                mFrom = mLength + 1;
+                mCompiled.release(mAutomata);
+                mAutomata = null;
+                return false;
+            }
+            mStart = findStart(mAutomata.reverse, end, mFrom);
+            mEnd = end;
+            mFrom = mStart == end ? end + 1 : end;
+            return true;
+        }
+
+        /**
+         * @return End of leftmost match starting not before from, -1 if not found
+         */
+        private int findEnd(LazyDfa dfa, int from) {
+            CharSequence text = mText;
+            int length = mLength;
+            int state = dfa.state(mCompiled.forward.unanchoredStart);
+            int end = dfa.isMatch(state) ? from : -1;
+            for (int i = from; i < length; i++) {
+                int transition = dfa.next(state, text.charAt(i));
+                if ((transition & 1) != 0) end = i;
+                state = transition >>> 1;
+                if (state == LazyDfa.DEAD) return end;
+                if (dfa.isMatch(state)) end = i + 1;
+            }
+            return dfa.isMatchAtEnd(state) ? length : end;
+        }
+
+        /**
+         * @return Start of match ending at end: the first position from which pattern matches up to end
+         */
+        private int findStart(LazyDfa dfa, int end, int from) {
+            CharSequence text = mText;
+            int state = dfa.state(mCompiled.reverse.start);
+            int start = dfa.isMatch(state) ? end : -1;
+            for (int i = end - 1; i >= from; i--) {
+                state = dfa.next(state, text.charAt(i)) >>> 1;
+                if (state == LazyDfa.DEAD) break;
+                if (dfa.isMatch(state)) start = i;
+            }
+            return start;
+        }
+
+        @Override
+        public MatchResult result() {
+            return this;
+        }
+
+        private int[] groups() {
+            if (mGroups == null) {
+                int[] groups = new int[mCompiled.forward.groupCount * 2 + 2];
+                if (!mCompiled.forward.groups(mText, mStart, mEnd, groups)) throw new IllegalStateException("No match at " + mStart);
+                mGroups = groups;
+            }
+            return mGroups;
+        }
+
+        @Override
+        public int start() {
+            checkMatch();
+            return mStart;
+        }
+
+        @Override
+        public int start(int group) {
+            checkGroup(group);
+            return group == 0 ? mStart : groups()[group * 2];
+        }
+
+        @Override
+        public int end() {
+            checkMatch();
+            return mEnd;
+        }
+
+        @Override
+        public int end(int group) {
+            checkGroup(group);
+            return group == 0 ? mEnd : groups()[group * 2 + 1];
+        }
+
+        @Override
+        public String group() {
+            return group(0);
+        }
+
+        @Override
+        public String group(int group) {
+            int start = start(group);
+            return start < 0 ? null : mText.subSequence(start, end(group)).toString();
+        }
+
+        @Override
+        public int groupCount() {
+            return mCompiled.forward.groupCount;
+        }
+
+        private void checkMatch() {
+            if (mStart < 0) throw new IllegalStateException("No match available");
+        }
+
+        private void checkGroup(int group) {
+            checkMatch();
+            if (group < 0 || group > groupCount()) throw new IndexOutOfBoundsException("No group " + group);
+        }
+    }
+}
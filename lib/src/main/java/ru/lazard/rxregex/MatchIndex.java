@@ -0,0 +1,223 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable index of all matches of pattern in text, stored in primitive arrays: two ints per match
+ * and two ints per group of match if groups are recorded.
+ * <p>
+ * Matches are sorted and don't overlap, so both starts and ends are sorted and range queries are binary searches.
+ * <pre>{@code
+ * MatchIndex index = Regex.findAll(text, pattern);
+ * int first = index.firstOverlapping(viewportFrom, viewportTo);    // -1 if nothing is visible
+ * for (int k = first; k >= 0 && k < index.size() && index.start(k) < viewportTo; k++) {
+ *     highlight(index.start(k), index.end(k));
+ * }
+ * }</pre>
+ * Empty match at offset overlaps ranges which contain this offset.
+ * <p>
+ * Index may be saved to file and opened later by memory mapping, see {@link MatchIndexFile}.
+ */
+public final class MatchIndex {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final int mSize;
+    private final IntBuffer mStarts;
+    private final IntBuffer mEnds;
+    private final int mGroupCount;
+    private final IntBuffer mGroups;
+
+    /**
+     * @param groupCount Count of groups per match in <code>groups</code>, -1 if groups aren't recorded
+     * @param groups     Start and end of each group of each match
+     */
+    MatchIndex(int size, @NonNull IntBuffer starts, @NonNull IntBuffer ends, int groupCount, @NonNull IntBuffer groups) {
+        this.mSize = size;
+        this.mStarts = starts;
+        this.mEnds = ends;
+        this.mGroupCount = groupCount;
+        this.mGroups = groups;
+    }
+
+    /**
+     * @param withGroups Record offsets of groups, see {@link #start(int, int)}
+     */
+    @NonNull
+    static MatchIndex build(@NonNull String text, @NonNull Pattern pattern, boolean withGroups) {
+        int groupCount = withGroups ? pattern.matcher("").groupCount() : 0;
+        int groupInts = groupCount * 2;
+        Finder finder = Finder.create(pattern, text);
+        int size = 0;
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int[] groups = groupCount > 0 ? new int[16 * groupInts] : EMPTY;
+        while (finder.find()) {
+            MatchResult match = finder.result();
+            if (size == starts.length) {
+                int capacity = size + (size >> 1);
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                if (groupCount > 0) groups = Arrays.copyOf(groups, capacity * groupInts);
+            }
+            starts[size] = match.start();
+            ends[size] = match.end();
+            for (int group = 1, offset = size * groupInts; group <= groupCount; group++, offset += 2) {
+                groups[offset] = match.start(group);
+                groups[offset + 1] = match.end(group);
+            }
+            size++;
+        }
+        if (starts.length != size) {
+            starts = Arrays.copyOf(starts, size);
+            ends = Arrays.copyOf(ends, size);
+            if (groupCount > 0) groups = Arrays.copyOf(groups, size * groupInts);
+        }
+        return new MatchIndex(size, IntBuffer.wrap(starts), IntBuffer.wrap(ends), withGroups ? groupCount : -1, IntBuffer.wrap(groups));
+    }
+
+    /**
+     * @return Count of matches
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return Start of k-th match
+     */
+    public int start(int k) {
+        checkIndex(k);
+        return mStarts.get(k);
+    }
+
+    /**
+     * @return End of k-th match, exclusive
+     */
+    public int end(int k) {
+        checkIndex(k);
+        return mEnds.get(k);
+    }
+
+    /**
+     * @return Count of groups in pattern, -1 if groups aren't recorded
+     */
+    public int groupCount() {
+        return mGroupCount;
+    }
+
+    /**
+     * @return Start of group of k-th match, -1 if group didn't participate in match. Group 0 is whole match.
+     * @throws IllegalStateException If groups aren't recorded
+     */
+    public int start(int k, int group) {
+        return group == 0 ? start(k) : mGroups.get(groupOffset(k, group));
+    }
+
+    /**
+     * @return End of group of k-th match, -1 if group didn't participate in match. Group 0 is whole match.
+     * @throws IllegalStateException If groups aren't recorded
+     */
+    public int end(int k, int group) {
+        return group == 0 ? end(k) : mGroups.get(groupOffset(k, group) + 1);
+    }
+
+    /**
+     * @return Index of first match which starts at or after offset, {@link #size()} if there is no such match
+     */
+    public int ceilingIndex(int offset) {
+        return lowerBound(mStarts, offset);
+    }
+
+    /**
+     * @return Index of match which contains offset, -1 if offset is outside of matches
+     */
+    public int indexAt(int offset) {
+        int k = upperBound(mStarts, offset) - 1;
+        return k >= 0 && offset < mEnds.get(k) ? k : -1;
+    }
+
+    /**
+     * @return Index of first match overlapping range [from, to), -1 if there is no such match
+     */
+    public int firstOverlapping(int from, int to) {
+        int first = firstEndingAfter(from);
+        return first < mSize && mStarts.get(first) < to ? first : -1;
+    }
+
+    /**
+     * @return Count of matches overlapping range [from, to), they are in row from {@link #firstOverlapping(int, int)}
+     */
+    public int countOverlapping(int from, int to) {
+        return Math.max(0, lowerBound(mStarts, to) - firstEndingAfter(from));
+    }
+
+    /**
+     * @return Count of matches which are completely inside of range [from, to)
+     */
+    public int countWithin(int from, int to) {
+        return Math.max(0, upperBound(mEnds, to) - lowerBound(mStarts, from));
+    }
+
+    /**
+     * Index of first match which ends after offset or is empty match at offset.
+     */
+    private int firstEndingAfter(int offset) {
+        int k = upperBound(mEnds, offset);
+        // empty match at offset goes after not empty match which ends there
+        if (k > 0 && mEnds.get(k - 1) == offset && mStarts.get(k - 1) == offset) k--;
+        return k;
+    }
+
+    /**
+     * @return Index of first value which is >= key
+     */
+    private int lowerBound(IntBuffer values, int key) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values.get(mid) < key) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * @return Index of first value which is > key
+     */
+    private int upperBound(IntBuffer values, int key) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values.get(mid) <= key) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    private int groupOffset(int k, int group) {
+        checkIndex(k);
+        if (mGroupCount < 0) throw new IllegalStateException("Groups aren't recorded");
+        if (group < 0 || group > mGroupCount) throw new IndexOutOfBoundsException("No group " + group);
+        return (k * mGroupCount + group - 1) * 2;
+    }
+
+    private void checkIndex(int k) {
+        if (k < 0 || k >= mSize) throw new IndexOutOfBoundsException("Index: " + k + ", size: " + mSize);
+    }
+
+    @Override
+    public String toString() {
+        return "MatchIndex{" +
+                "size=" + mSize +
+                ", groupCount=" + mGroupCount +
+                '}';
+    }
+}
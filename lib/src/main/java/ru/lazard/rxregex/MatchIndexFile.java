@@ -0,0 +1,247 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * {@link MatchIndex} of file saved to index file, for repeated queries over large files which don't change.
+ * Opened index is memory mapped, so queries read offsets directly from file and regular expression isn't run at all.
+ * <pre>{@code
+ * MatchIndex index = MatchIndexFile.openOrCreate(logFile, charset, pattern, false, new File(cacheDir, "errors.idx"));
+ * int count = index.countWithin(0, Integer.MAX_VALUE);
+ * }</pre>
+ * Index file keeps fingerprint of source file (length, modification time and checksum of all bytes), charset,
+ * regular expression and flags. Index is stale if any of them differs, so edit of source is detected even if it keeps
+ * length and modification time.
+ * Offsets in index are offsets of chars in text decoded by charset.
+ */
+public final class MatchIndexFile {
+
+    private static final int MAGIC = 0x52584D49; // "RXMI"
+    // version 2: checksum of whole source file, version 1 files are stale
+    private static final int VERSION = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private MatchIndexFile() {
+    }
+
+    /**
+     * Open index file if it's up to date, create it otherwise.
+     *
+     * @param withGroups Record offsets of groups too, index without groups is rebuilt in this case
+     */
+    @NonNull
+    public static MatchIndex openOrCreate(@NonNull File source, @NonNull Charset charset, @NonNull Pattern pattern, boolean withGroups, @NonNull File indexFile) throws IOException {
+        MatchIndex index = open(indexFile, source, charset, pattern);
+        if (index != null && (!withGroups || index.groupCount() >= 0)) return index;
+        return create(source, charset, pattern, withGroups, indexFile);
+    }
+
+    /**
+     * Find all matches in source file and save them to index file. Index file is replaced atomically.
+     *
+     * @return Created index, in memory
+     */
+    @NonNull
+    public static MatchIndex create(@NonNull File source, @NonNull Charset charset, @NonNull Pattern pattern, boolean withGroups, @NonNull File indexFile) throws IOException {
+        // fingerprint is taken before reading, so change of source during reading makes index stale
+        Fingerprint fingerprint = Fingerprint.of(source);
+        MatchIndex index = Regex.findAll(read(source, charset), pattern, withGroups);
+        write(index, fingerprint, charset, pattern, indexFile);
+        return index;
+    }
+
+    /**
+     * Open index file by memory mapping. Source file is read once for checksum, regular expression isn't run.
+     *
+     * @return Index, or null if index file doesn't exist, is stale or is created for other pattern, flags or charset
+     * @throws IOException If index file can't be read or isn't an index file
+     */
+    @Nullable
+    public static MatchIndex open(@NonNull File indexFile, @NonNull File source, @NonNull Charset charset, @NonNull Pattern pattern) throws IOException {
+        if (!indexFile.isFile() || !source.isFile()) return null;
+        MappedByteBuffer buffer;
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+        try {
+            // mapping stays valid after file is closed
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            closeQuietly(file);
+        }
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            if (buffer.getInt() != MAGIC) throw new IOException("Not a match index file: " + indexFile);
+            if (buffer.getInt() != VERSION) return null;
+            Fingerprint fingerprint = new Fingerprint(buffer.getLong(), buffer.getLong(), buffer.getLong());
+            int flags = buffer.getInt();
+            int groupCount = buffer.getInt();
+            int size = buffer.getInt();
+            String charsetName = getString(buffer);
+            String regex = getString(buffer);
+            if (flags != pattern.flags() || !regex.equals(pattern.pattern()) || !charsetName.equals(charset.name())) return null;
+            if (!fingerprint.equals(Fingerprint.of(source))) return null;
+
+            int groupInts = Math.max(0, groupCount) * 2 * size;
+            IntBuffer starts = slice(buffer, size);
+            IntBuffer ends = slice(buffer, size);
+            IntBuffer groups = slice(buffer, groupInts);
+            return new MatchIndex(size, starts, ends, groupCount, groups);
+        } catch (RuntimeException e) {
+            // BufferUnderflowException, IllegalArgumentException of truncated or damaged file
+            throw new IOException("Damaged match index file: " + indexFile, e);
+        }
+    }
+
+    private static void write(@NonNull MatchIndex index, @NonNull Fingerprint fingerprint, @NonNull Charset charset, @NonNull Pattern pattern, @NonNull File indexFile) throws IOException {
+        File temp = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getAbsoluteFile().getParentFile());
+        RandomAccessFile file = null;
+        boolean renamed = false;
+        try {
+            file = new RandomAccessFile(temp, "rw");
+            FileChannel channel = file.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION);
+            buffer.putLong(fingerprint.mLength).putLong(fingerprint.mModified).putLong(fingerprint.mChecksum);
+            buffer.putInt(pattern.flags()).putInt(index.groupCount()).putInt(index.size());
+            putString(channel, buffer, charset.name());
+            putString(channel, buffer, pattern.pattern());
+
+            int size = index.size();
+            for (int k = 0; k < size; k++) putInt(channel, buffer, index.start(k));
+            for (int k = 0; k < size; k++) putInt(channel, buffer, index.end(k));
+            for (int k = 0; k < size; k++) {
+                for (int group = 1; group <= index.groupCount(); group++) {
+                    putInt(channel, buffer, index.start(k, group));
+                    putInt(channel, buffer, index.end(k, group));
+                }
+            }
+            flush(channel, buffer);
+            channel.force(true);
+            file.close();
+            file = null;
+            if (!temp.renameTo(indexFile)) throw new IOException("Can't rename " + temp + " to " + indexFile);
+            renamed = true;
+        } finally {
+            closeQuietly(file);
+            if (!renamed) temp.delete();
+        }
+    }
+
+    private static String read(@NonNull File source, @NonNull Charset charset) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(source), charset);
+        try {
+            StringBuilder builder = new StringBuilder((int) Math.min(source.length(), Integer.MAX_VALUE - 8));
+            char[] buffer = new char[8192];
+            int count;
+            while ((count = reader.read(buffer)) >= 0) builder.append(buffer, 0, count);
+            return builder.toString();
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private static IntBuffer slice(@NonNull ByteBuffer buffer, int count) {
+        ByteBuffer slice = buffer.slice();
+        slice.order(buffer.order());
+        slice.limit(count * 4);
+        buffer.position(buffer.position() + count * 4);
+        return slice.asIntBuffer();
+    }
+
+    private static String getString(@NonNull ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void putString(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, @NonNull String string) throws IOException {
+        byte[] bytes = string.getBytes(UTF_8);
+        putInt(channel, buffer, bytes.length);
+        for (int offset = 0; offset < bytes.length; ) {
+            if (!buffer.hasRemaining()) flush(channel, buffer);
+            int count = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, count);
+            offset += count;
+        }
+    }
+
+    private static void putInt(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, int value) throws IOException {
+        if (buffer.remaining() < 4) flush(channel, buffer);
+        buffer.putInt(value);
+    }
+
+    private static void flush(@NonNull FileChannel channel, @NonNull ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static final class Fingerprint {
+        private final long mLength;
+        private final long mModified;
+        private final long mChecksum;
+
+        Fingerprint(long length, long modified, long checksum) {
+            this.mLength = length;
+            this.mModified = modified;
+            this.mChecksum = checksum;
+        }
+
+        static Fingerprint of(@NonNull File source) throws IOException {
+            long modified = source.lastModified();
+            InputStream in = new FileInputStream(source);
+            try {
+                long length = 0;
+                CRC32 crc = new CRC32();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int count;
+                while ((count = in.read(buffer)) >= 0) {
+                    crc.update(buffer, 0, count);
+                    length += count;
+                }
+                return new Fingerprint(length, modified, crc.getValue());
+            } finally {
+                closeQuietly(in);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Fingerprint)) return false;
+            Fingerprint that = (Fingerprint) o;
+            return mLength == that.mLength && mModified == that.mModified && mChecksum == that.mChecksum;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (mLength ^ mModified ^ mChecksum);
+        }
+    }
+}
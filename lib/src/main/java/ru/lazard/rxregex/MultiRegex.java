@@ -0,0 +1,379 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.FloatRange;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Set of find/replace rules applied to text in one scan.
+ * <p>
+ * Matches of all rules are found from left to right. If matches of some rules overlap, match which starts first wins,
+ * if they start at the same position then rule with lowest index wins. Text after winning match is searched again
+ * by all rules, so rules never see text already replaced by other rule.
+ * <p>
+ * Literal rules are searched by Aho-Corasick automaton, time of search doesn't depend on count of literal rules.
+ * Other rules are combined to one alternation pattern. Rules with back references or named groups, and rules which
+ * can't be combined, are searched by own matchers. <code>\G</code> of rule means end of previous match of any rule.
+ * <p>
+ * Compiled rules aren't changed by scans, so one instance may be used by many threads at once, as {@link Pattern}.
+ * <pre>{@code
+ * MultiRegex redaction = MultiRegex.compile(
+ *         new MultiRegex.Rule("password", "********"),
+ *         new MultiRegex.Rule("\\d{4}-\\d{4}-\\d{4}-\\d{4}", "****-****-****-$0"),
+ *         new MultiRegex.Rule("(\\w+)@(\\w+)\\.com", Pattern.CASE_INSENSITIVE, "$1@***"));
+ * String result = redaction.replace(text);
+ * }</pre>
+ */
+public class MultiRegex {
+
+    private final Rule[] mRules;
+    private final ReplacementTemplate[] mTemplates;
+    private final int[] mGroupCounts;
+    private final AhoCorasick mLiterals;
+    private final Pattern mCombined;
+    private final int[] mCombinedRules;
+    private final int[] mCombinedGroups;
+    private final int[] mSeparateRules;
+
+    private MultiRegex(Rule[] rules) {
+        this.mRules = rules;
+        this.mTemplates = new ReplacementTemplate[rules.length];
+        this.mGroupCounts = new int[rules.length];
+        String[] literals = new String[rules.length];
+        List<Integer> combinedRules = new ArrayList<>();
+        List<Integer> separateRules = new ArrayList<>();
+        StringBuilder combined = new StringBuilder();
+        boolean hasLiterals = false;
+        for (int i = 0; i < rules.length; i++) {
+            Pattern pattern = rules[i].getPattern();
+            mTemplates[i] = PatternCache.getDefault().getTemplate(pattern, rules[i].getReplacement());
+            mGroupCounts[i] = pattern.matcher("").groupCount();
+            literals[i] = PatternAnalysis.literal(pattern);
+            if (literals[i] != null) {
+                hasLiterals = true;
+                continue;
+            }
+            String alternative = alternative(pattern, mGroupCounts[i]);
+            if (alternative == null) {
+                separateRules.add(i);
+                continue;
+            }
+            if (combined.length() > 0) combined.append('|');
+            combined.append(alternative);
+            combinedRules.add(i);
+        }
+        this.mLiterals = hasLiterals ? new AhoCorasick(literals) : null;
+        this.mSeparateRules = toArray(separateRules);
+        this.mCombinedRules = toArray(combinedRules);
+        this.mCombinedGroups = new int[mCombinedRules.length];
+        int group = 1;
+        for (int i = 0; i < mCombinedRules.length; i++) {
+            mCombinedGroups[i] = group;
+            group += mGroupCounts[mCombinedRules[i]] + 1;
+        }
+        this.mCombined = mCombinedRules.length > 0 ? Pattern.compile(combined.toString()) : null;
+    }
+
+    public static MultiRegex compile(@NonNull Rule... rules) {
+        return new MultiRegex(rules.clone());
+    }
+
+    public static MultiRegex compile(@NonNull List<Rule> rules) {
+        return new MultiRegex(rules.toArray(new Rule[rules.size()]));
+    }
+
+    public int getRuleCount() {
+        return mRules.length;
+    }
+
+    @NonNull
+    public Rule getRule(int index) {
+        return mRules[index];
+    }
+
+    public String replace(@NonNull String text) {
+        final StringBuilder builder = new StringBuilder();
+        replace(text, (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount, ruleIndex) ->
+                builder.append(appendDst));
+        return builder.toString();
+    }
+
+    public void replace(@NonNull String text, @NonNull Listener listener) {
+        replace(text, listener, new Regex.CancellationSignalFake());
+    }
+
+    public void replace(@NonNull String text, @NonNull Listener listener, @NonNull Regex.CancellationSignal cancellationSignal) {
+        if (cancellationSignal.isCanceled()) return;
+        new Scanner(text, listener, cancellationSignal).start();
+    }
+
+    /**
+     * @return Rule wrapped to capturing group with own flags, or null if rule can't be part of alternation
+     */
+    private static String alternative(Pattern pattern, int groupCount) {
+        int flags = pattern.flags();
+        if ((flags & Pattern.CANON_EQ) != 0) return null;
+        if (PatternAnalysis.hasBackReference(pattern) || !PatternAnalysis.groupNames(pattern).isEmpty()) return null;
+
+        String regex = (flags & Pattern.LITERAL) != 0 ? Pattern.quote(pattern.pattern()) : pattern.pattern();
+        // comment at end of rule would hide closing brackets
+        String alternative = "((?" + inlineFlags(flags) + ":" + regex + ((flags & Pattern.COMMENTS) != 0 ? "\n))" : "))");
+        try {
+            // unclosed quote or inline comments flag may break alternation, check rule alone
+            if (Pattern.compile(alternative).matcher("").groupCount() != groupCount + 1) return null;
+        } catch (PatternSyntaxException e) {
+            return null;
+        }
+        return alternative;
+    }
+
+    private static String inlineFlags(int flags) {
+        StringBuilder builder = new StringBuilder();
+        if ((flags & Pattern.CASE_INSENSITIVE) != 0) builder.append('i');
+        if ((flags & Pattern.UNIX_LINES) != 0) builder.append('d');
+        if ((flags & Pattern.MULTILINE) != 0) builder.append('m');
+        if ((flags & Pattern.DOTALL) != 0) builder.append('s');
+        if ((flags & Pattern.UNICODE_CASE) != 0) builder.append('u');
+        if ((flags & Pattern.COMMENTS) != 0) builder.append('x');
+        if ((flags & Pattern.UNICODE_CHARACTER_CLASS) != 0) builder.append('U');
+        return builder.toString();
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) array[i] = list.get(i);
+        return array;
+    }
+
+    @Override
+    public String toString() {
+        return "MultiRegex" + Arrays.toString(mRules);
+    }
+
+    public interface Listener {
+        /**
+         * @param ruleIndex Index of rule matched by current part, -1 for not matched part
+         */
+        void append(int fromSrc, int toSrc, String appendSrc,
+                    int fromDst, int toDst, String appendDst,
+                    boolean isMatched, @FloatRange(from = 0, to = 1) float progress, int matchedCount, int ruleIndex);
+    }
+
+    /**
+     * Pattern and its replacement text. Replacement supports groups of own pattern, see {@link ReplacementTemplate}.
+     */
+    public static final class Rule {
+        private final Pattern mPattern;
+        private final String mReplacement;
+
+        public Rule(@NonNull String regularExpression, @NonNull String replacement) {
+            this(regularExpression, 0, replacement);
+        }
+
+        public Rule(@NonNull String regularExpression, int flags, @NonNull String replacement) {
+            this(PatternCache.getDefault().get(regularExpression, flags), replacement);
+        }
+
+        public Rule(@NonNull Pattern pattern, @NonNull String replacement) {
+            this.mPattern = pattern;
+            this.mReplacement = replacement;
+        }
+
+        @NonNull
+        public Pattern getPattern() {
+            return mPattern;
+        }
+
+        @NonNull
+        public String getReplacement() {
+            return mReplacement;
+        }
+
+        @Override
+        public String toString() {
+            return mPattern.pattern() + " -> " + mReplacement;
+        }
+    }
+
+    /**
+     * State of one scan. Each source of matches (literals, combined pattern, separate patterns) keeps its next match,
+     * it's searched again only when winning match of other source passes over its start.
+     */
+    private class Scanner {
+        private final String mText;
+        private final Listener mListener;
+        private final Regex.CancellationSignal mCancellationSignal;
+        private final int mTextLength;
+        private final SpanMatchResult mLiteralResult;
+        private final AhoCorasick.Match mLiteralMatch = new AhoCorasick.Match();
+        private final GroupOffsetResult mCombinedResult;
+        private final Matcher mCombinedMatcher;
+        private final Matcher[] mSeparateMatchers;
+
+        private int mLiteralStart = -2;
+        private int mCombinedStart = -2;
+        private int mCombinedIndex;
+        private final int[] mSeparateStarts;
+
+        Scanner(String text, Listener listener, Regex.CancellationSignal cancellationSignal) {
+            this.mText = text;
+            this.mListener = listener;
+            this.mCancellationSignal = cancellationSignal;
+            this.mTextLength = text.length();
+            this.mLiteralResult = new SpanMatchResult(text);
+            this.mCombinedMatcher = mCombined != null ? mCombined.matcher(text) : null;
+            this.mCombinedResult = new GroupOffsetResult(mCombinedMatcher);
+            this.mSeparateMatchers = new Matcher[mSeparateRules.length];
+            this.mSeparateStarts = new int[mSeparateRules.length];
+            for (int i = 0; i < mSeparateRules.length; i++) {
+                mSeparateMatchers[i] = mRules[mSeparateRules[i]].getPattern().matcher(text);
+                mSeparateStarts[i] = -2;
+            }
+        }
+
+        void start() {
+            int appendPos = 0;
+            int dstLength = 0;
+            int matchedCount = 0;
+            int pos = 0;
+            while (true) {
+                int bestStart = -1;
+                int bestEnd = -1;
+                int bestRule = Integer.MAX_VALUE;
+                MatchResult bestResult = null;
+
+                if (mLiterals != null) {
+                    if (mLiteralStart != -1 && mLiteralStart < pos) {
+                        mLiteralStart = pos <= mTextLength && mLiterals.find(mText, pos, mLiteralMatch) ? mLiteralMatch.start() : -1;
+                    }
+                    if (mLiteralStart >= 0) {
+                        bestStart = mLiteralStart;
+                        bestEnd = mLiteralMatch.end();
+                        bestRule = mLiteralMatch.key();
+                        mLiteralResult.set(bestStart, bestEnd);
+                        bestResult = mLiteralResult;
+                    }
+                }
+                if (mCombinedMatcher != null) {
+                    if (mCombinedStart != -1 && mCombinedStart < pos) {
+                        mCombinedStart = pos <= mTextLength && mCombinedMatcher.find(pos) ? mCombinedMatcher.start() : -1;
+                        if (mCombinedStart >= 0) {
+                            mCombinedIndex = 0;
+                            while (mCombinedMatcher.start(mCombinedGroups[mCombinedIndex]) < 0) mCombinedIndex++;
+                        }
+                    }
+                    int rule = mCombinedStart >= 0 ? mCombinedRules[mCombinedIndex] : -1;
+                    if (rule >= 0 && (bestStart < 0 || mCombinedStart < bestStart || (mCombinedStart == bestStart && rule < bestRule))) {
+                        bestStart = mCombinedStart;
+                        bestEnd = mCombinedMatcher.end();
+                        bestRule = rule;
+                        mCombinedResult.set(mCombinedGroups[mCombinedIndex], mGroupCounts[rule]);
+                        bestResult = mCombinedResult;
+                    }
+                }
+                for (int i = 0; i < mSeparateMatchers.length; i++) {
+                    Matcher matcher = mSeparateMatchers[i];
+                    if (mSeparateStarts[i] != -1 && mSeparateStarts[i] < pos) {
+                        mSeparateStarts[i] = pos <= mTextLength && matcher.find(pos) ? matcher.start() : -1;
+                    }
+                    int start = mSeparateStarts[i];
+                    int rule = mSeparateRules[i];
+                    if (start >= 0 && (bestStart < 0 || start < bestStart || (start == bestStart && rule < bestRule))) {
+                        bestStart = start;
+                        bestEnd = matcher.end();
+                        bestRule = rule;
+                        bestResult = matcher;
+                    }
+                }
+
+                if (bestStart < 0) break;
+                if (bestStart == bestEnd && bestStart != 0 && bestStart != mTextLength)
+                    throw new IllegalArgumentException("Too short replace text in regularExpression");
+                matchedCount++;
+
+                String substring = mText.substring(appendPos, bestStart);
+                mListener.append(appendPos, bestStart, substring, dstLength, dstLength + substring.length(), substring, false, (float) bestStart / mTextLength, matchedCount, -1);
+                dstLength += substring.length();
+                if (mCancellationSignal.isCanceled()) return;
+
+                ReplacementTemplate template = mTemplates[bestRule];
+                String substringSrc = mText.substring(bestStart, bestEnd);
+                String substringDst = template.isWholeMatch() ? substringSrc : template.evaluate(mText, bestResult);
+                mListener.append(bestStart, bestEnd, substringSrc, dstLength, dstLength + substringDst.length(), substringDst, true, (float) bestEnd / mTextLength, matchedCount, bestRule);
+                dstLength += substringDst.length();
+                appendPos = bestEnd;
+                pos = bestStart == bestEnd ? bestEnd + 1 : bestEnd;
+                if (mCancellationSignal.isCanceled()) return;
+            }
+            if (appendPos < mTextLength) {
+                String substring = mText.substring(appendPos, mTextLength);
+                mListener.append(appendPos, mTextLength, substring, dstLength, dstLength + substring.length(), substring, false, 1f, matchedCount, -1);
+            }
+        }
+    }
+
+    /**
+     * Match of rule inside of combined pattern: groups of rule are shifted by index of rule wrapping group.
+     */
+    private static class GroupOffsetResult implements MatchResult {
+        private final Matcher mMatcher;
+        private int mOffset;
+        private int mGroupCount;
+
+        GroupOffsetResult(Matcher matcher) {
+            this.mMatcher = matcher;
+        }
+
+        void set(int offset, int groupCount) {
+            this.mOffset = offset;
+            this.mGroupCount = groupCount;
+        }
+
+        @Override
+        public int start() {
+            return mMatcher.start(mOffset);
+        }
+
+        @Override
+        public int start(int group) {
+            return mMatcher.start(map(group));
+        }
+
+        @Override
+        public int end() {
+            return mMatcher.end(mOffset);
+        }
+
+        @Override
+        public int end(int group) {
+            return mMatcher.end(map(group));
+        }
+
+        @Override
+        public String group() {
+            return mMatcher.group(mOffset);
+        }
+
+        @Override
+        public String group(int group) {
+            return mMatcher.group(map(group));
+        }
+
+        @Override
+        public int groupCount() {
+            return mGroupCount;
+        }
+
+        private int map(int group) {
+            if (group < 0 || group > mGroupCount) throw new IndexOutOfBoundsException("No group " + group);
+            return mOffset + group;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Class for parallel find and replace over very large text.
+ * <p>
+ * Text is split to chunks, chunks are matched by tasks at given executor, results are stitched together in
+ * caller thread and passed to listener in source order. Listener receives exactly the same calls as with
+ * {@link Regex#replace(String, Pattern, ReplacementTemplate, Regex.Listener, Regex.CancellationSignal)}.
+ * <p>
+ * Each chunk is matched with <code>overlap</code> chars of following text visible. Matches which need more text,
+ * and matches after match crossing chunk end, are found again by sequential scan of seam until it meets the same
+ * match as found by chunk task. Patterns which can't be split ({@link #isSplittable(Pattern)}) and texts shorter than
+ * two chunks are processed sequentially.
+ * <pre>{@code
+ * ExecutorService executor = Executors.newFixedThreadPool(16);
+ * String result = ParallelRegex.replace(hugeText, pattern, "_$1_", executor);
+ * }</pre>
+ */
+public class ParallelRegex {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    public static final int DEFAULT_OVERLAP = 4 * 1024;
+
+    private final String mText;
+    private final Pattern mPattern;
+    private final ReplacementTemplate mTemplate;
+    private final Executor mExecutor;
+    private final int mChunkSize;
+    private final int mOverlap;
+    private final Regex.Listener mListener;
+    private final Regex.CancellationSignal mCancellationSignal;
+    private final int mTextLength;
+    private final Matcher mSeamMatcher;
+
+    private volatile boolean mStopped;
+    private int mAppendPos;
+    private int mDstLength;
+    private int mMatchedCount;
+
+    private ParallelRegex(String text, Pattern pattern, ReplacementTemplate template, Executor executor, int chunkSize, int overlap,
+                          Regex.Listener listener, Regex.CancellationSignal cancellationSignal) {
+        this.mText = text;
+        this.mPattern = pattern;
+        this.mTemplate = template;
+        this.mExecutor = executor;
+        this.mChunkSize = chunkSize;
+        this.mOverlap = overlap;
+        this.mListener = listener;
+        this.mCancellationSignal = cancellationSignal;
+        this.mTextLength = text.length();
+        this.mSeamMatcher = pattern.matcher(text);
+        this.mSeamMatcher.useTransparentBounds(true);
+        this.mSeamMatcher.useAnchoringBounds(false);
+    }
+
+    public static void find(@NonNull String text, @NonNull Pattern pattern, @NonNull Executor executor, @NonNull Regex.Listener listener) {
+        replace(text, pattern, PatternCache.getDefault().getTemplate(pattern, "$0"), executor, DEFAULT_CHUNK_SIZE, DEFAULT_OVERLAP, listener, new Regex.CancellationSignalFake());
+    }
+
+    public static String replace(@NonNull String text, @NonNull Pattern pattern, @NonNull String replaceText, @NonNull Executor executor) {
+        final StringBuilder builder = new StringBuilder();
+        replace(text, pattern, replaceText, executor,
+                (int fromSrc, int toSrc, String textSrc, int fromDst, int toDst, String textDst, boolean isMatched, float progress, int matchedCount) ->
+                        builder.append(textDst));
+        return builder.toString();
+    }
+
+    public static void replace(@NonNull String text, @NonNull Pattern pattern, @NonNull String replaceText, @NonNull Executor executor, @NonNull Regex.Listener listener) {
+        replace(text, pattern, PatternCache.getDefault().getTemplate(pattern, replaceText), executor, DEFAULT_CHUNK_SIZE, DEFAULT_OVERLAP, listener, new Regex.CancellationSignalFake());
+    }
+
+    /**
+     * @param chunkSize Count of chars matched by one task
+     * @param overlap   Count of chars after chunk visible for its task, should be not less than usual match length
+     */
+    public static void replace(@NonNull String text, @NonNull Pattern pattern, @NonNull ReplacementTemplate template, @NonNull Executor executor,
+                               int chunkSize, int overlap, @NonNull Regex.Listener listener, @NonNull Regex.CancellationSignal cancellationSignal) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize <= 0");
+        if (overlap < 0) throw new IllegalArgumentException("overlap < 0");
+        if (text.length() < 2 * chunkSize || !isSplittable(pattern)) {
+            Regex.replace(text, pattern, template, listener, cancellationSignal);
+            return;
+        }
+        if (cancellationSignal.isCanceled()) return;
+        new ParallelRegex(text, pattern, template, executor, chunkSize, overlap, listener, cancellationSignal).start();
+    }
+
+    /**
+     * Matches of chunk depend only on text, not on matches of previous chunks, except for <code>\G</code>
+     * (end of previous match). Anchors, lookbehind and word boundaries see the whole text because chunks are
+     * matched with transparent and not anchoring region bounds.
+     *
+     * @return True if pattern may be matched by chunks
+     */
+    public static boolean isSplittable(@NonNull Pattern pattern) {
+        return !PatternAnalysis.hasPreviousMatchAnchor(pattern);
+    }
+
+    private void start() {
+        int chunkCount = (mTextLength + mChunkSize - 1) / mChunkSize;
+        int maxInFlight = Math.max(2, 2 * Runtime.getRuntime().availableProcessors());
+        ArrayDeque<FutureTask<Chunk>> inFlight = new ArrayDeque<>();
+        int submitted = 0;
+        int pos = 0;
+        try {
+            for (int index = 0; index < chunkCount; index++) {
+                while (submitted < chunkCount && inFlight.size() < maxInFlight) {
+                    FutureTask<Chunk> task = new FutureTask<>(new ChunkTask(submitted * mChunkSize, Math.min(mTextLength, (submitted + 1) * mChunkSize)));
+                    mExecutor.execute(task);
+                    inFlight.add(task);
+                    submitted++;
+                }
+                Chunk chunk = get(inFlight.poll());
+                if (isCanceled()) return;
+                pos = stitch(chunk, pos);
+                if (pos < 0) return;
+            }
+            if (mAppendPos < mTextLength) {
+                String substring = mText.substring(mAppendPos, mTextLength);
+                mListener.append(mAppendPos, mTextLength, substring, mDstLength, mDstLength + substring.length(), substring, false, 1f, mMatchedCount);
+            }
+        } finally {
+            mStopped = true;
+            for (FutureTask<Chunk> task : inFlight) task.cancel(false);
+        }
+    }
+
+    /**
+     * Emit matches of chunk, rescanning seams where chunk task result isn't valid.
+     *
+     * @param pos Position where sequential search would continue
+     * @return Position where sequential search would continue after chunk, or -1 if canceled
+     */
+    private int stitch(Chunk chunk, int pos) {
+        if (!startsIn(chunk, pos)) return pos;
+        int index = 0;
+        if (pos > chunk.start) {
+            // previous match crossed chunk start: scan sequentially until meet the same match as chunk task
+            Matcher matcher = mSeamMatcher;
+            while (true) {
+                if (pos > mTextLength) return pos;
+                matcher.region(pos, mTextLength);
+                if (!matcher.find()) return mTextLength + 1;
+                int start = matcher.start();
+                int end = matcher.end();
+                if (!startsIn(chunk, start)) return pos;
+                while (index < chunk.count && chunk.starts[index] < start) index++;
+                if (index < chunk.count && chunk.starts[index] == start && chunk.ends[index] == end) break;
+                if (!emitMatch(start, end, null)) return -1;
+                pos = end == start ? end + 1 : end;
+            }
+        }
+        for (; index < chunk.count; index++) {
+            int start = chunk.starts[index];
+            int end = chunk.ends[index];
+            if (!emitMatch(start, end, chunk.dst[index])) return -1;
+            pos = end == start ? end + 1 : end;
+        }
+        if (chunk.resumeFrom >= 0) {
+            // rest of chunk needs more text than task had
+            Matcher matcher = mSeamMatcher;
+            while (pos <= mTextLength) {
+                matcher.region(pos, mTextLength);
+                if (!matcher.find()) return mTextLength + 1;
+                int start = matcher.start();
+                int end = matcher.end();
+                if (!startsIn(chunk, start)) return pos;
+                if (!emitMatch(start, end, null)) return -1;
+                pos = end == start ? end + 1 : end;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * @return True if match starting at position belongs to chunk, empty match at end of text belongs to last chunk
+     */
+    private boolean startsIn(Chunk chunk, int start) {
+        return start < chunk.end || (start == mTextLength && chunk.end == mTextLength);
+    }
+
+    /**
+     * @param dst Evaluated replacement, or null to evaluate it from seam matcher
+     * @return False if canceled
+     */
+    private boolean emitMatch(int start, int end, String dst) {
+        if (start == end && start != 0 && start != mTextLength)
+            throw new IllegalArgumentException("Too short replace text in regularExpression");
+        mMatchedCount++;
+
+        String substring = mText.substring(mAppendPos, start);
+        mListener.append(mAppendPos, start, substring, mDstLength, mDstLength + substring.length(), substring, false, (float) start / mTextLength, mMatchedCount);
+        mDstLength += substring.length();
+        if (isCanceled()) return false;
+
+        String substringSrc = mText.substring(start, end);
+        String substringDst = dst != null ? dst : mTemplate.isWholeMatch() ? substringSrc : mTemplate.evaluate(mText, mSeamMatcher);
+        mListener.append(start, end, substringSrc, mDstLength, mDstLength + substringDst.length(), substringDst, true, (float) end / mTextLength, mMatchedCount);
+        mDstLength += substringDst.length();
+        mAppendPos = end;
+        return !isCanceled();
+    }
+
+    private boolean isCanceled() {
+        return mCancellationSignal.isCanceled();
+    }
+
+    private static Chunk get(FutureTask<Chunk> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Matches starting in chunk, found with limited visible text after chunk.
+     */
+    private static class Chunk {
+        final int start;
+        final int end;
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        String[] dst = new String[16];
+        int count;
+        /**
+         * Position after last valid match if task needed more text than visible, -1 if all matches are valid.
+         */
+        int resumeFrom = -1;
+
+        Chunk(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        void add(int matchStart, int matchEnd, String matchDst) {
+            if (count == starts.length) {
+                int capacity = count * 2;
+                int[] newStarts = new int[capacity];
+                int[] newEnds = new int[capacity];
+                String[] newDst = new String[capacity];
+                System.arraycopy(starts, 0, newStarts, 0, count);
+                System.arraycopy(ends, 0, newEnds, 0, count);
+                System.arraycopy(dst, 0, newDst, 0, count);
+                starts = newStarts;
+                ends = newEnds;
+                dst = newDst;
+            }
+            starts[count] = matchStart;
+            ends[count] = matchEnd;
+            dst[count] = matchDst;
+            count++;
+        }
+    }
+
+    private class ChunkTask implements Callable<Chunk> {
+        private final int mStart;
+        private final int mEnd;
+
+        ChunkTask(int start, int end) {
+            this.mStart = start;
+            this.mEnd = end;
+        }
+
+        @Override
+        public Chunk call() {
+            Chunk chunk = new Chunk(mStart, mEnd);
+            int regionEnd = (int) Math.min((long) mEnd + mOverlap, mTextLength);
+            Matcher matcher = mPattern.matcher(mText);
+            matcher.useTransparentBounds(true);
+            matcher.useAnchoringBounds(false);
+            matcher.region(mStart, regionEnd);
+            int lastEnd = mStart;
+            while (!mStopped) {
+                boolean found = matcher.find();
+                if (matcher.hitEnd() && regionEnd < mTextLength) {
+                    chunk.resumeFrom = lastEnd;
+                    break;
+                }
+                if (!found || matcher.start() > mEnd || (matcher.start() == mEnd && mEnd < mTextLength)) break;
+                String dst = mTemplate.isWholeMatch() ? null : mTemplate.evaluate(mText, matcher);
+                chunk.add(matcher.start(), matcher.end(), dst);
+                lastEnd = matcher.end();
+            }
+            return chunk;
+        }
+    }
+}
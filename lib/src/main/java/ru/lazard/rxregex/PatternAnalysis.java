@@ -0,0 +1,218 @@
+package ru.lazard.rxregex;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Static analysis of regular expression source, used where {@link Pattern} doesn't expose needed info.
+ * Works only with expressions already validated by {@link Pattern#compile(String, int)}.
+ */
+final class PatternAnalysis {
+
+    private static final String META_CHARS = "\\^$.|?*+()[]{}";
+
+    private PatternAnalysis() {
+    }
+
+    /**
+     * @return Map of named group name to group index, empty map if pattern has no named groups
+     */
+    static Map<String, Integer> groupNames(Pattern pattern) {
+        Map<String, Integer> names = new HashMap<>();
+        if ((pattern.flags() & Pattern.LITERAL) != 0) return names;
+
+        String regex = pattern.pattern();
+        boolean comments = (pattern.flags() & Pattern.COMMENTS) != 0;
+        int length = regex.length();
+        int classDepth = 0;
+        int groupIndex = 0;
+        for (int i = 0; i < length; i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < length && regex.charAt(i + 1) == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    i = end < 0 ? length : end + 1;
+                } else {
+                    i++;
+                }
+            } else if (classDepth > 0) {
+                if (c == '[') classDepth++;
+                else if (c == ']') classDepth--;
+            } else if (c == '[') {
+                classDepth++;
+                // ']' right after '[' or '[^' is literal
+                if (i + 1 < length && regex.charAt(i + 1) == '^') i++;
+                if (i + 1 < length && regex.charAt(i + 1) == ']') i++;
+            } else if (c == '#' && comments) {
+                while (i + 1 < length && regex.charAt(i + 1) != '\n') i++;
+            } else if (c == '(') {
+                if (i + 1 < length && regex.charAt(i + 1) == '?') {
+                    if (i + 3 < length && regex.charAt(i + 2) == '<' && Character.isLetter(regex.charAt(i + 3))) {
+                        int end = regex.indexOf('>', i + 3);
+                        groupIndex++;
+                        names.put(regex.substring(i + 3, end), groupIndex);
+                        i = end;
+                    }
+                } else {
+                    groupIndex++;
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return True if pattern contains <code>\G</code> (end of previous match)
+     */
+    static boolean hasPreviousMatchAnchor(Pattern pattern) {
+        return hasEscape(pattern, 'G');
+    }
+
+    /**
+     * @return True if pattern contains back reference <code>\1</code> - <code>\9</code> or <code>\k&lt;name&gt;</code>
+     */
+    static boolean hasBackReference(Pattern pattern) {
+        if (hasEscape(pattern, 'k')) return true;
+        for (char digit = '1'; digit <= '9'; digit++) {
+            if (hasEscape(pattern, digit)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Literal pattern matches only the same text: it's compiled with {@link Pattern#LITERAL} or has no metachars
+     * (escaped not alphanumeric chars are allowed), and it's not case insensitive.
+     *
+     * @return Text matched by pattern, or null if pattern is not literal or matches empty string
+     */
+    static String literal(Pattern pattern) {
+        int flags = pattern.flags();
+        if ((flags & (Pattern.CASE_INSENSITIVE | Pattern.CANON_EQ)) != 0) return null;
+        String regex = pattern.pattern();
+        if (regex.isEmpty()) return null;
+        if ((flags & Pattern.LITERAL) != 0) return regex;
+        if ((flags & Pattern.COMMENTS) != 0) return null;
+
+        StringBuilder literal = null;
+        int length = regex.length();
+        for (int i = 0; i < length; i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= length) return null;
+                char escaped = regex.charAt(++i);
+                if (Character.isLetterOrDigit(escaped)) return null;
+                if (literal == null) literal = new StringBuilder(regex.substring(0, i - 1));
+                literal.append(escaped);
+            } else if (META_CHARS.indexOf(c) >= 0 || Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+                // literal surrogate may match half of pair, regex doesn't
+                return null;
+            } else if (literal != null) {
+                literal.append(c);
+            }
+        }
+        return literal == null ? regex : literal.toString();
+    }
+
+    /**
+     * Required prefix is literal text which starts each match of pattern. It's found only in simple cases:
+     * pattern starts with literal chars and has no alternation at top level.
+     *
+     * @return Required prefix, or null if pattern has no prefix or it can't be found
+     */
+    static String requiredPrefix(Pattern pattern) {
+        int flags = pattern.flags();
+        if ((flags & (Pattern.CASE_INSENSITIVE | Pattern.CANON_EQ | Pattern.COMMENTS | Pattern.LITERAL)) != 0) return null;
+        if (hasPreviousMatchAnchor(pattern) || hasTopLevelAlternation(pattern)) return null;
+
+        String regex = pattern.pattern();
+        StringBuilder prefix = new StringBuilder();
+        int length = regex.length();
+        int i = 0;
+        while (i < length) {
+            char c = regex.charAt(i);
+            char literal;
+            int next;
+            if (c == '\\') {
+                if (i + 1 >= length || Character.isLetterOrDigit(regex.charAt(i + 1))) break;
+                literal = regex.charAt(i + 1);
+                next = i + 2;
+            } else if (META_CHARS.indexOf(c) >= 0 || Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+                break;
+            } else {
+                literal = c;
+                next = i + 1;
+            }
+            // optional char isn't required
+            if (next < length && "?*{".indexOf(regex.charAt(next)) >= 0) break;
+            prefix.append(literal);
+            i = next;
+        }
+        return prefix.length() == 0 ? null : prefix.toString();
+    }
+
+    /**
+     * @return True if pattern contains <code>|</code> outside of groups, char classes and quotes
+     */
+    private static boolean hasTopLevelAlternation(Pattern pattern) {
+        String regex = pattern.pattern();
+        int length = regex.length();
+        int classDepth = 0;
+        int groupDepth = 0;
+        for (int i = 0; i < length; i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < length && regex.charAt(i + 1) == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    i = end < 0 ? length : end + 1;
+                } else {
+                    i++;
+                }
+            } else if (classDepth > 0) {
+                if (c == '[') classDepth++;
+                else if (c == ']') classDepth--;
+            } else if (c == '[') {
+                classDepth++;
+                if (i + 1 < length && regex.charAt(i + 1) == '^') i++;
+                if (i + 1 < length && regex.charAt(i + 1) == ']') i++;
+            } else if (c == '(') {
+                groupDepth++;
+            } else if (c == ')') {
+                groupDepth--;
+            } else if (c == '|' && groupDepth == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return True if pattern contains escape <code>\escape</code> outside of char classes and quotes
+     */
+    private static boolean hasEscape(Pattern pattern, char escape) {
+        if ((pattern.flags() & Pattern.LITERAL) != 0) return false;
+
+        String regex = pattern.pattern();
+        int length = regex.length();
+        int classDepth = 0;
+        for (int i = 0; i < length; i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= length) break;
+                char next = regex.charAt(i + 1);
+                if (next == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    i = end < 0 ? length : end + 1;
+                } else {
+                    if (next == escape && classDepth == 0) return true;
+                    i++;
+                }
+            } else if (c == '[') {
+                classDepth++;
+            } else if (c == ']' && classDepth > 0) {
+                classDepth--;
+            }
+        }
+        return false;
+    }
+}
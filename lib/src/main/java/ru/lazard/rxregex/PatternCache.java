@@ -0,0 +1,202 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Thread-safe, size-bounded LRU cache of compiled patterns keyed by (regular expression, flags)
+ * and of {@link ReplacementTemplate} keyed by (regular expression, flags, replacement).
+ * <p>
+ * String based methods of {@link Regex} and {@link RxRegex} take patterns and templates from the {@link #getDefault() default} cache,
+ * so repeated calls with the same regular expression and replacement don't parse them again.
+ * <pre>{@code
+ * PatternCache.getDefault().prewarm("1(23)4", 0);              // compile at application start
+ * Pattern pattern = PatternCache.getDefault().get("1(23)4", 0); // taken from cache
+ * RxRegex.replace(text, pattern, "_A$1D_");                    // use already compiled pattern
+ * }</pre>
+ */
+public class PatternCache {
+
+    public static final int DEFAULT_MAX_SIZE = 64;
+
+    private static final PatternCache sDefault = new PatternCache(DEFAULT_MAX_SIZE);
+
+    private final LinkedHashMap<Key, Object> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private int mMaxSize;
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    /**
+     * @param maxSize Maximum count of patterns and templates kept in cache
+     */
+    public PatternCache(int maxSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+        this.mMaxSize = maxSize;
+    }
+
+    /**
+     * @return Cache shared by all string based methods of {@link Regex} and {@link RxRegex}
+     */
+    public static PatternCache getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Get compiled pattern from cache, compile and put it to cache if absent.
+     *
+     * @param regex The regular expression
+     * @param flags Match flags, a bit mask of {@link Pattern} flags
+     * @throws IllegalArgumentException               If bit values other than those corresponding to the defined
+     *                                                match flags are set in <tt>flags</tt>
+     * @throws java.util.regex.PatternSyntaxException If the expression's syntax is invalid
+     */
+    public Pattern get(@NonNull String regex, int flags) {
+        Key key = new Key(regex, flags, null);
+        Pattern pattern = (Pattern) lookup(key);
+        if (pattern != null) return pattern;
+        // compile outside of lock, concurrent compilation of the same pattern is harmless.
+        return (Pattern) store(key, Pattern.compile(regex, flags));
+    }
+
+    /**
+     * Get parsed replacement template from cache, parse and put it to cache if absent.
+     *
+     * @param pattern     Pattern which matches will be replaced
+     * @param replacement Replacement text
+     * @see ReplacementTemplate#compile(String, Pattern)
+     */
+    public ReplacementTemplate getTemplate(@NonNull Pattern pattern, @NonNull String replacement) {
+        Key key = new Key(pattern.pattern(), pattern.flags(), replacement);
+        ReplacementTemplate template = (ReplacementTemplate) lookup(key);
+        if (template != null) return template;
+        return (ReplacementTemplate) store(key, ReplacementTemplate.compile(replacement, pattern));
+    }
+
+    /**
+     * Compile pattern and put it to cache without counting hit or miss.
+     */
+    public void prewarm(@NonNull String regex, int flags) {
+        put(Pattern.compile(regex, flags));
+    }
+
+    /**
+     * Put already compiled pattern to cache.
+     */
+    public synchronized void put(@NonNull Pattern pattern) {
+        mEntries.put(new Key(pattern.pattern(), pattern.flags(), null), pattern);
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Parse replacement template and put it to cache without counting hit or miss.
+     */
+    public void prewarm(@NonNull Pattern pattern, @NonNull String replacement) {
+        ReplacementTemplate template = ReplacementTemplate.compile(replacement, pattern);
+        synchronized (this) {
+            mEntries.put(new Key(pattern.pattern(), pattern.flags(), replacement), template);
+            trimToSize(mMaxSize);
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Change maximum count of entries, least recently used entries are evicted if needed.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize <= 0");
+        this.mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    public synchronized void resetStatistics() {
+        mHitCount = 0;
+        mMissCount = 0;
+        mEvictionCount = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PatternCache[size=" + mEntries.size() + ", maxSize=" + mMaxSize + ", hits=" + mHitCount
+                + ", misses=" + mMissCount + ", evictions=" + mEvictionCount + "]";
+    }
+
+    private synchronized Object lookup(Key key) {
+        Object value = mEntries.get(key);
+        if (value != null) mHitCount++;
+        else mMissCount++;
+        return value;
+    }
+
+    private synchronized Object store(Key key, Object value) {
+        Object previous = mEntries.put(key, value);
+        if (previous != null) {
+            mEntries.put(key, previous);
+            return previous;
+        }
+        trimToSize(mMaxSize);
+        return value;
+    }
+
+    private void trimToSize(int maxSize) {
+        Iterator<Map.Entry<Key, Object>> iterator = mEntries.entrySet().iterator();
+        while (mEntries.size() > maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            mEvictionCount++;
+        }
+    }
+
+    private static class Key {
+        private final String regex;
+        private final int flags;
+        private final String replacement;
+
+        Key(String regex, int flags, String replacement) {
+            this.regex = regex;
+            this.flags = flags;
+            this.replacement = replacement;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return flags == key.flags && regex.equals(key.regex)
+                    && (replacement == null ? key.replacement == null : replacement.equals(key.replacement));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * regex.hashCode() + flags) + (replacement == null ? 0 : replacement.hashCode());
+        }
+    }
+}
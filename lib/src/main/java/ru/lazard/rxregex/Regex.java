@@ -3,8 +3,16 @@ package ru.lazard.rxregex;
 
 import android.support.annotation.FloatRange;
 import android.support.annotation.NonNull;
-
-import java.util.regex.Matcher;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.regex.MatchResult;
 import java.util.regex.Pattern;
 
 import io.reactivex.functions.Cancellable;
@@ -19,26 +27,65 @@ import io.reactivex.functions.Cancellable;
  * CancelationSignal cancelationSignal = new CancelationSignalImpl();
  * Regex.replace("abcd", "(bc)", "_$1_", 0, listener, cancelationSignal );
  * cancelationSignal.cancel();                         // cancelationSignal stop parsing process.
+ *
+ * // Use already compiled Pattern, string based methods take patterns from PatternCache.getDefault()
+ * Regex.replace("abcd", Pattern.compile("bc"), "BC"); // result = "aBCd"
+ *
+ * // Use ReplacementTemplate, parsed once and may be reused for many texts
+ * ReplacementTemplate template = ReplacementTemplate.compile("_${b}_", pattern);   // pattern "(?<b>bc)"
+ * Regex.replace("abcd", pattern, template);           // result = "a_bc_d"
+ *
+ * // Lazy result, piece table of original text and replaced fragments
+ * ReplacedText result = Regex.replaceLazy(hugeText, pattern, "_$1_");
+ *
+ * // Write replaced text directly to Writer, Appendable or WritableByteChannel
+ * Regex.replace(text, pattern, template, writer, cancellationSignal);
+ *
+ * // Limit time and steps of matching, RegexTimeoutException is thrown inside of too long search
+ * Regex.replace(text, pattern, template, listener, cancellationSignal, RegexBudget.ofTime(200, TimeUnit.MILLISECONDS));
+ *
+ * // Sample progress of long search, updated between matches too
+ * RxRegex.progress(progress, 100, TimeUnit.MILLISECONDS).subscribe(value -> log(value));
+ * Regex.replace(text, pattern, template, listener, cancellationSignal, RegexBudget.UNLIMITED, progress);
+ *
+ * // Collect time of matching, replacement and listener per run and per pattern
+ * RegexMetrics.setReporter(new RegexMetrics.Aggregator());
+ *
+ * // Replay parts of repeated runs with the same text, pattern and replacement from cache
+ * ResultCache.setDefault(new ResultCache(4 * 1024 * 1024));
+ *
+ * // Index of all matches in primitive arrays, with range queries
+ * MatchIndex index = Regex.findAll(text, pattern);
+ * int visible = index.countOverlapping(viewportFrom, viewportTo);
+ *
+ * // Queries without parts: exists stops at first match, count doesn't allocate per match
+ * boolean found = Regex.exists(text, pattern);
+ * int count = Regex.count(text, pattern);
+ * MatchIndex firstTen = Regex.first(text, pattern, 10);
+ *
+ * // Use offset-only parts, text isn't copied for each part
+ * Regex.findParts("abcd", pattern, part -> log(part.getFromSrc() + "-" + part.getToSrc()));
  * }</pre>
  */
 
 public class Regex {
 
     private String mText;
-    private String mRegularExpression;
-    private String mReplacement;
+    private Pattern mPattern;
+    private ReplacementTemplate mTemplate;
     private Listener mListener;
-    private int mFlags;
-    private int mMatchedCount;
     private CancellationSignal mCancellationSignal;
+    private RegexBudget mBudget;
+    private RegexProgress mProgress;
 
-    private Regex(@NonNull String text,@NonNull String regularExpression,@NonNull String replacement, int flags,@NonNull Listener listener,@NonNull CancellationSignal cancellationSignal) {
+    private Regex(@NonNull String text,@NonNull Pattern pattern,@NonNull ReplacementTemplate template,@NonNull Listener listener,@NonNull CancellationSignal cancellationSignal,@NonNull RegexBudget budget,@Nullable RegexProgress progress) {
         this.mText = text;
-        this.mRegularExpression = regularExpression;
-        this.mReplacement = replacement;
-        this.mFlags = flags;
+        this.mPattern = pattern;
+        this.mTemplate = template;
         this.mListener = listener;
         this.mCancellationSignal = cancellationSignal;
+        this.mBudget = budget;
+        this.mProgress = progress;
     }
 
     public static void find(@NonNull String text,@NonNull String regularExpression,@NonNull Listener listener) {
@@ -52,16 +99,20 @@ public class Regex {
         replace(text, regularExpression, "$0", flags, listener,cancellationSignal);
     }
 
+    public static void find(@NonNull String text,@NonNull Pattern pattern,@NonNull Listener listener) {
+        find(text, pattern, listener,new CancellationSignalFake());
+    }
+
+    public static void find(@NonNull String text,@NonNull Pattern pattern,@NonNull Listener listener,@NonNull CancellationSignal cancellationSignal) {
+        replace(text, pattern, "$0", listener,cancellationSignal);
+    }
+
     public static String replace(@NonNull String text,@NonNull String regularExpression,@NonNull String replaceText) {
         return replace(text, regularExpression, replaceText, 0);
     }
 
     public static String replace(@NonNull String text,@NonNull String regularExpression,@NonNull String replaceText, int flags) {
-        final StringBuffer buffer = new StringBuffer();
-        replace(text, regularExpression, replaceText, flags,
-                (int fromSrc, int toSrc, String textSrc, int fromDst, int toDst, String textDst, boolean isMatched, float progress, int matchedCount) ->
-                        buffer.append(textDst));
-        return buffer.toString();
+        return replace(text, PatternCache.getDefault().get(regularExpression, flags), replaceText);
     }
 
     public static void replace(@NonNull String text,@NonNull String regularExpression,@NonNull String replaceText,@NonNull Listener listener) {
@@ -69,102 +120,298 @@ public class Regex {
     }
 
     public static void replace(@NonNull String text,@NonNull  String regularExpression,@NonNull  String replaceText, int flags,@NonNull Listener listener) {
-        replace(text, regularExpression, replaceText, 0, listener,new CancellationSignalFake());
+        replace(text, regularExpression, replaceText, flags, listener,new CancellationSignalFake());
     }
 
     public static void replace(@NonNull String text,@NonNull  String regularExpression,@NonNull  String replaceText, int flags,@NonNull Listener listener,@NonNull CancellationSignal cancellationSignal) {
-        new Regex(text, regularExpression, replaceText, flags, listener,cancellationSignal).start();
+        replace(text, PatternCache.getDefault().get(regularExpression, flags), replaceText, listener, cancellationSignal);
     }
 
-    private void start() {
-        if (mCancellationSignal.isCanceled())return;
-
-        mMatchedCount = 0;
-        Pattern pattern = Pattern.compile(this.mRegularExpression, mFlags);
-        Matcher matcher = pattern.matcher(mText);
-        StringBuffer bufferEvaluated = new StringBuffer();
-        int textLength = mText.length();
-        int appendPos = 0;
-        int dstLength = 0;
-
-        matcher.reset();
-        while (matcher.find()) {
-            if (mCancellationSignal.isCanceled())return;
-            if (matcher.start() == matcher.end() && matcher.start() != 0 && matcher.end() != textLength)
-                throw new IllegalArgumentException("Too short replace text in regularExpression");
+    public static String replace(@NonNull String text,@NonNull Pattern pattern,@NonNull String replaceText) {
+        return replace(text, pattern, PatternCache.getDefault().getTemplate(pattern, replaceText));
+    }
 
-            mMatchedCount++;
+    public static void replace(@NonNull String text,@NonNull Pattern pattern,@NonNull String replaceText,@NonNull Listener listener) {
+        replace(text, pattern, replaceText, listener,new CancellationSignalFake());
+    }
 
-            String substring = mText.substring(appendPos, matcher.start());
-            mListener.append(appendPos, matcher.start(), substring, dstLength, dstLength + substring.length(), substring, false, (float) matcher.start() / textLength, mMatchedCount);
-            dstLength += substring.length();
+    public static void replace(@NonNull String text,@NonNull Pattern pattern,@NonNull String replaceText,@NonNull Listener listener,@NonNull CancellationSignal cancellationSignal) {
+        replace(text, pattern, PatternCache.getDefault().getTemplate(pattern, replaceText), listener, cancellationSignal);
+    }
 
-            if (mCancellationSignal.isCanceled())return;
+    public static String replace(@NonNull String text,@NonNull Pattern pattern,@NonNull ReplacementTemplate template) {
+        final StringBuilder builder = new StringBuilder(text.length());
+        replaceParts(text, pattern, template, part -> part.appendDst(builder));
+        return builder.toString();
+    }
 
-            bufferEvaluated.delete(0, bufferEvaluated.length());
-            appendEvaluated(bufferEvaluated, mReplacement, matcher);
+    public static void replace(@NonNull String text,@NonNull Pattern pattern,@NonNull ReplacementTemplate template,@NonNull Listener listener,@NonNull CancellationSignal cancellationSignal) {
+        replace(text, pattern, template, listener, cancellationSignal, RegexBudget.UNLIMITED);
+    }
 
-            if (mCancellationSignal.isCanceled())return;
+    /**
+     * Replace with limits of time and steps, checked inside of long search too.
+     *
+     * @throws RegexTimeoutException If matching exceeds <code>budget</code>
+     */
+    public static void replace(@NonNull String text,@NonNull Pattern pattern,@NonNull ReplacementTemplate template,@NonNull Listener listener,@NonNull CancellationSignal cancellationSignal,@NonNull RegexBudget budget) {
+        replace(text, pattern, template, listener, cancellationSignal, budget, null);
+    }
+
+    /**
+     * Replace with limits of time and steps, reporting read position to <code>progress</code> while searching.
+     *
+     * @throws RegexTimeoutException If matching exceeds <code>budget</code>
+     */
+    public static void replace(@NonNull String text,@NonNull Pattern pattern,@NonNull ReplacementTemplate template,@NonNull Listener listener,@NonNull CancellationSignal cancellationSignal,@NonNull RegexBudget budget,@Nullable RegexProgress progress) {
+        new Regex(text, pattern, template, listener,cancellationSignal,budget,progress).start();
+    }
+
+    /**
+     * Replace without building of output string, result references original text and keeps only replaced fragments.
+     */
+    public static ReplacedText replaceLazy(@NonNull String text,@NonNull Pattern pattern,@NonNull String replaceText) {
+        return replaceLazy(text, pattern, PatternCache.getDefault().getTemplate(pattern, replaceText));
+    }
+
+    /**
+     * Replace without building of output string, result references original text and keeps only replaced fragments.
+     */
+    public static ReplacedText replaceLazy(@NonNull String text,@NonNull Pattern pattern,@NonNull ReplacementTemplate template) {
+        return ReplacedText.build(text, pattern, template);
+    }
 
-            String substringSrc = mText.substring(matcher.start(), matcher.end());
-            String substringDst = bufferEvaluated.toString();
-            mListener.append(matcher.start(), matcher.end(), substringSrc, dstLength, dstLength + substringDst.length(), substringDst, true, (float) matcher.end() / textLength, mMatchedCount);
-            dstLength += substringDst.length();
+    public static void replace(@NonNull String text,@NonNull Pattern pattern,@NonNull String replaceText,@NonNull Appendable out) throws IOException {
+        replace(text, pattern, PatternCache.getDefault().getTemplate(pattern, replaceText), out, new CancellationSignalFake());
+    }
 
-            appendPos = matcher.end();
+    /**
+     * Write replaced text to sink part by part, without strings for parts. {@link java.io.Writer} isn't flushed or closed.
+     */
+    public static void replace(@NonNull String text,@NonNull Pattern pattern,@NonNull ReplacementTemplate template,@NonNull Appendable out,@NonNull CancellationSignal cancellationSignal) throws IOException {
+        if (cancellationSignal.isCanceled())return;
+
+        Appendable sink = WriterAppendable.of(out);
+        RegexStepper stepper = new RegexStepper(text, pattern, template, cancellationSignal, RegexBudget.UNLIMITED, null);
+        RegexPart part;
+        boolean completed = false;
+        try {
+            while ((part = stepper.nextPart()) != null) {
+                part.appendDst(sink);
+                if (cancellationSignal.isCanceled())return;
+            }
+            completed = true;
+        } catch (GuardedCharSequence.Canceled e) {
+            // canceled inside of search
+        } finally {
+            stepper.report(completed);
         }
-        if (mCancellationSignal.isCanceled())return;
-        if (appendPos < matcher.regionEnd()) {
-            String substring = mText.substring(appendPos, matcher.regionEnd());
-            mListener.append(appendPos, matcher.regionEnd(), substring, dstLength, dstLength + substring.length(), substring, false, (float) matcher.regionEnd() / textLength, mMatchedCount);
+    }
+
+    /**
+     * Write replaced text to channel encoded by charset, through fixed size buffer. Channel isn't closed.
+     */
+    public static void replace(@NonNull String text,@NonNull Pattern pattern,@NonNull ReplacementTemplate template,@NonNull WritableByteChannel channel,@NonNull Charset charset,@NonNull CancellationSignal cancellationSignal) throws IOException {
+        Writer writer = Channels.newWriter(channel, charset.newEncoder(), -1);
+        replace(text, pattern, template, writer, cancellationSignal);
+        writer.flush();
+    }
+
+    /**
+     * Find all matches to compact index of offsets, without objects per match.
+     */
+    public static MatchIndex findAll(@NonNull String text,@NonNull Pattern pattern) {
+        return findAll(text, pattern, false);
+    }
+
+    /**
+     * Find all matches to compact index of offsets, without objects per match.
+     *
+     * @param withGroups Record offsets of groups too
+     */
+    public static MatchIndex findAll(@NonNull String text,@NonNull Pattern pattern, boolean withGroups) {
+        return MatchIndex.build(text, pattern, withGroups);
+    }
+
+    public static boolean exists(@NonNull String text,@NonNull Pattern pattern) {
+        return exists(text, pattern, new CancellationSignalFake());
+    }
+
+    /**
+     * Check if text has match, search stops at first match. No parts are created.
+     *
+     * @return False if text has no matches or search was canceled before first match
+     */
+    public static boolean exists(@NonNull String text,@NonNull Pattern pattern,@NonNull CancellationSignal cancellationSignal) {
+        return query(text, pattern, 1, null, cancellationSignal) > 0;
+    }
+
+    public static int count(@NonNull String text,@NonNull Pattern pattern) {
+        return count(text, pattern, new CancellationSignalFake());
+    }
+
+    /**
+     * Count matches without parts, substrings and listener calls. Empty matches are counted too.
+     *
+     * @return Count of matches, found before cancellation if search was canceled
+     */
+    public static int count(@NonNull String text,@NonNull Pattern pattern,@NonNull CancellationSignal cancellationSignal) {
+        return query(text, pattern, Integer.MAX_VALUE, null, cancellationSignal);
+    }
+
+    public static MatchIndex first(@NonNull String text,@NonNull Pattern pattern, int limit) {
+        return first(text, pattern, limit, new CancellationSignalFake());
+    }
+
+    /**
+     * Find offsets of first matches, search stops after <code>limit</code> matches.
+     *
+     * @return Index of first matches without groups, found before cancellation if search was canceled
+     */
+    public static MatchIndex first(@NonNull String text,@NonNull Pattern pattern, int limit,@NonNull CancellationSignal cancellationSignal) {
+        if (limit < 0) throw new IllegalArgumentException("limit < 0");
+        MatchOffsets offsets = new MatchOffsets(Math.min(limit, 16));
+        query(text, pattern, limit, offsets, cancellationSignal);
+        return offsets.toIndex();
+    }
+
+    /**
+     * Matching loop of queries: the same engine and cancellation as {@link #start()}, but without parts.
+     *
+     * @param offsets Receiver of match offsets, null for count only
+     * @return Count of found matches
+     */
+    private static int query(@NonNull String text,@NonNull Pattern pattern, int limit,@Nullable MatchOffsets offsets,@NonNull CancellationSignal cancellationSignal) {
+        int count = 0;
+        if (limit <= 0 || cancellationSignal.isCanceled()) return count;
+        RegexStepper stepper = new RegexStepper(text, pattern, PatternCache.getDefault().getTemplate(pattern, "$0"), cancellationSignal, RegexBudget.UNLIMITED, null);
+        boolean completed = false;
+        try {
+            MatchResult match;
+            while (count < limit && (match = stepper.nextMatch()) != null) {
+                if (offsets != null) offsets.add(match.start(), match.end());
+                count++;
+                if (cancellationSignal.isCanceled()) return count;
+            }
+            completed = true;
+        } catch (GuardedCharSequence.Canceled e) {
+            // canceled inside of search
+        } finally {
+            stepper.report(completed);
         }
+        return count;
+    }
+
+    public static void findParts(@NonNull String text,@NonNull Pattern pattern,@NonNull PartListener listener) {
+        findParts(text, pattern, listener,new CancellationSignalFake());
+    }
+
+    public static void findParts(@NonNull String text,@NonNull Pattern pattern,@NonNull PartListener listener,@NonNull CancellationSignal cancellationSignal) {
+        replaceParts(text, pattern, PatternCache.getDefault().getTemplate(pattern, "$0"), listener,cancellationSignal);
+    }
+
+    public static void replaceParts(@NonNull String text,@NonNull Pattern pattern,@NonNull ReplacementTemplate template,@NonNull PartListener listener) {
+        replaceParts(text, pattern, template, listener,new CancellationSignalFake());
+    }
+
+    public static void replaceParts(@NonNull String text,@NonNull Pattern pattern,@NonNull ReplacementTemplate template,@NonNull PartListener listener,@NonNull CancellationSignal cancellationSignal) {
+        replaceParts(text, pattern, template, listener, cancellationSignal, RegexBudget.UNLIMITED);
+    }
+
+    /**
+     * Replace with limits of time and steps, checked inside of long search too.
+     *
+     * @throws RegexTimeoutException If matching exceeds <code>budget</code>
+     */
+    public static void replaceParts(@NonNull String text,@NonNull Pattern pattern,@NonNull ReplacementTemplate template,@NonNull PartListener listener,@NonNull CancellationSignal cancellationSignal,@NonNull RegexBudget budget) {
+        replaceParts(text, pattern, template, listener, cancellationSignal, budget, null);
     }
 
     /**
-     * Internal helper method to append a given string to a given string buffer.
-     * If the string contains any references to groups, these are replaced by
-     * the corresponding group'mReplacement contents.
+     * Replace with limits of time and steps, reporting read position to <code>progress</code> while searching.
      *
-     * @param buffer      the string buffer.
-     * @param replaceText the string to append.
-     */
-    private void appendEvaluated(StringBuffer buffer, String replaceText, Matcher matcher) {
-        boolean escape = false;
-        boolean dollar = false;
-
-        for (int i = 0; i < replaceText.length(); i++) {
-            char c = replaceText.charAt(i);
-            if (c == '\\' && !escape) {
-                escape = true;
-            } else if (c == '$' && !escape) {
-                dollar = true;
-            } else if (c >= '0' && c <= '9' && dollar) {
-                buffer.append(matcher.group(c - '0'));
-                dollar = false;
-            } else if (c == 'n' && escape) {
-                buffer.append("\n");
-                dollar = false;
-                escape = false;
-            } else if (c == 'r' && escape) {
-                buffer.append("\r");
-                dollar = false;
-                escape = false;
-            } else if (c == 't' && escape) {
-                buffer.append("\t");
-                dollar = false;
-                escape = false;
-            } else if (escape) {
-                buffer.append("\\" + c);
-                dollar = false;
-                escape = false;
-            } else {
-                buffer.append(c);
-                dollar = false;
-                escape = false;
+     * @throws RegexTimeoutException If matching exceeds <code>budget</code>
+     */
+    public static void replaceParts(@NonNull String text,@NonNull Pattern pattern,@NonNull ReplacementTemplate template,@NonNull PartListener listener,@NonNull CancellationSignal cancellationSignal,@NonNull RegexBudget budget,@Nullable RegexProgress progress) {
+        if (progress != null) progress.start(text.length());
+        RegexStepper stepper = null;
+        boolean completed = false;
+        try {
+            if (cancellationSignal.isCanceled())return;
+
+            stepper = new RegexStepper(text, pattern, template, cancellationSignal, budget, progress);
+            while (stepper.step(listener)) {
+                if (cancellationSignal.isCanceled())return;
             }
+            completed = true;
+        } catch (GuardedCharSequence.Canceled e) {
+            // canceled inside of search
+        } finally {
+            if (progress != null) progress.finish(completed);
+            if (stepper != null) stepper.report(completed);
+        }
+    }
+
+    private void start() {
+        if (mProgress != null) mProgress.start(mText.length());
+        ResultCache cache = ResultCache.getDefault();
+        ResultCache.Key key = cache == null ? null : ResultCache.key(mText, mPattern, mTemplate);
+        ResultCache.Entry cached = key == null ? null : cache.get(key);
+        if (cached != null) {
+            RegexRunStats stats = RegexMetrics.start(mPattern, mText.length());
+            boolean completed = cached.replay(mText, mListener, mCancellationSignal, mProgress, stats);
+            if (mProgress != null) mProgress.finish(completed);
+            if (stats != null) RegexMetrics.report(stats);
+            return;
         }
-        if (escape) {
-            throw new ArrayIndexOutOfBoundsException(replaceText.length());
+        ResultCache.Recorder recorder = key == null ? null : new ResultCache.Recorder(mListener, cache.getMaxBytes());
+        Listener listener = recorder == null ? mListener : recorder;
+
+        RegexStepper stepper = null;
+        boolean completed = false;
+        try {
+            if (mCancellationSignal.isCanceled())return;
+
+            stepper = new RegexStepper(mText, mPattern, mTemplate, mCancellationSignal, mBudget, mProgress);
+            while (stepper.step(listener)) {
+                if (mCancellationSignal.isCanceled())return;
+            }
+            completed = true;
+            if (recorder != null) cache.put(key, recorder);
+        } catch (GuardedCharSequence.Canceled e) {
+            // canceled inside of search
+        } finally {
+            if (mProgress != null) mProgress.finish(completed);
+            if (stepper != null) stepper.report(completed);
+        }
+    }
+
+    /**
+     * Growing offsets of matches for {@link #first(String, Pattern, int, CancellationSignal)}.
+     */
+    private static final class MatchOffsets {
+        private int[] mStarts;
+        private int[] mEnds;
+        private int mSize;
+
+        MatchOffsets(int capacity) {
+            this.mStarts = new int[capacity];
+            this.mEnds = new int[capacity];
+        }
+
+        void add(int start, int end) {
+            if (mSize == mStarts.length) {
+                int capacity = Math.max(16, mSize + (mSize >> 1));
+                mStarts = Arrays.copyOf(mStarts, capacity);
+                mEnds = Arrays.copyOf(mEnds, capacity);
+            }
+            mStarts[mSize] = start;
+            mEnds[mSize] = end;
+            mSize++;
+        }
+
+        MatchIndex toIndex() {
+            return new MatchIndex(mSize, IntBuffer.wrap(mStarts, 0, mSize), IntBuffer.wrap(mEnds, 0, mSize), -1, IntBuffer.allocate(0));
         }
     }
 
@@ -174,6 +421,13 @@ public class Regex {
                     boolean isMatched, @FloatRange(from = 0, to = 1) float progress, int matchedCount);
     }
 
+    /**
+     * Listener of offset-only parts. Same {@link RegexPart} object is passed to each call.
+     */
+    public interface PartListener {
+        void onPart(@NonNull RegexPart part);
+    }
+
     public interface CancellationSignal {
 
         boolean isCanceled();
@@ -181,7 +435,7 @@ public class Regex {
         void cancel();
     }
 
-    private static class CancellationSignalFake implements CancellationSignal {
+    static class CancellationSignalFake implements CancellationSignal {
 
         public boolean isCanceled() {
            return false;
@@ -192,8 +446,11 @@ public class Regex {
         }
     }
 
+    /**
+     * Signal which may be canceled from any thread, cancellation is seen inside of long search too.
+     */
     public static class CancellationSignalImpl implements Regex.CancellationSignal, Cancellable {
-        boolean isCanceled;
+        volatile boolean isCanceled;
 
         @Override
         public boolean isCanceled() {
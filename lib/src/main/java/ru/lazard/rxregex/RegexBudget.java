@@ -0,0 +1,68 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits of one matching call, checked inside of {@link java.util.regex.Matcher#find()} too, so runaway pattern
+ * (for example catastrophic backtracking of <code>(a+)+b</code>) can't hold the thread.
+ * When limit is exceeded matching stops with {@link RegexTimeoutException}.
+ * <pre>{@code
+ * RegexBudget budget = new RegexBudget(200, TimeUnit.MILLISECONDS, 0);  // 200 ms, any count of steps
+ * Regex.replace(text, pattern, template, listener, cancellationSignal, budget);
+ * }</pre>
+ * Step is one read of char by matcher, so step budget doesn't depend on device speed unlike time budget.
+ * Limits are checked every {@link GuardedCharSequence#CHECK_INTERVAL} steps.
+ */
+public final class RegexBudget {
+
+    public static final RegexBudget UNLIMITED = new RegexBudget(0, TimeUnit.NANOSECONDS, 0);
+
+    private final long mTimeoutNanos;
+    private final long mMaxSteps;
+
+    /**
+     * @param timeout  Maximum time of call, zero or negative for no time limit
+     * @param unit     Time unit of <code>timeout</code>
+     * @param maxSteps Maximum count of chars read by matcher, zero or negative for no step limit
+     */
+    public RegexBudget(long timeout, @NonNull TimeUnit unit, long maxSteps) {
+        this.mTimeoutNanos = Math.max(0, unit.toNanos(timeout));
+        this.mMaxSteps = Math.max(0, maxSteps);
+    }
+
+    public static RegexBudget ofTime(long timeout, @NonNull TimeUnit unit) {
+        return new RegexBudget(timeout, unit, 0);
+    }
+
+    public static RegexBudget ofSteps(long maxSteps) {
+        return new RegexBudget(0, TimeUnit.NANOSECONDS, maxSteps);
+    }
+
+    /**
+     * @return Maximum time of call in nanoseconds, 0 if there is no time limit
+     */
+    public long getTimeoutNanos() {
+        return mTimeoutNanos;
+    }
+
+    /**
+     * @return Maximum count of chars read by matcher, 0 if there is no step limit
+     */
+    public long getMaxSteps() {
+        return mMaxSteps;
+    }
+
+    public boolean isUnlimited() {
+        return mTimeoutNanos == 0 && mMaxSteps == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "RegexBudget{" +
+                "timeoutNanos=" + mTimeoutNanos +
+                ", maxSteps=" + mMaxSteps +
+                '}';
+    }
+}
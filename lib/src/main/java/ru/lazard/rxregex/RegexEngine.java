@@ -0,0 +1,35 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+
+/**
+ * Engine which searches matches of pattern for {@link Regex} and {@link RxRegex}, see {@link RegexEngines}.
+ * Engine must find the same matches as loop of {@link java.util.regex.Matcher#find()}, or refuse pattern.
+ */
+public interface RegexEngine {
+
+    /**
+     * @param text Text to search, read only by {@link CharSequence#charAt(int)} and {@link CharSequence#length()}
+     *             (it may stop search on cancellation or timeout by exception)
+     * @return Sequential search of matches, or null if engine doesn't support pattern
+     */
+    @Nullable
+    Search search(@NonNull Pattern pattern, @NonNull CharSequence text);
+
+    interface Search {
+        /**
+         * Find next match, see {@link java.util.regex.Matcher#find()}.
+         */
+        boolean find();
+
+        /**
+         * @return Last found match, valid until next {@link #find()}
+         */
+        @NonNull
+        MatchResult result();
+    }
+}
@@ -0,0 +1,42 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Engines used by {@link Regex} and {@link RxRegex} for search of matches.
+ * <p>
+ * By default patterns supported by {@link LinearRegexEngine} are matched by it in time linear to text length,
+ * other patterns by {@link java.util.regex.Matcher}. Literal patterns are always searched without engine.
+ * <pre>{@code
+ * RegexEngines.setDefault(RegexEngines.JAVA);    // always java.util.regex
+ * }</pre>
+ */
+public final class RegexEngines {
+
+    /**
+     * Engine of {@link java.util.regex}, supports all patterns.
+     */
+    public static final RegexEngine JAVA = (pattern, text) -> Finder.createJava(pattern, text.toString(), text);
+
+    /**
+     * Linear time engine, see {@link LinearRegexEngine}.
+     */
+    public static final LinearRegexEngine LINEAR = new LinearRegexEngine();
+
+    private static volatile RegexEngine sDefault = LINEAR;
+
+    private RegexEngines() {
+    }
+
+    /**
+     * @param engine Engine tried first for each pattern, patterns not supported by it are matched by {@link #JAVA}
+     */
+    public static void setDefault(@NonNull RegexEngine engine) {
+        sDefault = engine;
+    }
+
+    @NonNull
+    public static RegexEngine getDefault() {
+        return sDefault;
+    }
+}
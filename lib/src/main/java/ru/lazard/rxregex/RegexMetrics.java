@@ -0,0 +1,240 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Optional instrumentation of {@link Regex} and {@link RxRegex} runs.
+ * <p>
+ * Disabled by default: without reporter runs don't read clock and don't allocate statistics.
+ * With reporter each run measures time of matching, replacement and listener callbacks, and passes
+ * {@link RegexRunStats} to reporter on the matching thread after run is finished, canceled or failed.
+ * <pre>{@code
+ * RegexMetrics.Aggregator aggregator = new RegexMetrics.Aggregator(stats -> log(stats.toString()));
+ * RegexMetrics.setReporter(aggregator);
+ * ...
+ * for (RegexMetrics.PatternTotals totals : aggregator.snapshot()) export(totals);
+ * RegexMetrics.setReporter(null);    // disable
+ * }</pre>
+ */
+public final class RegexMetrics {
+
+    private static volatile Reporter sReporter;
+
+    private RegexMetrics() {
+    }
+
+    /**
+     * @param reporter Receiver of statistics of each run, null to disable metrics
+     */
+    public static void setReporter(@Nullable Reporter reporter) {
+        sReporter = reporter;
+    }
+
+    @Nullable
+    public static Reporter getReporter() {
+        return sReporter;
+    }
+
+    /**
+     * @return Statistics for new run, null if metrics are disabled
+     */
+    @Nullable
+    static RegexRunStats start(@NonNull Pattern pattern, int textLength) {
+        return sReporter == null ? null : new RegexRunStats(pattern, textLength);
+    }
+
+    static void report(@NonNull RegexRunStats stats) {
+        Reporter reporter = sReporter;
+        if (reporter != null) reporter.report(stats);
+    }
+
+    public interface Reporter {
+        /**
+         * Called on the matching thread, should be fast and thread-safe.
+         */
+        void report(@NonNull RegexRunStats stats);
+    }
+
+    /**
+     * Reporter which sums statistics per pattern (regular expression and flags), and passes each run to next reporter.
+     */
+    public static class Aggregator implements Reporter {
+
+        private final Reporter mNext;
+        private final Map<String, PatternTotals> mTotals = new LinkedHashMap<>();
+
+        public Aggregator() {
+            this(null);
+        }
+
+        /**
+         * @param next Reporter called after aggregation, may be null
+         */
+        public Aggregator(@Nullable Reporter next) {
+            this.mNext = next;
+        }
+
+        @Override
+        public void report(@NonNull RegexRunStats stats) {
+            Pattern pattern = stats.getPattern();
+            String key = pattern.flags() + ":" + pattern.pattern();
+            synchronized (mTotals) {
+                PatternTotals totals = mTotals.get(key);
+                if (totals == null) {
+                    totals = new PatternTotals(pattern.pattern(), pattern.flags());
+                    mTotals.put(key, totals);
+                }
+                totals.add(stats);
+            }
+            if (mNext != null) mNext.report(stats);
+        }
+
+        /**
+         * @return Copies of totals, in order of first run of pattern
+         */
+        @NonNull
+        public List<PatternTotals> snapshot() {
+            synchronized (mTotals) {
+                List<PatternTotals> list = new ArrayList<>(mTotals.size());
+                for (PatternTotals totals : mTotals.values()) list.add(new PatternTotals(totals));
+                return list;
+            }
+        }
+
+        public void reset() {
+            synchronized (mTotals) {
+                mTotals.clear();
+            }
+        }
+    }
+
+    /**
+     * Sums of {@link RegexRunStats} of all runs of one pattern.
+     */
+    public static class PatternTotals {
+        private final String mRegex;
+        private final int mFlags;
+        private long mRunCount;
+        private long mFailedCount;
+        private long mCacheHitCount;
+        private long mMatchNanos;
+        private long mReplaceNanos;
+        private long mListenerNanos;
+        private long mTotalNanos;
+        private long mCharsScanned;
+        private long mMatchCount;
+        private long mCharsEmitted;
+
+        PatternTotals(@NonNull String regex, int flags) {
+            this.mRegex = regex;
+            this.mFlags = flags;
+        }
+
+        PatternTotals(@NonNull PatternTotals other) {
+            this.mRegex = other.mRegex;
+            this.mFlags = other.mFlags;
+            this.mRunCount = other.mRunCount;
+            this.mFailedCount = other.mFailedCount;
+            this.mCacheHitCount = other.mCacheHitCount;
+            this.mMatchNanos = other.mMatchNanos;
+            this.mReplaceNanos = other.mReplaceNanos;
+            this.mListenerNanos = other.mListenerNanos;
+            this.mTotalNanos = other.mTotalNanos;
+            this.mCharsScanned = other.mCharsScanned;
+            this.mMatchCount = other.mMatchCount;
+            this.mCharsEmitted = other.mCharsEmitted;
+        }
+
+        void add(@NonNull RegexRunStats stats) {
+            mRunCount++;
+            if (!stats.isCompleted()) mFailedCount++;
+            if (stats.isCacheHit()) mCacheHitCount++;
+            mMatchNanos += stats.getMatchNanos();
+            mReplaceNanos += stats.getReplaceNanos();
+            mListenerNanos += stats.getListenerNanos();
+            mTotalNanos += stats.getTotalNanos();
+            mCharsScanned += stats.getCharsScanned();
+            mMatchCount += stats.getMatchCount();
+            mCharsEmitted += stats.getCharsEmitted();
+        }
+
+        public String getRegex() {
+            return mRegex;
+        }
+
+        public int getFlags() {
+            return mFlags;
+        }
+
+        public long getRunCount() {
+            return mRunCount;
+        }
+
+        /**
+         * @return Count of canceled or failed runs
+         */
+        public long getFailedCount() {
+            return mFailedCount;
+        }
+
+        /**
+         * @return Count of runs replayed from {@link ResultCache}
+         */
+        public long getCacheHitCount() {
+            return mCacheHitCount;
+        }
+
+        public long getMatchNanos() {
+            return mMatchNanos;
+        }
+
+        public long getReplaceNanos() {
+            return mReplaceNanos;
+        }
+
+        public long getListenerNanos() {
+            return mListenerNanos;
+        }
+
+        public long getTotalNanos() {
+            return mTotalNanos;
+        }
+
+        public long getCharsScanned() {
+            return mCharsScanned;
+        }
+
+        public long getMatchCount() {
+            return mMatchCount;
+        }
+
+        public long getCharsEmitted() {
+            return mCharsEmitted;
+        }
+
+        @Override
+        public String toString() {
+            return "PatternTotals{" +
+                    "regex='" + mRegex + '\'' +
+                    ", flags=" + mFlags +
+                    ", runCount=" + mRunCount +
+                    ", failedCount=" + mFailedCount +
+                    ", cacheHitCount=" + mCacheHitCount +
+                    ", matchNanos=" + mMatchNanos +
+                    ", replaceNanos=" + mReplaceNanos +
+                    ", listenerNanos=" + mListenerNanos +
+                    ", totalNanos=" + mTotalNanos +
+                    ", charsScanned=" + mCharsScanned +
+                    ", matchCount=" + mMatchCount +
+                    ", charsEmitted=" + mCharsEmitted +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.FloatRange;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.regex.MatchResult;
+
+/**
+ * Offset-only info about current parsed text part, received by {@link Regex.PartListener}.
+ * <p>
+ * Same object is reused for all parts of one run, so it's valid only inside of listener call: copy values you need.
+ * Text of part isn't copied, it's available as lazy views {@link #getSrc()} and {@link #getDst()} only when asked.
+ * <pre>{@code
+ * Regex.findParts(text, pattern, part -> {
+ *     if (part.isMatched()) spannable.setSpan(new BackgroundColorSpan(Color.LTGRAY), part.getFromSrc(), part.getToSrc(), 0);
+ * });
+ * }</pre>
+ */
+public final class RegexPart {
+
+    private CharSequence mText;
+    private MatchResult mMatch;
+    private ReplacementTemplate mTemplate;
+    private int mFromSrc;
+    private int mToSrc;
+    private int mFromDst;
+    private int mToDst;
+    private boolean mMatched;
+    private int mMatchedCount;
+
+    RegexPart() {
+    }
+
+    void set(CharSequence text, int fromSrc, int toSrc, int fromDst, int toDst, boolean isMatched, int matchedCount,
+             MatchResult match, ReplacementTemplate template) {
+        this.mText = text;
+        this.mFromSrc = fromSrc;
+        this.mToSrc = toSrc;
+        this.mFromDst = fromDst;
+        this.mToDst = toDst;
+        this.mMatched = isMatched;
+        this.mMatchedCount = matchedCount;
+        this.mMatch = match;
+        this.mTemplate = template;
+    }
+
+    /**
+     * @return Start position of current part at original text
+     */
+    public int getFromSrc() {
+        return mFromSrc;
+    }
+
+    /**
+     * @return End position of current part at original text
+     */
+    public int getToSrc() {
+        return mToSrc;
+    }
+
+    /**
+     * @return Start position of current part at replaced text
+     */
+    public int getFromDst() {
+        return mFromDst;
+    }
+
+    /**
+     * @return End position of current part at replaced text
+     */
+    public int getToDst() {
+        return mToDst;
+    }
+
+    /**
+     * @return Is current part matched to regex
+     */
+    public boolean isMatched() {
+        return mMatched;
+    }
+
+    /**
+     * @return Count of matched parts at this moment
+     */
+    public int getMatchedCount() {
+        return mMatchedCount;
+    }
+
+    /**
+     * @return Current parsing progress (float from 0 - to 1)
+     */
+    @FloatRange(from = 0, to = 1)
+    public float getProgress() {
+        return (float) mToSrc / mText.length();
+    }
+
+    /**
+     * @return Count of capturing groups in pattern for matched part, 0 for not matched part
+     */
+    public int getGroupCount() {
+        return mMatched ? mMatch.groupCount() : 0;
+    }
+
+    /**
+     * @return Start position of group at original text, or -1 if group didn't participate in match
+     * @throws IllegalStateException If part is not matched
+     */
+    public int getGroupStart(int group) {
+        checkMatched();
+        return mMatch.start(group);
+    }
+
+    /**
+     * @return End position of group at original text, or -1 if group didn't participate in match
+     * @throws IllegalStateException If part is not matched
+     */
+    public int getGroupEnd(int group) {
+        checkMatched();
+        return mMatch.end(group);
+    }
+
+    /**
+     * @return Lazy view of current part of original text, chars aren't copied
+     */
+    @NonNull
+    public CharSequence getSrc() {
+        return new TextSlice(mText, mFromSrc, mToSrc);
+    }
+
+    /**
+     * @return Replaced text part. View of original text for not matched part and for find, evaluated replacement otherwise
+     */
+    @NonNull
+    public CharSequence getDst() {
+        if (!mMatched || mTemplate.isWholeMatch()) return getSrc();
+        return mTemplate.evaluate(mText, mMatch);
+    }
+
+    /**
+     * Append replaced text part to builder, without intermediate strings.
+     */
+    public void appendDst(@NonNull StringBuilder builder) {
+        if (!mMatched) builder.append(mText, mFromSrc, mToSrc);
+        else mTemplate.appendTo(builder, mText, mMatch);
+    }
+
+    /**
+     * Append replaced text part to sink, without intermediate strings.
+     */
+    void appendDst(@NonNull Appendable out) throws IOException {
+        if (!mMatched) out.append(mText, mFromSrc, mToSrc);
+        else mTemplate.appendTo(out, mText, mMatch);
+    }
+
+    private void checkMatched() {
+        if (!mMatched) throw new IllegalStateException("Part is not matched");
+    }
+
+    @Override
+    public String toString() {
+        return getSrc() + " -> " + getDst();
+    }
+}
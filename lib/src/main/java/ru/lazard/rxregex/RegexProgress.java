@@ -0,0 +1,73 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.FloatRange;
+
+/**
+ * Progress of one matching call, updated by matching thread and readable from any thread.
+ * <p>
+ * Unlike {@link RxRegex.OnAppend#getProgress()}, which changes only when part is emitted, this progress moves while
+ * matcher reads long text between matches. Matching thread only stores position, nobody is called back,
+ * so readers sample it at own rate, see {@link RxRegex#progress(RegexProgress, long, java.util.concurrent.TimeUnit)}.
+ * <pre>{@code
+ * RegexProgress progress = new RegexProgress();
+ * RxRegex.progress(progress, 100, TimeUnit.MILLISECONDS).subscribe(value -> progressBar.setProgress(value));
+ * Regex.replace(text, pattern, template, listener, cancellationSignal, RegexBudget.UNLIMITED, progress);
+ * }</pre>
+ * Position is updated every {@link GuardedCharSequence#CHECK_INTERVAL} chars read by matcher and on each emitted part.
+ */
+public final class RegexProgress {
+
+    private volatile int mPosition;
+    private volatile int mLength = -1;
+    private volatile boolean mFinished;
+
+    /**
+     * @return Part of text already read by matcher, from 0 to 1. 0 before start, 1 after successful finish.
+     */
+    @FloatRange(from = 0, to = 1)
+    public float get() {
+        int length = mLength;
+        if (length < 0) return 0;
+        if (length == 0) return mFinished ? 1 : 0;
+        return (float) mPosition / length;
+    }
+
+    /**
+     * @return Furthest offset in text read by matcher
+     */
+    public int getPosition() {
+        return mPosition;
+    }
+
+    /**
+     * @return Length of text, -1 if matching isn't started
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return True if matching is finished, canceled or failed
+     */
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    void start(int length) {
+        mFinished = false;
+        mPosition = 0;
+        mLength = length;
+    }
+
+    /**
+     * Called by matching thread only, so position is never moved back without synchronization.
+     */
+    void advance(int position) {
+        if (position > mPosition) mPosition = position;
+    }
+
+    void finish(boolean completed) {
+        if (completed) advance(mLength);
+        mFinished = true;
+    }
+}
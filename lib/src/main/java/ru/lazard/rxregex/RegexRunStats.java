@@ -0,0 +1,151 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+
+import java.util.regex.Pattern;
+
+/**
+ * Statistics of one matching run, passed to {@link RegexMetrics.Reporter} after run is finished.
+ * <p>
+ * Matching time includes search of matches ({@link java.util.regex.Matcher#find()}), replace time includes evaluation of
+ * replacement and copies of parts for {@link Regex.Listener}, listener time is time spent in caller's callbacks
+ * (for {@link RxRegex} it's time of <code>onNext</code>). {@link Regex.PartListener} evaluates replacement itself,
+ * so for it replace time is a part of listener time.
+ */
+public final class RegexRunStats {
+
+    private final Pattern mPattern;
+    private final int mTextLength;
+    private final long mStartNanos;
+    private long mMatchNanos;
+    private long mReplaceNanos;
+    private long mListenerNanos;
+    private long mTotalNanos;
+    private int mCharsScanned;
+    private int mMatchCount;
+    private int mCharsEmitted;
+    private boolean mCompleted;
+    private boolean mCacheHit;
+
+    RegexRunStats(@NonNull Pattern pattern, int textLength) {
+        this.mPattern = pattern;
+        this.mTextLength = textLength;
+        this.mStartNanos = System.nanoTime();
+    }
+
+    @NonNull
+    public Pattern getPattern() {
+        return mPattern;
+    }
+
+    public int getTextLength() {
+        return mTextLength;
+    }
+
+    /**
+     * @return Time of search of matches, in nanoseconds
+     */
+    public long getMatchNanos() {
+        return mMatchNanos;
+    }
+
+    /**
+     * @return Time of evaluation of replacements, in nanoseconds
+     */
+    public long getReplaceNanos() {
+        return mReplaceNanos;
+    }
+
+    /**
+     * @return Time spent in listener callbacks, in nanoseconds
+     */
+    public long getListenerNanos() {
+        return mListenerNanos;
+    }
+
+    /**
+     * @return Time from start to finish of run, in nanoseconds
+     */
+    public long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    /**
+     * @return Count of source chars emitted as parts, equals to text length for completed run
+     */
+    public int getCharsScanned() {
+        return mCharsScanned;
+    }
+
+    public int getMatchCount() {
+        return mMatchCount;
+    }
+
+    /**
+     * @return Length of replaced text emitted to listener or sink
+     */
+    public int getCharsEmitted() {
+        return mCharsEmitted;
+    }
+
+    /**
+     * @return False if run was canceled or failed
+     */
+    public boolean isCompleted() {
+        return mCompleted;
+    }
+
+    /**
+     * @return True if parts were replayed from {@link ResultCache} without matcher, only total time is measured then
+     */
+    public boolean isCacheHit() {
+        return mCacheHit;
+    }
+
+    long addMatchNanos(long since) {
+        long now = System.nanoTime();
+        mMatchNanos += now - since;
+        return now;
+    }
+
+    long addReplaceNanos(long since) {
+        long now = System.nanoTime();
+        mReplaceNanos += now - since;
+        return now;
+    }
+
+    long addListenerNanos(long since) {
+        long now = System.nanoTime();
+        mListenerNanos += now - since;
+        return now;
+    }
+
+    void setCacheHit() {
+        this.mCacheHit = true;
+    }
+
+    void finish(int charsScanned, int matchCount, int charsEmitted, boolean completed) {
+        this.mTotalNanos = System.nanoTime() - mStartNanos;
+        this.mCharsScanned = charsScanned;
+        this.mMatchCount = matchCount;
+        this.mCharsEmitted = charsEmitted;
+        this.mCompleted = completed;
+    }
+
+    @Override
+    public String toString() {
+        return "RegexRunStats{" +
+                "pattern=" + mPattern +
+                ", textLength=" + mTextLength +
+                ", matchNanos=" + mMatchNanos +
+                ", replaceNanos=" + mReplaceNanos +
+                ", listenerNanos=" + mListenerNanos +
+                ", totalNanos=" + mTotalNanos +
+                ", charsScanned=" + mCharsScanned +
+                ", matchCount=" + mMatchCount +
+                ", charsEmitted=" + mCharsEmitted +
+                ", completed=" + mCompleted +
+                ", cacheHit=" + mCacheHit +
+                '}';
+    }
+}
@@ -0,0 +1,532 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Incremental find/replace over editable text. Session keeps matches of last text, and after each edit re-matches
+ * only damaged region of text plus whatever is needed to resynchronize with previous matches.
+ * <p>
+ * Matches must not be longer than <code>maxMatchLength</code> chars, and lookbehind/lookahead must not look further
+ * than <code>maxMatchLength</code> chars from match: text further than this from edit is treated as unchanged.
+ * Patterns with <code>\G</code> are always re-matched from start of text.
+ * <p>
+ * Matches are kept in gap buffer placed at last edit: matches after gap are stored relative to end of text,
+ * so edit doesn't shift them. Cost of edit depends on <code>maxMatchLength</code> and on count of matches between
+ * this and previous edit, not on size of text or on total count of matches.
+ * <pre>{@code
+ * RegexSession session = new RegexSession(editable.toString(), pattern, "_$1_");
+ * // in TextWatcher.onTextChanged(s, start, before, count)
+ * RegexSession.Diff diff = session.edit(start, before, s.subSequence(start, start + count).toString());
+ * result.replace(diff.getDstOffset(), diff.getDstOffset() + diff.getDstRemovedLength(), diff.getDstInsertedText());
+ * }</pre>
+ */
+public class RegexSession {
+
+    public static final int DEFAULT_MAX_MATCH_LENGTH = 1024;
+
+    private final ReplacementTemplate mTemplate;
+    private final int mMaxMatchLength;
+    private final boolean mResyncable;
+    private final StringBuilder mText;
+    private final Matcher mMatcher;
+
+    // Gap buffer of matches. Before gap: absolute offsets, delta is sum of (dst length - src length) of previous matches.
+    // After gap: offsets from end of text, delta is sum of (dst length - src length) of next matches.
+    private int[] mStarts = new int[16];
+    private int[] mEnds = new int[16];
+    private int[] mDeltas = new int[16];
+    private String[] mDst = new String[16];
+    private int mGapStart;
+    private int mGapEnd = 16;
+    private int mTotalDelta;
+
+    public RegexSession(@NonNull String text, @NonNull Pattern pattern, @NonNull String replacement) {
+        this(text, pattern, PatternCache.getDefault().getTemplate(pattern, replacement), DEFAULT_MAX_MATCH_LENGTH);
+    }
+
+    /**
+     * @param maxMatchLength Maximum length of match and of its lookaround, text further from edit isn't re-matched
+     */
+    public RegexSession(@NonNull String text, @NonNull Pattern pattern, @NonNull ReplacementTemplate template, int maxMatchLength) {
+        if (maxMatchLength <= 0) throw new IllegalArgumentException("maxMatchLength <= 0");
+        this.mTemplate = template;
+        this.mMaxMatchLength = maxMatchLength;
+        this.mResyncable = !PatternAnalysis.hasPreviousMatchAnchor(pattern);
+        this.mText = new StringBuilder(text);
+        this.mMatcher = pattern.matcher(mText);
+        this.mMatcher.useTransparentBounds(true);
+        this.mMatcher.useAnchoringBounds(false);
+        int length = mText.length();
+        while (mMatcher.find()) {
+            checkEmpty(mMatcher.start(), mMatcher.end(), length);
+            insert(mMatcher.start(), mMatcher.end(), evaluate());
+        }
+    }
+
+    /**
+     * Apply edit to text and re-match it.
+     *
+     * @param offset        Start of edited region at current text
+     * @param removedLength Count of removed chars
+     * @param insertedText  Text inserted instead of removed chars
+     * @return Removed and added matches, and the same edit for replaced text
+     * @throws IndexOutOfBoundsException If removed region is out of text
+     */
+    @NonNull
+    public Diff edit(int offset, int removedLength, @NonNull String insertedText) {
+        int oldLength = mText.length();
+        if (offset < 0 || removedLength < 0 || offset > oldLength - removedLength)
+            throw new IndexOutOfBoundsException("offset: " + offset + ", removedLength: " + removedLength + ", length: " + oldLength);
+
+        // matches which can't see edit are kept, search restarts after them
+        int searchFrom = mResyncable ? Math.max(0, offset - mMaxMatchLength) : 0;
+        int first = firstAffected(searchFrom);
+        if (first < getMatchCount() && getMatchFromSrc(first) < searchFrom) searchFrom = getMatchFromSrc(first);
+        moveGap(first);
+        int dstShift = first == 0 ? 0 : mDeltas[first - 1] + delta(first - 1);
+
+        mText.replace(offset, offset + removedLength, insertedText);
+        mMatcher.reset(mText);
+        int length = mText.length();
+        int delta = length - oldLength;
+        // match attempts from here are the same as before edit
+        long unchangedFrom = mResyncable ? (long) offset + insertedText.length() + mMaxMatchLength : Long.MAX_VALUE;
+
+        Diff rematched = new Diff();
+        int pos = searchFrom;
+        int resync;
+        while (true) {
+            if (pos >= unchangedFrom) {
+                resync = firstAfterGap(pos);
+                // previous search was at the same position, unless it was inside of match
+                if (resync == mGapEnd || length - mEnds[resync - 1] <= pos) break;
+            }
+            if (pos > length) {
+                resync = mStarts.length;
+                break;
+            }
+            boolean bounded = pos < unchangedFrom && unchangedFrom < length - mMaxMatchLength;
+            mMatcher.region(pos, bounded ? (int) (unchangedFrom + mMaxMatchLength) : length);
+            boolean found = mMatcher.find();
+            if (found && bounded && mMatcher.hitEnd()) {
+                // match is longer than maxMatchLength
+                mMatcher.region(pos, length);
+                found = mMatcher.find();
+                bounded = false;
+            }
+            if (!found) {
+                if (bounded) {
+                    pos = (int) unchangedFrom;
+                    continue;
+                }
+                resync = mStarts.length;
+                break;
+            }
+            int start = mMatcher.start();
+            int end = mMatcher.end();
+            if (pos < unchangedFrom && start >= unchangedFrom) {
+                pos = (int) unchangedFrom;
+                continue;
+            }
+            checkEmpty(start, end, length);
+            rematched.addAdded(start, end, evaluate());
+            pos = start == end ? end + 1 : end;
+        }
+
+        // re-matched region contains unchanged matches before and after edit, they aren't reported
+        int removedFrom = mGapEnd;
+        int removedTo = resync;
+        int addedFrom = 0;
+        int addedTo = rematched.mAddedCount;
+        while (removedFrom < removedTo && addedFrom < addedTo && length - mEnds[removedFrom] - delta <= offset
+                && isSame(removedFrom, rematched, addedFrom, delta)) {
+            removedFrom++;
+            addedFrom++;
+        }
+        while (removedFrom < removedTo && addedFrom < addedTo && length - mStarts[removedTo - 1] - delta >= offset + removedLength
+                && isSame(removedTo - 1, rematched, addedTo - 1, 0)) {
+            removedTo--;
+            addedTo--;
+        }
+
+        // edited region of source text, old and new
+        int from = offset;
+        int oldTo = offset + removedLength;
+        if (removedTo > removedFrom) {
+            from = Math.min(from, length - mStarts[removedFrom] - delta);
+            oldTo = Math.max(oldTo, length - mEnds[removedTo - 1] - delta);
+        }
+        if (addedTo > addedFrom) {
+            from = Math.min(from, rematched.mAdded[4 * addedFrom]);
+            oldTo = Math.max(oldTo, rematched.mAdded[4 * (addedTo - 1) + 1] - delta);
+        }
+        int newTo = oldTo + delta;
+        int dstFrom = from + dstShift;
+        for (int q = mGapEnd; q < removedFrom; q++) dstFrom += delta(q);
+
+        Diff diff = new Diff();
+        int pos0 = from;
+        int dstPos = dstFrom;
+        for (int q = removedFrom; q < removedTo; q++) {
+            int start = length - mStarts[q] - delta;
+            int end = length - mEnds[q] - delta;
+            dstPos += start - pos0;
+            int dstLength = mDst[q] == null ? end - start : mDst[q].length();
+            diff.addRemoved(start, end, dstPos, dstPos + dstLength);
+            dstPos += dstLength;
+            pos0 = end;
+        }
+        int dstRemovedLength = dstPos + oldTo - pos0 - dstFrom;
+        for (int q = mGapEnd; q < resync; q++) {
+            mTotalDelta -= delta(q);
+            mDst[q] = null;
+        }
+        mGapEnd = resync;
+
+        StringBuilder dst = new StringBuilder();
+        pos0 = from;
+        for (int i = 0; i < rematched.mAddedCount; i++) {
+            int start = rematched.mAdded[4 * i];
+            int end = rematched.mAdded[4 * i + 1];
+            String matchDst = rematched.mAddedDst[i];
+            insert(start, end, matchDst);
+            if (i < addedFrom || i >= addedTo) continue;
+            dst.append(mText, pos0, start);
+            int fromDst = dstFrom + dst.length();
+            if (matchDst == null) dst.append(mText, start, end);
+            else dst.append(matchDst);
+            diff.addAdded(start, end, matchDst == null ? mText.substring(start, end) : matchDst);
+            diff.setAddedDst(diff.mAddedCount - 1, fromDst, dstFrom + dst.length());
+            pos0 = end;
+        }
+        dst.append(mText, pos0, newTo);
+        diff.setDstEdit(dstFrom, dstRemovedLength, dst.toString());
+        return diff;
+    }
+
+    /**
+     * @return Current text. It's live view, don't change it
+     */
+    @NonNull
+    public CharSequence getText() {
+        return mText;
+    }
+
+    /**
+     * @return Current text with replaced matches
+     */
+    @NonNull
+    public String getResult() {
+        StringBuilder builder = new StringBuilder(mText.length() + mTotalDelta);
+        int pos = 0;
+        for (int i = 0; i < getMatchCount(); i++) {
+            int start = getMatchFromSrc(i);
+            int end = getMatchToSrc(i);
+            String dst = mDst[physical(i)];
+            builder.append(mText, pos, start);
+            if (dst == null) builder.append(mText, start, end);
+            else builder.append(dst);
+            pos = end;
+        }
+        return builder.append(mText, pos, mText.length()).toString();
+    }
+
+    public int getMatchCount() {
+        return mStarts.length - (mGapEnd - mGapStart);
+    }
+
+    /**
+     * @return Start position of match at current text
+     */
+    public int getMatchFromSrc(int index) {
+        int q = physical(index);
+        return index < mGapStart ? mStarts[q] : mText.length() - mStarts[q];
+    }
+
+    /**
+     * @return End position of match at current text
+     */
+    public int getMatchToSrc(int index) {
+        int q = physical(index);
+        return index < mGapStart ? mEnds[q] : mText.length() - mEnds[q];
+    }
+
+    /**
+     * @return Start position of match at current replaced text
+     */
+    public int getMatchFromDst(int index) {
+        int q = physical(index);
+        int deltaBefore = index < mGapStart ? mDeltas[q] : mTotalDelta - mDeltas[q] - delta(q);
+        return getMatchFromSrc(index) + deltaBefore;
+    }
+
+    /**
+     * @return End position of match at current replaced text
+     */
+    public int getMatchToDst(int index) {
+        int q = physical(index);
+        return getMatchFromDst(index) + (mDst[q] == null ? srcLength(q) : mDst[q].length());
+    }
+
+    /**
+     * @param shift Shift of offsets after gap to offsets of found match: length change of edit for matches before edit,
+     *              0 for matches after edit
+     * @return True if old match at physical index is the same as found match
+     */
+    private boolean isSame(int q, Diff found, int index, int shift) {
+        int length = mText.length();
+        if (length - mStarts[q] - shift != found.mAdded[4 * index]) return false;
+        if (length - mEnds[q] - shift != found.mAdded[4 * index + 1]) return false;
+        String dst = found.mAddedDst[index];
+        return dst == null ? mDst[q] == null : dst.equals(mDst[q]);
+    }
+
+    private String evaluate() {
+        return mTemplate.isWholeMatch() ? null : mTemplate.evaluate(mText, mMatcher);
+    }
+
+    private static void checkEmpty(int start, int end, int length) {
+        if (start == end && start != 0 && start != length)
+            throw new IllegalArgumentException("Too short replace text in regularExpression");
+    }
+
+    private int physical(int index) {
+        if (index < 0 || index >= getMatchCount()) throw new IndexOutOfBoundsException("index: " + index);
+        return index < mGapStart ? index : index + mGapEnd - mGapStart;
+    }
+
+    private int srcLength(int q) {
+        return Math.abs(mEnds[q] - mStarts[q]);
+    }
+
+    /**
+     * @return Dst length - src length of match at physical index
+     */
+    private int delta(int q) {
+        return mDst[q] == null ? 0 : mDst[q].length() - srcLength(q);
+    }
+
+    /**
+     * @return Index of first match which ends after position or starts at it
+     */
+    private int firstAffected(int position) {
+        int low = 0;
+        int high = getMatchCount();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getMatchToSrc(middle) > position || getMatchFromSrc(middle) >= position) high = middle;
+            else low = middle + 1;
+        }
+        return low;
+    }
+
+    /**
+     * @return Physical index of first match after gap starting not before position
+     */
+    private int firstAfterGap(int position) {
+        int length = mText.length();
+        int low = mGapEnd;
+        int high = mStarts.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (length - mStarts[middle] >= position) high = middle;
+            else low = middle + 1;
+        }
+        return low;
+    }
+
+    private void moveGap(int index) {
+        int length = mText.length();
+        while (mGapStart > index) {
+            int from = --mGapStart;
+            int to = --mGapEnd;
+            move(from, to, length);
+        }
+        while (mGapStart < index) {
+            int from = mGapEnd++;
+            int to = mGapStart++;
+            move(from, to, length);
+        }
+    }
+
+    /**
+     * Move match over gap, converting its offsets and delta to other side of gap.
+     */
+    private void move(int from, int to, int length) {
+        int start = length - mStarts[from];
+        int end = length - mEnds[from];
+        int delta = mTotalDelta - mDeltas[from] - delta(from);
+        String dst = mDst[from];
+        mDst[from] = null;
+        mStarts[to] = start;
+        mEnds[to] = end;
+        mDeltas[to] = delta;
+        mDst[to] = dst;
+    }
+
+    private void insert(int start, int end, String dst) {
+        if (mGapStart == mGapEnd) grow();
+        int q = mGapStart++;
+        mStarts[q] = start;
+        mEnds[q] = end;
+        mDst[q] = dst;
+        mDeltas[q] = q == 0 ? 0 : mDeltas[q - 1] + delta(q - 1);
+        mTotalDelta += delta(q);
+    }
+
+    private void grow() {
+        int capacity = mStarts.length * 2;
+        int suffix = mStarts.length - mGapEnd;
+        mStarts = grow(mStarts, capacity, suffix);
+        mEnds = grow(mEnds, capacity, suffix);
+        mDeltas = grow(mDeltas, capacity, suffix);
+        String[] dst = new String[capacity];
+        System.arraycopy(mDst, 0, dst, 0, mGapStart);
+        System.arraycopy(mDst, mGapEnd, dst, capacity - suffix, suffix);
+        mDst = dst;
+        mGapEnd = capacity - suffix;
+    }
+
+    private int[] grow(int[] array, int capacity, int suffix) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, mGapStart);
+        System.arraycopy(array, mGapEnd, grown, capacity - suffix, suffix);
+        return grown;
+    }
+
+    /**
+     * Result of one edit. Removed matches have offsets at text before edit, added matches have offsets at text
+     * after edit. Matches outside of edited region are unchanged, only shifted by length change of edit.
+     * <p>
+     * Dst edit is the change of replaced text, apply it to keep replaced text in sync without full replace.
+     */
+    public static final class Diff {
+        private int[] mRemoved = new int[16];
+        private int mRemovedCount;
+        private int[] mAdded = new int[16];
+        private String[] mAddedDst = new String[4];
+        private int mAddedCount;
+        private int mDstOffset;
+        private int mDstRemovedLength;
+        private String mDstInsertedText;
+
+        Diff() {
+        }
+
+        void addRemoved(int fromSrc, int toSrc, int fromDst, int toDst) {
+            if (4 * mRemovedCount == mRemoved.length) mRemoved = Arrays.copyOf(mRemoved, mRemoved.length * 2);
+            int i = 4 * mRemovedCount++;
+            mRemoved[i] = fromSrc;
+            mRemoved[i + 1] = toSrc;
+            mRemoved[i + 2] = fromDst;
+            mRemoved[i + 3] = toDst;
+        }
+
+        /**
+         * Dst offsets of added match are set after all matches are found.
+         */
+        void addAdded(int fromSrc, int toSrc, String dst) {
+            if (4 * mAddedCount == mAdded.length) {
+                mAdded = Arrays.copyOf(mAdded, mAdded.length * 2);
+                mAddedDst = Arrays.copyOf(mAddedDst, mAddedDst.length * 2);
+            }
+            mAdded[4 * mAddedCount] = fromSrc;
+            mAdded[4 * mAddedCount + 1] = toSrc;
+            mAddedDst[mAddedCount] = dst;
+            mAddedCount++;
+        }
+
+        void setAddedDst(int index, int fromDst, int toDst) {
+            mAdded[4 * index + 2] = fromDst;
+            mAdded[4 * index + 3] = toDst;
+        }
+
+        void setDstEdit(int offset, int removedLength, String insertedText) {
+            this.mDstOffset = offset;
+            this.mDstRemovedLength = removedLength;
+            this.mDstInsertedText = insertedText;
+        }
+
+        public int getRemovedCount() {
+            return mRemovedCount;
+        }
+
+        public int getRemovedFromSrc(int index) {
+            return mRemoved[4 * checkIndex(index, mRemovedCount)];
+        }
+
+        public int getRemovedToSrc(int index) {
+            return mRemoved[4 * checkIndex(index, mRemovedCount) + 1];
+        }
+
+        public int getRemovedFromDst(int index) {
+            return mRemoved[4 * checkIndex(index, mRemovedCount) + 2];
+        }
+
+        public int getRemovedToDst(int index) {
+            return mRemoved[4 * checkIndex(index, mRemovedCount) + 3];
+        }
+
+        public int getAddedCount() {
+            return mAddedCount;
+        }
+
+        public int getAddedFromSrc(int index) {
+            return mAdded[4 * checkIndex(index, mAddedCount)];
+        }
+
+        public int getAddedToSrc(int index) {
+            return mAdded[4 * checkIndex(index, mAddedCount) + 1];
+        }
+
+        public int getAddedFromDst(int index) {
+            return mAdded[4 * checkIndex(index, mAddedCount) + 2];
+        }
+
+        public int getAddedToDst(int index) {
+            return mAdded[4 * checkIndex(index, mAddedCount) + 3];
+        }
+
+        /**
+         * @return Replaced text of added match
+         */
+        public String getAddedDst(int index) {
+            return mAddedDst[checkIndex(index, mAddedCount)];
+        }
+
+        /**
+         * @return Start of changed region at replaced text before edit
+         */
+        public int getDstOffset() {
+            return mDstOffset;
+        }
+
+        /**
+         * @return Length of changed region at replaced text before edit
+         */
+        public int getDstRemovedLength() {
+            return mDstRemovedLength;
+        }
+
+        /**
+         * @return Text of changed region at replaced text after edit
+         */
+        public String getDstInsertedText() {
+            return mDstInsertedText;
+        }
+
+        private static int checkIndex(int index, int count) {
+            if (index < 0 || index >= count) throw new IndexOutOfBoundsException("index: " + index + ", count: " + count);
+            return index;
+        }
+
+        @Override
+        public String toString() {
+            return "Diff{removed=" + mRemovedCount + ", added=" + mAddedCount + ", dst=" + mDstOffset + "+" + mDstRemovedLength + " -> " + mDstInsertedText + "}";
+        }
+    }
+}
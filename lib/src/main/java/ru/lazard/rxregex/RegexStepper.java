@@ -0,0 +1,201 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+
+/**
+ * Matching loop of {@link Regex} split to steps. Each step emits exactly one part of text to listener,
+ * so matching may be driven by caller (for example by downstream requests of Flowable).
+ * <p>
+ * Steps fill reusable {@link RegexPart} with offsets only, so matching loop itself doesn't allocate per match.
+ * Matches are searched by {@link Finder}, which has fast paths for literal patterns and patterns with literal prefix.
+ */
+final class RegexStepper {
+
+    private final CharSequence mText;
+    private final Finder mFinder;
+    private final ReplacementTemplate mTemplate;
+    private final RegexPart mPart = new RegexPart();
+    private final RegexProgress mProgress;
+    private RegexRunStats mStats;
+    private final int mTextLength;
+    private int mAppendPos;
+    private int mDstLength;
+    private int mMatchedCount;
+    private boolean mMatchPending;
+    private boolean mFinished;
+
+    /**
+     * Stepper which may be stopped inside of one long search by cancellation signal or budget,
+     * see {@link GuardedCharSequence}.
+     */
+    RegexStepper(@NonNull String text, @NonNull Pattern pattern, @NonNull ReplacementTemplate template,
+                 @NonNull Regex.CancellationSignal cancellationSignal, @NonNull RegexBudget budget, @Nullable RegexProgress progress) {
+        this(text, pattern, template, GuardedCharSequence.of(text, cancellationSignal, budget, progress), progress);
+        this.mStats = RegexMetrics.start(pattern, text.length());
+    }
+
+    /**
+     * Stepper over text which isn't String (for example {@link Utf8Text}), without literal and prefix fast paths.
+     */
+    RegexStepper(@NonNull CharSequence text, @NonNull Pattern pattern, @NonNull ReplacementTemplate template,
+                 @NonNull Regex.CancellationSignal cancellationSignal) {
+        this(text, Finder.createForSequence(pattern, GuardedCharSequence.of(text, cancellationSignal, RegexBudget.UNLIMITED, null)), template, null);
+        this.mStats = RegexMetrics.start(pattern, text.length());
+    }
+
+    private RegexStepper(@NonNull String text, @NonNull Pattern pattern, @NonNull ReplacementTemplate template,
+                         @NonNull CharSequence input, @Nullable RegexProgress progress) {
+        this(text, Finder.create(pattern, text, input), template, progress);
+    }
+
+    private RegexStepper(@NonNull CharSequence text, @NonNull Finder finder, @NonNull ReplacementTemplate template, @Nullable RegexProgress progress) {
+        this.mText = text;
+        this.mProgress = progress;
+        this.mFinder = finder;
+        this.mTemplate = template;
+        this.mTextLength = text.length();
+    }
+
+    /**
+     * Emit next part of text to listener.
+     *
+     * @return False if all text already emitted, listener isn't called in this case.
+     */
+    boolean step(@NonNull Regex.PartListener listener) {
+        RegexRunStats stats = mStats;
+        long time = stats == null ? 0 : System.nanoTime();
+        if (!next()) {
+            if (stats != null) stats.addMatchNanos(time);
+            return false;
+        }
+        if (stats != null) time = stats.addMatchNanos(time);
+        listener.onPart(mPart);
+        if (stats != null) stats.addListenerNanos(time);
+        return true;
+    }
+
+    /**
+     * Move to next part of text, for callers which can't be called back (for example, may throw checked exceptions).
+     *
+     * @return Reused part, or null if all text already emitted.
+     */
+    RegexPart nextPart() {
+        RegexRunStats stats = mStats;
+        long time = stats == null ? 0 : System.nanoTime();
+        boolean hasPart = next();
+        if (stats != null) stats.addMatchNanos(time);
+        return hasPart ? mPart : null;
+    }
+
+    /**
+     * Move to next match without parts and replacement, for queries which need only matches (count, exists).
+     * Must not be mixed with steps. Empty matches inside of text are allowed here.
+     *
+     * @return Match valid until next call, or null if text has no more matches.
+     */
+    MatchResult nextMatch() {
+        RegexRunStats stats = mStats;
+        long time = stats == null ? 0 : System.nanoTime();
+        MatchResult match = null;
+        if (mFinder.find()) {
+            match = mFinder.result();
+            mMatchedCount++;
+            mAppendPos = match.end();
+        } else {
+            mAppendPos = mTextLength;
+        }
+        if (mProgress != null) mProgress.advance(mAppendPos);
+        if (stats != null) stats.addMatchNanos(time);
+        return match;
+    }
+
+    /**
+     * Emit next part of text to listener, with copies of source and replaced text.
+     *
+     * @return False if all text already emitted, listener isn't called in this case.
+     */
+    boolean step(@NonNull Regex.Listener listener) {
+        RegexRunStats stats = mStats;
+        long time = stats == null ? 0 : System.nanoTime();
+        if (!next()) {
+            if (stats != null) stats.addMatchNanos(time);
+            return false;
+        }
+        if (stats != null) time = stats.addMatchNanos(time);
+        RegexPart part = mPart;
+        String substringSrc = mText.subSequence(part.getFromSrc(), part.getToSrc()).toString();
+        String substringDst = !part.isMatched() || mTemplate.isWholeMatch() ? substringSrc : mTemplate.evaluate(mText, mFinder.result());
+        if (stats != null) time = stats.addReplaceNanos(time);
+        listener.append(part.getFromSrc(), part.getToSrc(), substringSrc, part.getFromDst(), part.getToDst(), substringDst,
+                part.isMatched(), (float) part.getToSrc() / mTextLength, part.getMatchedCount());
+        if (stats != null) stats.addListenerNanos(time);
+        return true;
+    }
+
+    /**
+     * Pass statistics of run to {@link RegexMetrics} reporter, if metrics were enabled at start of run.
+     *
+     * @param completed False if run was canceled or failed
+     */
+    void report(boolean completed) {
+        RegexRunStats stats = mStats;
+        if (stats == null) return;
+        mStats = null;
+        stats.finish(mAppendPos, mMatchedCount, mDstLength, completed);
+        RegexMetrics.report(stats);
+    }
+
+    private boolean next() {
+        if (!move()) return false;
+        if (mProgress != null) mProgress.advance(mPart.getToSrc());
+        return true;
+    }
+
+    /**
+     * Move to next part of text.
+     *
+     * @return False if all text already emitted.
+     */
+    private boolean move() {
+        if (mFinished) return false;
+        MatchResult match = mFinder.result();
+
+        if (mMatchPending) {
+            mMatchPending = false;
+            int start = match.start();
+            int end = match.end();
+            int fromDst = mDstLength;
+            mDstLength += mTemplate.isWholeMatch() ? end - start : mTemplate.length(match);
+            mAppendPos = end;
+            mPart.set(mText, start, end, fromDst, mDstLength, true, mMatchedCount, match, mTemplate);
+            return true;
+        }
+
+        if (mFinder.find()) {
+            int start = match.start();
+            if (start == match.end() && start != 0 && start != mTextLength)
+                throw new IllegalArgumentException("Too short replace text in regularExpression");
+
+            mMatchedCount++;
+            mMatchPending = true;
+            setGap(start);
+            return true;
+        }
+
+        mFinished = true;
+        if (mAppendPos >= mTextLength) return false;
+        setGap(mTextLength);
+        return true;
+    }
+
+    private void setGap(int end) {
+        int fromDst = mDstLength;
+        mDstLength += end - mAppendPos;
+        mPart.set(mText, mAppendPos, end, fromDst, mDstLength, false, mMatchedCount, null, mTemplate);
+        mAppendPos = end;
+    }
+}
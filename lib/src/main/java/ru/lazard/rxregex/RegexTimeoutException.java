@@ -0,0 +1,33 @@
+package ru.lazard.rxregex;
+
+/**
+ * Thrown when matching exceeds time or step limit of {@link RegexBudget}.
+ * Parts emitted before exception stay valid, matching can't be continued.
+ */
+public class RegexTimeoutException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long mSteps;
+    private final long mElapsedNanos;
+
+    public RegexTimeoutException(String message, long steps, long elapsedNanos) {
+        super(message);
+        this.mSteps = steps;
+        this.mElapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return Count of chars read by matcher before stop
+     */
+    public long getSteps() {
+        return mSteps;
+    }
+
+    /**
+     * @return Time from start of matching to stop, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return mElapsedNanos;
+    }
+}
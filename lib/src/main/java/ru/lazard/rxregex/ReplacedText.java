@@ -0,0 +1,229 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Result of replace which isn't copied to new string: piece table of original text and replaced fragments.
+ * Memory is proportional to count of matches, not to length of text, so it suits replaces which change a tiny part of huge text.
+ * <pre>{@code
+ * ReplacedText result = Regex.replaceLazy(hugeText, pattern, "_$1_");
+ * result.writeTo(writer);                  // stream without building output string
+ * char c = result.charAt(index);           // random access by binary search of pieces
+ * }</pre>
+ * Text consists of segments: gap of original text before each match, replacement of each match, and tail after last match.
+ * Replacements are kept as strings, unchanged parts reference the original string.
+ */
+public final class ReplacedText implements CharSequence {
+
+    private final String mSource;
+    private final int mCount;
+    private final int[] mSrcStarts;
+    private final int[] mSrcEnds;
+    private final int[] mDstStarts;
+    /**
+     * Evaluated replacement of each match, null if match isn't changed.
+     */
+    private final String[] mReplacements;
+    private final int mLength;
+    /**
+     * Segment of last {@link #charAt(int)}, sequential reads don't search. Only a hint, so it isn't synchronized.
+     */
+    private int mHint;
+
+    private ReplacedText(String source, int count, int[] srcStarts, int[] srcEnds, int[] dstStarts, String[] replacements, int length) {
+        this.mSource = source;
+        this.mCount = count;
+        this.mSrcStarts = srcStarts;
+        this.mSrcEnds = srcEnds;
+        this.mDstStarts = dstStarts;
+        this.mReplacements = replacements;
+        this.mLength = length;
+    }
+
+    @NonNull
+    static ReplacedText build(@NonNull String text, @NonNull Pattern pattern, @NonNull ReplacementTemplate template) {
+        int count = 0;
+        int[] srcStarts = new int[16];
+        int[] srcEnds = new int[16];
+        int[] dstStarts = new int[16];
+        String[] replacements = new String[16];
+        int length = 0;
+        RegexStepper stepper = new RegexStepper(text, pattern, template, new Regex.CancellationSignalFake(), RegexBudget.UNLIMITED, null);
+        boolean completed = false;
+        try {
+            RegexPart part;
+            while ((part = stepper.nextPart()) != null) {
+                length = part.getToDst();
+                if (!part.isMatched()) continue;
+                if (count == srcStarts.length) {
+                    int capacity = count + (count >> 1);
+                    srcStarts = Arrays.copyOf(srcStarts, capacity);
+                    srcEnds = Arrays.copyOf(srcEnds, capacity);
+                    dstStarts = Arrays.copyOf(dstStarts, capacity);
+                    replacements = Arrays.copyOf(replacements, capacity);
+                }
+                srcStarts[count] = part.getFromSrc();
+                srcEnds[count] = part.getToSrc();
+                dstStarts[count] = part.getFromDst();
+                replacements[count] = template.isWholeMatch() ? null : part.getDst().toString();
+                count++;
+            }
+            completed = true;
+        } finally {
+            stepper.report(completed);
+        }
+        return new ReplacedText(text, count, srcStarts, srcEnds, dstStarts, replacements, length);
+    }
+
+    /**
+     * @return Original text
+     */
+    @NonNull
+    public String getSource() {
+        return mSource;
+    }
+
+    public int getMatchCount() {
+        return mCount;
+    }
+
+    @Override
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= mLength) throw new IndexOutOfBoundsException("index: " + index + ", length: " + mLength);
+        int segment = mHint;
+        if (!contains(segment, index)) {
+            segment++;
+            if (!contains(segment, index)) segment = segmentAt(index);
+            mHint = segment;
+        }
+        return segmentText(segment).charAt(segmentTextStart(segment) + index - segmentDstStart(segment));
+    }
+
+    /**
+     * @return Copy of chars from <code>start</code> to <code>end</code>
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        checkRange(start, end);
+        char[] chars = new char[end - start];
+        getChars(start, end, chars, 0);
+        return new String(chars);
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        if (mCount == 0) return mSource;
+        char[] chars = new char[mLength];
+        getChars(0, mLength, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Copy chars to array, by bulk copies of segments.
+     */
+    public void getChars(int start, int end, @NonNull char[] dst, int dstBegin) {
+        checkRange(start, end);
+        int position = start;
+        for (int segment = segmentAt(start); position < end; segment++) {
+            int from = position - segmentDstStart(segment);
+            int count = Math.min(segmentLength(segment) - from, end - position);
+            int textStart = segmentTextStart(segment) + from;
+            segmentText(segment).getChars(textStart, textStart + count, dst, dstBegin + position - start);
+            position += count;
+        }
+    }
+
+    /**
+     * Write whole text to sink by segments. {@link java.io.Writer} isn't flushed or closed.
+     */
+    public void writeTo(@NonNull Appendable out) throws IOException {
+        writeTo(out, 0, mLength);
+    }
+
+    /**
+     * Write chars from <code>start</code> to <code>end</code> to sink by segments. {@link java.io.Writer} isn't flushed or closed.
+     */
+    public void writeTo(@NonNull Appendable out, int start, int end) throws IOException {
+        checkRange(start, end);
+        Appendable sink = WriterAppendable.of(out);
+        int position = start;
+        for (int segment = segmentAt(start); position < end; segment++) {
+            int from = position - segmentDstStart(segment);
+            int count = Math.min(segmentLength(segment) - from, end - position);
+            int textStart = segmentTextStart(segment) + from;
+            sink.append(segmentText(segment), textStart, textStart + count);
+            position += count;
+        }
+    }
+
+    /**
+     * Segment 2k is gap before match k (or tail after last match for k == count), segment 2k+1 is replacement of match k.
+     *
+     * @return Not empty segment which contains index, or the last segment for index == length
+     */
+    private int segmentAt(int index) {
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mDstStarts[mid] <= index) low = mid + 1;
+            else high = mid;
+        }
+        int match = low - 1;
+        if (match < 0) return 0;
+        return index < mDstStarts[match] + replacementLength(match) ? match * 2 + 1 : match * 2 + 2;
+    }
+
+    private boolean contains(int segment, int index) {
+        if (segment > mCount * 2) return false;
+        int start = segmentDstStart(segment);
+        return index >= start && index < start + segmentLength(segment);
+    }
+
+    private int segmentDstStart(int segment) {
+        int match = segment >> 1;
+        if ((segment & 1) == 1) return mDstStarts[match];
+        return match == 0 ? 0 : mDstStarts[match - 1] + replacementLength(match - 1);
+    }
+
+    private int segmentLength(int segment) {
+        int match = segment >> 1;
+        if ((segment & 1) == 1) return replacementLength(match);
+        int gapStart = match == 0 ? 0 : mSrcEnds[match - 1];
+        int gapEnd = match == mCount ? mSource.length() : mSrcStarts[match];
+        return gapEnd - gapStart;
+    }
+
+    private String segmentText(int segment) {
+        if ((segment & 1) == 0) return mSource;
+        String replacement = mReplacements[segment >> 1];
+        return replacement == null ? mSource : replacement;
+    }
+
+    private int segmentTextStart(int segment) {
+        int match = segment >> 1;
+        if ((segment & 1) == 0) return match == 0 ? 0 : mSrcEnds[match - 1];
+        return mReplacements[match] == null ? mSrcStarts[match] : 0;
+    }
+
+    private int replacementLength(int match) {
+        String replacement = mReplacements[match];
+        return replacement == null ? mSrcEnds[match] - mSrcStarts[match] : replacement.length();
+    }
+
+    private void checkRange(int start, int end) {
+        if (start < 0 || end > mLength || start > end) {
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + mLength);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+
+/**
+ * Replacement text parsed once into literal and group reference segments.
+ * <p>
+ * Supported syntax:
+ * <pre>{@code
+ * $0 - $99   -> Group by number. Digits are taken while group with such number exists, so "$12" is group 12
+ *               for pattern with 12 or more groups, otherwise group 1 followed by "2".
+ * ${name}    -> Named group, pattern "(?<name>...)".
+ * \n \r \t   -> New line, carriage return and tab chars.
+ * }</pre>
+ * Other chars after '\' are kept with backslash. Not existing groups are not allowed and produce exception on compile.
+ * <p>
+ * Differences from versions before templates: reference to not existing group throws on compile, so
+ * {@link Regex#replace(String, String, String)} throws even for text without matches (before, such text was returned
+ * unchanged). Group which didn't participate in match is replaced by empty string (before, by "null").
+ * <pre>{@code
+ * Pattern pattern = Pattern.compile("(?<area>\\d{3})-(\\d{4})");
+ * ReplacementTemplate template = ReplacementTemplate.compile("(${area}) $2", pattern);
+ * Regex.replace("900-1234", pattern, template);  // result = "(900) 1234"
+ * }</pre>
+ */
+public final class ReplacementTemplate {
+
+    private static final int LITERAL = -1;
+
+    private final String mReplacement;
+    private final String[] mLiterals;
+    private final int[] mGroups;
+    private final int mLiteralLength;
+
+    private ReplacementTemplate(String replacement, String[] literals, int[] groups) {
+        this.mReplacement = replacement;
+        this.mLiterals = literals;
+        this.mGroups = groups;
+        int literalLength = 0;
+        for (String literal : literals) {
+            if (literal != null) literalLength += literal.length();
+        }
+        this.mLiteralLength = literalLength;
+    }
+
+    /**
+     * Parse replacement text for given pattern.
+     *
+     * @param replacement Replacement text
+     * @param pattern     Pattern which matches will be replaced, used for resolve group numbers and names
+     * @throws IndexOutOfBoundsException If replacement refers to group not existing in pattern
+     * @throws IllegalArgumentException  If replacement refers to unknown group name or group name not closed
+     */
+    public static ReplacementTemplate compile(@NonNull String replacement, @NonNull Pattern pattern) {
+        int groupCount = pattern.matcher("").groupCount();
+        Map<String, Integer> groupNames = null;
+
+        ArrayList<String> literals = new ArrayList<>();
+        ArrayList<Integer> groups = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int length = replacement.length();
+        for (int i = 0; i < length; i++) {
+            char c = replacement.charAt(i);
+            if (c == '\\') {
+                if (++i >= length) throw new ArrayIndexOutOfBoundsException(length);
+                char escaped = replacement.charAt(i);
+                if (escaped == 'n') literal.append('\n');
+                else if (escaped == 'r') literal.append('\r');
+                else if (escaped == 't') literal.append('\t');
+                else literal.append('\\').append(escaped);
+            } else if (c == '$') {
+                // skip repeated '$', trailing '$' is ignored
+                while (i + 1 < length && replacement.charAt(i + 1) == '$') i++;
+                if (i + 1 >= length) break;
+                char next = replacement.charAt(i + 1);
+                int group;
+                if (next >= '0' && next <= '9') {
+                    i++;
+                    group = next - '0';
+                    if (group > groupCount) throw new IndexOutOfBoundsException("No group " + group);
+                    while (i + 1 < length) {
+                        char digit = replacement.charAt(i + 1);
+                        if (digit < '0' || digit > '9') break;
+                        int newGroup = group * 10 + (digit - '0');
+                        if (newGroup > groupCount) break;
+                        group = newGroup;
+                        i++;
+                    }
+                } else if (next == '{') {
+                    int end = replacement.indexOf('}', i + 2);
+                    if (end < 0) throw new IllegalArgumentException("Named group reference is not closed: " + replacement);
+                    String name = replacement.substring(i + 2, end);
+                    if (groupNames == null) groupNames = PatternAnalysis.groupNames(pattern);
+                    Integer namedGroup = groupNames.get(name);
+                    if (namedGroup == null) throw new IllegalArgumentException("No group with name {" + name + "}");
+                    group = namedGroup;
+                    i = end;
+                } else {
+                    // '$' followed by not a group reference is ignored
+                    continue;
+                }
+                if (literal.length() > 0) {
+                    literals.add(literal.toString());
+                    groups.add(LITERAL);
+                    literal.setLength(0);
+                }
+                literals.add(null);
+                groups.add(group);
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            literals.add(literal.toString());
+            groups.add(LITERAL);
+        }
+
+        int[] groupsArray = new int[groups.size()];
+        for (int i = 0; i < groupsArray.length; i++) groupsArray[i] = groups.get(i);
+        return new ReplacementTemplate(replacement, literals.toArray(new String[literals.size()]), groupsArray);
+    }
+
+    /**
+     * @return Source replacement text
+     */
+    public String getReplacement() {
+        return mReplacement;
+    }
+
+    /**
+     * @return True if template has no group references, so it evaluates to the same text for each match
+     */
+    public boolean isLiteral() {
+        for (int group : mGroups) {
+            if (group != LITERAL) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return True if template is just whole match reference "$0"
+     */
+    public boolean isWholeMatch() {
+        return mGroups.length == 1 && mGroups[0] == 0;
+    }
+
+    /**
+     * Append evaluated replacement for match to builder.
+     *
+     * @param builder Destination
+     * @param text    Matched text
+     * @param match   Match result, for example {@link java.util.regex.Matcher} after successful find()
+     */
+    public void appendTo(@NonNull StringBuilder builder, @NonNull CharSequence text, @NonNull MatchResult match) {
+        String[] literals = mLiterals;
+        int[] groups = mGroups;
+        for (int i = 0; i < groups.length; i++) {
+            int group = groups[i];
+            if (group == LITERAL) {
+                builder.append(literals[i]);
+            } else {
+                int start = match.start(group);
+                if (start >= 0) builder.append(text, start, match.end(group));
+            }
+        }
+    }
+
+    /**
+     * Append evaluated replacement for match to sink, without intermediate strings.
+     */
+    public void appendTo(@NonNull Appendable out, @NonNull CharSequence text, @NonNull MatchResult match) throws IOException {
+        String[] literals = mLiterals;
+        int[] groups = mGroups;
+        for (int i = 0; i < groups.length; i++) {
+            int group = groups[i];
+            if (group == LITERAL) {
+                out.append(literals[i]);
+            } else {
+                int start = match.start(group);
+                if (start >= 0) out.append(text, start, match.end(group));
+            }
+        }
+    }
+
+    /**
+     * @return Length of evaluated replacement for match, without evaluation.
+     */
+    public int length(@NonNull MatchResult match) {
+        int length = mLiteralLength;
+        for (int group : mGroups) {
+            if (group != LITERAL) {
+                int start = match.start(group);
+                if (start >= 0) length += match.end(group) - start;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return Evaluated replacement for match
+     */
+    public String evaluate(@NonNull CharSequence text, @NonNull MatchResult match) {
+        if (mGroups.length == 1) {
+            int group = mGroups[0];
+            if (group == LITERAL) return mLiterals[0];
+            int start = match.start(group);
+            return start < 0 ? "" : text.subSequence(start, match.end(group)).toString();
+        }
+        StringBuilder builder = new StringBuilder(length(match));
+        appendTo(builder, text, match);
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return mReplacement;
+    }
+}
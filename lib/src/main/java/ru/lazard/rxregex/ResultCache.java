@@ -0,0 +1,329 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Optional thread-safe LRU cache of results of listener based replace runs, bounded by approximate size in bytes.
+ * <p>
+ * Key is (content hash and length of text, regular expression, flags, replacement), value is compact list of matches
+ * and their replaced texts. When the same inputs are submitted again (for example after focus change), parts are
+ * replayed to listener without matcher. Only completed runs are stored, canceled and failed runs are not.
+ * Replayed runs move {@link RegexProgress} and are reported to {@link RegexMetrics} as cache hits.
+ * <pre>{@code
+ * ResultCache cache = new ResultCache(4 * 1024 * 1024);
+ * ResultCache.setDefault(cache);                        // used by Regex.replace with listener and RxRegex.replace
+ * ...
+ * log(cache.getHitRate());
+ * ResultCache.setDefault(null);                         // disable
+ * }</pre>
+ * Text is identified by 64-bit hash of its chars, not kept in cache.
+ */
+public final class ResultCache {
+
+    public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Approximate size of entry objects, key and map node, without arrays and strings.
+     */
+    private static final int ENTRY_BYTES = 128;
+    private static final int STRING_BYTES = 40;
+
+    private static volatile ResultCache sDefault;
+
+    private final LinkedHashMap<Key, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mMaxBytes;
+    private long mBytes;
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    public ResultCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxBytes Maximum approximate size of all cached results, bigger results aren't cached
+     */
+    public ResultCache(long maxBytes) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+        this.mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @param cache Cache used by {@link Regex} and {@link RxRegex} replace with listener, null to disable caching
+     */
+    public static void setDefault(@Nullable ResultCache cache) {
+        sDefault = cache;
+    }
+
+    @Nullable
+    public static ResultCache getDefault() {
+        return sDefault;
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return Approximate size of all cached results
+     */
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Change maximum size, least recently used results are evicted if needed.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+        this.mMaxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return Hits divided by lookups, 0 if there were no lookups
+     */
+    public synchronized float getHitRate() {
+        long lookups = mHitCount + mMissCount;
+        return lookups == 0 ? 0 : (float) mHitCount / lookups;
+    }
+
+    public synchronized void resetStatistics() {
+        mHitCount = 0;
+        mMissCount = 0;
+        mEvictionCount = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ResultCache[size=" + mEntries.size() + ", bytes=" + mBytes + ", maxBytes=" + mMaxBytes + ", hits=" + mHitCount
+                + ", misses=" + mMissCount + ", evictions=" + mEvictionCount + "]";
+    }
+
+    @NonNull
+    static Key key(@NonNull String text, @NonNull Pattern pattern, @NonNull ReplacementTemplate template) {
+        return new Key(hash(text), text.length(), pattern.pattern(), pattern.flags(), template.getReplacement());
+    }
+
+    /**
+     * @return Cached result, null if absent
+     */
+    @Nullable
+    synchronized Entry get(@NonNull Key key) {
+        Entry entry = mEntries.get(key);
+        if (entry != null) mHitCount++;
+        else mMissCount++;
+        return entry;
+    }
+
+    /**
+     * Store result of completed run, if it's not too big.
+     */
+    synchronized void put(@NonNull Key key, @NonNull Recorder recorder) {
+        Entry entry = recorder.toEntry(key);
+        if (entry == null || entry.bytes > mMaxBytes) return;
+        Entry previous = mEntries.put(key, entry);
+        if (previous != null) mBytes -= previous.bytes;
+        mBytes += entry.bytes;
+        trimToSize(mMaxBytes);
+    }
+
+    private void trimToSize(long maxBytes) {
+        Iterator<Map.Entry<Key, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mBytes > maxBytes && iterator.hasNext()) {
+            mBytes -= iterator.next().getValue().bytes;
+            iterator.remove();
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * FNV-1a hash of chars, 64 bits.
+     */
+    private static long hash(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            hash = (hash ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    static final class Key {
+        private final long textHash;
+        private final int textLength;
+        private final String regex;
+        private final int flags;
+        private final String replacement;
+
+        Key(long textHash, int textLength, String regex, int flags, String replacement) {
+            this.textHash = textHash;
+            this.textLength = textLength;
+            this.regex = regex;
+            this.flags = flags;
+            this.replacement = replacement;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return textHash == key.textHash && textLength == key.textLength && flags == key.flags
+                    && regex.equals(key.regex) && replacement.equals(key.replacement);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * (int) (textHash ^ (textHash >>> 32)) + regex.hashCode()) + flags) + replacement.hashCode();
+        }
+    }
+
+    /**
+     * Matches of completed run: start and end of each match, replaced text of each match (null if the same as matched).
+     */
+    static final class Entry {
+        private final int[] mBounds;
+        private final String[] mDsts;
+        private final int mCount;
+        final long bytes;
+
+        Entry(int[] bounds, String[] dsts, int count, long bytes) {
+            this.mBounds = bounds;
+            this.mDsts = dsts;
+            this.mCount = count;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Emit the same parts as {@link RegexStepper} emits for this text, moving progress by parts.
+         *
+         * @param stats Statistics of run to finish, null if metrics are disabled
+         * @return False if canceled
+         */
+        boolean replay(@NonNull String text, @NonNull Regex.Listener listener, @NonNull Regex.CancellationSignal cancellationSignal,
+                       @Nullable RegexProgress progress, @Nullable RegexRunStats stats) {
+            int length = text.length();
+            int appendPos = 0;
+            int dstLength = 0;
+            int matchedCount = 0;
+            boolean canceled = cancellationSignal.isCanceled();
+            while (!canceled && matchedCount < mCount) {
+                int start = mBounds[matchedCount * 2];
+                int end = mBounds[matchedCount * 2 + 1];
+                matchedCount++;
+                String gap = text.substring(appendPos, start);
+                if (progress != null) progress.advance(start);
+                listener.append(appendPos, start, gap, dstLength, dstLength + gap.length(), gap, false, (float) start / length, matchedCount);
+                dstLength += gap.length();
+                appendPos = start;
+                if (cancellationSignal.isCanceled()) {
+                    canceled = true;
+                    break;
+                }
+
+                String src = text.substring(start, end);
+                String dst = mDsts[matchedCount - 1] == null ? src : mDsts[matchedCount - 1];
+                if (progress != null) progress.advance(end);
+                listener.append(start, end, src, dstLength, dstLength + dst.length(), dst, true, (float) end / length, matchedCount);
+                dstLength += dst.length();
+                appendPos = end;
+                canceled = cancellationSignal.isCanceled();
+            }
+            if (!canceled && appendPos < length) {
+                String gap = text.substring(appendPos, length);
+                if (progress != null) progress.advance(length);
+                listener.append(appendPos, length, gap, dstLength, dstLength + gap.length(), gap, false, 1f, mCount);
+                dstLength += gap.length();
+                appendPos = length;
+            }
+            if (stats != null) {
+                stats.setCacheHit();
+                stats.finish(appendPos, matchedCount, dstLength, !canceled);
+            }
+            return !canceled;
+        }
+    }
+
+    /**
+     * Listener which passes parts to next listener and records matches, until they exceed size limit.
+     */
+    static final class Recorder implements Regex.Listener {
+        private final Regex.Listener mListener;
+        private final long mMaxBytes;
+        private int[] mBounds = new int[16];
+        private String[] mDsts = new String[8];
+        private int mCount;
+        private long mBytes = ENTRY_BYTES;
+        private boolean mOverflow;
+
+        Recorder(@NonNull Regex.Listener listener, long maxBytes) {
+            this.mListener = listener;
+            this.mMaxBytes = maxBytes;
+        }
+
+        @Override
+        public void append(int fromSrc, int toSrc, String appendSrc, int fromDst, int toDst, String appendDst,
+                           boolean isMatched, float progress, int matchedCount) {
+            if (isMatched && !mOverflow) record(fromSrc, toSrc, appendSrc, appendDst);
+            mListener.append(fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount);
+        }
+
+        private void record(int fromSrc, int toSrc, String appendSrc, String appendDst) {
+            String dst = appendDst == appendSrc ? null : appendDst;
+            // literal replacement is the same string for each match
+            mBytes += 8 + 4 + (dst == null || (mCount > 0 && mDsts[mCount - 1] == dst) ? 0 : STRING_BYTES + 2L * dst.length());
+            if (mBytes > mMaxBytes) {
+                mOverflow = true;
+                mBounds = null;
+                mDsts = null;
+                return;
+            }
+            if (mCount == mDsts.length) {
+                mBounds = Arrays.copyOf(mBounds, mCount * 4);
+                mDsts = Arrays.copyOf(mDsts, mCount * 2);
+            }
+            mBounds[mCount * 2] = fromSrc;
+            mBounds[mCount * 2 + 1] = toSrc;
+            mDsts[mCount++] = dst;
+        }
+
+        /**
+         * @return Recorded matches, null if they exceed size limit
+         */
+        @Nullable
+        Entry toEntry(@NonNull Key key) {
+            if (mOverflow) return null;
+            long bytes = mBytes + 2L * (key.regex.length() + key.replacement.length());
+            return new Entry(Arrays.copyOf(mBounds, mCount * 2), Arrays.copyOf(mDsts, mCount), mCount, bytes);
+        }
+    }
+}
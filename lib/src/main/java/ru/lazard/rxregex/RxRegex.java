@@ -1,11 +1,27 @@
 package ru.lazard.rxregex;
 
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import io.reactivex.Emitter;
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+
+import org.reactivestreams.Publisher;
 
 /**
  * Class for work with Regex in Reactive style.
  * <p>
- * For create Observable use methods <code>RxRegex.replace</code> and <code>RxRegex.find</code>.
+ * For create Observable use methods <code>RxRegex.replace</code> and <code>RxRegex.find</code>,
+ * for create backpressure-aware Flowable use <code>RxRegex.replaceFlowable</code> and <code>RxRegex.findFlowable</code>.
  * It's <code>Disposable</code> objects and you can use it for stop parsing process,
  * you can use method <code>dispose()</code> or just unsubscribe from Observable and parsing stops automatically.
  * <pre>{@code
@@ -57,12 +73,30 @@ public class RxRegex {
         });
     }
 
+    /**
+     * Create Observable for find parts matched to already compiled pattern, without replace.
+     *
+     * @param text    The character sequence to be matched
+     * @param pattern Compiled regular expression, see {@link PatternCache}
+     */
+    public static Observable<OnAppend> find(String text, Pattern pattern) {
+        return Observable.create(emitter -> {
+            Regex.CancellationSignalImpl cancellationSignal = new Regex.CancellationSignalImpl();
+            emitter.setCancellable(cancellationSignal);
+            Regex.find(text, pattern,
+                    (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) ->
+                            emitter.onNext(new OnAppend(fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount))
+                    , cancellationSignal);
+            emitter.onComplete();
+        });
+    }
+
     /**
      * Create Observable for Regex replace process.
      *
      * @param text        The character sequence to be matched
      * @param regex       The regular expression
-     * @param replacement Replacement text. Support groups $0-$9 and \n \r \t chars.
+     * @param replacement Replacement text. Support groups $0-$99, ${name} and \n \r \t chars, see {@link ReplacementTemplate}.
      * @throws IllegalArgumentException               If bit values other than those corresponding to the defined
      *                                                match flags are set in <tt>flags</tt>
      * @throws java.util.regex.PatternSyntaxException If the expression's syntax is invalid
@@ -76,7 +110,7 @@ public class RxRegex {
      *
      * @param text        The character sequence to be matched
      * @param regex       The regular expression
-     * @param replacement Replacement text. Support groups $0-$9 and \n \r \t chars.
+     * @param replacement Replacement text. Support groups $0-$99, ${name} and \n \r \t chars, see {@link ReplacementTemplate}.
      * @param flags       Match flags, a bit mask that may include
      *                    {@link java.util.regex.Pattern#CASE_INSENSITIVE}, {@link java.util.regex.Pattern#MULTILINE}, {@link java.util.regex.Pattern#DOTALL},
      *                    {@link java.util.regex.Pattern#UNICODE_CASE}, {@link java.util.regex.Pattern#CANON_EQ}, {@link java.util.regex.Pattern#UNIX_LINES},
@@ -98,6 +132,540 @@ public class RxRegex {
         });
     }
 
+    /**
+     * Create Observable for Regex replace process with already compiled pattern.
+     *
+     * @param text        The character sequence to be matched
+     * @param pattern     Compiled regular expression, see {@link PatternCache}
+     * @param replacement Replacement text. Support groups $0-$99, ${name} and \n \r \t chars, see {@link ReplacementTemplate}.
+     */
+    public static Observable<OnAppend> replace(String text, Pattern pattern, String replacement) {
+        return Observable.create(emitter -> {
+            Regex.CancellationSignalImpl cancellationSignal = new Regex.CancellationSignalImpl();
+            emitter.setCancellable(cancellationSignal);
+            Regex.replace(text, pattern, replacement,
+                    (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) ->
+                            emitter.onNext(new OnAppend(fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount))
+                    , cancellationSignal);
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * Create Observable for Regex replace process with already compiled pattern and replacement.
+     *
+     * @param text     The character sequence to be matched
+     * @param pattern  Compiled regular expression, see {@link PatternCache}
+     * @param template Replacement compiled for <code>pattern</code>
+     */
+    public static Observable<OnAppend> replace(String text, Pattern pattern, ReplacementTemplate template) {
+        return Observable.create(emitter -> {
+            Regex.CancellationSignalImpl cancellationSignal = new Regex.CancellationSignalImpl();
+            emitter.setCancellable(cancellationSignal);
+            Regex.replace(text, pattern, template,
+                    (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) ->
+                            emitter.onNext(new OnAppend(fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount))
+                    , cancellationSignal);
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * Create Observable for Regex replace process with limits of time and steps.
+     * Limits and <code>dispose()</code> take effect inside of one long search too,
+     * so runaway pattern (for example catastrophic backtracking) doesn't hold the thread.
+     *
+     * @param text     The character sequence to be matched
+     * @param pattern  Compiled regular expression, see {@link PatternCache}
+     * @param template Replacement compiled for <code>pattern</code>
+     * @param budget   Limits of matching, Observable fails with {@link RegexTimeoutException} when they are exceeded
+     */
+    public static Observable<OnAppend> replace(String text, Pattern pattern, ReplacementTemplate template, RegexBudget budget) {
+        return replace(text, pattern, template, budget, null);
+    }
+
+    /**
+     * Create Observable for Regex replace process with limits of time and steps, which reports read position to
+     * <code>regexProgress</code>. Sample it by {@link #progress(RegexProgress, long, TimeUnit)}.
+     *
+     * @param text          The character sequence to be matched
+     * @param pattern       Compiled regular expression, see {@link PatternCache}
+     * @param template      Replacement compiled for <code>pattern</code>
+     * @param budget        Limits of matching, Observable fails with {@link RegexTimeoutException} when they are exceeded
+     * @param regexProgress Progress updated while matcher reads text, may be null
+     */
+    public static Observable<OnAppend> replace(String text, Pattern pattern, ReplacementTemplate template, RegexBudget budget, RegexProgress regexProgress) {
+        return Observable.create(emitter -> {
+            Regex.CancellationSignalImpl cancellationSignal = new Regex.CancellationSignalImpl();
+            emitter.setCancellable(cancellationSignal);
+            Regex.replace(text, pattern, template,
+                    (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) ->
+                            emitter.onNext(new OnAppend(fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount))
+                    , cancellationSignal, budget, regexProgress);
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * Create Observable which samples progress of matching every <code>period</code>, on computation scheduler.
+     * Matching thread is never called back, so frequent progress doesn't slow matching and slow text doesn't flood UI.
+     * Only changed values are emitted, Observable completes after matching is finished.
+     * <pre>{@code
+     * RegexProgress regexProgress = new RegexProgress();
+     * RxRegex.progress(regexProgress, 100, TimeUnit.MILLISECONDS)
+     *         .observeOn(AndroidSchedulers.mainThread())
+     *         .subscribe(value -> progressBar.setProgress((int) (value * 100)));
+     * RxRegex.replace(text, pattern, template, RegexBudget.UNLIMITED, regexProgress).subscribeOn(Schedulers.io()).subscribe(...);
+     * }</pre>
+     *
+     * @param regexProgress Progress passed to matching call
+     * @param period        Period of sampling
+     * @param unit          Time unit of <code>period</code>
+     */
+    public static Observable<Float> progress(RegexProgress regexProgress, long period, TimeUnit unit) {
+        // finished flag is read before value, so value read after finish is the final one
+        return Observable.interval(period, unit)
+                .map(tick -> regexProgress.isFinished())
+                .takeUntil(finished -> finished)
+                .map(finished -> regexProgress.get())
+                .distinctUntilChanged();
+    }
+
+    /**
+     * Create Single with index of all matches, see {@link MatchIndex}.
+     *
+     * @param text       The character sequence to be matched
+     * @param pattern    Compiled regular expression, see {@link PatternCache}
+     * @param withGroups Record offsets of groups too
+     */
+    public static Single<MatchIndex> findAll(String text, Pattern pattern, boolean withGroups) {
+        return Single.fromCallable(() -> Regex.findAll(text, pattern, withGroups));
+    }
+
+    /**
+     * Create Single which checks if text has match, without parts. Search stops at first match or on dispose.
+     *
+     * @param text    The character sequence to be matched
+     * @param pattern Compiled regular expression, see {@link PatternCache}
+     */
+    public static Single<Boolean> exists(String text, Pattern pattern) {
+        return Single.create(emitter -> {
+            Regex.CancellationSignalImpl cancellationSignal = new Regex.CancellationSignalImpl();
+            emitter.setCancellable(cancellationSignal);
+            boolean exists = Regex.exists(text, pattern, cancellationSignal);
+            if (!cancellationSignal.isCanceled()) emitter.onSuccess(exists);
+        });
+    }
+
+    /**
+     * Create Single with count of matches, without parts. Search stops on dispose.
+     *
+     * @param text    The character sequence to be matched
+     * @param pattern Compiled regular expression, see {@link PatternCache}
+     */
+    public static Single<Integer> count(String text, Pattern pattern) {
+        return Single.create(emitter -> {
+            Regex.CancellationSignalImpl cancellationSignal = new Regex.CancellationSignalImpl();
+            emitter.setCancellable(cancellationSignal);
+            int count = Regex.count(text, pattern, cancellationSignal);
+            if (!cancellationSignal.isCanceled()) emitter.onSuccess(count);
+        });
+    }
+
+    /**
+     * Create Single with offsets of first matches, see {@link Regex#first(String, Pattern, int)}. Search stops on dispose.
+     *
+     * @param text    The character sequence to be matched
+     * @param pattern Compiled regular expression, see {@link PatternCache}
+     * @param limit   Maximum count of matches
+     */
+    public static Single<MatchIndex> first(String text, Pattern pattern, int limit) {
+        return Single.create(emitter -> {
+            Regex.CancellationSignalImpl cancellationSignal = new Regex.CancellationSignalImpl();
+            emitter.setCancellable(cancellationSignal);
+            MatchIndex index = Regex.first(text, pattern, limit, cancellationSignal);
+            if (!cancellationSignal.isCanceled()) emitter.onSuccess(index);
+        });
+    }
+
+    /**
+     * Create Observable of blocks of matches, blocks near viewport first. Viewport may be moved while matching is running,
+     * see {@link ViewportRegex#setViewport(int, int)}.
+     *
+     * @param viewportRegex Text, pattern and viewport
+     */
+    public static Observable<ViewportRegex.OnBlock> replaceViewport(ViewportRegex viewportRegex) {
+        return Observable.create(emitter -> {
+            Regex.CancellationSignalImpl cancellationSignal = new Regex.CancellationSignalImpl();
+            emitter.setCancellable(cancellationSignal);
+            viewportRegex.run(emitter::onNext, cancellationSignal);
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * Create Flowable for find parts matched to regex, without replace.
+     * Matching is driven by downstream requests: next part is searched only when it's requested,
+     * so slow consumer doesn't cause buffering of parts.
+     *
+     * @param text  The character sequence to be matched
+     * @param regex The regular expression
+     * @throws java.util.regex.PatternSyntaxException If the expression's syntax is invalid
+     */
+    public static Flowable<OnAppend> findFlowable(String text, String regex) {
+        return findFlowable(text, regex, 0);
+    }
+
+    /**
+     * Create Flowable for find parts matched to regex, without replace.
+     * Matching is driven by downstream requests.
+     *
+     * @param text  The character sequence to be matched
+     * @param regex The regular expression
+     * @param flags Match flags, a bit mask of {@link java.util.regex.Pattern} flags
+     * @throws IllegalArgumentException               If bit values other than those corresponding to the defined
+     *                                                match flags are set in <tt>flags</tt>
+     * @throws java.util.regex.PatternSyntaxException If the expression's syntax is invalid
+     */
+    public static Flowable<OnAppend> findFlowable(String text, String regex, int flags) {
+        return replaceFlowable(text, regex, "$0", flags);
+    }
+
+    /**
+     * Create Flowable for find parts matched to already compiled pattern, without replace.
+     * Matching is driven by downstream requests.
+     *
+     * @param text    The character sequence to be matched
+     * @param pattern Compiled regular expression, see {@link PatternCache}
+     */
+    public static Flowable<OnAppend> findFlowable(String text, Pattern pattern) {
+        return replaceFlowable(text, pattern, "$0");
+    }
+
+    /**
+     * Create Flowable for Regex replace process.
+     * Matching is driven by downstream requests.
+     *
+     * @param text        The character sequence to be matched
+     * @param regex       The regular expression
+     * @param replacement Replacement text. Support groups $0-$99, ${name} and \n \r \t chars, see {@link ReplacementTemplate}.
+     * @throws java.util.regex.PatternSyntaxException If the expression's syntax is invalid
+     */
+    public static Flowable<OnAppend> replaceFlowable(String text, String regex, String replacement) {
+        return replaceFlowable(text, regex, replacement, 0);
+    }
+
+    /**
+     * Create Flowable for Regex replace process.
+     * Matching is driven by downstream requests: next part is searched only when it's requested,
+     * so memory usage doesn't depend on text length and count of matches.
+     * <pre>{@code
+     * RxRegex.replaceFlowable(hugeText, "!..!", "ABCD", 0)
+     *  .subscribeOn(Schedulers.computation())
+     *  .observeOn(AndroidSchedulers.mainThread())          // no unbounded buffer, matcher waits for main thread
+     *  .subscribe(onAppend -> setSpan(onAppend));
+     * }</pre>
+     *
+     * @param text        The character sequence to be matched
+     * @param regex       The regular expression
+     * @param replacement Replacement text. Support groups $0-$99, ${name} and \n \r \t chars, see {@link ReplacementTemplate}.
+     * @param flags       Match flags, a bit mask of {@link java.util.regex.Pattern} flags
+     * @throws IllegalArgumentException               If bit values other than those corresponding to the defined
+     *                                                match flags are set in <tt>flags</tt>
+     * @throws java.util.regex.PatternSyntaxException If the expression's syntax is invalid
+     */
+    public static Flowable<OnAppend> replaceFlowable(String text, String regex, String replacement, int flags) {
+        return generate(cancellationSignal -> {
+            Pattern pattern = PatternCache.getDefault().get(regex, flags);
+            return new RegexStepper(text, pattern, PatternCache.getDefault().getTemplate(pattern, replacement), cancellationSignal, RegexBudget.UNLIMITED, null);
+        });
+    }
+
+    /**
+     * Create Flowable for Regex replace process with already compiled pattern.
+     * Matching is driven by downstream requests.
+     *
+     * @param text        The character sequence to be matched
+     * @param pattern     Compiled regular expression, see {@link PatternCache}
+     * @param replacement Replacement text. Support groups $0-$99, ${name} and \n \r \t chars, see {@link ReplacementTemplate}.
+     */
+    public static Flowable<OnAppend> replaceFlowable(String text, Pattern pattern, String replacement) {
+        return generate(cancellationSignal ->
+                new RegexStepper(text, pattern, PatternCache.getDefault().getTemplate(pattern, replacement), cancellationSignal, RegexBudget.UNLIMITED, null));
+    }
+
+    /**
+     * Create Flowable for Regex replace process with already compiled pattern and replacement.
+     * Matching is driven by downstream requests.
+     *
+     * @param text     The character sequence to be matched
+     * @param pattern  Compiled regular expression, see {@link PatternCache}
+     * @param template Replacement compiled for <code>pattern</code>
+     */
+    public static Flowable<OnAppend> replaceFlowable(String text, Pattern pattern, ReplacementTemplate template) {
+        return generate(cancellationSignal -> new RegexStepper(text, pattern, template, cancellationSignal, RegexBudget.UNLIMITED, null));
+    }
+
+    /**
+     * Flowable over guarded stepper: cancel of subscription stops search inside of one long <code>find()</code> too,
+     * generator state is disposed only between steps.
+     *
+     * @param stepperFactory Creates stepper for each subscription, with cancellation signal of that subscription
+     */
+    private static Flowable<OnAppend> generate(Function<Regex.CancellationSignal, RegexStepper> stepperFactory) {
+        return Flowable.defer(() -> {
+            Regex.CancellationSignalImpl cancellationSignal = new Regex.CancellationSignalImpl();
+            return Flowable.generate(() -> stepperFactory.apply(cancellationSignal), (RegexStepper stepper, Emitter<OnAppend> emitter) -> {
+                boolean hasNext;
+                try {
+                    hasNext = stepper.step((fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) ->
+                            emitter.onNext(new OnAppend(fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount)));
+                } catch (GuardedCharSequence.Canceled e) {
+                    // canceled inside of search, subscription is already canceled
+                    return;
+                }
+                if (!hasNext) {
+                    stepper.report(true);
+                    emitter.onComplete();
+                }
+            }, stepper -> stepper.report(false)).doOnCancel(cancellationSignal::cancel);
+        });
+    }
+
+    /**
+     * Create Flowable for find parts matched to pattern in stream, see {@link StreamRegex}.
+     * Reader is opened on subscribe and closed on complete, error or cancel.
+     * Matching is driven by downstream requests.
+     *
+     * @param readerSupplier Supplier of input reader, for example <code>() -> new FileReader(file)</code>
+     * @param pattern        Compiled regular expression, see {@link PatternCache}
+     * @param maxMatchLength Maximum length of match, window of input is proportional to it
+     */
+    public static Flowable<StreamRegex.OnAppend> findStream(Callable<? extends Reader> readerSupplier, Pattern pattern, int maxMatchLength) {
+        return replaceStream(readerSupplier, pattern, "$0", maxMatchLength);
+    }
+
+    /**
+     * Create Flowable for replace process in stream, see {@link StreamRegex}.
+     * Reader is opened on subscribe and closed on complete, error or cancel.
+     * Matching is driven by downstream requests.
+     *
+     * @param readerSupplier Supplier of input reader, for example <code>() -> new FileReader(file)</code>
+     * @param pattern        Compiled regular expression, see {@link PatternCache}
+     * @param replacement    Replacement text. Support groups $0-$99, ${name} and \n \r \t chars, see {@link ReplacementTemplate}.
+     * @param maxMatchLength Maximum length of match, window of input is proportional to it
+     */
+    public static Flowable<StreamRegex.OnAppend> replaceStream(Callable<? extends Reader> readerSupplier, Pattern pattern, String replacement, int maxMatchLength) {
+        return Flowable.generate(() -> new StreamStepper(readerSupplier.call(), pattern, PatternCache.getDefault().getTemplate(pattern, replacement),
+                        maxMatchLength, StreamRegex.windowSize(maxMatchLength)),
+                (StreamStepper stepper, Emitter<StreamRegex.OnAppend> emitter) -> {
+                    boolean hasNext = stepper.step((fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) ->
+                            emitter.onNext(new StreamRegex.OnAppend(fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount)));
+                    if (!hasNext) emitter.onComplete();
+                },
+                StreamStepper::close);
+    }
+
+    /**
+     * Create Observable for replace by many rules in one scan of text, see {@link MultiRegex}.
+     * Each matched part reports index of its rule by {@link OnAppend#getRuleIndex()}.
+     *
+     * @param text       The character sequence to be matched
+     * @param multiRegex Compiled rules
+     */
+    public static Observable<OnAppend> replace(String text, MultiRegex multiRegex) {
+        return Observable.create(emitter -> {
+            Regex.CancellationSignalImpl cancellationSignal = new Regex.CancellationSignalImpl();
+            emitter.setCancellable(cancellationSignal);
+            multiRegex.replace(text,
+                    (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount, ruleIndex) ->
+                            emitter.onNext(new OnAppend(fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount, ruleIndex))
+                    , cancellationSignal);
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * Create Observable for parallel find over very large text, see {@link ParallelRegex}.
+     * Chunks of text are matched at {@link Schedulers#computation()}, parts are emitted in source order.
+     *
+     * @param text    The character sequence to be matched
+     * @param pattern Compiled regular expression, see {@link PatternCache}
+     */
+    public static Observable<OnAppend> findParallel(String text, Pattern pattern) {
+        return replaceParallel(text, pattern, "$0", Schedulers.computation());
+    }
+
+    /**
+     * Create Observable for parallel replace over very large text, see {@link ParallelRegex}.
+     * Chunks of text are matched at given scheduler, parts are emitted in source order with the same values as
+     * {@link #replace(String, Pattern, String)} emits.
+     *
+     * @param text        The character sequence to be matched
+     * @param pattern     Compiled regular expression, see {@link PatternCache}
+     * @param replacement Replacement text. Support groups $0-$99, ${name} and \n \r \t chars, see {@link ReplacementTemplate}.
+     * @param scheduler   Scheduler for matching of chunks
+     */
+    public static Observable<OnAppend> replaceParallel(String text, Pattern pattern, String replacement, Scheduler scheduler) {
+        return Observable.create(emitter -> {
+            Regex.CancellationSignalImpl cancellationSignal = new Regex.CancellationSignalImpl();
+            emitter.setCancellable(cancellationSignal);
+            ParallelRegex.replace(text, pattern, PatternCache.getDefault().getTemplate(pattern, replacement), scheduler::scheduleDirect,
+                    ParallelRegex.DEFAULT_CHUNK_SIZE, ParallelRegex.DEFAULT_OVERLAP,
+                    (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) ->
+                            emitter.onNext(new OnAppend(fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount))
+                    , cancellationSignal);
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * Create Observable for line-oriented search, see {@link GrepRegex}. Reader is opened on subscribe and closed
+     * after search, batches of lines are matched at given scheduler, lines are emitted in input order.
+     *
+     * @param readerSupplier Opens input for each subscription
+     * @param grep           Pattern and settings of search
+     * @param scheduler      Scheduler for matching of batches
+     */
+    public static Observable<GrepRegex.Line> grep(Callable<? extends Reader> readerSupplier, GrepRegex grep, Scheduler scheduler) {
+        return Observable.create(emitter -> {
+            Regex.CancellationSignalImpl cancellationSignal = new Regex.CancellationSignalImpl();
+            emitter.setCancellable(cancellationSignal);
+            Reader reader = readerSupplier.call();
+            try {
+                grep.run(reader, scheduler::scheduleDirect, emitter::onNext, cancellationSignal);
+            } finally {
+                reader.close();
+            }
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * Create Observable for find parts matched to pattern, parts are emitted by batches.
+     *
+     * @param text         The character sequence to be matched
+     * @param pattern      Compiled regular expression, see {@link PatternCache}
+     * @param maxBatchSize Maximum count of parts in batch
+     * @param maxLatency   Maximum time from first part of batch to batch emission, checked when parts are produced and
+     *                     periodically while matcher reads text
+     * @param unit         Time unit of <code>maxLatency</code>
+     * @see #replaceBatched(String, Pattern, String, int, long, TimeUnit)
+     */
+    public static Observable<OnAppendBatch> findBatched(String text, Pattern pattern, int maxBatchSize, long maxLatency, TimeUnit unit) {
+        return replaceBatched(text, pattern, "$0", maxBatchSize, maxLatency, unit);
+    }
+
+    /**
+     * Create Observable for Regex replace process, parts are emitted by batches.
+     *
+     * @param text         The character sequence to be matched
+     * @param regex        The regular expression
+     * @param replacement  Replacement text. Support groups $0-$99, ${name} and \n \r \t chars, see {@link ReplacementTemplate}.
+     * @param flags        Match flags, a bit mask of {@link java.util.regex.Pattern} flags
+     * @param maxBatchSize Maximum count of parts in batch
+     * @param maxLatency   Maximum time from first part of batch to batch emission, checked when parts are produced and
+     *                     periodically while matcher reads text
+     * @param unit         Time unit of <code>maxLatency</code>
+     * @throws java.util.regex.PatternSyntaxException If the expression's syntax is invalid
+     * @see #replaceBatched(String, Pattern, String, int, long, TimeUnit)
+     */
+    public static Observable<OnAppendBatch> replaceBatched(String text, String regex, String replacement, int flags, int maxBatchSize, long maxLatency, TimeUnit unit) {
+        return Observable.defer(() -> replaceBatched(text, PatternCache.getDefault().get(regex, flags), replacement, maxBatchSize, maxLatency, unit));
+    }
+
+    /**
+     * Create Observable for Regex replace process, parts are emitted by batches.
+     * Batch is emitted when it has <code>maxBatchSize</code> parts or when <code>maxLatency</code> passed since its first part.
+     * With millions of small parts it saves one <code>onNext()</code> and thread handoff per part, for example UI
+     * may apply one batch of spans per frame.
+     * <pre>{@code
+     * RxRegex.replaceBatched(text, pattern, "_$1_", 1000, 16, TimeUnit.MILLISECONDS)
+     *  .subscribeOn(Schedulers.computation())
+     *  .observeOn(AndroidSchedulers.mainThread())
+     *  .subscribe(batch -> {
+     *      for (int i = 0; i < batch.size(); i++) {
+     *          if (batch.isMatched(i)) setSpan(batch.getFromSrc(i), batch.getToSrc(i));
+     *      }
+     *  });
+     * }</pre>
+     *
+     * @param text         The character sequence to be matched
+     * @param pattern      Compiled regular expression, see {@link PatternCache}
+     * @param replacement  Replacement text. Support groups $0-$99, ${name} and \n \r \t chars, see {@link ReplacementTemplate}.
+     * @param maxBatchSize Maximum count of parts in batch
+     * @param maxLatency   Maximum time from first part of batch to batch emission, checked when parts are produced and
+     *                     periodically while matcher reads text
+     * @param unit         Time unit of <code>maxLatency</code>
+     */
+    public static Observable<OnAppendBatch> replaceBatched(String text, Pattern pattern, String replacement, int maxBatchSize, long maxLatency, TimeUnit unit) {
+        if (maxBatchSize <= 0) throw new IllegalArgumentException("maxBatchSize <= 0");
+        return Observable.create(emitter -> {
+            Regex.CancellationSignalImpl cancellationSignal = new Regex.CancellationSignalImpl();
+            emitter.setCancellable(cancellationSignal);
+            ReplacementTemplate template = PatternCache.getDefault().getTemplate(pattern, replacement);
+            Batcher batcher = new Batcher(text, !template.isWholeMatch(), maxBatchSize, unit.toNanos(maxLatency), emitter, cancellationSignal);
+            Regex.replaceParts(text, pattern, template, batcher, batcher);
+            if (cancellationSignal.isCanceled()) return;
+            batcher.flush();
+            emitter.onComplete();
+        });
+    }
+
+    /**
+     * Create Flowable which replaces regex in each document of stream, see
+     * {@link #replaceDocuments(Publisher, Pattern, String, Scheduler, int, boolean)}.
+     *
+     * @throws java.util.regex.PatternSyntaxException If the expression's syntax is invalid
+     */
+    public static <K> Flowable<OnDocument<K>> replaceDocuments(Publisher<? extends Document<K>> documents, String regex, int flags, String replacement,
+                                                             Scheduler scheduler, int maxConcurrency, boolean ordered) {
+        return Flowable.defer(() -> replaceDocuments(documents, PatternCache.getDefault().get(regex, flags), replacement, scheduler, maxConcurrency, ordered));
+    }
+
+    /**
+     * Create Flowable which replaces pattern in each document of stream. Pattern and replacement are compiled once,
+     * documents are processed on <code>scheduler</code>, at most <code>maxConcurrency</code> at once.
+     * Documents are requested from source only when there is free slot, so source is backpressured.
+     * <pre>{@code
+     * RxRegex.replaceDocuments(Flowable.fromIterable(files).map(file -> new RxRegex.Document<>(file, read(file))),
+     *         pattern, "_$1_", Schedulers.computation(), 4, false)
+     *  .subscribe(result -> write(result.getId(), result.getResult()));
+     * }</pre>
+     * Failure of one document fails the whole Flowable, cancellation stops documents in progress.
+     *
+     * @param documents      Source of documents
+     * @param pattern        Compiled regular expression, see {@link PatternCache}
+     * @param replacement    Replacement text. Support groups $0-$99, ${name} and \n \r \t chars, see {@link ReplacementTemplate}.
+     * @param scheduler      Scheduler which runs processing of documents
+     * @param maxConcurrency Maximum count of documents processed at once
+     * @param ordered        True to emit results in order of documents, false to emit each result as soon as it's ready
+     */
+    public static <K> Flowable<OnDocument<K>> replaceDocuments(Publisher<? extends Document<K>> documents, Pattern pattern, String replacement,
+                                                             Scheduler scheduler, int maxConcurrency, boolean ordered) {
+        if (maxConcurrency <= 0) throw new IllegalArgumentException("maxConcurrency <= 0");
+        ReplacementTemplate template = PatternCache.getDefault().getTemplate(pattern, replacement);
+        Function<Document<K>, Flowable<OnDocument<K>>> mapper = document -> replaceDocument(document, pattern, template).subscribeOn(scheduler).toFlowable();
+        Flowable<Document<K>> source = Flowable.fromPublisher(documents);
+        return ordered ? source.concatMapEager(mapper, maxConcurrency, 1) : source.flatMap(mapper, maxConcurrency);
+    }
+
+    private static <K> Single<OnDocument<K>> replaceDocument(Document<K> document, Pattern pattern, ReplacementTemplate template) {
+        return Single.create(emitter -> {
+            Regex.CancellationSignalImpl cancellationSignal = new Regex.CancellationSignalImpl();
+            emitter.setCancellable(cancellationSignal);
+            String text = document.getText();
+            StringBuilder builder = new StringBuilder(text.length());
+            int[] matchedCount = new int[1];
+            Regex.replaceParts(text, pattern, template, part -> {
+                part.appendDst(builder);
+                matchedCount[0] = part.getMatchedCount();
+            }, cancellationSignal);
+            if (cancellationSignal.isCanceled()) return;
+            emitter.onSuccess(new OnDocument<>(document.getId(), builder.toString(), matchedCount[0]));
+        });
+    }
+
     /**
      * Class received in OnNext() method of Observer. Contains info about current parsed text part.
      * <p>
@@ -123,6 +691,7 @@ public class RxRegex {
         private boolean isMatched;
         private float progress;
         private int matchedCount;
+        private int ruleIndex = -1;
 
         /**
          * Class contains info about current parsed text part.
@@ -149,6 +718,16 @@ public class RxRegex {
             this.matchedCount = matchedCount;
         }
 
+        /**
+         * Class contains info about current parsed text part of {@link MultiRegex}.
+         *
+         * @param ruleIndex Index of rule matched by current part, -1 for not matched part
+         */
+        public OnAppend(int fromSrc, int toSrc, String appendSrc, int fromDst, int toDst, String appendDst, boolean isMatched, float progress, int matchedCount, int ruleIndex) {
+            this(fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount);
+            this.ruleIndex = ruleIndex;
+        }
+
         /**
          * @return Current parsing progress (float from 0 - to 1)
          */
@@ -212,13 +791,263 @@ public class RxRegex {
             return isMatched;
         }
 
+        /**
+         * @return Index of {@link MultiRegex} rule matched by current part, -1 for not matched part and for single regex
+         */
+        public int getRuleIndex() {
+            return ruleIndex;
+        }
+
         @Override
         public String toString() {
             return appendSrc + " -> " + appendDst;
         }
     }
 
+    /**
+     * Batch of parts received in OnNext() of batched Observable. Parts are packed to primitive arrays,
+     * text of parts is created only when asked by {@link #getAppendSrc(int)} and {@link #getAppendDst(int)}.
+     * Fields of part with index <code>i</code> are the same as in {@link OnAppend}.
+     */
+    public static class OnAppendBatch {
+        private final String text;
+        private int[] fromSrc;
+        private int[] toSrc;
+        private int[] fromDst;
+        private int[] toDst;
+        private int[] matchedCount;
+        private String[] appendDst;
+        private boolean[] isMatched;
+        private int size;
 
-}
+        /**
+         * @param capacity Initial capacity, arrays grow when more parts are added
+         */
+        OnAppendBatch(String text, int capacity) {
+            this.text = text;
+            this.fromSrc = new int[capacity];
+            this.toSrc = new int[capacity];
+            this.fromDst = new int[capacity];
+            this.toDst = new int[capacity];
+            this.matchedCount = new int[capacity];
+            this.appendDst = new String[capacity];
+            this.isMatched = new boolean[capacity];
+        }
 
+        /**
+         * @param copyDst Evaluate replaced text of matched part, for find it's the same as source
+         */
+        void add(RegexPart part, boolean copyDst) {
+            if (size == fromSrc.length) grow();
+            int i = size++;
+            fromSrc[i] = part.getFromSrc();
+            toSrc[i] = part.getToSrc();
+            fromDst[i] = part.getFromDst();
+            toDst[i] = part.getToDst();
+            matchedCount[i] = part.getMatchedCount();
+            isMatched[i] = part.isMatched();
+            if (copyDst && part.isMatched()) appendDst[i] = part.getDst().toString();
+        }
+
+        private void grow() {
+            int capacity = Math.max(16, size + (size >> 1));
+            fromSrc = Arrays.copyOf(fromSrc, capacity);
+            toSrc = Arrays.copyOf(toSrc, capacity);
+            fromDst = Arrays.copyOf(fromDst, capacity);
+            toDst = Arrays.copyOf(toDst, capacity);
+            matchedCount = Arrays.copyOf(matchedCount, capacity);
+            appendDst = Arrays.copyOf(appendDst, capacity);
+            isMatched = Arrays.copyOf(isMatched, capacity);
+        }
+
+        /**
+         * @return Count of parts in batch
+         */
+        public int size() {
+            return size;
+        }
+
+        public int getFromSrc(int index) {
+            checkIndex(index);
+            return fromSrc[index];
+        }
+
+        public int getToSrc(int index) {
+            checkIndex(index);
+            return toSrc[index];
+        }
+
+        public int getFromDst(int index) {
+            checkIndex(index);
+            return fromDst[index];
+        }
+
+        public int getToDst(int index) {
+            checkIndex(index);
+            return toDst[index];
+        }
+
+        public boolean isMatched(int index) {
+            checkIndex(index);
+            return isMatched[index];
+        }
+
+        public int getMatchedCount(int index) {
+            checkIndex(index);
+            return matchedCount[index];
+        }
+
+        public float getProgress(int index) {
+            checkIndex(index);
+            return (float) toSrc[index] / text.length();
+        }
+
+        public String getAppendSrc(int index) {
+            checkIndex(index);
+            return text.substring(fromSrc[index], toSrc[index]);
+        }
+
+        public String getAppendDst(int index) {
+            checkIndex(index);
+            String dst = appendDst[index];
+            return dst != null ? dst : text.substring(fromSrc[index], toSrc[index]);
+        }
+
+        /**
+         * @return Part with index as {@link OnAppend}
+         */
+        public OnAppend get(int index) {
+            return new OnAppend(getFromSrc(index), getToSrc(index), getAppendSrc(index), getFromDst(index), getToDst(index),
+                    getAppendDst(index), isMatched(index), getProgress(index), getMatchedCount(index));
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+
+        @Override
+        public String toString() {
+            return "OnAppendBatch[size=" + size + "]";
+        }
+    }
+
+    /**
+     * Document for {@link #replaceDocuments(Publisher, Pattern, String, Scheduler, int, boolean)}: text with id of caller.
+     */
+    public static class Document<K> {
+        private final K id;
+        private final String text;
+
+        public Document(K id, String text) {
+            this.id = id;
+            this.text = text;
+        }
+
+        public K getId() {
+            return id;
+        }
 
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * Result of processing of one {@link Document}.
+     */
+    public static class OnDocument<K> {
+        private final K id;
+        private final String result;
+        private final int matchedCount;
+
+        OnDocument(K id, String result, int matchedCount) {
+            this.id = id;
+            this.result = result;
+            this.matchedCount = matchedCount;
+        }
+
+        /**
+         * @return Id of document
+         */
+        public K getId() {
+            return id;
+        }
+
+        /**
+         * @return Text of document after replace
+         */
+        public String getResult() {
+            return result;
+        }
+
+        public int getMatchedCount() {
+            return matchedCount;
+        }
+
+        @Override
+        public String toString() {
+            return "OnDocument{" +
+                    "id=" + id +
+                    ", matchedCount=" + matchedCount +
+                    '}';
+        }
+    }
+
+    /**
+     * Collects parts to batches and emits them by size or latency.
+     * <p>
+     * Also cancellation signal of search: guarded search checks it periodically while matcher reads text, so pending
+     * batch is flushed by latency during long search without parts too. All calls are in matching thread.
+     */
+    private static class Batcher implements Regex.PartListener, Regex.CancellationSignal {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final String text;
+        private final boolean copyDst;
+        private final int maxBatchSize;
+        private final long maxLatencyNanos;
+        private final ObservableEmitter<OnAppendBatch> emitter;
+        private final Regex.CancellationSignal cancellationSignal;
+        private OnAppendBatch batch;
+        private long batchStartNanos;
+
+        Batcher(String text, boolean copyDst, int maxBatchSize, long maxLatencyNanos, ObservableEmitter<OnAppendBatch> emitter,
+                Regex.CancellationSignal cancellationSignal) {
+            this.text = text;
+            this.copyDst = copyDst;
+            this.maxBatchSize = maxBatchSize;
+            this.maxLatencyNanos = maxLatencyNanos;
+            this.emitter = emitter;
+            this.cancellationSignal = cancellationSignal;
+        }
+
+        @Override
+        public void onPart(RegexPart part) {
+            if (batch == null) {
+                batch = new OnAppendBatch(text, Math.min(maxBatchSize, INITIAL_CAPACITY));
+                batchStartNanos = System.nanoTime();
+            }
+            batch.add(part, copyDst);
+            if (batch.size() >= maxBatchSize || System.nanoTime() - batchStartNanos >= maxLatencyNanos) flush();
+        }
+
+        @Override
+        public boolean isCanceled() {
+            if (cancellationSignal.isCanceled()) return true;
+            if (batch != null && System.nanoTime() - batchStartNanos >= maxLatencyNanos) flush();
+            return false;
+        }
+
+        @Override
+        public void cancel() {
+            cancellationSignal.cancel();
+        }
+
+        void flush() {
+            if (batch == null) return;
+            OnAppendBatch full = batch;
+            batch = null;
+            emitter.onNext(full);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package ru.lazard.rxregex;
+
+import java.util.regex.MatchResult;
+
+/**
+ * Match without groups, found without {@link java.util.regex.Matcher} (for example match of literal).
+ */
+final class SpanMatchResult implements MatchResult {
+    private final CharSequence mText;
+    private int mStart;
+    private int mEnd;
+
+    SpanMatchResult(CharSequence text) {
+        this.mText = text;
+    }
+
+    void set(int start, int end) {
+        this.mStart = start;
+        this.mEnd = end;
+    }
+
+    @Override
+    public int start() {
+        return mStart;
+    }
+
+    @Override
+    public int start(int group) {
+        checkGroup(group);
+        return mStart;
+    }
+
+    @Override
+    public int end() {
+        return mEnd;
+    }
+
+    @Override
+    public int end(int group) {
+        checkGroup(group);
+        return mEnd;
+    }
+
+    @Override
+    public String group() {
+        return mText.subSequence(mStart, mEnd).toString();
+    }
+
+    @Override
+    public String group(int group) {
+        checkGroup(group);
+        return group();
+    }
+
+    @Override
+    public int groupCount() {
+        return 0;
+    }
+
+    private static void checkGroup(int group) {
+        if (group != 0) throw new IndexOutOfBoundsException("No group " + group);
+    }
+}
@@ -0,0 +1,266 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.FloatRange;
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+
+/**
+ * Class for work with regular expressions over streams, without loading whole input to memory.
+ * <p>
+ * Input is matched in sliding window, so memory usage is proportional to window size, not to input length.
+ * Matches must not be longer than <code>maxMatchLength</code> chars, longer matches may be cut or missed.
+ * Not matched text may be emitted by several parts (one part per window at most).
+ * Patterns with <code>\G</code> (end of previous match) are rejected by {@link IllegalArgumentException}, window doesn't
+ * keep previous match for them.
+ * Positions are absolute char offsets from start of input.
+ * <pre>{@code
+ * // Find in huge log file
+ * Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+ * StreamRegex.find(reader, Pattern.compile("ERROR: .*"), 1024, listener, cancellationSignal);
+ *
+ * // Replace in channel
+ * StreamRegex.replace(channel, Charset.forName("UTF-8"), pattern, "_$1_", listener);
+ *
+ * // Replace file to file, memory usage doesn't depend on file size
+ * StreamRegex.replace(srcFile, dstFile, Charset.forName("UTF-8"), pattern, "_$1_");
+ * }</pre>
+ */
+public class StreamRegex {
+
+    public static final int DEFAULT_MAX_MATCH_LENGTH = 4 * 1024;
+    public static final int MIN_WINDOW_SIZE = 16 * 1024;
+
+    private StreamRegex() {
+    }
+
+    public static void find(@NonNull Reader reader, @NonNull Pattern pattern, @NonNull Listener listener) throws IOException {
+        find(reader, pattern, DEFAULT_MAX_MATCH_LENGTH, listener, new Regex.CancellationSignalFake());
+    }
+
+    public static void find(@NonNull Reader reader, @NonNull Pattern pattern, int maxMatchLength, @NonNull Listener listener, @NonNull Regex.CancellationSignal cancellationSignal) throws IOException {
+        replace(reader, pattern, PatternCache.getDefault().getTemplate(pattern, "$0"), maxMatchLength, listener, cancellationSignal);
+    }
+
+    public static void find(@NonNull InputStream inputStream, @NonNull Charset charset, @NonNull Pattern pattern, @NonNull Listener listener) throws IOException {
+        find(new InputStreamReader(inputStream, charset), pattern, listener);
+    }
+
+    public static void find(@NonNull ReadableByteChannel channel, @NonNull Charset charset, @NonNull Pattern pattern, @NonNull Listener listener) throws IOException {
+        find(Channels.newReader(channel, charset.newDecoder(), -1), pattern, listener);
+    }
+
+    public static void replace(@NonNull Reader reader, @NonNull Pattern pattern, @NonNull String replaceText, @NonNull Listener listener) throws IOException {
+        replace(reader, pattern, PatternCache.getDefault().getTemplate(pattern, replaceText), DEFAULT_MAX_MATCH_LENGTH, listener, new Regex.CancellationSignalFake());
+    }
+
+    public static void replace(@NonNull Reader reader, @NonNull Pattern pattern, @NonNull ReplacementTemplate template, int maxMatchLength, @NonNull Listener listener, @NonNull Regex.CancellationSignal cancellationSignal) throws IOException {
+        if (cancellationSignal.isCanceled()) return;
+        StreamStepper stepper = new StreamStepper(reader, pattern, template, maxMatchLength, windowSize(maxMatchLength));
+        while (stepper.step(listener)) {
+            if (cancellationSignal.isCanceled()) return;
+        }
+    }
+
+    public static void replace(@NonNull InputStream inputStream, @NonNull Charset charset, @NonNull Pattern pattern, @NonNull String replaceText, @NonNull Listener listener) throws IOException {
+        replace(new InputStreamReader(inputStream, charset), pattern, replaceText, listener);
+    }
+
+    public static void replace(@NonNull ReadableByteChannel channel, @NonNull Charset charset, @NonNull Pattern pattern, @NonNull String replaceText, @NonNull Listener listener) throws IOException {
+        replace(Channels.newReader(channel, charset.newDecoder(), -1), pattern, replaceText, listener);
+    }
+
+    public static void replace(@NonNull Reader reader, @NonNull Pattern pattern, @NonNull String replaceText, @NonNull Appendable out) throws IOException {
+        replace(reader, pattern, PatternCache.getDefault().getTemplate(pattern, replaceText), DEFAULT_MAX_MATCH_LENGTH, out, new Regex.CancellationSignalFake());
+    }
+
+    /**
+     * Write replaced input to sink part by part, without strings for parts. {@link Writer} isn't flushed or closed.
+     */
+    public static void replace(@NonNull Reader reader, @NonNull Pattern pattern, @NonNull ReplacementTemplate template, int maxMatchLength, @NonNull Appendable out, @NonNull Regex.CancellationSignal cancellationSignal) throws IOException {
+        if (cancellationSignal.isCanceled()) return;
+        Appendable sink = WriterAppendable.of(out);
+        StreamStepper stepper = new StreamStepper(reader, pattern, template, maxMatchLength, windowSize(maxMatchLength));
+        while (stepper.step(sink)) {
+            if (cancellationSignal.isCanceled()) return;
+        }
+    }
+
+    /**
+     * Replace from one channel to other, both are encoded by charset. Channels aren't closed.
+     */
+    public static void replace(@NonNull ReadableByteChannel input, @NonNull WritableByteChannel output, @NonNull Charset charset, @NonNull Pattern pattern, @NonNull String replaceText) throws IOException {
+        Writer writer = Channels.newWriter(output, charset.newEncoder(), -1);
+        replace(Channels.newReader(input, charset.newDecoder(), -1), pattern, PatternCache.getDefault().getTemplate(pattern, replaceText),
+                DEFAULT_MAX_MATCH_LENGTH, writer, new Regex.CancellationSignalFake());
+        writer.flush();
+    }
+
+    public static boolean replace(@NonNull File src, @NonNull File dst, @NonNull Charset charset, @NonNull Pattern pattern, @NonNull String replaceText) throws IOException {
+        return replace(src, dst, charset, pattern, PatternCache.getDefault().getTemplate(pattern, replaceText), DEFAULT_MAX_MATCH_LENGTH, new Regex.CancellationSignalFake());
+    }
+
+    /**
+     * Replace from file to file through file channels. Result is written to temporary file near <code>dst</code>,
+     * synced to disk and renamed to <code>dst</code>, so <code>dst</code> always has either old or whole new content.
+     * <code>src</code> and <code>dst</code> may be the same file.
+     *
+     * @return True if <code>dst</code> is written, false if canceled (<code>dst</code> is untouched in this case)
+     */
+    public static boolean replace(@NonNull File src, @NonNull File dst, @NonNull Charset charset, @NonNull Pattern pattern, @NonNull ReplacementTemplate template, int maxMatchLength, @NonNull Regex.CancellationSignal cancellationSignal) throws IOException {
+        File temp = File.createTempFile(dst.getName(), ".tmp", dst.getAbsoluteFile().getParentFile());
+        FileInputStream input = null;
+        FileOutputStream output = null;
+        boolean renamed = false;
+        try {
+            input = new FileInputStream(src);
+            output = new FileOutputStream(temp);
+            Writer writer = Channels.newWriter(output.getChannel(), charset.newEncoder(), -1);
+            replace(Channels.newReader(input.getChannel(), charset.newDecoder(), -1), pattern, template, maxMatchLength, writer, cancellationSignal);
+            if (cancellationSignal.isCanceled()) return false;
+            writer.flush();
+            output.getChannel().force(true);
+            output.close();
+            output = null;
+            if (!temp.renameTo(dst)) throw new IOException("Can't rename " + temp + " to " + dst);
+            renamed = true;
+            return true;
+        } finally {
+            closeQuietly(input);
+            closeQuietly(output);
+            if (!renamed) temp.delete();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * @return Size of window in chars used for given maximum match length
+     */
+    public static int windowSize(int maxMatchLength) {
+        return Math.max(4 * maxMatchLength, MIN_WINDOW_SIZE);
+    }
+
+    /**
+     * Same as {@link Regex.Listener}, but with <code>long</code> positions. Progress is unknown until end of input and is 0 before it.
+     */
+    public interface Listener {
+        void append(long fromSrc, long toSrc, String appendSrc,
+                    long fromDst, long toDst, String appendDst,
+                    boolean isMatched, @FloatRange(from = 0, to = 1) float progress, long matchedCount);
+    }
+
+    /**
+     * Same as {@link RxRegex.OnAppend}, but with <code>long</code> positions.
+     */
+    public static class OnAppend {
+        private long fromSrc;
+        private long toSrc;
+        private String appendSrc;
+        private long fromDst;
+        private long toDst;
+        private String appendDst;
+        private boolean isMatched;
+        private float progress;
+        private long matchedCount;
+
+        public OnAppend(long fromSrc, long toSrc, String appendSrc, long fromDst, long toDst, String appendDst, boolean isMatched, float progress, long matchedCount) {
+            this.fromSrc = fromSrc;
+            this.toSrc = toSrc;
+            this.appendSrc = appendSrc;
+            this.fromDst = fromDst;
+            this.toDst = toDst;
+            this.appendDst = appendDst;
+            this.isMatched = isMatched;
+            this.progress = progress;
+            this.matchedCount = matchedCount;
+        }
+
+        /**
+         * @return Current parsing progress (float from 0 - to 1), 0 until end of input is reached
+         */
+        public float getProgress() {
+            return progress;
+        }
+
+        /**
+         * @return Count of matched perts at this moment
+         */
+        public long getMatchedCount() {
+            return matchedCount;
+        }
+
+        /**
+         * @return Start position of current part at original input
+         */
+        public long getFromSrc() {
+            return fromSrc;
+        }
+
+        /**
+         * @return End position of current part at original input
+         */
+        public long getToSrc() {
+            return toSrc;
+        }
+
+        /**
+         * @return Start position of current part at replaced output
+         */
+        public long getFromDst() {
+            return fromDst;
+        }
+
+        /**
+         * @return End position of current part at replaced output
+         */
+        public long getToDst() {
+            return toDst;
+        }
+
+        /**
+         * @return Replaced text part
+         */
+        public String getAppendDst() {
+            return appendDst;
+        }
+
+        /**
+         * @return Current processed text part from original input
+         */
+        public String getAppendSrc() {
+            return appendSrc;
+        }
+
+        /**
+         * @return Is current part matched to regex
+         */
+        public boolean isMatched() {
+            return isMatched;
+        }
+
+        @Override
+        public String toString() {
+            return appendSrc + " -> " + appendDst;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matching loop of {@link StreamRegex} split to steps, each step emits exactly one part of text.
+ * <p>
+ * Input is read to fixed size window. Result of search is trusted only if matcher didn't hit end of window
+ * (or end of input is reached). Otherwise window is compacted and refilled, and text which can't be start
+ * of match not longer than <code>maxMatchLength</code> is emitted as not matched part.
+ */
+final class StreamStepper {
+
+    private final Reader mReader;
+    private final Matcher mMatcher;
+    private final ReplacementTemplate mTemplate;
+    private final int mMaxMatchLength;
+    private final char[] mBuffer;
+    private final Window mWindow;
+
+    private long mBufferStart;
+    private int mFilled;
+    private int mPos;
+    private int mSearchFrom;
+    private boolean mEof;
+    private boolean mStarted;
+    private boolean mMatchPending;
+    private boolean mFinished;
+    private long mDstLength;
+    private long mMatchedCount;
+    private int mPartFrom;
+    private int mPartTo;
+    private boolean mPartMatched;
+    private long mPartFromDst;
+
+    StreamStepper(@NonNull Reader reader, @NonNull Pattern pattern, @NonNull ReplacementTemplate template, int maxMatchLength, int windowSize) {
+        if (maxMatchLength <= 0) throw new IllegalArgumentException("maxMatchLength <= 0");
+        if (windowSize <= 2 * maxMatchLength)
+            throw new IllegalArgumentException("windowSize must be greater than 2 * maxMatchLength");
+        // matcher resets \G to start of region on each search and window refill
+        if (PatternAnalysis.hasPreviousMatchAnchor(pattern))
+            throw new IllegalArgumentException("Patterns with \\G aren't supported by stream matching");
+        this.mReader = reader;
+        this.mTemplate = template;
+        this.mMaxMatchLength = maxMatchLength;
+        this.mBuffer = new char[windowSize];
+        this.mWindow = new Window(mBuffer);
+        this.mMatcher = pattern.matcher(mWindow);
+        this.mMatcher.useTransparentBounds(true);
+        this.mMatcher.useAnchoringBounds(false);
+    }
+
+    /**
+     * Emit next part of input to listener.
+     *
+     * @return False if all input already emitted, listener isn't called in this case.
+     */
+    boolean step(@NonNull StreamRegex.Listener listener) throws IOException {
+        if (!next()) return false;
+        String substringSrc = mWindow.subSequence(mPartFrom, mPartTo).toString();
+        String substringDst = !mPartMatched || mTemplate.isWholeMatch() ? substringSrc : mTemplate.evaluate(mWindow, mMatcher);
+        listener.append(mBufferStart + mPartFrom, mBufferStart + mPartTo, substringSrc, mPartFromDst, mDstLength, substringDst,
+                mPartMatched, progress(mPartTo), mMatchedCount);
+        return true;
+    }
+
+    /**
+     * Append replaced text of next part of input to sink, without strings for parts.
+     *
+     * @return False if all input already emitted.
+     */
+    boolean step(@NonNull Appendable out) throws IOException {
+        if (!next()) return false;
+        if (!mPartMatched) out.append(mWindow, mPartFrom, mPartTo);
+        else mTemplate.appendTo(out, mWindow, mMatcher);
+        return true;
+    }
+
+    /**
+     * Move to next part of input, its position at window is [mPartFrom, mPartTo).
+     *
+     * @return False if all input already emitted.
+     */
+    private boolean next() throws IOException {
+        if (mFinished) return false;
+        if (!mStarted) {
+            mStarted = true;
+            fill();
+        }
+        Matcher matcher = mMatcher;
+
+        if (mMatchPending) {
+            mMatchPending = false;
+            int start = matcher.start();
+            int end = matcher.end();
+            mPos = end;
+            mSearchFrom = start == end ? end + 1 : end;
+            setPart(start, end, true, mTemplate.isWholeMatch() ? end - start : mTemplate.length(matcher));
+            return true;
+        }
+
+        while (true) {
+            if (mSearchFrom > mFilled) return finish();
+
+            matcher.region(mSearchFrom, mFilled);
+            boolean found = matcher.find();
+            if (mEof || !matcher.hitEnd()) {
+                if (found) {
+                    int start = matcher.start();
+                    long absoluteStart = mBufferStart + start;
+                    if (start == matcher.end() && absoluteStart != 0 && !(mEof && start == mFilled))
+                        throw new IllegalArgumentException("Too short replace text in regularExpression");
+                    mMatchedCount++;
+                    mMatchPending = true;
+                    return setGap(start);
+                }
+                if (mEof) return finish();
+                // nothing in window can be start of match, even with more input
+                if (mFilled > mPos) return setGap(mFilled);
+                mSearchFrom = mFilled;
+            } else {
+                // result may change with more input
+                int safeEnd = mFilled - mMaxMatchLength;
+                if (found && matcher.start() < safeEnd) safeEnd = matcher.start();
+                if (safeEnd > mPos) {
+                    mSearchFrom = safeEnd;
+                    return setGap(safeEnd);
+                }
+                if (!compactAndFill()) {
+                    // window is full, accept match as is
+                    if (!found) throw new IllegalStateException("Window is too small for maxMatchLength");
+                    mMatchedCount++;
+                    mMatchPending = true;
+                    return setGap(matcher.start());
+                }
+                continue;
+            }
+            if (!compactAndFill() && !mEof) throw new IllegalStateException("Window is too small for maxMatchLength");
+        }
+    }
+
+    void close() throws IOException {
+        mReader.close();
+    }
+
+    private boolean setGap(int end) {
+        int from = mPos;
+        mPos = end;
+        if (mSearchFrom < end) mSearchFrom = end;
+        return setPart(from, end, false, end - from);
+    }
+
+    private boolean setPart(int from, int to, boolean isMatched, int dstLength) {
+        mPartFrom = from;
+        mPartTo = to;
+        mPartMatched = isMatched;
+        mPartFromDst = mDstLength;
+        mDstLength += dstLength;
+        return true;
+    }
+
+    private boolean finish() {
+        mFinished = true;
+        if (mPos >= mFilled) return false;
+        return setGap(mFilled);
+    }
+
+    private float progress(int position) {
+        // length of stream is known only at end of input
+        return mEof ? (float) (mBufferStart + position) / (mBufferStart + mFilled) : 0f;
+    }
+
+    /**
+     * Drop text before current position, keeping <code>maxMatchLength</code> chars as context for
+     * lookbehind and word boundaries, and read more input.
+     *
+     * @return True if window got new chars or end of input is reached.
+     */
+    private boolean compactAndFill() throws IOException {
+        if (mEof) return false;
+        int context = Math.min(mPos, mMaxMatchLength);
+        int drop = mPos - context;
+        // keep matcher state untouched if there is no room for new chars
+        if (drop == 0 && mFilled == mBuffer.length) return false;
+        if (drop > 0) {
+            System.arraycopy(mBuffer, drop, mBuffer, 0, mFilled - drop);
+            mFilled -= drop;
+            mPos -= drop;
+            mSearchFrom -= drop;
+            mBufferStart += drop;
+        }
+        int filled = mFilled;
+        fill();
+        return mFilled > filled || mEof;
+    }
+
+    private void fill() throws IOException {
+        while (mFilled < mBuffer.length) {
+            int read = mReader.read(mBuffer, mFilled, mBuffer.length - mFilled);
+            if (read < 0) {
+                mEof = true;
+                break;
+            }
+            mFilled += read;
+        }
+        mWindow.mLength = mFilled;
+        mMatcher.reset(mWindow);
+    }
+
+    /**
+     * Char sequence over filled part of window buffer.
+     */
+    private static class Window implements CharSequence {
+        private final char[] mChars;
+        private int mLength;
+
+        Window(char[] chars) {
+            this.mChars = chars;
+        }
+
+        @Override
+        public int length() {
+            return mLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return mChars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(mChars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(mChars, 0, mLength);
+        }
+    }
+}
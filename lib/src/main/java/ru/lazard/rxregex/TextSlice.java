@@ -0,0 +1,45 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Char sequence view over range of other char sequence, without copy of chars.
+ */
+final class TextSlice implements CharSequence {
+
+    private final CharSequence mText;
+    private final int mStart;
+    private final int mEnd;
+
+    TextSlice(@NonNull CharSequence text, int start, int end) {
+        if (start < 0 || start > end || end > text.length())
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + text.length());
+        this.mText = text;
+        this.mStart = start;
+        this.mEnd = end;
+    }
+
+    @Override
+    public int length() {
+        return mEnd - mStart;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= mEnd - mStart) throw new IndexOutOfBoundsException("index " + index + ", length " + length());
+        return mText.charAt(mStart + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || start > end || end > mEnd - mStart)
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length());
+        return new TextSlice(mText, mStart + start, mStart + end);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return mText.subSequence(mStart, mEnd).toString();
+    }
+}
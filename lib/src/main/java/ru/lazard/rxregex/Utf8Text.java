@@ -0,0 +1,199 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Char sequence view over UTF-8 bytes of {@link ByteBuffer} (for example memory-mapped file), without decoding to heap.
+ * <p>
+ * Pure ASCII bytes are read as chars directly, so char offset is byte offset. Other text is indexed once: byte offset of
+ * every {@link #CHECKPOINT_CHARS}-th char, one int per checkpoint, and chars are decoded from nearest checkpoint or from
+ * last read position, which makes sequential reading of matcher cheap. Chars beyond U+FFFF are read as surrogate pairs
+ * as in {@link String}. Each byte of malformed sequence is read as U+FFFD.
+ * <p>
+ * View covers bytes from position to limit of buffer at creation. Not thread-safe: it remembers last read position.
+ */
+public final class Utf8Text implements CharSequence {
+
+    static final int CHECKPOINT_CHARS = 64;
+
+    private static final char REPLACEMENT = '\uFFFD';
+    private static final long ASCII_MASK = 0x8080808080808080L;
+
+    private final ByteBuffer mBuffer;
+    private final int mStart;
+    private final int mByteLength;
+    private final int mLength;
+    private final boolean mAscii;
+    /**
+     * Byte offset of code point containing char k * CHECKPOINT_CHARS, inverted if that char is low surrogate.
+     */
+    private final int[] mCheckpoints;
+    private int mCursorChar;
+    private int mCursorByte;
+
+    /**
+     * @param buffer Bytes from position to limit, buffer itself isn't changed
+     */
+    public Utf8Text(@NonNull ByteBuffer buffer) {
+        this.mBuffer = buffer.duplicate();
+        this.mStart = buffer.position();
+        this.mByteLength = buffer.remaining();
+        this.mAscii = isAscii(mBuffer, mStart, mStart + mByteLength);
+        if (mAscii) {
+            this.mLength = mByteLength;
+            this.mCheckpoints = null;
+            return;
+        }
+        int[] checkpoints = new int[mByteLength / CHECKPOINT_CHARS + 2];
+        int chars = 0;
+        for (int offset = 0; offset < mByteLength; ) {
+            int decoded = decode(offset);
+            int count = decoded >>> 3 > 0xFFFF ? 2 : 1;
+            int next = chars + count;
+            // code point covers chars [chars, next), each checkpoint inside is at its first byte
+            int checkpoint = (chars + CHECKPOINT_CHARS - 1) / CHECKPOINT_CHARS;
+            if (checkpoint * CHECKPOINT_CHARS < next) {
+                checkpoints[checkpoint] = checkpoint * CHECKPOINT_CHARS == chars ? offset : ~offset;
+            }
+            chars = next;
+            offset += decoded & 7;
+        }
+        this.mLength = chars;
+        this.mCheckpoints = checkpoints;
+    }
+
+    private static boolean isAscii(ByteBuffer buffer, int start, int end) {
+        int i = start;
+        for (; i + 8 <= end; i += 8) {
+            if ((buffer.getLong(i) & ASCII_MASK) != 0) return false;
+        }
+        for (; i < end; i++) {
+            if (buffer.get(i) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return True if all bytes are ASCII, char offsets are byte offsets then
+     */
+    public boolean isAscii() {
+        return mAscii;
+    }
+
+    /**
+     * @return Count of bytes in view
+     */
+    public int byteLength() {
+        return mByteLength;
+    }
+
+    /**
+     * @return Byte offset of char from start of view, for low surrogate offset of its pair. Length is mapped to byte length.
+     */
+    public int byteOffset(int index) {
+        if (index < 0 || index > mLength) throw new IndexOutOfBoundsException("index " + index + ", length " + mLength);
+        if (mAscii) return index;
+        if (index == mLength) return mByteLength;
+        seek(index);
+        while (true) {
+            int decoded = decode(mCursorByte);
+            int count = decoded >>> 3 > 0xFFFF ? 2 : 1;
+            if (index < mCursorChar + count) return mCursorByte;
+            mCursorChar += count;
+            mCursorByte += decoded & 7;
+        }
+    }
+
+    @Override
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= mLength) throw new IndexOutOfBoundsException("index " + index + ", length " + mLength);
+        if (mAscii) return (char) mBuffer.get(mStart + index);
+        seek(index);
+        while (true) {
+            int decoded = decode(mCursorByte);
+            int codePoint = decoded >>> 3;
+            if (codePoint <= 0xFFFF) {
+                if (index == mCursorChar) return (char) codePoint;
+                mCursorChar++;
+            } else {
+                if (index == mCursorChar) return (char) (0xD800 + ((codePoint - 0x10000) >>> 10));
+                if (index == mCursorChar + 1) return (char) (0xDC00 + (codePoint & 0x3FF));
+                mCursorChar += 2;
+            }
+            mCursorByte += decoded & 7;
+        }
+    }
+
+    /**
+     * @return Decoded copy of chars, views of ranges without copy are {@link #byteOffset(int) byte offsets} of this view
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || start > end || end > mLength)
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + mLength);
+        StringBuilder builder = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) builder.append(charAt(i));
+        return builder.toString();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return subSequence(0, mLength).toString();
+    }
+
+    /**
+     * Move cursor to code point boundary at or before char, not further than one checkpoint from it.
+     */
+    private void seek(int index) {
+        if (index >= mCursorChar && index - mCursorChar < CHECKPOINT_CHARS) return;
+        int checkpoint = index / CHECKPOINT_CHARS;
+        int offset = mCheckpoints[checkpoint];
+        mCursorChar = checkpoint * CHECKPOINT_CHARS;
+        if (offset < 0) {
+            offset = ~offset;
+            mCursorChar--;
+        }
+        mCursorByte = offset;
+    }
+
+    /**
+     * @return (code point << 3) | length in bytes, of code point at byte offset from start of view
+     */
+    private int decode(int offset) {
+        ByteBuffer buffer = mBuffer;
+        int position = mStart + offset;
+        int first = buffer.get(position);
+        if (first >= 0) return (first << 3) | 1;
+        int available = mByteLength - offset;
+        first &= 0xFF;
+        if (first >= 0xC2 && first <= 0xDF && available >= 2) {
+            int second = buffer.get(position + 1);
+            if ((second & 0xC0) == 0x80) return ((((first & 0x1F) << 6) | (second & 0x3F)) << 3) | 2;
+        } else if (first >= 0xE0 && first <= 0xEF && available >= 3) {
+            int second = buffer.get(position + 1);
+            int third = buffer.get(position + 2);
+            if ((second & 0xC0) == 0x80 && (third & 0xC0) == 0x80) {
+                int codePoint = ((first & 0x0F) << 12) | ((second & 0x3F) << 6) | (third & 0x3F);
+                // overlong forms and surrogates are malformed
+                if (codePoint >= 0x800 && (codePoint < 0xD800 || codePoint > 0xDFFF)) return (codePoint << 3) | 3;
+            }
+        } else if (first >= 0xF0 && first <= 0xF4 && available >= 4) {
+            int second = buffer.get(position + 1);
+            int third = buffer.get(position + 2);
+            int fourth = buffer.get(position + 3);
+            if ((second & 0xC0) == 0x80 && (third & 0xC0) == 0x80 && (fourth & 0xC0) == 0x80) {
+                int codePoint = ((first & 0x07) << 18) | ((second & 0x3F) << 12) | ((third & 0x3F) << 6) | (fourth & 0x3F);
+                if (codePoint >= 0x10000 && codePoint <= 0x10FFFF) return (codePoint << 3) | 4;
+            }
+        }
+        return (REPLACEMENT << 3) | 1;
+    }
+}
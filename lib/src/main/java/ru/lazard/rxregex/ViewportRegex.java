@@ -0,0 +1,326 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.BitSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matching which starts from visible part of text, for highlighting in editors.
+ * <p>
+ * Text is split to blocks. Blocks overlapping viewport are matched first, then blocks after viewport, then the rest.
+ * Viewport may be moved from any thread while matching is running, next block is chosen by the latest viewport,
+ * so time to first visible result doesn't depend on position of viewport in text.
+ * <pre>{@code
+ * ViewportRegex viewportRegex = new ViewportRegex(text, pattern, "$0");
+ * viewportRegex.setViewport(firstVisibleChar, lastVisibleChar);
+ * RxRegex.replaceViewport(viewportRegex)
+ *  .subscribeOn(Schedulers.computation())
+ *  .observeOn(AndroidSchedulers.mainThread())
+ *  .subscribe(block -> highlights.put(block.getBlockIndex(), block));   // later block replaces earlier one
+ * onScroll: viewportRegex.setViewport(firstVisibleChar, lastVisibleChar);
+ * }</pre>
+ * Matches of block depend on where previous match ended. Block matched before previous blocks assumes that no match
+ * crosses its start, and is emitted again as correction if it turns out wrong. After completion matches of all blocks are
+ * the same as of {@link Matcher#find()} loop, as long as search for match starting near block end doesn't need more than
+ * <code>max(blockSize, maxMatchLength)</code> chars after block. Found matches are continued to end of text.
+ * Patterns with <code>\G</code> can't be matched by blocks, they are matched from start of text.
+ */
+public class ViewportRegex {
+
+    public static final int DEFAULT_BLOCK_SIZE = 16 * 1024;
+    public static final int DEFAULT_MAX_MATCH_LENGTH = 1024;
+
+    private final String mText;
+    private final Pattern mPattern;
+    private final ReplacementTemplate mTemplate;
+    private final int mBlockSize;
+    private final int mMaxMatchLength;
+    private final int mTextLength;
+    private final int mBlockCount;
+
+    private volatile int mViewportFrom;
+
+    public ViewportRegex(@NonNull String text, @NonNull Pattern pattern, @NonNull String replacement) {
+        this(text, pattern, PatternCache.getDefault().getTemplate(pattern, replacement), DEFAULT_BLOCK_SIZE, DEFAULT_MAX_MATCH_LENGTH);
+    }
+
+    /**
+     * @param blockSize      Count of chars matched and emitted at once
+     * @param maxMatchLength Count of chars after block visible for its last matches, should be not less than usual match length.
+     *                       Failed search which needs more chars is repeated with doubled region, up to
+     *                       <code>max(blockSize, maxMatchLength)</code> chars after block
+     */
+    public ViewportRegex(@NonNull String text, @NonNull Pattern pattern, @NonNull ReplacementTemplate template, int blockSize, int maxMatchLength) {
+        if (blockSize <= 0) throw new IllegalArgumentException("blockSize <= 0");
+        if (maxMatchLength < 0) throw new IllegalArgumentException("maxMatchLength < 0");
+        this.mText = text;
+        this.mPattern = pattern;
+        this.mTemplate = template;
+        this.mBlockSize = blockSize;
+        this.mMaxMatchLength = maxMatchLength;
+        this.mTextLength = text.length();
+        this.mBlockCount = Math.max(1, (mTextLength + blockSize - 1) / blockSize);
+    }
+
+    /**
+     * Set visible range of text, may be called from any thread. Blocks from <code>from</code> are matched next,
+     * already matched blocks aren't matched again.
+     */
+    public void setViewport(int from, int to) {
+        if (from < 0 || from > to) throw new IllegalArgumentException("Wrong viewport: " + from + ", " + to);
+        mViewportFrom = from;
+    }
+
+    public int getBlockCount() {
+        return mBlockCount;
+    }
+
+    public int getBlockSize() {
+        return mBlockSize;
+    }
+
+    /**
+     * Match all blocks, in order of viewport priority.
+     *
+     * @param listener Receiver of matched blocks, called on this thread
+     */
+    public void run(@NonNull Listener listener, @NonNull Regex.CancellationSignal cancellationSignal) {
+        if (cancellationSignal.isCanceled()) return;
+        if (!ParallelRegex.isSplittable(mPattern)) {
+            runSequential(listener, cancellationSignal);
+            return;
+        }
+        Matcher matcher = mPattern.matcher(mText);
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        BitSet matched = new BitSet(mBlockCount);
+        // entry is valid when it's computed from exit of valid previous block
+        BitSet valid = new BitSet(mBlockCount);
+        int[] entries = new int[mBlockCount];
+        int[] exits = new int[mBlockCount];
+        int matchedCount = 0;
+
+        while (matchedCount < mBlockCount) {
+            int index = matched.nextClearBit(Math.min(mViewportFrom, mTextLength) / mBlockSize);
+            if (index >= mBlockCount) index = matched.nextClearBit(0);
+
+            boolean entryValid = index == 0 || valid.get(index - 1);
+            // without previous block it's assumed that no match crosses block start
+            int entry = index > 0 && matched.get(index - 1) ? Math.max(blockStart(index), exits[index - 1]) : blockStart(index);
+            OnBlock block = match(matcher, index, entry, false, ++matchedCount);
+            entries[index] = entry;
+            exits[index] = block.exit;
+            matched.set(index);
+            if (entryValid) valid.set(index);
+            listener.onBlock(block);
+            if (cancellationSignal.isCanceled()) return;
+
+            // blocks matched earlier become valid, or are corrected if match of this block crosses their start
+            for (int next = index + 1; entryValid && next < mBlockCount && matched.get(next) && !valid.get(next); next++) {
+                int nextEntry = Math.max(blockStart(next), exits[next - 1]);
+                valid.set(next);
+                if (nextEntry == entries[next]) continue;
+                OnBlock correction = match(matcher, next, nextEntry, true, matchedCount);
+                entries[next] = nextEntry;
+                exits[next] = correction.exit;
+                listener.onBlock(correction);
+                if (cancellationSignal.isCanceled()) return;
+            }
+        }
+    }
+
+    /**
+     * Matches starting in block, found by search from entry position.
+     */
+    private OnBlock match(Matcher matcher, int index, int entry, boolean correction, int matchedBlocks) {
+        int start = blockStart(index);
+        int end = blockEnd(index);
+        OnBlock block = new OnBlock(mText, index, start, end, correction, (float) matchedBlocks / mBlockCount);
+        int pos = entry;
+        int from = Math.max(end, pos);
+        int visibleEnd = (int) Math.min((long) from + mMaxMatchLength, mTextLength);
+        int lookaheadEnd = (int) Math.min((long) from + Math.max(mMaxMatchLength, mBlockSize), mTextLength);
+        int regionEnd = visibleEnd;
+        // only empty match at end of text may start after end of block
+        while (pos < end || pos == mTextLength) {
+            matcher.region(pos, regionEnd);
+            boolean found = matcher.find();
+            if (!found || !startsIn(matcher.start(), end)) {
+                if (regionEnd >= lookaheadEnd || !matcher.hitEnd()) break;
+                // match starting in block may need chars after region, region is doubled up to the lookahead limit
+                regionEnd = (int) Math.min(from + Math.max(2L * (regionEnd - from), 1), lookaheadEnd);
+                continue;
+            }
+            int matchStart = matcher.start();
+            int matchEnd = matcher.end();
+            if (regionEnd < mTextLength && (matchEnd >= regionEnd || matcher.hitEnd())) {
+                // match may be longer or different with more text
+                regionEnd = mTextLength;
+                continue;
+            }
+            block.add(matchStart, matchEnd, mTemplate.isWholeMatch() ? null : mTemplate.evaluate(mText, matcher));
+            pos = matchEnd == matchStart ? matchEnd + 1 : matchEnd;
+            regionEnd = Math.max(visibleEnd, pos);
+        }
+        block.exit = Math.max(end, pos);
+        return block;
+    }
+
+    private void runSequential(Listener listener, Regex.CancellationSignal cancellationSignal) {
+        Matcher matcher = mPattern.matcher(mText);
+        int index = 0;
+        OnBlock block = new OnBlock(mText, 0, 0, blockEnd(0), false, 1f / mBlockCount);
+        while (true) {
+            boolean found = matcher.find();
+            int matchStart = found ? matcher.start() : Integer.MAX_VALUE;
+            while (!startsIn(matchStart, block.getTo())) {
+                listener.onBlock(block);
+                if (cancellationSignal.isCanceled() || ++index >= mBlockCount) return;
+                block = new OnBlock(mText, index, blockStart(index), blockEnd(index), false, (float) (index + 1) / mBlockCount);
+            }
+            block.add(matchStart, matcher.end(), mTemplate.isWholeMatch() ? null : mTemplate.evaluate(mText, matcher));
+        }
+    }
+
+    /**
+     * @return True if match starting at position belongs to block, empty match at end of text belongs to last block
+     */
+    private boolean startsIn(int matchStart, int blockEnd) {
+        return matchStart < blockEnd || (matchStart == mTextLength && blockEnd == mTextLength);
+    }
+
+    private int blockStart(int index) {
+        return index * mBlockSize;
+    }
+
+    private int blockEnd(int index) {
+        return (int) Math.min((long) (index + 1) * mBlockSize, mTextLength);
+    }
+
+    public interface Listener {
+        void onBlock(@NonNull OnBlock block);
+    }
+
+    /**
+     * Matches starting in one block of text. Block emitted again (correction) replaces its earlier version.
+     */
+    public static class OnBlock {
+        private final String text;
+        private final int blockIndex;
+        private final int from;
+        private final int to;
+        private final boolean correction;
+        private final float progress;
+        private int[] starts = new int[8];
+        private int[] ends = new int[8];
+        private String[] dst = new String[8];
+        private int size;
+        /**
+         * Position where sequential search continues after block.
+         */
+        int exit;
+
+        OnBlock(String text, int blockIndex, int from, int to, boolean correction, float progress) {
+            this.text = text;
+            this.blockIndex = blockIndex;
+            this.from = from;
+            this.to = to;
+            this.correction = correction;
+            this.progress = progress;
+        }
+
+        void add(int start, int end, @Nullable String matchDst) {
+            if (size == starts.length) {
+                int capacity = size * 2;
+                int[] newStarts = new int[capacity];
+                int[] newEnds = new int[capacity];
+                String[] newDst = new String[capacity];
+                System.arraycopy(starts, 0, newStarts, 0, size);
+                System.arraycopy(ends, 0, newEnds, 0, size);
+                System.arraycopy(dst, 0, newDst, 0, size);
+                starts = newStarts;
+                ends = newEnds;
+                dst = newDst;
+            }
+            starts[size] = start;
+            ends[size] = end;
+            dst[size] = matchDst;
+            size++;
+        }
+
+        public int getBlockIndex() {
+            return blockIndex;
+        }
+
+        /**
+         * @return Start of block in text
+         */
+        public int getFrom() {
+            return from;
+        }
+
+        /**
+         * @return End of block in text, exclusive. Last match of block may end after it.
+         */
+        public int getTo() {
+            return to;
+        }
+
+        /**
+         * @return True if block was emitted before and this version replaces it
+         */
+        public boolean isCorrection() {
+            return correction;
+        }
+
+        /**
+         * @return Part of blocks already matched
+         */
+        public float getProgress() {
+            return progress;
+        }
+
+        /**
+         * @return Count of matches in block
+         */
+        public int size() {
+            return size;
+        }
+
+        public int getStart(int i) {
+            checkIndex(i);
+            return starts[i];
+        }
+
+        public int getEnd(int i) {
+            checkIndex(i);
+            return ends[i];
+        }
+
+        /**
+         * @return Evaluated replacement of match, matched text for find
+         */
+        public String getDst(int i) {
+            checkIndex(i);
+            return dst[i] != null ? dst[i] : text.substring(starts[i], ends[i]);
+        }
+
+        private void checkIndex(int i) {
+            if (i < 0 || i >= size) throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+        }
+
+        @Override
+        public String toString() {
+            return "OnBlock{" +
+                    "blockIndex=" + blockIndex +
+                    ", from=" + from +
+                    ", to=" + to +
+                    ", size=" + size +
+                    ", correction=" + correction +
+                    '}';
+        }
+    }
+}
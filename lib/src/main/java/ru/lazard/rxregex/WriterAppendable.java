@@ -0,0 +1,57 @@
+package ru.lazard.rxregex;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Appendable over {@link Writer}, which writes ranges of char sequences without creating substrings
+ * (unlike {@link Writer#append(CharSequence, int, int)}).
+ */
+final class WriterAppendable implements Appendable {
+
+    private final Writer mWriter;
+    private char[] mBuffer;
+
+    WriterAppendable(@NonNull Writer writer) {
+        this.mWriter = writer;
+    }
+
+    /**
+     * @return Appendable which writes to given sink without intermediate strings
+     */
+    static Appendable of(@NonNull Appendable out) {
+        return out instanceof Writer ? new WriterAppendable((Writer) out) : out;
+    }
+
+    @Override
+    public Appendable append(CharSequence csq) throws IOException {
+        if (csq == null) csq = "null";
+        return append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Appendable append(CharSequence csq, int start, int end) throws IOException {
+        if (csq == null) csq = "null";
+        if (csq instanceof String) {
+            mWriter.write((String) csq, start, end - start);
+            return this;
+        }
+        if (mBuffer == null) mBuffer = new char[1024];
+        char[] buffer = mBuffer;
+        while (start < end) {
+            int count = Math.min(buffer.length, end - start);
+            for (int i = 0; i < count; i++) buffer[i] = csq.charAt(start + i);
+            mWriter.write(buffer, 0, count);
+            start += count;
+        }
+        return this;
+    }
+
+    @Override
+    public Appendable append(char c) throws IOException {
+        mWriter.write(c);
+        return this;
+    }
+}
@@ -0,0 +1,146 @@
+package ru.lazard.rxregex;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ */
+public class ByteRegexUnitTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String[] TEXT_PARTS = {"a", "b", "ab", " ", "\n", "12", "\u00E9", "\u0416\u0416", "\u20AC", "\uD83D\uDE00", "x\u00E9y"};
+
+    private static String randomText(Random random, int parts) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < parts; i++) builder.append(TEXT_PARTS[random.nextInt(TEXT_PARTS.length)]);
+        return builder.toString();
+    }
+
+    private static ByteBuffer buffer(String text) {
+        // bytes in the middle of buffer, view starts at position
+        byte[] bytes = text.getBytes(UTF_8);
+        byte[] padded = new byte[bytes.length + 6];
+        System.arraycopy(bytes, 0, padded, 3, bytes.length);
+        ByteBuffer buffer = ByteBuffer.wrap(padded);
+        buffer.position(3).limit(3 + bytes.length);
+        return buffer;
+    }
+
+    private static String expected(String text, Pattern pattern, String replacement) {
+        StringBuilder builder = new StringBuilder();
+        Regex.replaceParts(text, pattern, PatternCache.getDefault().getTemplate(pattern, replacement), part ->
+                builder.append(part.getFromSrc()).append('-').append(part.getToSrc()).append(':')
+                        .append(text.substring(0, part.getFromSrc()).getBytes(UTF_8).length).append('-')
+                        .append(text.substring(0, part.getToSrc()).getBytes(UTF_8).length).append(':')
+                        .append(part.isMatched()).append(':').append(part.getDst()).append(' '));
+        return builder.toString();
+    }
+
+    private static String actual(ByteBuffer buffer, Pattern pattern, String replacement) {
+        StringBuilder builder = new StringBuilder();
+        ByteRegex.replace(buffer, pattern, replacement, (part, fromByte, toByte) ->
+                builder.append(part.getFromSrc()).append('-').append(part.getToSrc()).append(':')
+                        .append(fromByte).append('-').append(toByte).append(':')
+                        .append(part.isMatched()).append(':').append(part.getDst()).append(' '));
+        return builder.toString();
+    }
+
+    @Test
+    public void testSameAsString() throws Exception {
+        Random random = new Random(0);
+        String[][] cases = {{"a+", "<$0>"}, {"\\w+", "$0"}, {"(\u0416+)|(\u00E9)", "[$1$2]"}, {".\\n", "$0$0"}, {"\uD83D\uDE00", ":)"}, {"(?<=b)a", "A"}};
+        for (int i = 0; i < 200; i++) {
+            String text = randomText(random, random.nextInt(300));
+            for (String[] test : cases) {
+                Pattern pattern = Pattern.compile(test[0]);
+                assertEquals(test[0] + " on " + text, actual(buffer(text), pattern, test[1]), expected(text, pattern, test[1]));
+            }
+        }
+    }
+
+    @Test
+    public void testUtf8Text() throws Exception {
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            String text = randomText(random, random.nextInt(500));
+            ByteBuffer buffer = buffer(text);
+            Utf8Text utf8Text = new Utf8Text(buffer);
+            assertEquals(utf8Text.length(), text.length());
+            assertEquals(utf8Text.byteLength(), buffer.remaining());
+            assertEquals(utf8Text.toString(), text);
+            // random access
+            for (int j = 0; j < 100 && text.length() > 0; j++) {
+                int index = random.nextInt(text.length());
+                assertEquals(utf8Text.charAt(index), text.charAt(index));
+                int codePointStart = index > 0 && Character.isLowSurrogate(text.charAt(index)) ? index - 1 : index;
+                assertEquals(utf8Text.byteOffset(index), text.substring(0, codePointStart).getBytes(UTF_8).length);
+            }
+            assertEquals(utf8Text.byteOffset(text.length()), buffer.remaining());
+        }
+    }
+
+    @Test
+    public void testAscii() throws Exception {
+        assertEquals(new Utf8Text(buffer("plain ascii text, 0123456789")).isAscii(), true);
+        assertEquals(new Utf8Text(buffer("plain ascii text\u00E9")).isAscii(), false);
+        assertEquals(new Utf8Text(buffer("")).length(), 0);
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        // lone lead byte, continuation byte, overlong, encoded surrogate, truncated sequence
+        byte[] bytes = {'a', (byte) 0xC3, 'b', (byte) 0x80, (byte) 0xC0, (byte) 0xAF, (byte) 0xED, (byte) 0xA0, (byte) 0x80, (byte) 0xE2, (byte) 0x82};
+        Utf8Text text = new Utf8Text(ByteBuffer.wrap(bytes));
+        assertEquals(text.toString(), "a\uFFFDb\uFFFD\uFFFD\uFFFD\uFFFD\uFFFD\uFFFD\uFFFD\uFFFD");
+        assertEquals(text.byteOffset(2), 2);
+    }
+
+    @Test
+    public void testReplaceToChannel() throws Exception {
+        Random random = new Random(2);
+        for (int i = 0; i < 50; i++) {
+            String text = randomText(random, random.nextInt(3000));
+            for (String[] test : new String[][]{{"\u0416+", "<$0>"}, {"a", "$0"}, {"b+", ""}}) {
+                Pattern pattern = Pattern.compile(test[0]);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ByteRegex.replace(buffer(text), pattern, PatternCache.getDefault().getTemplate(pattern, test[1]), Channels.newChannel(out), new Regex.CancellationSignalFake());
+                assertEquals(new String(out.toByteArray(), UTF_8), Regex.replace(text, pattern, test[1]));
+            }
+        }
+    }
+
+    @Test
+    public void testMappedFile() throws Exception {
+        String text = randomText(new Random(3), 20000);
+        File file = File.createTempFile("ByteRegexUnitTest", ".txt");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(text.getBytes(UTF_8));
+            out.close();
+            Pattern pattern = Pattern.compile("\u20AC\\w*");
+            StringBuilder builder = new StringBuilder();
+            ByteRegex.find(file, pattern, (part, fromByte, toByte) -> {
+                if (part.isMatched()) builder.append(fromByte).append('-').append(toByte).append(' ');
+            });
+            StringBuilder expected = new StringBuilder();
+            Regex.findParts(text, pattern, part -> {
+                if (part.isMatched()) expected.append(text.substring(0, part.getFromSrc()).getBytes(UTF_8).length).append('-')
+                        .append(text.substring(0, part.getToSrc()).getBytes(UTF_8).length).append(' ');
+            });
+            assertEquals(builder.toString(), expected.toString());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package ru.lazard.rxregex;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ *
+ */
+public class FinderUnitTest {
+
+    private static String randomText(int length, long seed) {
+        Random random = new Random(seed);
+        StringBuilder builder = new StringBuilder(length);
+        String alphabet = "abcab.x \n";
+        for (int i = 0; i < length; i++) builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return builder.toString();
+    }
+
+    private static String matches(Finder finder) {
+        StringBuilder builder = new StringBuilder();
+        while (finder.find()) {
+            MatchResult match = finder.result();
+            builder.append(match.start()).append('-').append(match.end());
+            for (int group = 1; group <= match.groupCount(); group++) builder.append(',').append(match.start(group));
+            builder.append(' ');
+        }
+        return builder.toString();
+    }
+
+    private static String matches(Matcher matcher) {
+        StringBuilder builder = new StringBuilder();
+        while (matcher.find()) {
+            builder.append(matcher.start()).append('-').append(matcher.end());
+            for (int group = 1; group <= matcher.groupCount(); group++) builder.append(',').append(matcher.start(group));
+            builder.append(' ');
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void testAnalysis() throws Exception {
+        assertEquals(PatternAnalysis.literal(Pattern.compile("abc")), "abc");
+        assertEquals(PatternAnalysis.literal(Pattern.compile("a\\.b\\\\")), "a.b\\");
+        assertEquals(PatternAnalysis.literal(Pattern.compile("a.b", Pattern.LITERAL)), "a.b");
+        assertNull(PatternAnalysis.literal(Pattern.compile("a.b")));
+        assertNull(PatternAnalysis.literal(Pattern.compile("a\\db")));
+        assertNull(PatternAnalysis.literal(Pattern.compile("abc", Pattern.CASE_INSENSITIVE)));
+        assertNull(PatternAnalysis.literal(Pattern.compile("")));
+
+        assertEquals(PatternAnalysis.requiredPrefix(Pattern.compile("ERROR: .*")), "ERROR: ");
+        assertEquals(PatternAnalysis.requiredPrefix(Pattern.compile("abc?")), "ab");
+        assertEquals(PatternAnalysis.requiredPrefix(Pattern.compile("ab+c")), "ab");
+        assertEquals(PatternAnalysis.requiredPrefix(Pattern.compile("a\\.(b|c)")), "a.");
+        assertNull(PatternAnalysis.requiredPrefix(Pattern.compile("ab|cd")));
+        assertNull(PatternAnalysis.requiredPrefix(Pattern.compile("a*b")));
+        assertNull(PatternAnalysis.requiredPrefix(Pattern.compile("\\Gab")));
+        assertNull(PatternAnalysis.requiredPrefix(Pattern.compile("ab.", Pattern.CASE_INSENSITIVE)));
+        assertEquals(PatternAnalysis.requiredPrefix(Pattern.compile("a(b|c)[|]")), "a");
+    }
+
+    @Test
+    public void testSameAsMatcher() throws Exception {
+        String[] regexes = {"ab", "a.b", "abcab.ab", "ab.x ab", "a\\.b", "ab\\w*", "ab(c|a)?", "ab(?=c)", "(?<=b)ab", "ab\\b",
+                "ab$", "^ab", "x+", "ba+b"};
+        for (String regex : regexes) {
+            for (int flags : new int[]{0, Pattern.MULTILINE, Pattern.LITERAL}) {
+                Pattern pattern = Pattern.compile(regex, flags);
+                for (long seed = 0; seed < 5; seed++) {
+                    String text = randomText(3000, seed);
+                    assertEquals(regex + " " + flags, matches(Finder.create(pattern, text)), matches(pattern.matcher(text)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLongLiteral() throws Exception {
+        String literal = "needle in haystack";
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100; i++) builder.append("needle in haystac needle in haystack ").append((char) (i + 256 + 'k')).append(i);
+        String text = builder.toString();
+        Pattern pattern = Pattern.compile(literal, Pattern.LITERAL);
+        assertEquals(matches(Finder.create(pattern, text)), matches(pattern.matcher(text)));
+        assertEquals(Regex.replace(text, pattern, "N"), text.replace(literal, "N"));
+    }
+}
@@ -0,0 +1,164 @@
+package ru.lazard.rxregex;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.reactivex.schedulers.Schedulers;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ */
+public class GrepRegexUnitTest {
+
+    private static final ExecutorService sExecutor = Executors.newFixedThreadPool(4);
+
+    @AfterClass
+    public static void shutdown() {
+        sExecutor.shutdown();
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        String alphabet = "abcxy \n\n\r";
+        for (int i = 0; i < length; i++) builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return builder.toString();
+    }
+
+    private static String describe(GrepRegex.Line line) {
+        StringBuilder builder = new StringBuilder().append(line).append('@').append(line.getOffset());
+        for (int i = 0; i < line.getMatchCount(); i++) builder.append(' ').append(line.getMatchStart(i)).append('-').append(line.getMatchEnd(i));
+        return builder.append('\n').toString();
+    }
+
+    /**
+     * Straightforward grep: all lines in memory, context by line indexes.
+     */
+    private static String expected(String text, Pattern pattern, boolean invert, long maxCount, int before, int after) {
+        List<String> lines = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            int next = end < 0 ? text.length() : end + 1;
+            if (end < 0) end = text.length();
+            String line = text.substring(start, end);
+            if (line.endsWith("\r") && end < text.length()) line = line.substring(0, line.length() - 1);
+            lines.add(line);
+            offsets.add(start);
+            start = next;
+        }
+        boolean[] selected = new boolean[lines.size()];
+        boolean[] shown = new boolean[lines.size()];
+        long count = 0;
+        int last = lines.size() - 1;
+        for (int i = 0; i < lines.size() && count < maxCount; i++) {
+            if (pattern.matcher(lines.get(i)).find() != invert) {
+                selected[i] = true;
+                count++;
+                last = Math.min(lines.size() - 1, i + after);
+            }
+        }
+        if (count < maxCount) last = lines.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            if (!selected[i]) continue;
+            for (int j = Math.max(0, i - before); j <= Math.min(last, i + after); j++) shown[j] = true;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i <= last; i++) {
+            if (!shown[i]) continue;
+            String line = lines.get(i);
+            builder.append(i + 1).append(selected[i] ? ':' : '-').append(line).append('@').append(offsets.get(i));
+            Matcher matcher = pattern.matcher(line);
+            while (matcher.find()) builder.append(' ').append(matcher.start()).append('-').append(matcher.end());
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static String actual(Reader reader, GrepRegex grep, boolean parallel) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        grep.run(reader, parallel ? sExecutor : Runnable::run, line -> builder.append(describe(line)), new Regex.CancellationSignalFake());
+        return builder.toString();
+    }
+
+    @Test
+    public void testSameAsNaive() throws Exception {
+        Random random = new Random(5);
+        String[] patterns = {"a", "ab", "x+y", "^b", "c$", "(?<=a)b", "a|y", "\\s", "q"};
+        for (int i = 0; i < 60; i++) {
+            String text = randomText(random, random.nextInt(3000));
+            for (String regex : patterns) {
+                Pattern pattern = Pattern.compile(regex);
+                boolean invert = random.nextBoolean();
+                long maxCount = random.nextInt(4) == 0 ? random.nextInt(20) : Long.MAX_VALUE;
+                int before = random.nextInt(3);
+                int after = random.nextInt(3);
+                GrepRegex grep = new GrepRegex(pattern).setInvertMatch(invert).setMaxCount(maxCount).setContext(before, after)
+                        .setBatchLines(1 + random.nextInt(40));
+                String expected = expected(text, pattern, invert, maxCount, before, after);
+                String message = regex + " invert " + invert + " max " + maxCount + " context " + before + "," + after;
+                assertEquals(message, actual(new StringReader(text), grep, false), expected);
+                assertEquals(message, actual(new StringReader(text), grep, true), expected);
+            }
+        }
+    }
+
+    @Test
+    public void testLineEnds() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        new GrepRegex(Pattern.compile("")).run("a\r\n\nb\r\nc\n", line -> builder.append(describe(line)));
+        assertEquals(builder.toString(), "1:a@0 0-0 1-1\n2:@3 0-0\n3:b@4 0-0 1-1\n4:c@7 0-0 1-1\n");
+        builder.setLength(0);
+        new GrepRegex(Pattern.compile("x")).run("", line -> builder.append(describe(line)));
+        assertEquals(builder.toString(), "");
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        // reader returns few chars per call, lines cross reads
+        String text = randomText(new Random(6), 100000);
+        Reader reader = new StringReader(text) {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                return super.read(buffer, offset, Math.min(length, 7));
+            }
+        };
+        Pattern pattern = Pattern.compile("ab+c");
+        GrepRegex grep = new GrepRegex(pattern).setContext(1, 1).setBatchLines(50);
+        assertEquals(actual(reader, grep, true), expected(text, pattern, false, Long.MAX_VALUE, 1, 1));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        String text = randomText(new Random(8), 50000);
+        Regex.CancellationSignalImpl cancellationSignal = new Regex.CancellationSignalImpl();
+        int[] count = new int[1];
+        new GrepRegex(Pattern.compile("a")).setBatchLines(10).run(new StringReader(text), sExecutor, line -> {
+            if (++count[0] == 5) cancellationSignal.cancel();
+        }, cancellationSignal);
+        assertEquals(count[0], 5);
+    }
+
+    @Test
+    public void testRx() throws Exception {
+        String text = randomText(new Random(9), 20000);
+        Pattern pattern = Pattern.compile("xy");
+        StringBuilder builder = new StringBuilder();
+        RxRegex.grep(() -> new StringReader(text), new GrepRegex(pattern).setMaxCount(30), Schedulers.computation())
+                .blockingForEach(line -> builder.append(describe(line)));
+        assertEquals(builder.toString(), expected(text, pattern, false, 30, 0, 0));
+    }
+}
@@ -0,0 +1,135 @@
+package ru.lazard.rxregex;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ *
+ */
+public class LinearRegexEngineUnitTest {
+
+    private static final String[] TEXT_PARTS = {"a", "b", "c", "1", " ", "\n", "\uD83D\uDE00", "\uD83D", "\uDE00", "ab"};
+    private static final String[] ATOMS = {"a", "b", "c", ".", "[ab]", "[^a]", "[a-c1]", "\\d", "\\w", "\\s", "\\S", "\\W", "\\.", "\\n", "[^\\s]"};
+    private static final String[] QUANTIFIERS = {"", "", "", "*", "+", "?", "{2}", "{1,3}", "*?", "+?", "??", "{0,2}?"};
+
+    private static String randomText(Random random, int parts) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < parts; i++) builder.append(TEXT_PARTS[random.nextInt(TEXT_PARTS.length)]);
+        return builder.toString();
+    }
+
+    private static String randomRegex(Random random, int depth) {
+        StringBuilder builder = new StringBuilder();
+        int count = 1 + random.nextInt(2);
+        for (int i = 0; i < count; i++) {
+            int kind = depth > 0 ? random.nextInt(5) : 0;
+            if (kind == 1) builder.append('(').append(randomRegex(random, depth - 1)).append(')');
+            else if (kind == 2) builder.append("(?:").append(randomRegex(random, depth - 1)).append('|').append(randomRegex(random, depth - 1)).append(')');
+            else if (kind == 3) builder.append('(').append(randomRegex(random, depth - 1)).append('|').append(randomRegex(random, depth - 1)).append(')');
+            else builder.append(ATOMS[random.nextInt(ATOMS.length)]);
+            builder.append(QUANTIFIERS[random.nextInt(QUANTIFIERS.length)]);
+        }
+        return builder.toString();
+    }
+
+    private static String matches(MatchResult match, boolean found) {
+        if (!found) return "";
+        StringBuilder builder = new StringBuilder();
+        builder.append(match.start()).append('-').append(match.end());
+        for (int group = 1; group <= match.groupCount(); group++) builder.append(',').append(match.start(group)).append('-').append(match.end(group));
+        return builder.append(' ').toString();
+    }
+
+    private static String matches(RegexEngine.Search search) {
+        StringBuilder builder = new StringBuilder();
+        while (search.find()) builder.append(matches(search.result(), true));
+        return builder.toString();
+    }
+
+    private static String matches(Matcher matcher) {
+        StringBuilder builder = new StringBuilder();
+        while (matcher.find()) builder.append(matches(matcher, true));
+        return builder.toString();
+    }
+
+    @Test
+    public void testSameAsMatcher() throws Exception {
+        Random random = new Random(0);
+        int supported = 0;
+        for (int i = 0; i < 3000; i++) {
+            Pattern pattern = Pattern.compile(randomRegex(random, 2), random.nextInt(4) == 0 ? Pattern.DOTALL : 0);
+            RegexEngine.Search search = RegexEngines.LINEAR.search(pattern, "");
+            if (search == null) continue;
+            supported++;
+            for (int j = 0; j < 5; j++) {
+                String text = randomText(random, random.nextInt(40));
+                assertEquals(pattern.pattern() + " on " + text, matches(RegexEngines.LINEAR.search(pattern, text)), matches(pattern.matcher(text)));
+            }
+        }
+        assertEquals(supported > 1500, true);
+    }
+
+    @Test
+    public void testSupported() throws Exception {
+        String[] supported = {"abc", "a.b", "(a|b)+c", "(?<name>x\\d{2,5})", "[^\\n]*", "\\x41\\u0042\\0101\\t", "a+?b", "(?:ab)*"};
+        String[] unsupported = {"^a", "a$", "\\bx", "(?=a)", "(?<=a)b", "(a)\\1", "a*+", "(?i)a", "(a*)*", "(a?)+", "[a&&b]", "\\p{L}", "(c|(\\s)+)+"};
+        for (String regex : supported) assertEquals(regex, RegexEngines.LINEAR.isSupported(Pattern.compile(regex)), true);
+        for (String regex : unsupported) assertEquals(regex, RegexEngines.LINEAR.isSupported(Pattern.compile(regex)), false);
+        assertNull(RegexEngines.LINEAR.search(Pattern.compile("a", Pattern.CASE_INSENSITIVE), "A"));
+    }
+
+    @Test
+    public void testStaleGroups() throws Exception {
+        // Matcher keeps groups of backed off iterations of repeated fixed group, such patterns are left to it
+        assertEquals(Regex.replace("1a", "((a))*(a+?)", "[$2]"), "1[a]");
+        String[][] cases = {{"((a))*(a+?)", "1a"}, {"(((a))+a+?)", "baaa1aa"}, {"(?:(a))*a", "aa"}, {"((a)b){2}|a", "aba"}, {"(?:(a)b){1}c|a", "abac"}};
+        for (String[] test : cases) {
+            Pattern pattern = Pattern.compile(test[0]);
+            assertNull(test[0], RegexEngines.LINEAR.search(pattern, test[1]));
+        }
+    }
+
+    @Test
+    public void testSameParts() throws Exception {
+        Random random = new Random(1);
+        String text = randomText(random, 5000);
+        String[] regexes = {"a+", "(a|b)c", "(\\w)(\\d)?", "[^ab]+?c", ".b.", "\\S+"};
+        for (String regex : regexes) {
+            Pattern pattern = Pattern.compile(regex);
+            String replacement = pattern.matcher("").groupCount() > 0 ? "<$1>" : "<$0>";
+            StringBuilder linear = new StringBuilder();
+            StringBuilder java = new StringBuilder();
+            Regex.Listener listener = (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) ->
+                    linear.append(fromSrc).append(',').append(toSrc).append(',').append(appendDst).append(',').append(isMatched).append(';');
+            Regex.replace(text, pattern, replacement, listener);
+            RegexEngines.setDefault(RegexEngines.JAVA);
+            try {
+                Regex.replace(text, pattern, replacement, (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) ->
+                        java.append(fromSrc).append(',').append(toSrc).append(',').append(appendDst).append(',').append(isMatched).append(';'));
+            } finally {
+                RegexEngines.setDefault(RegexEngines.LINEAR);
+            }
+            assertEquals(regex, linear.toString(), java.toString());
+        }
+    }
+
+    @Test
+    public void testNoBacktracking() throws Exception {
+        // exponential for backtracking matcher
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 10000; i++) builder.append('a');
+        String text = builder.toString();
+        Pattern pattern = Pattern.compile("((a+)+)+b");
+        long start = System.nanoTime();
+        assertEquals(Regex.replace(text, pattern, "x"), text);
+        assertEquals(Regex.replace(text + "b", pattern, "<$2>"), pattern.matcher(text + "b").replaceAll("<$2>"));
+        assertEquals(System.nanoTime() - start < 5000000000L, true);
+    }
+}
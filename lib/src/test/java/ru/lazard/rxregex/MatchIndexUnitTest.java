@@ -0,0 +1,164 @@
+package ru.lazard.rxregex;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ *
+ */
+public class MatchIndexUnitTest {
+
+    private static void check(String regex, String text) {
+        Pattern pattern = Pattern.compile(regex);
+        MatchIndex index = Regex.findAll(text, pattern, true);
+        List<int[]> matches = new ArrayList<>();
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            int[] match = new int[2 + matcher.groupCount() * 2];
+            for (int group = 0; group <= matcher.groupCount(); group++) {
+                match[group * 2] = matcher.start(group);
+                match[group * 2 + 1] = matcher.end(group);
+            }
+            matches.add(match);
+        }
+        assertEquals(index.size(), matches.size());
+        assertEquals(index.groupCount(), matcher.groupCount());
+        for (int k = 0; k < matches.size(); k++) {
+            for (int group = 0; group <= index.groupCount(); group++) {
+                assertEquals(index.start(k, group), matches.get(k)[group * 2]);
+                assertEquals(index.end(k, group), matches.get(k)[group * 2 + 1]);
+            }
+        }
+        for (int from = 0; from <= text.length(); from++) {
+            int containing = -1;
+            int ceiling = matches.size();
+            for (int k = matches.size() - 1; k >= 0; k--) {
+                int[] match = matches.get(k);
+                if (match[0] <= from && from < match[1]) containing = k;
+                if (match[0] >= from) ceiling = k;
+            }
+            assertEquals(regex + " " + from, index.indexAt(from), containing);
+            assertEquals(regex + " " + from, index.ceilingIndex(from), ceiling);
+            for (int to = from; to <= text.length(); to++) {
+                int overlapping = 0;
+                int within = 0;
+                int first = -1;
+                for (int k = 0; k < matches.size(); k++) {
+                    int[] match = matches.get(k);
+                    boolean overlaps = match[0] == match[1] ? from <= match[0] && match[0] < to : match[0] < to && match[1] > from;
+                    if (overlaps) {
+                        if (first < 0) first = k;
+                        overlapping++;
+                    }
+                    if (match[0] >= from && match[1] <= to) within++;
+                }
+                String message = regex + " [" + from + ", " + to + ")";
+                assertEquals(message, index.countOverlapping(from, to), overlapping);
+                assertEquals(message, index.firstOverlapping(from, to), first);
+                assertEquals(message, index.countWithin(from, to), within);
+            }
+        }
+    }
+
+    @Test
+    public void testQueries() throws Exception {
+        Random random = new Random(1);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 120; i++) builder.append("aabx ".charAt(random.nextInt(5)));
+        String text = builder.toString();
+        check("a+", text);
+        check("(a)(b)?", text);
+        check("ab", text);
+        check("a*", text);
+        check("q", text);
+    }
+
+    @Test
+    public void testWithoutGroups() throws Exception {
+        MatchIndex index = Regex.findAll("a1b22c333", Pattern.compile("(\\d)+"));
+        assertEquals(index.size(), 3);
+        assertEquals(index.groupCount(), -1);
+        assertEquals(index.start(2), 6);
+        assertEquals(index.end(2), 9);
+        assertEquals(index.start(1, 0), 3);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGroupsNotRecorded() throws Exception {
+        Regex.findAll("a1", Pattern.compile("(\\d)")).start(0, 1);
+    }
+
+    @Test
+    public void testFile() throws Exception {
+        File source = File.createTempFile("source", ".txt");
+        File indexFile = File.createTempFile("source", ".idx");
+        try {
+            Charset charset = Charset.forName("UTF-8");
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < 20000; i++) builder.append("line ").append(i).append(i % 7 == 0 ? " ERROR \u0416\n" : " ok\n");
+            write(source, builder.toString(), charset);
+            Pattern pattern = Pattern.compile("(\\d+) (ERROR)");
+
+            MatchIndex created = MatchIndexFile.create(source, charset, pattern, true, indexFile);
+            MatchIndex opened = MatchIndexFile.open(indexFile, source, charset, pattern);
+            assertEquals(opened.size(), created.size());
+            assertEquals(opened.groupCount(), 2);
+            for (int k = 0; k < created.size(); k++) {
+                assertEquals(opened.start(k), created.start(k));
+                assertEquals(opened.end(k), created.end(k));
+                assertEquals(opened.start(k, 1), created.start(k, 1));
+                assertEquals(opened.end(k, 2), created.end(k, 2));
+            }
+            assertEquals(opened.countWithin(1000, 50000), created.countWithin(1000, 50000));
+            assertEquals(opened.size(), Regex.findAll(builder.toString(), pattern).size());
+
+            assertNull(MatchIndexFile.open(indexFile, source, charset, Pattern.compile("(\\d+) (ERROR)", Pattern.CASE_INSENSITIVE)));
+            assertNull(MatchIndexFile.open(indexFile, source, Charset.forName("UTF-16"), pattern));
+
+            builder.setCharAt(0, 'L');
+            write(source, builder.toString(), charset);
+            assertNull(MatchIndexFile.open(indexFile, source, charset, pattern));
+            assertEquals(MatchIndexFile.openOrCreate(source, charset, pattern, false, indexFile).size(), created.size());
+            assertNotNull(MatchIndexFile.open(indexFile, source, charset, pattern));
+
+            // the same length and modification time, edit in the middle of file
+            long modified = source.lastModified();
+            int middle = builder.indexOf("ERROR", builder.length() / 2);
+            builder.replace(middle, middle + 5, "error");
+            write(source, builder.toString(), charset);
+            assertEquals(source.setLastModified(modified), true);
+            assertNull(MatchIndexFile.open(indexFile, source, charset, pattern));
+        } finally {
+            source.delete();
+            indexFile.delete();
+        }
+    }
+
+    private static void write(File file, String text, Charset charset) throws Exception {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), charset);
+        writer.write(text);
+        writer.close();
+    }
+
+    @Test
+    public void testRxFindAll() throws Exception {
+        RxRegex.findAll("abcabc", Pattern.compile("b"), false)
+                .test()
+                .assertValue(index -> index.size() == 2 && index.start(1) == 4)
+                .assertComplete();
+    }
+}
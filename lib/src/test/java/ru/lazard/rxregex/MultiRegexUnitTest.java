@@ -0,0 +1,181 @@
+package ru.lazard.rxregex;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ */
+public class MultiRegexUnitTest {
+
+    private static String randomText(int length, long seed) {
+        Random random = new Random(seed);
+        StringBuilder builder = new StringBuilder(length);
+        String alphabet = "abcABx1 \n";
+        for (int i = 0; i < length; i++) builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return builder.toString();
+    }
+
+    /**
+     * Rules applied by separate matchers, one search per rule at each step.
+     */
+    private static String expected(String text, MultiRegex.Rule[] rules) {
+        StringBuilder builder = new StringBuilder();
+        Matcher[] matchers = new Matcher[rules.length];
+        for (int i = 0; i < rules.length; i++) matchers[i] = rules[i].getPattern().matcher(text);
+        int pos = 0;
+        int appendPos = 0;
+        while (pos <= text.length()) {
+            int best = -1;
+            for (int i = 0; i < rules.length; i++) {
+                if (!matchers[i].find(pos)) continue;
+                if (best < 0 || matchers[i].start() < matchers[best].start()) best = i;
+            }
+            if (best < 0) break;
+            Matcher matcher = matchers[best];
+            builder.append(text, appendPos, matcher.start()).append('<').append(best).append(':');
+            builder.append(ReplacementTemplate.compile(rules[best].getReplacement(), rules[best].getPattern()).evaluate(text, matcher)).append('>');
+            appendPos = matcher.end();
+            pos = matcher.end() == matcher.start() ? matcher.end() + 1 : matcher.end();
+        }
+        return builder.append(text, appendPos, text.length()).toString();
+    }
+
+    private static String actual(String text, MultiRegex multiRegex) {
+        StringBuilder builder = new StringBuilder();
+        multiRegex.replace(text, (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount, ruleIndex) -> {
+            if (isMatched) builder.append('<').append(ruleIndex).append(':').append(appendDst).append('>');
+            else builder.append(appendDst);
+        });
+        return builder.toString();
+    }
+
+    @Test
+    public void testReplace() throws Exception {
+        MultiRegex multiRegex = MultiRegex.compile(
+                new MultiRegex.Rule("cat", "dog"),
+                new MultiRegex.Rule("(\\d+)-(\\d+)", "$2-$1"),
+                new MultiRegex.Rule("red", "blue"));
+        assertEquals(multiRegex.replace("red cat 12-34 cat"), "blue dog 34-12 dog");
+        assertEquals(multiRegex.replace("nothing"), "nothing");
+        assertEquals(multiRegex.replace(""), "");
+    }
+
+    @Test
+    public void testPriority() throws Exception {
+        // leftmost match wins, then lowest rule index
+        MultiRegex multiRegex = MultiRegex.compile(
+                new MultiRegex.Rule("bc", "1"),
+                new MultiRegex.Rule("abc", "2"),
+                new MultiRegex.Rule("ab", "3"),
+                new MultiRegex.Rule("b\\w+", "4"));
+        assertEquals(actual("abcd", multiRegex), "<1:2>d");
+        assertEquals(actual("xbcd", multiRegex), "x<0:1>d");
+        assertEquals(actual("xbdd", multiRegex), "x<3:4>");
+        assertEquals(actual("abd", multiRegex), "<2:3>d");
+    }
+
+    @Test
+    public void testListener() throws Exception {
+        MultiRegex multiRegex = MultiRegex.compile(new MultiRegex.Rule("a", "AA"), new MultiRegex.Rule("b+", "B"));
+        StringBuilder calls = new StringBuilder();
+        multiRegex.replace("xaybbz", (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount, ruleIndex) ->
+                calls.append(fromSrc).append(toSrc).append(fromDst).append(toDst).append(isMatched ? "+" : "-").append(matchedCount).append(ruleIndex).append(' '));
+        assertEquals(calls.toString(), "0101-1-1 1213+10 2334-2-1 3545+21 5656-2-1 ");
+    }
+
+    @Test
+    public void testFlagsAndGroups() throws Exception {
+        MultiRegex multiRegex = MultiRegex.compile(
+                new MultiRegex.Rule("HELLO", Pattern.CASE_INSENSITIVE, "hi"),
+                new MultiRegex.Rule("^(\\w)(\\w)$", Pattern.MULTILINE, "$2$1"),
+                new MultiRegex.Rule("(?<word>x+)", "[${word}]"),
+                new MultiRegex.Rule("(y)\\1", "Y"),
+                new MultiRegex.Rule("a.b  # comment", Pattern.COMMENTS | Pattern.DOTALL, "_"),
+                new MultiRegex.Rule("c.d", Pattern.LITERAL, "-"));
+        assertEquals(multiRegex.replace("Hello\nab\nxx yy y a\nb c.d c-d"), "hi\nba\n[xx] Y y _ - c-d");
+    }
+
+    @Test
+    public void testManyLiterals() throws Exception {
+        MultiRegex.Rule[] rules = new MultiRegex.Rule[200];
+        for (int i = 0; i < rules.length; i++) rules[i] = new MultiRegex.Rule(Integer.toString(i * 7), "#" + i);
+        MultiRegex multiRegex = MultiRegex.compile(rules);
+        String text = randomText(2000, 3).replace('x', '7');
+        assertEquals(actual(text, multiRegex), expected(text, rules));
+    }
+
+    @Test
+    public void testRandom() throws Exception {
+        MultiRegex.Rule[] rules = {
+                new MultiRegex.Rule("ab", "L1"),
+                new MultiRegex.Rule("a(b|c)+", "R$1"),
+                new MultiRegex.Rule("bab", "L2"),
+                new MultiRegex.Rule("(?i)x[a-c]", "I$0"),
+                new MultiRegex.Rule("(\\w)\\1", "D$1"),
+                new MultiRegex.Rule("\\bB\\w", "W"),
+                new MultiRegex.Rule("1 ", "L3"),
+                new MultiRegex.Rule("\\d+", "N"),
+        };
+        MultiRegex multiRegex = MultiRegex.compile(Arrays.asList(rules));
+        assertEquals(multiRegex.getRuleCount(), rules.length);
+        for (long seed = 0; seed < 20; seed++) {
+            String text = randomText(500, seed);
+            assertEquals(actual(text, multiRegex), expected(text, rules));
+        }
+    }
+
+    @Test
+    public void testConcurrentScans() throws Exception {
+        // one compiled instance shared by threads, literal rules use shared automaton
+        MultiRegex.Rule[] rules = new MultiRegex.Rule[50];
+        for (int i = 0; i < rules.length; i++) rules[i] = new MultiRegex.Rule(Integer.toString(i * 13), "#" + i);
+        MultiRegex multiRegex = MultiRegex.compile(rules);
+        String sample = randomText(2000, 3).replace('x', '3');
+        assertEquals(actual(sample, multiRegex), expected(sample, rules));
+
+        // texts dense with matches, results of sequential scans are expected
+        List<String> texts = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        Random random = new Random(4);
+        for (int i = 0; i < 16; i++) {
+            StringBuilder builder = new StringBuilder();
+            for (int j = 0; j < 100000; j++) builder.append((char) ('0' + random.nextInt(10)));
+            texts.add(builder.toString());
+            expected.add(actual(builder.toString(), multiRegex));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<String>> results = new ArrayList<>();
+            for (String text : texts) {
+                results.add(executor.submit((Callable<String>) () -> {
+                    start.await();
+                    return actual(text, multiRegex);
+                }));
+            }
+            start.countDown();
+            for (int i = 0; i < texts.size(); i++) assertEquals(results.get(i).get(), expected.get(i));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyMatch() throws Exception {
+        MultiRegex.compile(new MultiRegex.Rule("a", "b"), new MultiRegex.Rule("x*", "y")).replace("aba");
+    }
+}
@@ -0,0 +1,107 @@
+package ru.lazard.rxregex;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class ParallelRegexUnitTest {
+
+    private static final ExecutorService sExecutor = Executors.newFixedThreadPool(4);
+
+    @AfterClass
+    public static void shutdown() {
+        sExecutor.shutdown();
+    }
+
+    private static String randomText(int length) {
+        Random random = new Random(7);
+        StringBuilder builder = new StringBuilder(length);
+        String alphabet = "abcxy \n";
+        for (int i = 0; i < length; i++) builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return builder.toString();
+    }
+
+    private static String calls(String text, Pattern pattern, String replacement, boolean parallel) {
+        StringBuilder calls = new StringBuilder();
+        Regex.Listener listener = (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) ->
+                calls.append(fromSrc).append(',').append(toSrc).append(',').append(appendSrc).append(',')
+                        .append(fromDst).append(',').append(toDst).append(',').append(appendDst).append(',')
+                        .append(isMatched).append(',').append(progress).append(',').append(matchedCount).append('\n');
+        ReplacementTemplate template = ReplacementTemplate.compile(replacement, pattern);
+        if (parallel) {
+            ParallelRegex.replace(text, pattern, template, sExecutor, 1000, 16, listener, new Regex.CancellationSignalImpl());
+        } else {
+            Regex.replace(text, pattern, template, listener, new Regex.CancellationSignalImpl());
+        }
+        return calls.toString();
+    }
+
+    private static void assertSameAsRegex(String text, Pattern pattern, String replacement) {
+        assertEquals(calls(text, pattern, replacement, true), calls(text, pattern, replacement, false));
+    }
+
+    @Test
+    public void testReplace() throws Exception {
+        String text = randomText(20000);
+        assertSameAsRegex(text, Pattern.compile("b+c"), "<$0>");
+        assertSameAsRegex(text, Pattern.compile("(x)(y)"), "$2$1");
+        assertSameAsRegex(text, Pattern.compile("z"), "Z");
+    }
+
+    @Test
+    public void testSeams() throws Exception {
+        String text = randomText(20000);
+        // matches longer than overlap and crossing chunk ends
+        assertSameAsRegex(text, Pattern.compile("a[^\n]*"), "_");
+        assertSameAsRegex(text, Pattern.compile("x[^y]{10,40}y"), "_");
+        assertSameAsRegex(text, Pattern.compile("a.*", Pattern.DOTALL), "_");
+        assertSameAsRegex(text, Pattern.compile("[abc ]{3,}"), "_");
+    }
+
+    @Test
+    public void testBounds() throws Exception {
+        String text = randomText(20000);
+        assertSameAsRegex(text, Pattern.compile("\\bab\\b"), "_");
+        assertSameAsRegex(text, Pattern.compile("(?<=x)y"), "_");
+        assertSameAsRegex(text, Pattern.compile("^a", Pattern.MULTILINE), "_");
+        assertSameAsRegex(text, Pattern.compile("^a"), "_");
+        assertSameAsRegex(text, Pattern.compile("c$|b$"), "_");
+        assertSameAsRegex(text, Pattern.compile("\\z"), "_");
+    }
+
+    @Test
+    public void testSplittable() throws Exception {
+        assertTrue(ParallelRegex.isSplittable(Pattern.compile("^a(?<=b)$")));
+        assertTrue(ParallelRegex.isSplittable(Pattern.compile("[G]\\\\G")));
+        assertTrue(ParallelRegex.isSplittable(Pattern.compile("\\G", Pattern.LITERAL)));
+        assertFalse(ParallelRegex.isSplittable(Pattern.compile("\\Ga")));
+        String text = randomText(5000);
+        assertSameAsRegex(text, Pattern.compile("\\G[abc]"), "_");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExceptionEmpty() throws Exception {
+        calls(randomText(5000), Pattern.compile("x*"), "_", true);
+    }
+
+    @Test
+    public void testRxParallel() throws Exception {
+        String text = randomText(3 * ParallelRegex.DEFAULT_CHUNK_SIZE);
+        Pattern pattern = Pattern.compile("(b+)c");
+        String result = RxRegex.replaceParallel(text, pattern, "<$1>", io.reactivex.schedulers.Schedulers.computation())
+                .reduce(new StringBuilder(), (builder, onAppend) -> builder.append(onAppend.getAppendDst()))
+                .blockingGet().toString();
+        assertEquals(result, Regex.replace(text, pattern, "<$1>"));
+    }
+}
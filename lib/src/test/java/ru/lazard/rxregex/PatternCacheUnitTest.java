@@ -0,0 +1,69 @@
+package ru.lazard.rxregex;
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ *
+ */
+public class PatternCacheUnitTest {
+
+    @Test
+    public void testHitMiss() throws Exception {
+        PatternCache cache = new PatternCache(4);
+        Pattern pattern = cache.get("b(c)", 0);
+        assertSame(cache.get("b(c)", 0), pattern);
+        assertEquals(cache.getMissCount(), 1);
+        assertEquals(cache.getHitCount(), 1);
+    }
+
+    @Test
+    public void testFlagsInKey() throws Exception {
+        PatternCache cache = new PatternCache(4);
+        Pattern pattern = cache.get("bc", 0);
+        Pattern patternInsensitive = cache.get("bc", Pattern.CASE_INSENSITIVE);
+        assertNotSame(pattern, patternInsensitive);
+        assertEquals(patternInsensitive.flags(), Pattern.CASE_INSENSITIVE);
+        assertEquals(cache.size(), 2);
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        PatternCache cache = new PatternCache(2);
+        cache.get("a", 0);
+        cache.get("b", 0);
+        cache.get("a", 0);  // "b" is least recently used now
+        cache.get("c", 0);
+        assertEquals(cache.size(), 2);
+        assertEquals(cache.getEvictionCount(), 1);
+        cache.get("a", 0);
+        assertEquals(cache.getHitCount(), 2);
+        cache.get("b", 0);
+        assertEquals(cache.getMissCount(), 4);
+    }
+
+    @Test
+    public void testPrewarm() throws Exception {
+        PatternCache cache = new PatternCache(2);
+        cache.prewarm("a", 0);
+        cache.get("a", 0);
+        assertEquals(cache.getMissCount(), 0);
+        assertEquals(cache.getHitCount(), 1);
+    }
+
+    @Test
+    public void testSetMaxSize() throws Exception {
+        PatternCache cache = new PatternCache(3);
+        cache.get("a", 0);
+        cache.get("b", 0);
+        cache.get("c", 0);
+        cache.setMaxSize(1);
+        assertEquals(cache.size(), 1);
+        assertEquals(cache.getEvictionCount(), 2);
+    }
+}
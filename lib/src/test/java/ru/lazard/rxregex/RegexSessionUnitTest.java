@@ -0,0 +1,117 @@
+package ru.lazard.rxregex;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ */
+public class RegexSessionUnitTest {
+
+    private static String randomText(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        String alphabet = "abcx1 \n";
+        for (int i = 0; i < length; i++) builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return builder.toString();
+    }
+
+    private static List<String> matches(String text, Pattern pattern) {
+        List<String> matches = new ArrayList<>();
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) matches.add(matcher.start() + "-" + matcher.end());
+        return matches;
+    }
+
+    private static List<String> matches(RegexSession session) {
+        List<String> matches = new ArrayList<>();
+        for (int i = 0; i < session.getMatchCount(); i++) matches.add(session.getMatchFromSrc(i) + "-" + session.getMatchToSrc(i));
+        return matches;
+    }
+
+    private static void check(String regex, String replacement, long seed) {
+        Random random = new Random(seed);
+        Pattern pattern = Pattern.compile(regex);
+        String text = randomText(random, 2000);
+        RegexSession session = new RegexSession(text, pattern, PatternCache.getDefault().getTemplate(pattern, replacement), 32);
+        String result = session.getResult();
+        assertEquals(result, Regex.replace(text, pattern, replacement));
+        for (int step = 0; step < 300; step++) {
+            int offset = random.nextInt(text.length() + 1);
+            int removed = random.nextInt(Math.min(text.length() - offset, 20) + 1);
+            String inserted = randomText(random, random.nextInt(step % 10 == 0 ? 100 : 5));
+            List<String> oldMatches = matches(session);
+
+            RegexSession.Diff diff = session.edit(offset, removed, inserted);
+            text = text.substring(0, offset) + inserted + text.substring(offset + removed);
+            result = result.substring(0, diff.getDstOffset()) + diff.getDstInsertedText() + result.substring(diff.getDstOffset() + diff.getDstRemovedLength());
+
+            String message = regex + " seed " + seed + " step " + step;
+            assertEquals(message, session.getText().toString(), text);
+            assertEquals(message, matches(session), matches(text, pattern));
+            assertEquals(message, result, Regex.replace(text, pattern, replacement));
+            assertEquals(message, session.getResult(), result);
+            StringBuilder dstOffsets = new StringBuilder();
+            for (int i = 0; i < session.getMatchCount(); i++) dstOffsets.append(session.getMatchFromDst(i)).append('-').append(session.getMatchToDst(i)).append(' ');
+            StringBuilder expectedDstOffsets = new StringBuilder();
+            Regex.replace(text, pattern, replacement, (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) -> {
+                if (isMatched) expectedDstOffsets.append(fromDst).append('-').append(toDst).append(' ');
+            });
+            assertEquals(message, dstOffsets.toString(), expectedDstOffsets.toString());
+            for (int i = 0; i < diff.getRemovedCount(); i++) {
+                assertEquals(message, oldMatches.remove(diff.getRemovedFromSrc(i) + "-" + diff.getRemovedToSrc(i)), true);
+            }
+            assertEquals(message, oldMatches.size() + diff.getAddedCount(), session.getMatchCount());
+            for (int i = 0; i < diff.getAddedCount(); i++) {
+                assertEquals(message, result.substring(diff.getAddedFromDst(i), diff.getAddedToDst(i)), diff.getAddedDst(i));
+            }
+        }
+    }
+
+    @Test
+    public void testEdits() throws Exception {
+        for (long seed = 0; seed < 3; seed++) {
+            check("a+", "<$0>", seed);
+            check("(a|b)c", "$1", seed);
+            check("\\bx\\w*", "", seed);
+            check("(?<=c)a(?=b)", "AAA", seed);
+            check("1[^\\n]*$", "#", seed);
+            check("\\Gab", "_", seed);
+        }
+    }
+
+    @Test
+    public void testDiff() throws Exception {
+        RegexSession session = new RegexSession("cat dog cat", Pattern.compile("cat"), "tiger");
+        assertEquals(session.getResult(), "tiger dog tiger");
+        RegexSession.Diff diff = session.edit(4, 3, "cat");
+        assertEquals(session.getResult(), "tiger tiger tiger");
+        assertEquals(diff.getRemovedCount(), 0);
+        assertEquals(diff.getAddedCount(), 1);
+        assertEquals(diff.getAddedToSrc(0), 7);
+        assertEquals(diff.getAddedFromSrc(0), 4);
+        assertEquals(diff.getAddedFromDst(0), 6);
+        assertEquals(diff.getAddedDst(0), "tiger");
+        assertEquals(diff.getDstOffset(), 6);
+        assertEquals(diff.getDstRemovedLength(), 3);
+        assertEquals(diff.getDstInsertedText(), "tiger");
+
+        diff = session.edit(0, 1, "");
+        assertEquals(session.getResult(), "at tiger tiger");
+        assertEquals(diff.getRemovedCount(), 1);
+        assertEquals(diff.getRemovedFromDst(0), 0);
+        assertEquals(diff.getRemovedToDst(0), 5);
+        assertEquals(session.getMatchFromDst(1), 9);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testWrongEdit() throws Exception {
+        new RegexSession("abc", Pattern.compile("b"), "B").edit(2, 2, "");
+    }
+}
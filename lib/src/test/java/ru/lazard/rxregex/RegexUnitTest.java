@@ -2,7 +2,15 @@ package ru.lazard.rxregex;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -97,6 +105,216 @@ public class RegexUnitTest {
         assertArrayEquals(calls, new String[]{"bc"});
     }
 
+    @Test
+    public void testReplacePattern() throws Exception {
+        String result = Regex.replace("abcd", Pattern.compile("(BC)", Pattern.CASE_INSENSITIVE), "_$1_");
+        assertEquals(result, "a_bc_d");
+    }
+
+    @Test
+    public void testReplaceListenerFlags() throws Exception {
+        StringBuffer buffer = new StringBuffer();
+        Regex.replace("abcd", "BC", "_", Pattern.CASE_INSENSITIVE, (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) ->
+                buffer.append(appendDst));
+        assertEquals(buffer.toString(), "a_d");
+    }
+
+    @Test
+    public void testReplaceSink() throws Exception {
+        Pattern pattern = Pattern.compile("(b)(c)");
+        StringBuilder builder = new StringBuilder();
+        Regex.replace("abcdbc", pattern, "_$2$1_", builder);
+        assertEquals(builder.toString(), "a_cb_d_cb_");
+
+        StringWriter writer = new StringWriter();
+        Regex.replace("abcdbc", pattern, "_$2$1_", writer);
+        assertEquals(writer.toString(), "a_cb_d_cb_");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Regex.replace("abcd\u044Fbc", pattern, ReplacementTemplate.compile("\u0416", pattern), Channels.newChannel(bytes), Charset.forName("UTF-8"), new Regex.CancellationSignalImpl());
+        assertEquals(new String(bytes.toByteArray(), "UTF-8"), "a\u0416d\u044F\u0416");
+    }
+
+    @Test
+    public void testParts() throws Exception {
+        Pattern pattern = Pattern.compile("(b)(c)?");
+        StringBuilder offsets = new StringBuilder();
+        StringBuilder result = new StringBuilder();
+        Regex.replaceParts("abcdb", pattern, ReplacementTemplate.compile("_$2$1_", pattern), part -> {
+            offsets.append(part.getFromSrc()).append(part.getToSrc()).append(part.getFromDst()).append(part.getToDst());
+            if (part.isMatched()) offsets.append('[').append(part.getGroupStart(2)).append(part.getGroupEnd(2)).append(']');
+            offsets.append(' ');
+            part.appendDst(result);
+        });
+        assertEquals(result.toString(), "a_cb_d_b_");
+        assertEquals(offsets.toString(), "0101 1315[23] 3456 4569[-1-1] ");
+    }
+
+    @Test
+    public void testPartsText() throws Exception {
+        StringBuilder result = new StringBuilder();
+        Regex.findParts("abcd", Pattern.compile("bc"), part -> result.append(part.getSrc()).append('|').append(part.getDst()).append(' '));
+        assertEquals(result.toString(), "a|a bc|bc d|d ");
+    }
+
+    /**
+     * Text for pattern "((a+)+)+(?=b)", which is exponential for backtracking matcher. Lookahead keeps it off {@link LinearRegexEngine}.
+     */
+    private static String catastrophicText() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 40; i++) builder.append('a');
+        return builder.toString();
+    }
+
+    @Test(expected = RegexTimeoutException.class, timeout = 10000)
+    public void testBudgetSteps() throws Exception {
+        Pattern pattern = Pattern.compile("((a+)+)+(?=b)");
+        Regex.replace(catastrophicText(), pattern, ReplacementTemplate.compile("B", pattern),
+                (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) -> {
+                }, new Regex.CancellationSignalImpl(), RegexBudget.ofSteps(1000000));
+    }
+
+    @Test(expected = RegexTimeoutException.class, timeout = 10000)
+    public void testBudgetTime() throws Exception {
+        Pattern pattern = Pattern.compile("((a+)+)+(?=b)");
+        Regex.replaceParts(catastrophicText(), pattern, ReplacementTemplate.compile("B", pattern), part -> {
+        }, new Regex.CancellationSignalImpl(), RegexBudget.ofTime(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testBudgetNotExceeded() throws Exception {
+        Pattern pattern = Pattern.compile("(bc)");
+        StringBuilder builder = new StringBuilder();
+        Regex.replace("abcdbc", pattern, ReplacementTemplate.compile("_$1_", pattern),
+                (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) -> builder.append(appendDst),
+                new Regex.CancellationSignalImpl(), new RegexBudget(10, TimeUnit.SECONDS, 1000000));
+        assertEquals(builder.toString(), "a_bc_d_bc_");
+    }
+
+    @Test
+    public void testProgress() throws Exception {
+        Pattern pattern = Pattern.compile("((a+)+)+(?=b)");
+        RegexProgress progress = new RegexProgress();
+        try {
+            Regex.replaceParts("xx" + catastrophicText(), pattern, ReplacementTemplate.compile("B", pattern), part -> {
+            }, new Regex.CancellationSignalImpl(), RegexBudget.ofSteps(1000000), progress);
+        } catch (RegexTimeoutException e) {
+            assertEquals(e.getSteps() > 1000000, true);
+        }
+        assertEquals(progress.isFinished(), true);
+        assertEquals(progress.getPosition() > 2, true);
+        assertEquals(progress.get() < 1, true);
+
+        Regex.replaceParts("abcd", pattern, ReplacementTemplate.compile("B", pattern), part -> {
+        }, new Regex.CancellationSignalImpl(), RegexBudget.UNLIMITED, progress);
+        assertEquals(progress.get(), 1f, 0);
+        assertEquals(progress.getPosition(), 4);
+    }
+
+    @Test(timeout = 10000)
+    public void testCancellationInsideSearch() throws Exception {
+        Regex.CancellationSignalImpl cancellationSignal = new Regex.CancellationSignalImpl();
+        AtomicInteger calls = new AtomicInteger(0);
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+            cancellationSignal.cancel();
+        }).start();
+        Regex.find(catastrophicText(), Pattern.compile("((a+)+)+(?=b)"),
+                (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) -> calls.incrementAndGet(),
+                cancellationSignal);
+        assertEquals(calls.get(), 0);
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        List<RegexRunStats> runs = new ArrayList<>();
+        RegexMetrics.Aggregator aggregator = new RegexMetrics.Aggregator(runs::add);
+        RegexMetrics.setReporter(aggregator);
+        try {
+            Pattern pattern = Pattern.compile("(bc)");
+            assertEquals(Regex.replace("abcdbc", pattern, "_$1_"), "a_bc_d_bc_");
+            Regex.replace("abcd", pattern, "X", (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) -> {
+            });
+            Regex.find("bcd", Pattern.compile("c"), (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) -> {
+            });
+        } finally {
+            RegexMetrics.setReporter(null);
+        }
+        assertEquals(runs.size(), 3);
+        RegexRunStats stats = runs.get(0);
+        assertEquals(stats.isCompleted(), true);
+        assertEquals(stats.getCharsScanned(), 6);
+        assertEquals(stats.getMatchCount(), 2);
+        assertEquals(stats.getCharsEmitted(), 10);
+        assertEquals(stats.getTotalNanos() >= stats.getMatchNanos() + stats.getListenerNanos(), true);
+        assertEquals(runs.get(1).getCharsEmitted(), 3);
+
+        List<RegexMetrics.PatternTotals> totals = aggregator.snapshot();
+        assertEquals(totals.size(), 2);
+        assertEquals(totals.get(0).getRegex(), "(bc)");
+        assertEquals(totals.get(0).getRunCount(), 2);
+        assertEquals(totals.get(0).getMatchCount(), 3);
+        assertEquals(totals.get(0).getCharsScanned(), 10);
+        assertEquals(totals.get(1).getMatchCount(), 1);
+
+        Regex.replace("abcd", "b", "B");
+        assertEquals(runs.size(), 3);
+    }
+
+    @Test
+    public void testQueries() throws Exception {
+        String text = "a1b22c333 d4444";
+        String[] regexes = {"\\d+", "\\d", "c", "33", "q", "(?<=\\d)[a-z]", "x*"};
+        for (String regex : regexes) {
+            Pattern pattern = Pattern.compile(regex);
+            MatchIndex all = Regex.findAll(text, pattern);
+            assertEquals(regex, Regex.count(text, pattern), all.size());
+            assertEquals(regex, Regex.exists(text, pattern), all.size() > 0);
+            MatchIndex first = Regex.first(text, pattern, 2);
+            assertEquals(regex, first.size(), Math.min(2, all.size()));
+            for (int k = 0; k < first.size(); k++) {
+                assertEquals(regex, first.start(k), all.start(k));
+                assertEquals(regex, first.end(k), all.end(k));
+            }
+        }
+        assertEquals(Regex.first(text, Pattern.compile("\\d"), 0).size(), 0);
+        assertEquals(Regex.first(text, Pattern.compile("\\d"), 100).size(), 10);
+    }
+
+    @Test
+    public void testQueriesCanceled() throws Exception {
+        CancellationSignalImpl cancellationSignal = new CancellationSignalImpl();
+        cancellationSignal.cancel();
+        assertEquals(Regex.count("aaa", Pattern.compile("a"), cancellationSignal), 0);
+        assertEquals(Regex.exists("aaa", Pattern.compile("a"), cancellationSignal), false);
+
+        // stopped after first match by signal checked between matches
+        Regex.CancellationSignal afterFirst = new Regex.CancellationSignal() {
+            int mChecks;
+
+            @Override
+            public boolean isCanceled() {
+                return mChecks++ > 0;
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+        assertEquals(Regex.count("abababab", Pattern.compile("b"), afterFirst), 1);
+    }
+
+    @Test
+    public void testRxQueries() throws Exception {
+        Pattern pattern = Pattern.compile("b");
+        RxRegex.exists("abcabc", pattern).test().assertValue(true).assertComplete();
+        RxRegex.count("abcabc", pattern).test().assertValue(2).assertComplete();
+        RxRegex.first("abcabc", pattern, 1).test().assertValue(index -> index.size() == 1 && index.start(0) == 1).assertComplete();
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testExceptionEmpty() throws Exception {
         Regex.replace("abcd", "", "1");
@@ -0,0 +1,68 @@
+package ru.lazard.rxregex;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ */
+public class ReplacedTextUnitTest {
+
+    private static void check(String text, String regex, String replacement) throws Exception {
+        Pattern pattern = Pattern.compile(regex);
+        String expected = Regex.replace(text, pattern, replacement);
+        ReplacedText result = Regex.replaceLazy(text, pattern, replacement);
+        String message = regex + " -> " + replacement;
+        assertEquals(message, result.length(), expected.length());
+        assertEquals(message, result.toString(), expected);
+        for (int i = 0; i < expected.length(); i++) assertEquals(message, result.charAt(i), expected.charAt(i));
+        for (int i = expected.length() - 1; i >= 0; i -= 3) assertEquals(message, result.charAt(i), expected.charAt(i));
+        Random random = new Random(text.length());
+        for (int i = 0; i < 200; i++) {
+            int start = random.nextInt(expected.length() + 1);
+            int end = start + random.nextInt(expected.length() - start + 1);
+            assertEquals(message, result.subSequence(start, end).toString(), expected.substring(start, end));
+            StringWriter writer = new StringWriter();
+            result.writeTo(writer, start, end);
+            assertEquals(message, writer.toString(), expected.substring(start, end));
+        }
+        StringBuilder builder = new StringBuilder();
+        result.writeTo(builder);
+        assertEquals(message, builder.toString(), expected);
+    }
+
+    @Test
+    public void testSameAsReplace() throws Exception {
+        Random random = new Random(3);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 500; i++) builder.append("aab c".charAt(random.nextInt(5)));
+        String text = builder.toString();
+        check(text, "a", "");
+        check(text, "a+", "<$0>");
+        check(text, "(a)(b)", "$2$1$2");
+        check(text, "b", "b");
+        check(text, "c", "$0");
+        check(text, "(?<=a)b(?=\\s)", "LONG REPLACEMENT");
+        check(text, "q", "x");
+        check("aaaa", "a", "");
+        check("aaaa", "aaaa", "");
+    }
+
+    @Test
+    public void testMatchCount() throws Exception {
+        ReplacedText result = Regex.replaceLazy("one two three", Pattern.compile("t\\w+"), "T");
+        assertEquals(result.getMatchCount(), 2);
+        assertEquals(result.toString(), "one T T");
+        assertEquals(result.getSource(), "one two three");
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testOutOfBounds() throws Exception {
+        Regex.replaceLazy("abc", Pattern.compile("b"), "BB").charAt(4);
+    }
+}
@@ -0,0 +1,102 @@
+package ru.lazard.rxregex;
+
+import org.junit.Test;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ *
+ */
+public class ReplacementTemplateUnitTest {
+
+    private static String evaluate(String text, String regex, String replacement) {
+        Pattern pattern = Pattern.compile(regex);
+        Matcher matcher = pattern.matcher(text);
+        matcher.find();
+        ReplacementTemplate template = ReplacementTemplate.compile(replacement, pattern);
+        assertEquals(template.length(matcher), template.evaluate(text, matcher).length());
+        return template.evaluate(text, matcher);
+    }
+
+    @Test
+    public void testGroups() throws Exception {
+        assertEquals(evaluate("abcd", "(b)(c)", "$2$1$0"), "cbbc");
+    }
+
+    @Test
+    public void testEscapes() throws Exception {
+        assertEquals(evaluate("abcd", "(bc)", "_$1_\\n\\r\\t\n\r\t"), "_bc_\n\r\t\n\r\t");
+        assertEquals(evaluate("abcd", "bc", "\\a"), "\\a");
+    }
+
+    @Test
+    public void testDollarWithoutGroup() throws Exception {
+        assertEquals(evaluate("abcd", "bc", "$a$"), "a");
+    }
+
+    @Test
+    public void testMultiDigitGroup() throws Exception {
+        String regex = "(a)(b)(c)(d)(e)(f)(g)(h)(i)(j)(k)(l)";
+        assertEquals(evaluate("abcdefghijkl", regex, "$12"), "l");
+        assertEquals(evaluate("abcdefghijkl", regex, "$13"), "a3");
+        assertEquals(evaluate("ab", "(a)(b)", "$12"), "a2");
+    }
+
+    @Test
+    public void testNamedGroup() throws Exception {
+        assertEquals(evaluate("900-1234", "(?<area>\\d{3})-(?:[-(])?(?<number>\\d{4})", "${number}/${area}"), "1234/900");
+        assertEquals(evaluate("a(b)c", "\\((?<x>b)\\)", "${x}"), "b");
+        assertEquals(evaluate("ab", "[(](?<x>a)|(?<y>ab)", "${y}"), "ab");
+    }
+
+    @Test
+    public void testNotMatchedGroup() throws Exception {
+        assertEquals(evaluate("b", "(a)?b", "[$1]"), "[]");
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testUnknownGroup() throws Exception {
+        ReplacementTemplate.compile("$2", Pattern.compile("(a)"));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testUnknownGroupWithoutMatch() throws Exception {
+        // template is compiled before search, so text without matches throws too
+        Regex.replace("xyz", "(a)", "$2");
+    }
+
+    @Test
+    public void testNotMatchedGroupReplace() throws Exception {
+        assertEquals(Regex.replace("b ab", "(a)?b", "[$1]"), "[] [a]");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownGroupName() throws Exception {
+        ReplacementTemplate.compile("${b}", Pattern.compile("(?<a>a)"));
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void testTrailingEscape() throws Exception {
+        ReplacementTemplate.compile("a\\", Pattern.compile("a"));
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        PatternCache cache = new PatternCache(4);
+        Pattern pattern = cache.get("(a)", 0);
+        ReplacementTemplate template = cache.getTemplate(pattern, "$1");
+        assertSame(cache.getTemplate(pattern, "$1"), template);
+        assertEquals(cache.getHitCount(), 1);
+        assertEquals(cache.size(), 2);
+    }
+
+    @Test
+    public void testRegexReplace() throws Exception {
+        Pattern pattern = Pattern.compile("(?<b>bc)");
+        assertEquals(Regex.replace("abcdbc", pattern, ReplacementTemplate.compile("_${b}_", pattern)), "a_bc_d_bc_");
+    }
+}
@@ -0,0 +1,156 @@
+package ru.lazard.rxregex;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ */
+public class ResultCacheUnitTest {
+
+    private static String parts(String text, Pattern pattern, String replacement, Regex.CancellationSignal cancellationSignal) {
+        StringBuilder builder = new StringBuilder();
+        Regex.replace(text, pattern, replacement,
+                (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) ->
+                        builder.append(fromSrc).append(',').append(toSrc).append(',').append(appendSrc).append(',')
+                                .append(fromDst).append(',').append(toDst).append(',').append(appendDst).append(',')
+                                .append(isMatched).append(',').append(progress).append(',').append(matchedCount).append(';'),
+                cancellationSignal);
+        return builder.toString();
+    }
+
+    private static String parts(String text, Pattern pattern, String replacement) {
+        return parts(text, pattern, replacement, new Regex.CancellationSignalFake());
+    }
+
+    @Test
+    public void testReplaySameAsRun() throws Exception {
+        String[][] cases = {
+                {"a+", "<$0>", "xaaybaa"},
+                {"(a|b)c", "$1", "acbcc"},
+                {"b", "BB", "abcb"},
+                {"[^\\n]+", "-", "12\n34\n"},
+                {"x", "y", ""},
+                {"\\d+", "$0", "12 ab 345"},
+        };
+        ResultCache cache = new ResultCache();
+        try {
+            for (String[] test : cases) {
+                Pattern pattern = Pattern.compile(test[0]);
+                ResultCache.setDefault(null);
+                String expected = parts(test[2], pattern, test[1]);
+                ResultCache.setDefault(cache);
+                assertEquals(parts(test[2], pattern, test[1]), expected);
+                assertEquals(parts(test[2], pattern, test[1]), expected);
+            }
+        } finally {
+            ResultCache.setDefault(null);
+        }
+        assertEquals(cache.getMissCount(), cases.length);
+        assertEquals(cache.getHitCount(), cases.length);
+        assertEquals(cache.getHitRate(), 0.5f, 0f);
+        assertEquals(cache.size(), cases.length);
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        ResultCache cache = new ResultCache();
+        ResultCache.setDefault(cache);
+        try {
+            parts("abcabc", Pattern.compile("b"), "B");
+            parts("abcabc", Pattern.compile("b"), "X");
+            parts("abcabc", Pattern.compile("B", Pattern.CASE_INSENSITIVE), "B");
+            parts("abcabd", Pattern.compile("b"), "B");
+            assertEquals(cache.getHitCount(), 0L);
+            assertEquals(parts("abcabc", Pattern.compile("b"), "X"), "0,1,a,0,1,a,false,0.16666667,1;1,2,b,1,2,X,true,0.33333334,1;"
+                    + "2,4,ca,2,4,ca,false,0.6666667,2;4,5,b,4,5,X,true,0.8333333,2;5,6,c,5,6,c,false,1.0,2;");
+            assertEquals(cache.getHitCount(), 1L);
+        } finally {
+            ResultCache.setDefault(null);
+        }
+    }
+
+    @Test
+    public void testMetricsAndProgress() throws Exception {
+        List<RegexRunStats> runs = new ArrayList<>();
+        RegexMetrics.Aggregator aggregator = new RegexMetrics.Aggregator(runs::add);
+        Pattern pattern = Pattern.compile("b");
+        ReplacementTemplate template = ReplacementTemplate.compile("BB", pattern);
+        RegexProgress regexProgress = new RegexProgress();
+        List<String> positions = new ArrayList<>();
+        RegexMetrics.setReporter(aggregator);
+        ResultCache.setDefault(new ResultCache());
+        try {
+            for (int i = 0; i < 2; i++) {
+                List<Integer> runPositions = new ArrayList<>();
+                Regex.replace("abcabc", pattern, template,
+                        (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) -> runPositions.add(regexProgress.getPosition()),
+                        new Regex.CancellationSignalFake(), RegexBudget.UNLIMITED, regexProgress);
+                assertEquals(regexProgress.get(), 1f, 0f);
+                assertEquals(regexProgress.isFinished(), true);
+                positions.add(runPositions.toString());
+            }
+        } finally {
+            ResultCache.setDefault(null);
+            RegexMetrics.setReporter(null);
+        }
+        // replayed parts move progress as matched ones
+        assertEquals(positions.get(1), positions.get(0));
+        assertEquals(runs.size(), 2);
+        assertEquals(runs.get(0).isCacheHit(), false);
+        RegexRunStats stats = runs.get(1);
+        assertEquals(stats.isCacheHit(), true);
+        assertEquals(stats.isCompleted(), true);
+        assertEquals(stats.getCharsScanned(), runs.get(0).getCharsScanned());
+        assertEquals(stats.getMatchCount(), runs.get(0).getMatchCount());
+        assertEquals(stats.getCharsEmitted(), runs.get(0).getCharsEmitted());
+        assertEquals(aggregator.snapshot().get(0).getCacheHitCount(), 1L);
+    }
+
+    @Test
+    public void testCanceledNotCached() throws Exception {
+        ResultCache cache = new ResultCache();
+        ResultCache.setDefault(cache);
+        try {
+            Regex.CancellationSignalImpl cancellationSignal = new Regex.CancellationSignalImpl();
+            Regex.replace("abab", Pattern.compile("b"), "B",
+                    (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) -> cancellationSignal.cancel(),
+                    cancellationSignal);
+            assertEquals(cache.size(), 0);
+            parts("abab", Pattern.compile("b"), "B");
+            assertEquals(cache.size(), 1);
+        } finally {
+            ResultCache.setDefault(null);
+        }
+    }
+
+    @Test
+    public void testMaxBytes() throws Exception {
+        ResultCache cache = new ResultCache(2000);
+        ResultCache.setDefault(cache);
+        try {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                builder.append("ab ");
+                parts(builder.toString(), Pattern.compile("a(b)"), "<$1>");
+                assertEquals(cache.getBytes() <= 2000, true);
+            }
+            assertEquals(cache.getEvictionCount() > 0, true);
+            // too big result isn't cached
+            for (int i = 0; i < 1000; i++) builder.append("ab ");
+            parts(builder.toString(), Pattern.compile("a(b)"), "<$1>");
+            parts(builder.toString(), Pattern.compile("a(b)"), "<$1>");
+            assertEquals(cache.getHitCount(), 0L);
+            cache.setMaxBytes(1);
+            assertEquals(cache.size(), 0);
+            assertEquals(cache.getBytes(), 0L);
+        } finally {
+            ResultCache.setDefault(null);
+        }
+    }
+}
@@ -2,6 +2,16 @@ package ru.lazard.rxregex;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import io.reactivex.Flowable;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subscribers.TestSubscriber;
+
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -37,6 +47,15 @@ public class RxRegexUnitTest {
                 .subscribe((string) -> assertEquals(string, "aBCd"));
     }
 
+    @Test
+    public void testRxReplaceMulti() throws Exception {
+        MultiRegex multiRegex = MultiRegex.compile(new MultiRegex.Rule("b", "B"), new MultiRegex.Rule("c|d", "_"));
+        RxRegex.replace("abcd", multiRegex)
+                .map(onAppend -> onAppend.getAppendDst() + onAppend.getRuleIndex())
+                .reduce("", (string, part) -> string + part)
+                .subscribe((string) -> assertEquals(string, "a-1B0-1_1-1_1"));
+    }
+
     @Test
     public void testRxFind() throws Exception {
         RxRegex.find("abcd", "bc", 0)
@@ -76,4 +95,175 @@ public class RxRegexUnitTest {
                 .subscribe(onAppend -> {
                 }, error -> assertEquals(true, error instanceof IllegalArgumentException));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRxBudget() throws Exception {
+        Pattern pattern = Pattern.compile("((a+)+)+(?=b)");
+        RxRegex.replace("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa", pattern, ReplacementTemplate.compile("B", pattern), RegexBudget.ofSteps(1000000))
+                .test()
+                .awaitDone(10, TimeUnit.SECONDS)
+                .assertError(RegexTimeoutException.class);
+    }
+
+    @Test(timeout = 10000)
+    public void testFlowableCancelInsideSearch() throws Exception {
+        // exponential search is stopped by cancel, run is reported as not completed
+        List<RegexRunStats> runs = new ArrayList<>();
+        CountDownLatch reported = new CountDownLatch(2);
+        RegexMetrics.setReporter(stats -> {
+            synchronized (runs) {
+                runs.add(stats);
+            }
+            reported.countDown();
+        });
+        try {
+            RxRegex.findFlowable("abcabc", "b").test().assertValueCount(5).assertComplete();
+            Pattern pattern = Pattern.compile("((a+)+)+(?=b)");
+            TestSubscriber<RxRegex.OnAppend> subscriber = RxRegex.replaceFlowable("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa", pattern, "B")
+                    .subscribeOn(Schedulers.io())
+                    .test();
+            Thread.sleep(100);
+            subscriber.cancel();
+            reported.await();
+        } finally {
+            RegexMetrics.setReporter(null);
+        }
+        assertEquals(runs.get(0).isCompleted(), true);
+        assertEquals(runs.get(1).isCompleted(), false);
+    }
+
+    @Test
+    public void testRxProgress() throws Exception {
+        RegexProgress regexProgress = new RegexProgress();
+        Pattern pattern = Pattern.compile("b");
+        RxRegex.replace("abcd", pattern, ReplacementTemplate.compile("B", pattern), RegexBudget.UNLIMITED, regexProgress)
+                .test()
+                .assertValueCount(3)
+                .assertComplete();
+        RxRegex.progress(regexProgress, 1, TimeUnit.MILLISECONDS)
+                .test()
+                .awaitDone(10, TimeUnit.SECONDS)
+                .assertValues(1f)
+                .assertComplete();
+    }
+
+    private static Flowable<RxRegex.Document<Integer>> documents(int count) {
+        return Flowable.range(0, count).map(id -> new RxRegex.Document<>(id, "doc " + id + " b" + id));
+    }
+
+    @Test
+    public void testDocumentsOrdered() throws Exception {
+        List<RxRegex.OnDocument<Integer>> results = RxRegex.replaceDocuments(documents(50), Pattern.compile("b(\\d+)"), "<$1>", Schedulers.computation(), 4, true)
+                .toList()
+                .blockingGet();
+        assertEquals(results.size(), 50);
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(results.get(i).getId(), (Integer) i);
+            assertEquals(results.get(i).getResult(), "doc " + i + " <" + i + ">");
+            assertEquals(results.get(i).getMatchedCount(), 1);
+        }
+    }
+
+    @Test
+    public void testDocumentsUnordered() throws Exception {
+        List<Integer> ids = RxRegex.replaceDocuments(documents(50), "B", Pattern.CASE_INSENSITIVE, "_", Schedulers.computation(), 4, false)
+                .map(RxRegex.OnDocument::getId)
+                .toSortedList()
+                .blockingGet();
+        assertEquals(ids.size(), 50);
+        for (int i = 0; i < ids.size(); i++) assertEquals(ids.get(i), (Integer) i);
+    }
+
+    @Test
+    public void testDocumentsBackpressure() throws Exception {
+        List<Long> requests = new ArrayList<>();
+        TestSubscriber<RxRegex.OnDocument<Integer>> subscriber = RxRegex.replaceDocuments(documents(100).doOnRequest(requests::add),
+                Pattern.compile("b"), "B", Schedulers.trampoline(), 3, false)
+                .test(0);
+        assertEquals(requests.get(0), (Long) 3L);
+        subscriber.request(Long.MAX_VALUE);
+        subscriber.assertValueCount(100).assertComplete();
+    }
+
+    @Test
+    public void testFlowableReplace() throws Exception {
+        String result = RxRegex.replaceFlowable("abcdbc", "(b)c", "_$1_", 0)
+                .reduce(new StringBuffer(), (stringBuffer, onAppend) -> stringBuffer.append(onAppend.getAppendDst()))
+                .blockingGet().toString();
+        assertEquals(result, "a_b_d_b_");
+    }
+
+    @Test
+    public void testFlowableFind() throws Exception {
+        RxRegex.findFlowable("abcd", "bc")
+                .filter(RxRegex.OnAppend::isMatched)
+                .test()
+                .assertValueCount(1)
+                .assertComplete();
+    }
+
+    @Test
+    public void testFlowableBackpressure() throws Exception {
+        TestSubscriber<RxRegex.OnAppend> subscriber = RxRegex.replaceFlowable("abcabcabc", "b", "B").test(0);
+        subscriber.assertNoValues();
+        subscriber.request(2);
+        subscriber.assertValueCount(2).assertNotComplete();
+        subscriber.request(Long.MAX_VALUE);
+        subscriber.assertValueCount(7).assertComplete();
+    }
+
+    @Test
+    public void testFlowableError() throws Exception {
+        RxRegex.findFlowable("abcd", "")
+                .test()
+                .assertError(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testBatched() throws Exception {
+        List<RxRegex.OnAppendBatch> batches = RxRegex.replaceBatched("abcabcabc", Pattern.compile("(b)"), "_$1_", 3, 1, TimeUnit.HOURS)
+                .toList().blockingGet();
+        assertEquals(batches.size(), 3);
+        assertEquals(batches.get(0).size(), 3);
+        assertEquals(batches.get(2).size(), 1);
+        StringBuilder result = new StringBuilder();
+        for (RxRegex.OnAppendBatch batch : batches) {
+            for (int i = 0; i < batch.size(); i++) result.append(batch.getAppendDst(i));
+        }
+        assertEquals(result.toString(), "a_b_ca_b_ca_b_c");
+        assertEquals(batches.get(0).getAppendSrc(1), "b");
+        assertEquals(batches.get(0).getToDst(1), 4);
+        assertEquals(batches.get(0).get(1).getMatchedCount(), 1);
+    }
+
+    @Test
+    public void testBatchedLatency() throws Exception {
+        RxRegex.findBatched("abcabcabc", Pattern.compile("b"), 100, 0, TimeUnit.MILLISECONDS)
+                .test()
+                .assertValueCount(7)
+                .assertComplete();
+    }
+
+    @Test
+    public void testBatchedLatencyDuringSearch() throws Exception {
+        // after "b" matcher searches long without parts, lookahead keeps pattern on java matcher
+        StringBuilder text = new StringBuilder("b");
+        for (int i = 0; i < 2000; i++) text.append('x');
+        List<RxRegex.OnAppendBatch> batches = RxRegex.findBatched(text.toString(), Pattern.compile("b|x+(?=y)"), 1000, 1, TimeUnit.MILLISECONDS)
+                .toList().blockingGet();
+        // empty gap and "b" are flushed while searching, not together with following gap
+        assertEquals(batches.size(), 2);
+        assertEquals(batches.get(0).size(), 2);
+        assertEquals(batches.get(0).getAppendSrc(1), "b");
+        assertEquals(batches.get(1).getFromSrc(0), 1);
+    }
+
+    @Test
+    public void testBatchedHugeSize() throws Exception {
+        // arrays grow with parts, not allocated by maximum size
+        RxRegex.OnAppendBatch batch = RxRegex.findBatched("abcabcabc", Pattern.compile("b"), Integer.MAX_VALUE, 1, TimeUnit.HOURS)
+                .blockingSingle();
+        assertEquals(batch.size(), 7);
+        assertEquals(batch.getAppendSrc(6), "c");
+    }
+}
@@ -0,0 +1,191 @@
+package ru.lazard.rxregex;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class StreamRegexUnitTest {
+
+    private static String randomText(int length) {
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder(length);
+        String alphabet = "abcxy \n";
+        for (int i = 0; i < length; i++) builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return builder.toString();
+    }
+
+    private static void assertSameAsRegex(String text, Pattern pattern, String replacement) throws IOException {
+        StringBuilder expectedMatches = new StringBuilder();
+        String expected = Regex.replace(text, pattern, replacement);
+        Regex.find(text, pattern, (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) -> {
+            if (isMatched) expectedMatches.append(fromSrc).append('-').append(toSrc).append(',');
+        });
+
+        StringBuilder result = new StringBuilder();
+        StringBuilder matches = new StringBuilder();
+        long[] lastToSrc = new long[1];
+        StreamRegex.replace(new ChunkedReader(text, 1000), pattern, ReplacementTemplate.compile(replacement, pattern), 64,
+                (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) -> {
+                    assertEquals(fromSrc, lastToSrc[0]);
+                    assertEquals(appendSrc, text.substring((int) fromSrc, (int) toSrc));
+                    assertEquals(toDst - fromDst, appendDst.length());
+                    lastToSrc[0] = toSrc;
+                    result.append(appendDst);
+                    if (isMatched) matches.append(fromSrc).append('-').append(toSrc).append(',');
+                }, new Regex.CancellationSignalImpl());
+        assertEquals(lastToSrc[0], text.length());
+        assertEquals(matches.toString(), expectedMatches.toString());
+        assertEquals(result.toString(), expected);
+    }
+
+    @Test
+    public void testReplace() throws Exception {
+        String text = randomText(100000);
+        assertSameAsRegex(text, Pattern.compile("b+c"), "<$0>");
+        assertSameAsRegex(text, Pattern.compile("(x)(y)"), "$2$1");
+    }
+
+    @Test
+    public void testContext() throws Exception {
+        String text = randomText(100000);
+        assertSameAsRegex(text, Pattern.compile("\\bab\\b"), "_");
+        assertSameAsRegex(text, Pattern.compile("(?<=x)y"), "_");
+        assertSameAsRegex(text, Pattern.compile("^a", Pattern.MULTILINE), "_");
+        assertSameAsRegex(text, Pattern.compile("c$", Pattern.MULTILINE), "_");
+        assertSameAsRegex(text, Pattern.compile("^a"), "_");
+    }
+
+    @Test
+    public void testLongGaps() throws Exception {
+        String text = randomText(100000).replace('y', 'x') + "y";
+        assertSameAsRegex(text, Pattern.compile("y"), "Y");
+        assertSameAsRegex(text, Pattern.compile("z"), "Z");
+        assertSameAsRegex(text, Pattern.compile("x[^y]{0,40}y"), "_");
+    }
+
+    @Test
+    public void testReplaceWriter() throws Exception {
+        String text = randomText(100000);
+        Pattern pattern = Pattern.compile("(x)(y)");
+        StringWriter writer = new StringWriter();
+        StreamRegex.replace(new ChunkedReader(text, 1000), pattern, "$2$1", writer);
+        assertEquals(writer.toString(), Regex.replace(text, pattern, "$2$1"));
+    }
+
+    @Test
+    public void testReplaceFile() throws Exception {
+        String text = randomText(100000) + "\u044F";
+        Pattern pattern = Pattern.compile("b+c|\u044F");
+        Charset charset = Charset.forName("UTF-8");
+        File file = File.createTempFile("src", ".txt");
+        try {
+            FileOutputStream output = new FileOutputStream(file);
+            output.write(text.getBytes(charset));
+            output.close();
+
+            // in place
+            assertTrue(StreamRegex.replace(file, file, charset, pattern, "<$0>"));
+            FileInputStream input = new FileInputStream(file);
+            byte[] bytes = new byte[(int) file.length()];
+            new DataInputStream(input).readFully(bytes);
+            input.close();
+            assertEquals(new String(bytes, charset), Regex.replace(text, pattern, "<$0>"));
+
+            Regex.CancellationSignal canceled = new Regex.CancellationSignalImpl();
+            canceled.cancel();
+            assertFalse(StreamRegex.replace(file, file, charset, pattern, ReplacementTemplate.compile("", pattern), 64, canceled));
+            assertEquals(file.length(), bytes.length);
+            assertEquals(file.getParentFile().listFiles((dir, name) -> name.startsWith(file.getName()) && name.endsWith(".tmp")).length, 0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testInputStream() throws Exception {
+        StringBuilder result = new StringBuilder();
+        StreamRegex.replace(new ByteArrayInputStream("abcd".getBytes("UTF-8")), Charset.forName("UTF-8"), Pattern.compile("bc"), "BC",
+                (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) -> result.append(appendDst));
+        assertEquals(result.toString(), "aBCd");
+    }
+
+    @Test
+    public void testChannel() throws Exception {
+        StringBuilder result = new StringBuilder();
+        StreamRegex.find(Channels.newChannel(new ByteArrayInputStream("abcd".getBytes("UTF-8"))), Charset.forName("UTF-8"), Pattern.compile("bc"),
+                (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) -> {
+                    if (isMatched) result.append(fromSrc).append(appendDst).append(toSrc);
+                });
+        assertEquals(result.toString(), "1bc3");
+    }
+
+    @Test
+    public void testRxStream() throws Exception {
+        RxRegex.replaceStream(() -> new StringReader("abcd"), Pattern.compile("bc"), "BC", 16)
+                .map(StreamRegex.OnAppend::getAppendDst)
+                .test()
+                .assertValues("a", "BC", "d")
+                .assertComplete();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExceptionEmpty() throws Exception {
+        StreamRegex.find(new StringReader("abcd"), Pattern.compile(""),
+                (fromSrc, toSrc, appendSrc, fromDst, toDst, appendDst, isMatched, progress, matchedCount) -> {
+                });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExceptionPreviousMatchAnchor() throws Exception {
+        // window is refilled inside of input, \G would match again at start of each search
+        StringBuilder text = new StringBuilder("x");
+        for (int i = 0; i < 40000; i++) text.append('a');
+        StreamRegex.replace(new ChunkedReader(text.toString(), 1000), Pattern.compile("\\Ga"), "b", new StringBuilder());
+    }
+
+    /**
+     * Reader which returns no more than <code>chunk</code> chars per read.
+     */
+    private static class ChunkedReader extends Reader {
+        private final String mText;
+        private final int mChunk;
+        private int mPos;
+
+        ChunkedReader(String text, int chunk) {
+            this.mText = text;
+            this.mChunk = chunk;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (mPos >= mText.length()) return -1;
+            int count = Math.min(Math.min(length, mChunk), mText.length() - mPos);
+            mText.getChars(mPos, mPos + count, buffer, offset);
+            mPos += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package ru.lazard.rxregex;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.reactivex.observers.TestObserver;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ */
+public class ViewportRegexUnitTest {
+
+    private static String randomText(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        String alphabet = "abcx1 \n";
+        for (int i = 0; i < length; i++) builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        return builder.toString();
+    }
+
+    private static String expected(String text, Pattern pattern, String replacement) {
+        StringBuilder builder = new StringBuilder();
+        Matcher matcher = pattern.matcher(text);
+        int appendPosition = 0;
+        while (matcher.find()) {
+            StringBuffer dst = new StringBuffer();
+            matcher.appendReplacement(dst, replacement);
+            builder.append(matcher.start()).append('-').append(matcher.end()).append(':')
+                    .append(dst.substring(matcher.start() - appendPosition)).append(' ');
+            appendPosition = matcher.end();
+        }
+        return builder.toString();
+    }
+
+    private static String actual(List<ViewportRegex.OnBlock> blocks) {
+        TreeMap<Integer, ViewportRegex.OnBlock> latest = new TreeMap<>();
+        for (ViewportRegex.OnBlock block : blocks) latest.put(block.getBlockIndex(), block);
+        StringBuilder builder = new StringBuilder();
+        for (ViewportRegex.OnBlock block : latest.values()) {
+            for (int i = 0; i < block.size(); i++) {
+                builder.append(block.getStart(i)).append('-').append(block.getEnd(i)).append(':').append(block.getDst(i)).append(' ');
+            }
+        }
+        return builder.toString();
+    }
+
+    private static List<ViewportRegex.OnBlock> run(ViewportRegex viewportRegex) {
+        List<ViewportRegex.OnBlock> blocks = new ArrayList<>();
+        viewportRegex.run(blocks::add, new Regex.CancellationSignalImpl());
+        return blocks;
+    }
+
+    private static void check(String regex, String replacement, int blockSize, int maxMatchLength, long seed) {
+        Random random = new Random(seed);
+        Pattern pattern = Pattern.compile(regex);
+        String text = randomText(random, 1000 + random.nextInt(1000));
+        ViewportRegex viewportRegex = new ViewportRegex(text, pattern, PatternCache.getDefault().getTemplate(pattern, replacement), blockSize, maxMatchLength);
+        int from = random.nextInt(text.length());
+        viewportRegex.setViewport(from, from + 100);
+        List<ViewportRegex.OnBlock> blocks = run(viewportRegex);
+        String message = regex + " seed " + seed + " block " + blockSize;
+        assertEquals(message, actual(blocks), expected(text, pattern, replacement));
+        if (ParallelRegex.isSplittable(pattern)) assertEquals(message, blocks.get(0).getBlockIndex(), from / blockSize);
+        assertEquals(message, blocks.get(blocks.size() - 1).getProgress(), 1f, 0f);
+    }
+
+    @Test
+    public void testSameAsMatcher() throws Exception {
+        for (long seed = 0; seed < 5; seed++) {
+            for (int blockSize : new int[]{1, 7, 64, 500}) {
+                check("a+", "<$0>", blockSize, 64, seed);
+                check("(a|b)c", "$1", blockSize, 64, seed);
+                check("\\bx\\w*", "", blockSize, 64, seed);
+                check("(?<=c)a(?=b)", "AAA", blockSize, 64, seed);
+                check("1[^\\n]*$", "#", blockSize, 64, seed);
+                check("[^\\n]*", "-", blockSize, 64, seed);
+                check("x?", "y", blockSize, 64, seed);
+                check("\\Gab", "_", blockSize, 64, seed);
+            }
+        }
+    }
+
+    @Test
+    public void testCorrection() throws Exception {
+        // match of first block crosses start of second block, which is matched first
+        ViewportRegex viewportRegex = new ViewportRegex("xaaaaaab", Pattern.compile("a+b?"), PatternCache.getDefault().getTemplate(Pattern.compile("a+b?"), "$0"), 4, 16);
+        viewportRegex.setViewport(5, 8);
+        List<ViewportRegex.OnBlock> blocks = run(viewportRegex);
+        assertEquals(blocks.size(), 3);
+        assertEquals(blocks.get(0).getBlockIndex(), 1);
+        assertEquals(blocks.get(0).isCorrection(), false);
+        assertEquals(blocks.get(0).getDst(0), "aaab");
+        assertEquals(blocks.get(1).getBlockIndex(), 0);
+        assertEquals(blocks.get(1).getDst(0), "aaaaaab");
+        assertEquals(blocks.get(2).getBlockIndex(), 1);
+        assertEquals(blocks.get(2).isCorrection(), true);
+        assertEquals(blocks.get(2).size(), 0);
+    }
+
+    @Test
+    public void testMaxMatchLength() throws Exception {
+        // found match reaching end of visible chars is continued to end of text
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100; i++) builder.append('a');
+        String text = builder.append('b').toString();
+        Pattern pattern = Pattern.compile("a+b?");
+        ViewportRegex viewportRegex = new ViewportRegex(text, pattern, PatternCache.getDefault().getTemplate(pattern, "$0"), 10, 2);
+        assertEquals(actual(run(viewportRegex)), expected(text, pattern, "$0"));
+    }
+
+    @Test
+    public void testFailedSearchHitsEnd() throws Exception {
+        // match starting in block isn't found until chars after region are visible
+        Pattern pattern = Pattern.compile("ab+c");
+        ViewportRegex viewportRegex = new ViewportRegex("xabbbbbc", pattern, PatternCache.getDefault().getTemplate(pattern, "$0"), 4, 0);
+        assertEquals(actual(run(viewportRegex)), "1-8:abbbbbc ");
+        for (long seed = 0; seed < 5; seed++) {
+            // region is widened up to block size after block
+            for (int blockSize : new int[]{64, 500}) {
+                check("a[^\\n]*1", "<$0>", blockSize, 0, seed);
+                check("(b\\w*)x", "$1", blockSize, 0, seed);
+                check("c[abc ]+?1", "", blockSize, 0, seed);
+            }
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testSparseMatches() throws Exception {
+        // failed search at end of each block doesn't run on to the next match or to end of text
+        StringBuilder builder = new StringBuilder(8 * 1024 * 1024).append("foobar ");
+        while (builder.length() < 8 * 1024 * 1024) builder.append("lorem ipsum dolor ");
+        String text = builder.toString();
+        Pattern pattern = Pattern.compile("\\bfoo\\w+");
+        ViewportRegex viewportRegex = new ViewportRegex(text, pattern, "$0");
+        viewportRegex.setViewport(text.length() / 2, text.length() / 2 + 1000);
+        List<ViewportRegex.OnBlock> blocks = run(viewportRegex);
+        int matches = 0;
+        for (ViewportRegex.OnBlock block : blocks) matches += block.size();
+        assertEquals(blocks.size(), (text.length() + ViewportRegex.DEFAULT_BLOCK_SIZE - 1) / ViewportRegex.DEFAULT_BLOCK_SIZE);
+        assertEquals(matches, Regex.findAll(text, pattern).size());
+    }
+
+    @Test
+    public void testRxViewport() throws Exception {
+        String text = randomText(new Random(1), 100000);
+        Pattern pattern = Pattern.compile("ab+c");
+        ViewportRegex viewportRegex = new ViewportRegex(text, pattern, "[$0]");
+        viewportRegex.setViewport(70000, 70100);
+        TestObserver<ViewportRegex.OnBlock> observer = RxRegex.replaceViewport(viewportRegex).test();
+        observer.awaitDone(10, TimeUnit.SECONDS);
+        observer.assertComplete();
+        assertEquals(observer.values().get(0).getFrom(), 70000 / ViewportRegex.DEFAULT_BLOCK_SIZE * ViewportRegex.DEFAULT_BLOCK_SIZE);
+        assertEquals(actual(observer.values()), expected(text, pattern, "[$0]"));
+    }
+}
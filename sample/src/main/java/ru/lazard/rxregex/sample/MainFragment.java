@@ -19,6 +19,7 @@ import butterknife.ButterKnife;
 import io.reactivex.Observable;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.schedulers.Schedulers;
+import ru.lazard.rxregex.ResultCache;
 import ru.lazard.rxregex.RxRegex;
 
 
@@ -44,6 +45,8 @@ public class MainFragment extends Fragment {
                              Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_main, container, false);
         ButterKnife.bind(this, view);
+        // the same text, regex and replacement are resubmitted after focus changes
+        if (ResultCache.getDefault() == null) ResultCache.setDefault(new ResultCache());
         startSubscriptions();
         mRegularExpressionView.setText("1(23)4");
         mReplacementView.setText("_A$1D_");